@@ -118,6 +118,8 @@ public class HiC {
     }
 
     public void reset() {
+        closeReader(dataset);
+        closeReader(controlDataset);
         dataset = null;
         controlDataset = null;
         displayOption = MatrixType.OBSERVED;
@@ -277,14 +279,22 @@ public class HiC {
     }
 
     public void setDataset(Dataset dataset) {
+        if (this.dataset != dataset) closeReader(this.dataset);
         this.dataset = dataset;
     }
 
+    private static void closeReader(Dataset dataset) {
+        if (dataset != null && dataset.getReader() != null) {
+            dataset.getReader().close();
+        }
+    }
+
     public Dataset getControlDataset() {
         return controlDataset;
     }
 
     public void setControlDataset(Dataset controlDataset) {
+        if (this.controlDataset != controlDataset) closeReader(this.controlDataset);
         this.controlDataset = controlDataset;
     }
 
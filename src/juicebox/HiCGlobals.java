@@ -63,13 +63,30 @@ public class HiCGlobals {
     public static final String defaultPropertiesURL = "http://hicfiles.tc4ga.com/juicebox.properties";
     public static final Color diffGrayColor = new Color(238, 238, 238);
     // for state saving
-    public static int MAX_PEARSON_ZOOM = 50000;
-    public static int MAX_EIGENVECTOR_ZOOM = 250000;
+    public static int MAX_PEARSON_ZOOM = 25000;
+    public static int MAX_EIGENVECTOR_ZOOM = 25000;
     // implement Map scaling with this global variable
     public static double hicMapScale = 1;
     // whether MatrixZoomData should cache or not
     public static boolean useCache = true;
+    // whether block reads reuse pooled streams instead of opening a new stream per block
+    public static boolean useStreamPool = true;
+    public static int maxPooledStreamsPerReader = 2 * getIdealThreadCount();
+    public static long pooledStreamIdleTimeoutMillis = 60000;
+    // threads of the per-reader block loader; reads are I/O bound, so more threads than cores
+    public static int numBlockLoaderThreads = 4 * getIdealThreadCount();
+    public static boolean useVirtualThreadsForBlockLoading = false;
+    // batches of blocks are fetched with merged sequential reads; gaps up to this size are read and discarded
+    public static boolean useCoalescedBlockReads = true;
+    public static int maxCoalescedBlockReadGap = 65536;
+    public static int maxCoalescedBlockReadSize = 16777216;
     public static boolean guiIsCurrentlyActive = false;
+    // uncached heatmap tiles of a view are rendered concurrently
+    public static boolean renderTilesInParallel = true;
+    // neighboring tiles and adjacent resolutions are rendered in the background after each repaint
+    public static boolean prefetchTiles = true;
+    // CPU HiCCUPS finishes each row with flat loops the JIT can vectorize, instead of pixel by pixel
+    public static boolean useBatchedHiCCUPSRows = true;
     public static boolean allowDynamicBlockIndex = true;
     public static boolean printVerboseComments = false;
     public static boolean slideshowEnabled = false;
@@ -94,6 +111,16 @@ public class HiCGlobals {
     // for norm/pre, save contact records into memory
     public static boolean USE_ITERATOR_NOT_ALL_IN_RAM = false;
     public static boolean CHECK_RAM_USAGE = false;
+    // for norm, pack the contact records into a compressed sparse row matrix instead of a list of records
+    public static boolean USE_CSR_MATRIX_FOR_NORMS = true;
+    // for norm, when the contact records don't fit in RAM or RAM is conserved, memory-map them from spill files
+    // in this directory (-t; null is the default temporary directory) instead of re-reading the blocks every iteration
+    public static boolean USE_SPILL_FILE_FOR_NORMS = true;
+    public static String NORM_SPILL_DIRECTORY = null;
+    // for pre, parse merged nodups lines at the byte level into reused pairs
+    public static boolean USE_BYTE_LEVEL_MND_PARSER = false;
+    // for pre, only the finest resolution of each unit is built from pairs; coarser ones sum its cells
+    public static boolean USE_RESOLUTION_PYRAMID_IN_PRE = true;
 
     public static void verifySupportedHiCFileVersion(int version) throws RuntimeException {
         if (version < minVersion) {
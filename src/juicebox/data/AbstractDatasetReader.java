@@ -45,12 +45,36 @@ import java.io.InputStreamReader;
  */
 public abstract class AbstractDatasetReader implements DatasetReader {
 
+    static final long BLOCK_LOADER_SHUTDOWN_MILLIS = 1000;
     final String path;
+    private BlockLoader blockLoader = null;
 
     AbstractDatasetReader(String path) {
         this.path = path;
     }
 
+    @Override
+    public synchronized BlockLoader getBlockLoader() {
+        if (blockLoader == null) {
+            blockLoader = new BlockLoader(path);
+        }
+        return blockLoader;
+    }
+
+    /**
+     * Stops the block loader's threads; a read after this starts a new loader
+     *
+     * @return true if no block read is still running
+     */
+    boolean shutdownBlockLoader() {
+        BlockLoader loader;
+        synchronized (this) {
+            loader = blockLoader;
+            blockLoader = null;
+        }
+        return loader == null || loader.shutdown(BLOCK_LOADER_SHUTDOWN_MILLIS);
+    }
+
     public String getPath() {
         return path;
     }
@@ -27,25 +27,29 @@ package juicebox.data;
 import htsjdk.tribble.util.LittleEndianInputStream;
 
 import java.io.IOException;
-import java.util.List;
 
+/**
+ * Decodes block records directly into the parallel binX / binY / counts arrays backing a Block.
+ * Each method returns the number of records written.
+ */
 public class BinReader {
-    public static void handleBinType(LittleEndianInputStream dis, byte type, int binXOffset, int binYOffset,
-                                     List<ContactRecord> records, boolean useShortBinX, boolean useShortBinY,
-                                     boolean useShort) throws IOException {
+    public static int handleBinType(LittleEndianInputStream dis, byte type, int binXOffset, int binYOffset,
+                                    int[] binXs, int[] binYs, float[] counts, boolean useShortBinX, boolean useShortBinY,
+                                    boolean useShort) throws IOException {
         if (type == 1) {
             if (useShortBinX && useShortBinY) {
-                handleBothShorts(dis, binXOffset, binYOffset, useShort, records);
+                return handleBothShorts(dis, binXOffset, binYOffset, useShort, binXs, binYs, counts);
             } else if (useShortBinX) {
-                handleShortX(dis, binXOffset, binYOffset, useShort, records);
+                return handleShortX(dis, binXOffset, binYOffset, useShort, binXs, binYs, counts);
             } else if (useShortBinY) {
-                handleShortY(dis, binXOffset, binYOffset, useShort, records);
+                return handleShortY(dis, binXOffset, binYOffset, useShort, binXs, binYs, counts);
             } else {
-                handleBothInts(dis, binXOffset, binYOffset, useShort, records);
+                return handleBothInts(dis, binXOffset, binYOffset, useShort, binXs, binYs, counts);
             }
         } else if (type == 2) {
             int nPts = dis.readInt();
             int w = dis.readShort();
+            int n = 0;
 
             for (int i = 0; i < nPts; i++) {
                 //int idx = (p.y - binOffset2) * w + (p.x - binOffset1);
@@ -55,74 +59,88 @@ public class BinReader {
                 int bin2 = binYOffset + row;
 
                 if (useShort) {
-                    short counts = dis.readShort();
-                    if (counts != Short.MIN_VALUE) {
-                        records.add(new ContactRecord(bin1, bin2, counts));
+                    short count = dis.readShort();
+                    if (count != Short.MIN_VALUE) {
+                        binXs[n] = bin1;
+                        binYs[n] = bin2;
+                        counts[n++] = count;
                     }
                 } else {
-                    float counts = dis.readFloat();
-                    if (!Float.isNaN(counts)) {
-                        records.add(new ContactRecord(bin1, bin2, counts));
+                    float count = dis.readFloat();
+                    if (!Float.isNaN(count)) {
+                        binXs[n] = bin1;
+                        binYs[n] = bin2;
+                        counts[n++] = count;
                     }
                 }
             }
+            return n;
         } else {
             throw new RuntimeException("Unknown block type: " + type);
         }
     }
 
-    private static void handleBothInts(LittleEndianInputStream dis, int binXOffset, int binYOffset, boolean useShort, List<ContactRecord> records) throws IOException {
+    private static int handleBothInts(LittleEndianInputStream dis, int binXOffset, int binYOffset, boolean useShort,
+                                      int[] binXs, int[] binYs, float[] counts) throws IOException {
+        int n = 0;
         int rowCount = dis.readInt();
         for (int i = 0; i < rowCount; i++) {
             int binY = binYOffset + dis.readInt();
             int colCount = dis.readInt();
             for (int j = 0; j < colCount; j++) {
-                int binX = binXOffset + dis.readInt();
-                float counts = useShort ? dis.readShort() : dis.readFloat();
-                records.add(new ContactRecord(binX, binY, counts));
+                binXs[n] = binXOffset + dis.readInt();
+                binYs[n] = binY;
+                counts[n++] = useShort ? dis.readShort() : dis.readFloat();
             }
         }
+        return n;
     }
 
-    private static void handleShortY(LittleEndianInputStream dis, int binXOffset, int binYOffset, boolean useShort,
-                                     List<ContactRecord> records) throws IOException {
+    private static int handleShortY(LittleEndianInputStream dis, int binXOffset, int binYOffset, boolean useShort,
+                                    int[] binXs, int[] binYs, float[] counts) throws IOException {
+        int n = 0;
         int rowCount = dis.readShort();
         for (int i = 0; i < rowCount; i++) {
             int binY = binYOffset + dis.readShort();
             int colCount = dis.readInt();
             for (int j = 0; j < colCount; j++) {
-                int binX = binXOffset + dis.readInt();
-                float counts = useShort ? dis.readShort() : dis.readFloat();
-                records.add(new ContactRecord(binX, binY, counts));
+                binXs[n] = binXOffset + dis.readInt();
+                binYs[n] = binY;
+                counts[n++] = useShort ? dis.readShort() : dis.readFloat();
             }
         }
+        return n;
     }
 
-    private static void handleShortX(LittleEndianInputStream dis, int binXOffset, int binYOffset, boolean useShort,
-                                     List<ContactRecord> records) throws IOException {
+    private static int handleShortX(LittleEndianInputStream dis, int binXOffset, int binYOffset, boolean useShort,
+                                    int[] binXs, int[] binYs, float[] counts) throws IOException {
+        int n = 0;
         int rowCount = dis.readInt();
         for (int i = 0; i < rowCount; i++) {
             int binY = binYOffset + dis.readInt();
             int colCount = dis.readShort();
             for (int j = 0; j < colCount; j++) {
-                int binX = binXOffset + dis.readShort();
-                float counts = useShort ? dis.readShort() : dis.readFloat();
-                records.add(new ContactRecord(binX, binY, counts));
+                binXs[n] = binXOffset + dis.readShort();
+                binYs[n] = binY;
+                counts[n++] = useShort ? dis.readShort() : dis.readFloat();
             }
         }
+        return n;
     }
 
-    private static void handleBothShorts(LittleEndianInputStream dis, int binXOffset, int binYOffset, boolean useShort,
-                                         List<ContactRecord> records) throws IOException {
+    private static int handleBothShorts(LittleEndianInputStream dis, int binXOffset, int binYOffset, boolean useShort,
+                                        int[] binXs, int[] binYs, float[] counts) throws IOException {
+        int n = 0;
         int rowCount = dis.readShort();
         for (int i = 0; i < rowCount; i++) {
             int binY = binYOffset + dis.readShort();
             int colCount = dis.readShort();
             for (int j = 0; j < colCount; j++) {
-                int binX = binXOffset + dis.readShort();
-                float counts = useShort ? dis.readShort() : dis.readFloat();
-                records.add(new ContactRecord(binX, binY, counts));
+                binXs[n] = binXOffset + dis.readShort();
+                binYs[n] = binY;
+                counts[n++] = useShort ? dis.readShort() : dis.readFloat();
             }
         }
+        return n;
     }
 }
@@ -27,30 +27,68 @@ package juicebox.data;
 //import java.awt.*;
 //import java.util.List;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Random;
+import java.util.RandomAccess;
 
 
 /**
+ * Contact records are stored column-wise in parallel primitive arrays rather than as ContactRecord objects.
+ * Use getNumRecords() with the indexed getters, or a Cursor, to iterate without allocating;
+ * getContactRecords() remains available as a (lazily materialized) view for legacy callers.
+ * Point and sub-rectangle lookups go through a row index (records ordered by binY, then binX)
+ * that is built on first use; see findRecord() and regionCursor().
+ *
  * @author jrobinso
  * @since Aug 10, 2010
  */
 public class Block {
 
+    private static final int[] EMPTY_BINS = new int[0];
+    private static final float[] EMPTY_COUNTS = new float[0];
+
     private final int number;
     private final String uniqueRegionID;
-    private final List<ContactRecord> records;
+    private int[] binXs;
+    private int[] binYs;
+    private float[] counts;
+    private int numRecords;
+    private volatile RowIndex rowIndex = null;
 
     public Block(int number, String regionID) {
-        this.number = number;
-        records = new ArrayList<>();
-        uniqueRegionID = regionID + "_" + number;
+        this(number, EMPTY_BINS, EMPTY_BINS, EMPTY_COUNTS, 0, regionID);
     }
 
     public Block(int number, List<ContactRecord> records, String regionID) {
         this.number = number;
-        this.records = records;
+        this.uniqueRegionID = regionID + "_" + number;
+        int n = records == null ? 0 : records.size();
+        binXs = new int[n];
+        binYs = new int[n];
+        counts = new float[n];
+        if (records != null) {
+            for (ContactRecord record : records) {
+                binXs[numRecords] = record.getBinX();
+                binYs[numRecords] = record.getBinY();
+                counts[numRecords] = record.getCounts();
+                numRecords++;
+            }
+        }
+    }
+
+    /**
+     * Takes ownership of the arrays; only the first numRecords entries are used.
+     */
+    public Block(int number, int[] binXs, int[] binYs, float[] counts, int numRecords, String regionID) {
+        this.number = number;
+        this.binXs = binXs;
+        this.binYs = binYs;
+        this.counts = counts;
+        this.numRecords = numRecords;
         this.uniqueRegionID = regionID + "_" + number;
     }
 
@@ -62,27 +100,312 @@ public class Block {
         return uniqueRegionID;
     }
 
+    public int getNumRecords() {
+        return numRecords;
+    }
+
+    public int getBinX(int index) {
+        return binXs[index];
+    }
+
+    public int getBinY(int index) {
+        return binYs[index];
+    }
+
+    public float getCounts(int index) {
+        return counts[index];
+    }
+
+    /**
+     * Rough heap footprint of this block, used to weigh it in the BlockCache
+     */
+    public long getEstimatedMemoryUsage() {
+        // object headers and fields, the three column arrays, and the region ID string
+        return 64 + 3 * 16 + 4L * (binXs.length + binYs.length + counts.length) + 40 + 2L * uniqueRegionID.length();
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * @return index of the record at (binX, binY), or -1 if this block has no such record
+     */
+    public int findRecord(int binX, int binY) {
+        RowIndex index = getRowIndex();
+        int row = Arrays.binarySearch(index.rowBinYs, binY);
+        if (row < 0) {
+            return -1;
+        }
+        int position = index.lowerBound(this, row, binX);
+        if (position < index.rowStarts[row + 1]) {
+            int record = index.recordAt(position);
+            if (getBinX(record) == binX) {
+                return record;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Iterates the records with minBinX <= binX <= maxBinX and minBinY <= binY <= maxBinY,
+     * visiting only the rows in range and binary searching the start column in each row
+     */
+    public RegionCursor regionCursor(int minBinX, int maxBinX, int minBinY, int maxBinY) {
+        return new RegionCursor(getRowIndex(), minBinX, maxBinX, minBinY, maxBinY);
+    }
+
+    RowIndex getRowIndex() {
+        RowIndex index = rowIndex;
+        if (index == null) {
+            index = new RowIndex(this);
+            rowIndex = index;
+        }
+        return index;
+    }
+
+    protected void addRecord(int binX, int binY, float count) {
+        if (numRecords == binXs.length) {
+            int newCapacity = Math.max(8, numRecords * 2);
+            binXs = Arrays.copyOf(binXs, newCapacity);
+            binYs = Arrays.copyOf(binYs, newCapacity);
+            counts = Arrays.copyOf(counts, newCapacity);
+        }
+        binXs[numRecords] = binX;
+        binYs[numRecords] = binY;
+        counts[numRecords] = count;
+        numRecords++;
+        rowIndex = null;
+    }
+
+    protected void setRecord(int index, int binX, int binY, float count) {
+        binXs[index] = binX;
+        binYs[index] = binY;
+        counts[index] = count;
+        rowIndex = null;
+    }
+
+    /**
+     * Legacy view of the records; each element is created on access, and set() writes back to the block.
+     */
     public List<ContactRecord> getContactRecords() {
-        return records;
+        return new ContactRecordView();
     }
 
     public List<ContactRecord> getContactRecords(double subsampleFraction, Random randomSubsampleGenerator) {
-        List<ContactRecord> newRecords = new ArrayList<>();
-        for (ContactRecord i : records) {
-            int newBinX = i.getBinX();
-            int newBinY = i.getBinY();
+        int n = getNumRecords();
+        List<ContactRecord> newRecords = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
             int newCounts = 0;
-            for (int j = 0; j < (int) i.getCounts(); j++) {
+            int count = (int) getCounts(i);
+            for (int j = 0; j < count; j++) {
                 if ( subsampleFraction <= 1 && subsampleFraction > 0 && randomSubsampleGenerator.nextDouble() <= subsampleFraction) {
                     newCounts += 1;
                 }
             }
-            newRecords.add(new ContactRecord(newBinX, newBinY, (float) newCounts));
+            newRecords.add(new ContactRecord(getBinX(i), getBinY(i), (float) newCounts));
         }
         return newRecords;
     }
 
     public void clear() {
-        records.clear();
+        binXs = EMPTY_BINS;
+        binYs = EMPTY_BINS;
+        counts = EMPTY_COUNTS;
+        numRecords = 0;
+        rowIndex = null;
+    }
+
+    /**
+     * Allocation-free iteration over the records:
+     * <pre>
+     * Block.Cursor cursor = block.cursor();
+     * while (cursor.next()) { ... cursor.getBinX() ... }
+     * </pre>
+     */
+    public class Cursor {
+        private int index = -1;
+
+        private final int size = getNumRecords();
+
+        public boolean next() {
+            return ++index < size;
+        }
+
+        public int getBinX() {
+            return Block.this.getBinX(index);
+        }
+
+        public int getBinY() {
+            return Block.this.getBinY(index);
+        }
+
+        public float getCounts() {
+            return Block.this.getCounts(index);
+        }
+    }
+
+    /**
+     * Region query over a block, created by {@link #regionCursor(int, int, int, int)}
+     */
+    public class RegionCursor {
+        private final RowIndex index;
+        private final int minBinX, maxBinX;
+        private final int endRow;
+        private int row;
+        private int position = 0, rowEnd = 0;
+        private int record = -1;
+
+        private RegionCursor(RowIndex index, int minBinX, int maxBinX, int minBinY, int maxBinY) {
+            this.index = index;
+            this.minBinX = minBinX;
+            this.maxBinX = maxBinX;
+            this.row = index.firstRowAtOrAfter(minBinY);
+            this.endRow = Math.max(row, index.firstRowAfter(maxBinY));
+        }
+
+        public boolean next() {
+            while (true) {
+                if (position < rowEnd) {
+                    record = index.recordAt(position++);
+                    if (Block.this.getBinX(record) <= maxBinX) {
+                        return true;
+                    }
+                    position = rowEnd;
+                }
+                if (row >= endRow) {
+                    return false;
+                }
+                position = index.lowerBound(Block.this, row, minBinX);
+                rowEnd = index.rowStarts[row + 1];
+                row++;
+            }
+        }
+
+        public int getIndex() {
+            return record;
+        }
+
+        public int getBinX() {
+            return Block.this.getBinX(record);
+        }
+
+        public int getBinY() {
+            return Block.this.getBinY(record);
+        }
+
+        public float getCounts() {
+            return Block.this.getCounts(record);
+        }
+    }
+
+    /**
+     * Records ordered by (binY, binX) and grouped into rows of equal binY. Blocks read from a .hic file are
+     * already in this order, so usually only the row boundaries are stored.
+     */
+    static class RowIndex {
+        // record positions in sorted order; null if the records are already sorted
+        private final int[] order;
+        private final int[] rowBinYs;
+        private final int[] rowStarts;
+
+        RowIndex(Block block) {
+            int n = block.getNumRecords();
+            boolean isSorted = true;
+            for (int i = 1; i < n && isSorted; i++) {
+                int previousY = block.getBinY(i - 1), y = block.getBinY(i);
+                isSorted = previousY < y || (previousY == y && block.getBinX(i - 1) <= block.getBinX(i));
+            }
+            order = isSorted ? null : sortedOrder(block);
+
+            int[] binYs = new int[n];
+            int[] starts = new int[n + 1];
+            int numRows = 0;
+            for (int position = 0; position < n; position++) {
+                int y = block.getBinY(recordAt(position));
+                if (numRows == 0 || binYs[numRows - 1] != y) {
+                    binYs[numRows] = y;
+                    starts[numRows] = position;
+                    numRows++;
+                }
+            }
+            starts[numRows] = n;
+            rowBinYs = Arrays.copyOf(binYs, numRows);
+            rowStarts = Arrays.copyOf(starts, numRows + 1);
+        }
+
+        private static int[] sortedOrder(final Block block) {
+            int n = block.getNumRecords();
+            Integer[] boxed = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                boxed[i] = i;
+            }
+            Arrays.sort(boxed, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    int compareY = Integer.compare(block.getBinY(a), block.getBinY(b));
+                    return compareY != 0 ? compareY : Integer.compare(block.getBinX(a), block.getBinX(b));
+                }
+            });
+            int[] sorted = new int[n];
+            for (int i = 0; i < n; i++) {
+                sorted[i] = boxed[i];
+            }
+            return sorted;
+        }
+
+        int recordAt(int position) {
+            return order == null ? position : order[position];
+        }
+
+        int firstRowAtOrAfter(int binY) {
+            int row = Arrays.binarySearch(rowBinYs, binY);
+            return row >= 0 ? row : -row - 1;
+        }
+
+        int firstRowAfter(int binY) {
+            int row = Arrays.binarySearch(rowBinYs, binY);
+            return row >= 0 ? row + 1 : -row - 1;
+        }
+
+        /**
+         * @return first position in the row whose binX is at least the given binX
+         */
+        int lowerBound(Block block, int row, int binX) {
+            int low = rowStarts[row];
+            int high = rowStarts[row + 1];
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (block.getBinX(recordAt(mid)) < binX) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    private class ContactRecordView extends AbstractList<ContactRecord> implements RandomAccess {
+
+        @Override
+        public ContactRecord get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+            return new ContactRecord(getBinX(index), getBinY(index), getCounts(index));
+        }
+
+        @Override
+        public ContactRecord set(int index, ContactRecord record) {
+            ContactRecord previous = get(index);
+            setRecord(index, record.getBinX(), record.getBinY(), record.getCounts());
+            return previous;
+        }
+
+        @Override
+        public int size() {
+            return getNumRecords();
+        }
     }
 }
@@ -0,0 +1,307 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.data;
+
+import com.google.common.cache.*;
+import juicebox.HiCGlobals;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Block cache shared by every MatrixZoomData in the process and bounded by the estimated size of the
+ * cached blocks in bytes, rather than by the number of blocks.
+ * <p>
+ * Each MatrixZoomData owns a BlockCache handle, which namespaces its keys within the shared cache
+ * (block keys are only unique within one file) and lets it clear just its own blocks. Closing a reader
+ * drops the blocks of all of its handles; see invalidateAll().
+ * <p>
+ * A NormalizedBlock view is only cached while its raw block is, and is dropped when the raw block is removed.
+ * Views are weighed by the arrays they own, so this keeps the shared raw arrays from being held by a view
+ * after their own entry, and its weight, is gone.
+ * <p>
+ * The budget is set with -Djuicebox.blockCache.maxBytes=... (suffixes k, m, g allowed), and defaults
+ * to a quarter of the max heap. Eviction is least recently used. There is no admission filter: Guava does not
+ * expose the entry it is about to evict, so a TinyLFU-style filter could not compare a new block's frequency
+ * with that of the block it would replace.
+ * <p>
+ * Guava splits the budget evenly over its segments and evicts within a segment, so the number of segments
+ * is chosen to give each at least MIN_SEGMENT_BYTES; otherwise a large block could be evicted as soon as
+ * it was inserted.
+ */
+public class BlockCache {
+
+    public static final String MAX_BYTES_PROPERTY = "juicebox.blockCache.maxBytes";
+    private static final long MIN_SEGMENT_BYTES = 256L << 20;
+
+    private static final AtomicLong residentBytes = new AtomicLong();
+    private static long maxBytes = readMaxBytesProperty();
+    private static volatile Cache<Key, Entry> sharedCache = buildCache(maxBytes);
+
+    // reader whose blocks are cached through this handle
+    private final DatasetReader reader;
+    private final Set<String> keys = ConcurrentHashMap.newKeySet();
+    // cached raw blocks, and the keys of the normalized views cached over each of them
+    private final Map<Block, String> rawBlockKeys = new ConcurrentHashMap<>();
+    private final Map<Block, Set<String>> viewKeys = new ConcurrentHashMap<>();
+
+    public BlockCache(DatasetReader reader) {
+        this.reader = reader;
+    }
+
+    public Block get(String key) {
+        Entry entry = sharedCache.getIfPresent(new Key(this, key));
+        return entry == null ? null : entry.block;
+    }
+
+    public boolean containsKey(String key) {
+        return sharedCache.asMap().containsKey(new Key(this, key));
+    }
+
+    public void put(String key, Block block) {
+        Key cacheKey = new Key(this, key);
+        Entry existing = sharedCache.asMap().get(cacheKey);
+        if (existing != null && existing.block == block) {
+            return;
+        }
+        Block rawBlock = block instanceof NormalizedBlock ? ((NormalizedBlock) block).getRawBlock() : null;
+        if (rawBlock != null) {
+            if (!rawBlockKeys.containsKey(rawBlock)) {
+                return;
+            }
+            viewKeys.computeIfAbsent(rawBlock, k -> ConcurrentHashMap.newKeySet()).add(key);
+        } else {
+            rawBlockKeys.put(block, key);
+        }
+
+        int size = estimateSize(block);
+        keys.add(key);
+        residentBytes.addAndGet(size);
+        sharedCache.put(cacheKey, new Entry(block, size));
+
+        // the raw block may have been evicted while the view was being added
+        if (rawBlock != null && !rawBlockKeys.containsKey(rawBlock)) {
+            sharedCache.invalidate(cacheKey);
+        }
+    }
+
+    /**
+     * Remove only the blocks that were cached through this handle
+     */
+    public void clear() {
+        Cache<Key, Entry> cache = sharedCache;
+        for (String key : keys) {
+            cache.invalidate(new Key(this, key));
+        }
+        keys.clear();
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * Remove every block cached for the given reader, through any of its handles, e.g. once it is closed
+     */
+    public static void invalidateAll(DatasetReader reader) {
+        Cache<Key, Entry> cache = sharedCache;
+        for (Key key : cache.asMap().keySet()) {
+            if (key.owner.reader == reader) {
+                cache.invalidate(key);
+            }
+        }
+    }
+
+    private static Cache<Key, Entry> buildCache(long maxBytes) {
+        return CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(new Weigher<Key, Entry>() {
+                    @Override
+                    public int weigh(Key key, Entry entry) {
+                        return entry.weight;
+                    }
+                })
+                .concurrencyLevel(getNumSegments(maxBytes))
+                .recordStats()
+                .removalListener(new RemovalListener<Key, Entry>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<Key, Entry> notification) {
+                        Entry entry = notification.getValue();
+                        if (entry != null) {
+                            residentBytes.addAndGet(-entry.weight);
+                        }
+                        Key key = notification.getKey();
+                        if (key != null && entry != null) {
+                            key.owner.onRemoval(key.blockKey, entry.block, notification.getCause());
+                        }
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * As many segments as threads, but never so many that a segment's share of the budget drops below MIN_SEGMENT_BYTES;
+     * rounded down to a power of two, since Guava rounds the segment count up
+     */
+    private static int getNumSegments(long maxBytes) {
+        long segmentsForBudget = Math.max(1, maxBytes / MIN_SEGMENT_BYTES);
+        int numSegments = (int) Math.max(1, Math.min(HiCGlobals.getIdealThreadCount(), segmentsForBudget));
+        return Integer.highestOneBit(numSegments);
+    }
+
+    /**
+     * Keeps this handle's bookkeeping in step with the cache, and drops the views of a raw block that was removed.
+     * A replaced view stays registered with its raw block, which at worst drops a newer view a little early.
+     */
+    private void onRemoval(String blockKey, Block block, RemovalCause cause) {
+        if (cause != RemovalCause.REPLACED) {
+            keys.remove(blockKey);
+        }
+        if (block instanceof NormalizedBlock) {
+            Block rawBlock = ((NormalizedBlock) block).getRawBlock();
+            Set<String> views = viewKeys.get(rawBlock);
+            if (views != null && cause != RemovalCause.REPLACED) {
+                views.remove(blockKey);
+                if (views.isEmpty() && !rawBlockKeys.containsKey(rawBlock)) {
+                    viewKeys.remove(rawBlock, views);
+                }
+            }
+        } else if (rawBlockKeys.remove(block, blockKey)) {
+            Set<String> views = viewKeys.remove(block);
+            if (views != null) {
+                for (String viewKey : views) {
+                    sharedCache.invalidate(new Key(this, viewKey));
+                }
+            }
+        }
+    }
+
+    private static int estimateSize(Block block) {
+        return (int) Math.min(Integer.MAX_VALUE, block.getEstimatedMemoryUsage());
+    }
+
+    private static long readMaxBytesProperty() {
+        String value = System.getProperty(MAX_BYTES_PROPERTY);
+        if (value != null) {
+            try {
+                return parseByteSize(value);
+            } catch (NumberFormatException e) {
+                System.err.println("Unable to parse " + MAX_BYTES_PROPERTY + "=" + value + "; using default block cache size");
+            }
+        }
+        return Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    public static long parseByteSize(String value) {
+        String v = value.trim().toLowerCase();
+        long multiplier = 1;
+        char last = v.charAt(v.length() - 1);
+        if (last == 'k') multiplier = 1L << 10;
+        else if (last == 'm') multiplier = 1L << 20;
+        else if (last == 'g') multiplier = 1L << 30;
+        if (multiplier > 1) v = v.substring(0, v.length() - 1);
+        return Long.parseLong(v) * multiplier;
+    }
+
+    /**
+     * @return true if the cache was explicitly sized rather than using the default budget
+     */
+    public static boolean hasConfiguredMaximumSize() {
+        return System.getProperty(MAX_BYTES_PROPERTY) != null;
+    }
+
+    /**
+     * Change the byte budget; everything currently cached is dropped.
+     */
+    public static synchronized void setMaximumSize(long bytes) {
+        Cache<Key, Entry> oldCache = sharedCache;
+        maxBytes = bytes;
+        sharedCache = buildCache(bytes);
+        oldCache.invalidateAll();
+    }
+
+    public static long getMaximumSize() {
+        return maxBytes;
+    }
+
+    public static long getResidentBytes() {
+        return residentBytes.get();
+    }
+
+    public static double getHitRate() {
+        return sharedCache.stats().hitRate();
+    }
+
+    public static long getEvictionCount() {
+        return sharedCache.stats().evictionCount();
+    }
+
+    public static String getStatistics() {
+        CacheStats stats = sharedCache.stats();
+        return String.format("Block cache: %d blocks, %.1f of %.1f MB resident, hit rate %.3f (%d hits, %d misses), %d evictions",
+                sharedCache.size(), residentBytes.get() / 1048576.0, maxBytes / 1048576.0,
+                stats.hitRate(), stats.hitCount(), stats.missCount(), stats.evictionCount());
+    }
+
+    /**
+     * Weight is fixed when the block is cached, so later changes to the block cannot skew the accounting
+     */
+    private static class Entry {
+        final Block block;
+        final int weight;
+
+        Entry(Block block, int weight) {
+            this.block = block;
+            this.weight = weight;
+        }
+    }
+
+    private static class Key {
+        final BlockCache owner;
+        final String blockKey;
+        private final int hash;
+
+        Key(BlockCache owner, String blockKey) {
+            this.owner = owner;
+            this.blockKey = blockKey;
+            this.hash = 31 * System.identityHashCode(owner) + blockKey.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return owner == other.owner && blockKey.equals(other.blockKey);
+        }
+    }
+}
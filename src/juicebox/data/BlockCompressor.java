@@ -0,0 +1,77 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.data;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses blocks with the chosen codec. Like the Deflater it wraps, an instance is not thread safe.
+ */
+public class BlockCompressor {
+
+    private final BlockCodec codec;
+    private final Deflater deflater;
+
+    public BlockCompressor(BlockCodec codec) {
+        this.codec = codec;
+        if (codec == BlockCodec.DEFLATE) {
+            deflater = new Deflater();
+            deflater.setLevel(Deflater.DEFAULT_COMPRESSION);
+        } else {
+            deflater = null;
+        }
+    }
+
+    public BlockCodec getCodec() {
+        return codec;
+    }
+
+    public byte[] compress(byte[] data) {
+        if (codec == BlockCodec.LZ4) {
+            return LZ4Compression.compress(data);
+        }
+
+        // Give the compressor the data to compress
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+
+        // Create an expandable byte array to hold the compressed data.
+        // You cannot use an array that's the same size as the orginal because
+        // there is no guarantee that the compressed data will be smaller than
+        // the uncompressed data.
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length);
+
+        // Compress the data
+        byte[] buf = new byte[1024];
+        while (!deflater.finished()) {
+            int count = deflater.deflate(buf);
+            bos.write(buf, 0, count);
+        }
+
+        return bos.toByteArray();
+    }
+}
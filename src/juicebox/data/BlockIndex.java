@@ -28,6 +28,7 @@ import htsjdk.tribble.util.LittleEndianInputStream;
 import juicebox.tools.utils.original.IndexEntry;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -51,6 +52,18 @@ public class BlockIndex {
         }
     }
 
+    /**
+     * Same as above, but reads the entries straight from a (little-endian) mapped slice of the file
+     */
+    public void populateBlocks(ByteBuffer buffer) {
+        for (int b = 0; b < numBlocks; b++) {
+            int blockNumber = buffer.getInt();
+            long filePosition = buffer.getLong();
+            int blockSizeInBytes = buffer.getInt();
+            blockIndex.put(blockNumber, new IndexEntry(filePosition, blockSizeInBytes));
+        }
+    }
+
     public List<Integer> getBlockNumbers() {
         return new ArrayList<>(blockIndex.keySet());
     }
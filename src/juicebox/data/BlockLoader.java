@@ -0,0 +1,252 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.data;
+
+import juicebox.HiCGlobals;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-lived, bounded scheduler for block reads of a single .hic file, shared by every matrix of the dataset.
+ * <p>
+ * Requests for a block key that is already queued or being read are coalesced onto the same task.
+ * A caller that no longer needs its blocks (e.g. the viewport moved on) can cancel them;
+ * a queued task is only dropped once every caller waiting on it has cancelled.
+ * Worker threads time out when idle, and can optionally be virtual threads on runtimes that support them.
+ */
+public class BlockLoader {
+
+    private static final long IDLE_THREAD_TIMEOUT_SECONDS = 30;
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, LoadTask> inFlight = new HashMap<>();
+    private final AtomicLong numRequested = new AtomicLong();
+    private final AtomicLong numCoalesced = new AtomicLong();
+    private final AtomicLong numCancelled = new AtomicLong();
+    private final AtomicLong numFailed = new AtomicLong();
+
+    public BlockLoader(String name, int numThreads, boolean useVirtualThreads) {
+        this.name = name;
+        ThreadFactory factory = useVirtualThreads ? getVirtualThreadFactory() : null;
+        if (factory == null) {
+            factory = new DaemonThreadFactory("block-loader");
+        }
+        numThreads = Math.max(1, numThreads);
+        executor = new ThreadPoolExecutor(numThreads, numThreads, IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), factory);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public BlockLoader(String name) {
+        this(name, HiCGlobals.numBlockLoaderThreads, HiCGlobals.useVirtualThreadsForBlockLoading);
+    }
+
+    /**
+     * Schedules the block to be loaded, unless a load for the same key is already pending
+     *
+     * @return future for the block; pass it to cancel() if the block is no longer needed
+     */
+    public Future<Block> load(String key, Callable<Block> loader) {
+        numRequested.incrementAndGet();
+        LoadTask task;
+        synchronized (inFlight) {
+            task = inFlight.get(key);
+            if (task != null) {
+                task.numWaiters.incrementAndGet();
+                numCoalesced.incrementAndGet();
+                return task;
+            }
+            task = new LoadTask(key, loader);
+            inFlight.put(key, task);
+        }
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Runs work that is not keyed by block, such as decompressing blocks fetched by a coalesced read
+     */
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Withdraws the caller's interest in the given loads. Tasks that have not started and that no
+     * other caller is waiting on are removed from the queue.
+     */
+    public void cancel(Collection<Future<Block>> futures) {
+        for (Future<Block> future : futures) {
+            if (!(future instanceof LoadTask)) continue;
+            LoadTask task = (LoadTask) future;
+            synchronized (inFlight) {
+                if (task.isDone() || task.numWaiters.decrementAndGet() > 0) {
+                    continue;
+                }
+                // only queued loads are dropped; a read already in progress finishes and is cached
+                if (executor.remove(task)) {
+                    task.cancel(false);
+                    numCancelled.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of loads waiting for a thread
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return number of loads currently being read
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return number of distinct block keys queued or being read
+     */
+    public int getNumInFlight() {
+        synchronized (inFlight) {
+            return inFlight.size();
+        }
+    }
+
+    public long getNumRequested() {
+        return numRequested.get();
+    }
+
+    public long getNumCoalesced() {
+        return numCoalesced.get();
+    }
+
+    public long getNumCancelled() {
+        return numCancelled.get();
+    }
+
+    public long getNumFailed() {
+        return numFailed.get();
+    }
+
+    public void resetStatistics() {
+        numRequested.set(0);
+        numCoalesced.set(0);
+        numCancelled.set(0);
+        numFailed.set(0);
+    }
+
+    public String getStatistics() {
+        return "Block loader for " + name + ": requested " + numRequested.get() + ", coalesced " + numCoalesced.get() +
+                ", cancelled " + numCancelled.get() + ", failed " + numFailed.get() + ", queued " + getQueueDepth() +
+                ", active " + getActiveCount();
+    }
+
+    /**
+     * Stops the worker threads: queued loads are cancelled, so nobody keeps waiting on them, and reads in
+     * progress are interrupted
+     *
+     * @return true if every worker finished within the timeout
+     */
+    public boolean shutdown(long timeoutMillis) {
+        for (Runnable task : executor.shutdownNow()) {
+            if (task instanceof Future) {
+                ((Future<?>) task).cancel(false);
+            }
+        }
+        try {
+            return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Thread.ofVirtual().factory() via reflection, since the build targets Java 8
+     *
+     * @return null if virtual threads are not available
+     */
+    private static ThreadFactory getVirtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builderClass.getMethod("name", String.class, long.class).invoke(builder, "block-loader-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            if (HiCGlobals.printVerboseComments) {
+                System.err.println("Virtual threads not available, using platform threads for block loading");
+            }
+            return null;
+        }
+    }
+
+    private class LoadTask extends FutureTask<Block> {
+        private final String key;
+        private final AtomicInteger numWaiters = new AtomicInteger(1);
+
+        LoadTask(String key, Callable<Block> loader) {
+            super(loader);
+            this.key = key;
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            numFailed.incrementAndGet();
+            super.setException(t);
+        }
+
+        @Override
+        protected void done() {
+            synchronized (inFlight) {
+                if (inFlight.get(key) == this) {
+                    inFlight.remove(key);
+                }
+            }
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -50,11 +50,20 @@ public class CombinedDatasetReader implements DatasetReader {
     private final List<DatasetReaderV2> readers;
     private boolean hasFrags;
     private int version;
+    private BlockLoader blockLoader = null;
 
     public CombinedDatasetReader(List<DatasetReaderV2> readers) {
         this.readers = readers;
     }
 
+    @Override
+    public synchronized BlockLoader getBlockLoader() {
+        if (blockLoader == null) {
+            blockLoader = new BlockLoader("combined dataset");
+        }
+        return blockLoader;
+    }
+
     @Override
     public Dataset read() throws IOException {
         // Temporarily create a dataset for each reader, then merge them
@@ -88,6 +97,22 @@ public class CombinedDatasetReader implements DatasetReader {
         // do nothing
     }
 
+    @Override
+    public void close() {
+        BlockLoader loader;
+        synchronized (this) {
+            loader = blockLoader;
+            blockLoader = null;
+        }
+        if (loader != null) {
+            loader.shutdown(AbstractDatasetReader.BLOCK_LOADER_SHUTDOWN_MILLIS);
+        }
+        BlockCache.invalidateAll(this);
+        for (DatasetReader reader : readers) {
+            reader.close();
+        }
+    }
+
     @Override
     public int getVersion() {
         // Version is the minimum of all constituent datasets
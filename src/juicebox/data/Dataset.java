@@ -322,6 +322,10 @@ public class Dataset {
         return reader.getVersion();
     }
 
+    public DatasetReader getReader() {
+        return reader;
+    }
+
     public String getGenomeId() {
         return genomeId;
     }
@@ -78,4 +78,15 @@ public interface DatasetReader {
     NormalizationVector getNormalizationVector(int chr1Idx, HiCZoom zoom, NormalizationType normalizationType);
 
     int getDepthBase();
+
+    /**
+     * @return the scheduler shared by all block reads from this reader
+     */
+    BlockLoader getBlockLoader();
+
+    /**
+     * Release the open file handles or connections, block loader threads, file mappings and cached blocks
+     * held by this reader; call once the dataset is discarded
+     */
+    void close();
 }
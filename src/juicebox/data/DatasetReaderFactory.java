@@ -46,15 +46,30 @@ import java.util.List;
  */
 public class DatasetReaderFactory {
 
+    // memory map local .hic files instead of reading them through streams; remote paths always use streams
+    private static boolean useMemoryMapping = false;
+
+    public static void setUseMemoryMapping(boolean status) {
+        useMemoryMapping = status;
+    }
+
+    public static boolean getUseMemoryMapping() {
+        return useMemoryMapping;
+    }
+
     public static DatasetReader getReader(List<String> fileList) throws IOException {
+        return getReader(fileList, useMemoryMapping);
+    }
+
+    public static DatasetReader getReader(List<String> fileList, boolean useMemoryMapping) throws IOException {
 
         if (fileList.size() == 1) {
             String file = fileList.get(0);
-            return getReaderForFile(file);
+            return getReaderForFile(file, useMemoryMapping);
         } else {
             List<DatasetReaderV2> readers = new ArrayList<>(fileList.size());
             for (String f : fileList) {
-                DatasetReaderV2 r = getReaderForFile(f);
+                DatasetReaderV2 r = getReaderForFile(f, useMemoryMapping);
                 if (r != null) {
                     readers.add(r);
                 }
@@ -64,12 +79,12 @@ public class DatasetReaderFactory {
         }
     }
 
-    private static DatasetReaderV2 getReaderForFile(String file) throws IOException {
+    private static DatasetReaderV2 getReaderForFile(String file, boolean useMemoryMapping) throws IOException {
         String magicString = getMagicString(file);
 
         if(magicString != null) {
             if (magicString.equals("HIC")) {
-                return new DatasetReaderV2(file);
+                return new DatasetReaderV2(file, useMemoryMapping);
             } else {
                 System.err.println("This version is deprecated and is no longer supported.");
                 //reader = new DatasetReaderV1(file);
@@ -47,8 +47,16 @@ import javax.swing.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 
 /**
@@ -68,7 +76,7 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
     private final Dataset dataset;
     private int version = -1;
     private Map<String, FragIndexEntry> fragmentSitesIndex;
-    private final Map<String, BlockIndex> blockIndexMap = new HashMap<>();
+    private final Map<String, BlockIndex> blockIndexMap = new ConcurrentHashMap<>();
     private long masterIndexPos;
     private long normVectorFilePosition;
     private long nviHeaderPosition;
@@ -76,10 +84,40 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
     public static double[] globalTimeDiffThings = new double[5];
     private final IGVSeekableStreamFactory streamFactory = IGVSeekableStreamFactory.getInstance();
     private final CompressionUtils compressionUtils = new CompressionUtils();
+    private BlockCodec blockCodec = BlockCodec.DEFLATE;
+    private final SeekableStreamPool streamPool;
+    private final AtomicLong numCoalescedReads = new AtomicLong();
+    private final AtomicLong numCoalescedBlocks = new AtomicLong();
+    private final MemoryMappedFile mappedFile;
 
     public DatasetReaderV2(String path) throws IOException {
+        this(path, false);
+    }
+
+    /**
+     * @param useMemoryMapping map the file for block, index and vector reads; ignored for non-local paths
+     */
+    public DatasetReaderV2(String path, boolean useMemoryMapping) throws IOException {
         super(path);
         dataset = new Dataset(this);
+        streamPool = new SeekableStreamPool(path, HiCGlobals.maxPooledStreamsPerReader,
+                HiCGlobals.pooledStreamIdleTimeoutMillis);
+        if (useMemoryMapping && MemoryMappedFile.canMap(path)) {
+            mappedFile = new MemoryMappedFile(path);
+        } else {
+            if (useMemoryMapping && HiCGlobals.printVerboseComments) {
+                System.out.println("Memory mapping not available for " + path + "; using streams");
+            }
+            mappedFile = null;
+        }
+    }
+
+    public boolean isMemoryMapped() {
+        return mappedFile != null;
+    }
+
+    public BlockCodec getBlockCodec() {
+        return blockCodec;
     }
 
     @Override
@@ -139,6 +177,12 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
 
             dataset.setAttributes(attributes);
 
+            try {
+                blockCodec = BlockCodec.fromName(attributes.get(BlockCodec.ATTRIBUTE_KEY));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unsupported .hic file: " + e.getMessage());
+            }
+
             if (dataset.getHiCFileScalingFactor() != null) {
                 HiCGlobals.hicMapScale = Double.parseDouble(dataset.getHiCFileScalingFactor());
             }
@@ -274,9 +318,15 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
 
     private Pair<MatrixZoomData, Long> readMatrixZoomData(Chromosome chr1, Chromosome chr2, int[] chr1Sites, int[] chr2Sites,
                                                           long filePointer) throws IOException {
-        SeekableStream stream = getValidStream();
-        stream.seek(filePointer);
-        LittleEndianInputStream dis = new LittleEndianInputStream(new BufferedInputStream(stream, HiCGlobals.bufferSize));
+        SeekableStream stream = null;
+        LittleEndianInputStream dis;
+        if (mappedFile != null) {
+            dis = new LittleEndianInputStream(mappedFile.getInputStream(filePointer));
+        } else {
+            stream = getValidStream();
+            stream.seek(filePointer);
+            dis = new LittleEndianInputStream(new BufferedInputStream(stream, HiCGlobals.bufferSize));
+        }
 
         String hicUnitStr = dis.readString();
         HiC.Unit unit = HiC.valueOfUnit(hicUnitStr);
@@ -312,7 +362,11 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
             }
         } else {
             BlockIndex blockIndex = new BlockIndex(nBlocks);
-            blockIndex.populateBlocks(dis);
+            if (mappedFile != null) {
+                blockIndex.populateBlocks(mappedFile.slice(currentFilePointer, nBlocks * 16));
+            } else {
+                blockIndex.populateBlocks(dis);
+            }
             synchronized (blockIndexMap) {
                 blockIndexMap.put(zd.getKey(), blockIndex);
             }
@@ -325,7 +379,7 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
         zd.setAverageCount(avgCount);
         zd.setSumCount(sumCounts);
 
-        stream.close();
+        if (stream != null) stream.close();
         return new Pair<>(zd, currentFilePointer);
     }
 
@@ -664,8 +718,7 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
 
     private int[] readSites(long position, int nSites) throws IOException {
         IndexEntry idx = new IndexEntry(position, 4 + nSites * 4);
-        byte[] buffer = seekAndFullyReadCompressedBytes(idx);
-        LittleEndianInputStream les = new LittleEndianInputStream(new ByteArrayInputStream(buffer));
+        LittleEndianInputStream les = openEntryStream(idx);
         int[] sites = new int[nSites];
         for (int s = 0; s < nSites; s++) {
             sites[s] = les.readInt();
@@ -680,8 +733,7 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
             return null;
         }
 
-        byte[] buffer = seekAndFullyReadCompressedBytes(idx);
-        LittleEndianInputStream dis = new LittleEndianInputStream(new ByteArrayInputStream(buffer));
+        LittleEndianInputStream dis = openEntryStream(idx);
 
         int c1 = dis.readInt();
         int c2 = dis.readInt();
@@ -797,12 +849,7 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
         }
         if (idx == null) return null;
     
-        List<byte[]> buffer = seekAndFullyReadLargeCompressedBytes(idx);
-        List<ByteArrayInputStream> disList = new ArrayList<>();
-        for (int i = 0; i < buffer.size(); i++) {
-            disList.add(new ByteArrayInputStream(buffer.get(i)));
-        }
-        LittleEndianInputStream dis = new LittleEndianInputStream(new SequenceInputStream(Collections.enumeration(disList)));
+        LittleEndianInputStream dis = openLargeEntryStream(idx);
     
         long nValues;
         if (version > 8) {
@@ -844,12 +891,7 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
         long partSize = version > 8 ? (bound2-bound1+1) * 4 : (bound2-bound1+1) * 8;
         LargeIndexEntry partIdx = new LargeIndexEntry(partPosition, partSize);
 
-        List<byte[]> buffer = seekAndFullyReadLargeCompressedBytes(partIdx);
-        List<ByteArrayInputStream> disList = new ArrayList<>();
-        for (int i = 0; i < buffer.size(); i++) {
-            disList.add(new ByteArrayInputStream(buffer.get(i)));
-        }
-        LittleEndianInputStream dis = new LittleEndianInputStream(new SequenceInputStream(Collections.enumeration(disList)));
+        LittleEndianInputStream dis = openLargeEntryStream(partIdx);
 
         long nValues = bound2-bound1+1;
         ListOfDoubleArrays values = new ListOfDoubleArrays(nValues);
@@ -873,12 +915,7 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
     public ListOfDoubleArrays readExpectedVectorPart(long position, long nVals) throws IOException {
         long size = version > 8 ? nVals * 4 : nVals * 8;
         LargeIndexEntry idx = new LargeIndexEntry(position, size);
-        List<byte[]> buffer = seekAndFullyReadLargeCompressedBytes(idx);
-        List<ByteArrayInputStream> disList = new ArrayList<>();
-        for (int i = 0; i < buffer.size(); i++) {
-            disList.add(new ByteArrayInputStream(buffer.get(i)));
-        }
-        LittleEndianInputStream dis = new LittleEndianInputStream(new SequenceInputStream(Collections.enumeration(disList)));
+        LittleEndianInputStream dis = openLargeEntryStream(idx);
         ListOfDoubleArrays values = new ListOfDoubleArrays(nVals);
         for (int i = 0; i < nVals; i++) {
             double val = version > 8 ? dis.readFloat() : dis.readDouble();
@@ -887,12 +924,71 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
         return values;
     }
 
+    /**
+     * Mapped files are read in place; otherwise the entry is read fully into memory first.
+     */
+    private LittleEndianInputStream openEntryStream(IndexEntry idx) throws IOException {
+        if (mappedFile != null) {
+            return new LittleEndianInputStream(mappedFile.getInputStream(idx.position));
+        }
+        byte[] buffer = seekAndFullyReadCompressedBytes(idx);
+        return new LittleEndianInputStream(new ByteArrayInputStream(buffer));
+    }
+
+    private LittleEndianInputStream openLargeEntryStream(LargeIndexEntry idx) throws IOException {
+        if (mappedFile != null) {
+            return new LittleEndianInputStream(mappedFile.getInputStream(idx.position));
+        }
+        List<byte[]> buffer = seekAndFullyReadLargeCompressedBytes(idx);
+        List<ByteArrayInputStream> disList = new ArrayList<>();
+        for (int i = 0; i < buffer.size(); i++) {
+            disList.add(new ByteArrayInputStream(buffer.get(i)));
+        }
+        return new LittleEndianInputStream(new SequenceInputStream(Collections.enumeration(disList)));
+    }
+
+    public SeekableStreamPool getStreamPool() {
+        return streamPool;
+    }
+
+    @Override
+    public void close() {
+        boolean loaderStopped = shutdownBlockLoader();
+        BlockCache.invalidateAll(this);
+        streamPool.closeAll();
+        if (mappedFile != null) {
+            // a read still running on a loader thread would fault on an unmapped buffer; the GC unmaps it later instead
+            if (loaderStopped) {
+                mappedFile.close();
+            } else if (HiCGlobals.printVerboseComments) {
+                System.err.println("Block reads still running; leaving " + path + " mapped");
+            }
+        }
+    }
+
     private byte[] seekAndFullyReadCompressedBytes(IndexEntry idx) throws IOException {
-        byte[] compressedBytes = new byte[idx.size];
-        SeekableStream stream = getValidStream();
-        stream.seek(idx.position);
-        stream.readFully(compressedBytes);
-        stream.close();
+        return seekAndFullyReadBytes(idx.position, idx.size);
+    }
+
+    private byte[] seekAndFullyReadBytes(long position, int size) throws IOException {
+        byte[] compressedBytes = new byte[size];
+        if (!HiCGlobals.useStreamPool) {
+            SeekableStream stream = getValidStream();
+            stream.seek(position);
+            stream.readFully(compressedBytes);
+            stream.close();
+            return compressedBytes;
+        }
+
+        SeekableStream stream = streamPool.borrow();
+        try {
+            stream.seek(position);
+            stream.readFully(compressedBytes);
+        } catch (IOException e) {
+            streamPool.invalidate(stream);
+            throw e;
+        }
+        streamPool.release(stream);
         return compressedBytes;
     }
 
@@ -905,12 +1001,27 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
         }
         compressedBytes.add(new byte[(int) counter]);
 
-        SeekableStream stream = getValidStream();
-        stream.seek(idx.position);
-        for (int i = 0; i < compressedBytes.size(); i++) {
-            stream.readFully(compressedBytes.get(i));
+        if (!HiCGlobals.useStreamPool) {
+            SeekableStream stream = getValidStream();
+            stream.seek(idx.position);
+            for (int i = 0; i < compressedBytes.size(); i++) {
+                stream.readFully(compressedBytes.get(i));
+            }
+            stream.close();
+            return compressedBytes;
         }
-        stream.close();
+
+        SeekableStream stream = streamPool.borrow();
+        try {
+            stream.seek(idx.position);
+            for (int i = 0; i < compressedBytes.size(); i++) {
+                stream.readFully(compressedBytes.get(i));
+            }
+        } catch (IOException e) {
+            streamPool.invalidate(stream);
+            throw e;
+        }
+        streamPool.release(stream);
         return compressedBytes;
     }
     @Override
@@ -941,20 +1052,11 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
             timeDiffThings[2] = System.currentTimeMillis();
             if (rawBlock == null) return null;
     
-            Collection<ContactRecord> records = rawBlock.getContactRecords();
-            List<ContactRecord> normRecords = new ArrayList<>(records.size());
-            for (ContactRecord rec : records) {
-                int x = rec.getBinX();
-                int y = rec.getBinY();
-                double denominator = nv1Data.get(x) * nv2Data.get(y);
-                float counts = (float) (rec.getCounts() / denominator);
-                if (!Float.isNaN(counts)) {
-                    normRecords.add(new ContactRecord(x, y, counts));
-                }
-            }
+            // normalized counts are computed on access from the raw block, no copy is made
+            Block normalizedBlock = new NormalizedBlock(rawBlock, nv1Data, nv2Data, zd.getBlockKey(blockNumber, no));
             timeDiffThings[3] = System.currentTimeMillis();
 
-            return new Block(blockNumber, normRecords, zd.getBlockKey(blockNumber, no));
+            return normalizedBlock;
         }
     }
 
@@ -972,48 +1074,26 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
 
                 //System.out.println(" blockIndexPosition:" + idx.position);
                 timeDiffThings[1] = System.currentTimeMillis();
-                byte[] compressedBytes = seekAndFullyReadCompressedBytes(idx);
+                ByteBuffer mappedBytes = null;
+                byte[] compressedBytes = null;
+                if (mappedFile != null) {
+                    mappedBytes = mappedFile.slice(idx.position, idx.size);
+                } else {
+                    compressedBytes = seekAndFullyReadCompressedBytes(idx);
+                }
                 timeDiffThings[2] = System.currentTimeMillis();
                 byte[] buffer;
 
                 try {
-                    buffer = decompress(compressedBytes);
+                    buffer = mappedBytes != null ? decompress(mappedBytes) : decompress(compressedBytes);
                     timeDiffThings[3] = System.currentTimeMillis();
 
                 } catch (Exception e) {
                     throw new RuntimeException("Block read error: " + e.getMessage());
                 }
 
-                LittleEndianInputStream dis = new LittleEndianInputStream(new ByteArrayInputStream(buffer));
-                int nRecords = dis.readInt();
-                List<ContactRecord> records = new ArrayList<>(nRecords);
                 timeDiffThings[4] = System.currentTimeMillis();
-
-                if (version < 7) {
-                    for (int i = 0; i < nRecords; i++) {
-                        int binX = dis.readInt();
-                        int binY = dis.readInt();
-                        float counts = dis.readFloat();
-                        records.add(new ContactRecord(binX, binY, counts));
-                    }
-                } else {
-
-                    int binXOffset = dis.readInt();
-                    int binYOffset = dis.readInt();
-
-                    boolean useShort = dis.readByte() == 0;
-                    boolean useShortBinX = true, useShortBinY = true;
-                    if (version > 8) {
-                        useShortBinX = dis.readByte() == 0;
-                        useShortBinY = dis.readByte() == 0;
-                    }
-
-                    byte type = dis.readByte();
-                    BinReader.handleBinType(dis, type, binXOffset, binYOffset, records,
-                            useShortBinX, useShortBinY, useShort);
-
-                }
-                b = new Block(blockNumber, records, zd.getBlockKey(blockNumber, NormalizationHandler.NONE));
+                b = parseBlock(blockNumber, zd, buffer);
                 timeDiffThings[5] = System.currentTimeMillis();
                 for (int ii = 0; ii < timeDiffThings.length - 1; ii++) {
                     globalTimeDiffThings[ii] += (timeDiffThings[ii + 1] - timeDiffThings[ii]) / 1000.0;
@@ -1028,7 +1108,207 @@ public class DatasetReaderV2 extends AbstractDatasetReader {
         return b;
     }
 
-    private byte[] decompress(byte[] compressedBytes) {
+    /**
+     * Reads the raw blocks of a matrix with as few requests as possible. The index entries are sorted by file
+     * position, and entries that are adjacent or separated by small gaps are fetched with one sequential read.
+     * Blocks are decompressed in parallel on the block loader while the following ranges are read.
+     *
+     * @return raw block for each requested number; blocks missing from the index are returned empty
+     */
+    public Map<Integer, Block> readBlocks(Collection<Integer> blockNumbers, final MatrixZoomData zd) throws IOException {
+        Map<Integer, Block> blocks = new HashMap<>();
+        final Map<Integer, IndexEntry> entries = new HashMap<>();
+        BlockIndex blockIndex = blockIndexMap.get(zd.getKey());
+        for (int blockNumber : blockNumbers) {
+            IndexEntry idx = blockIndex == null ? null : blockIndex.getBlock(blockNumber);
+            if (idx == null) {
+                blocks.put(blockNumber, new Block(blockNumber, zd.getBlockKey(blockNumber, NormalizationHandler.NONE)));
+            } else {
+                entries.put(blockNumber, idx);
+            }
+        }
+
+        List<Integer> sortedBlockNumbers = new ArrayList<>(entries.keySet());
+        Collections.sort(sortedBlockNumbers, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Long.compare(entries.get(o1).position, entries.get(o2).position);
+            }
+        });
+
+        BlockLoader blockLoader = getBlockLoader();
+        List<FutureTask<Block>> tasks = new ArrayList<>(sortedBlockNumbers.size());
+        int first = 0;
+        while (first < sortedBlockNumbers.size()) {
+            IndexEntry firstEntry = entries.get(sortedBlockNumbers.get(first));
+            long start = firstEntry.position;
+            long end = start + firstEntry.size;
+            int last = first + 1;
+            // mapped files are sliced per block, there is nothing to gain from merging
+            while (mappedFile == null && last < sortedBlockNumbers.size()) {
+                IndexEntry next = entries.get(sortedBlockNumbers.get(last));
+                if (next.position - end > HiCGlobals.maxCoalescedBlockReadGap
+                        || next.position + next.size - start > HiCGlobals.maxCoalescedBlockReadSize) {
+                    break;
+                }
+                end = Math.max(end, next.position + next.size);
+                last++;
+            }
+
+            ByteBuffer range = null;
+            if (mappedFile == null) {
+                range = ByteBuffer.wrap(seekAndFullyReadBytes(start, (int) (end - start)));
+            }
+            numCoalescedReads.incrementAndGet();
+            numCoalescedBlocks.addAndGet(last - first);
+
+            for (int i = first; i < last; i++) {
+                final int blockNumber = sortedBlockNumbers.get(i);
+                IndexEntry idx = entries.get(blockNumber);
+                final ByteBuffer compressedBytes;
+                if (range == null) {
+                    compressedBytes = mappedFile.slice(idx.position, idx.size);
+                } else {
+                    ByteBuffer view = range.duplicate();
+                    view.position((int) (idx.position - start));
+                    view.limit((int) (idx.position - start) + idx.size);
+                    compressedBytes = view.slice();
+                }
+                FutureTask<Block> task = new FutureTask<>(new Callable<Block>() {
+                    @Override
+                    public Block call() throws IOException {
+                        return parseBlock(blockNumber, zd, decompress(compressedBytes));
+                    }
+                });
+                tasks.add(task);
+                blockLoader.execute(task);
+            }
+            first = last;
+        }
+
+        // the calling thread decodes whatever the loader has not started yet, so it never waits on a busy pool
+        try {
+            for (FutureTask<Block> task : tasks) {
+                task.run();
+                Block b = task.get();
+                blocks.put(b.getNumber(), b);
+            }
+        } catch (InterruptedException e) {
+            cancelAll(tasks);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Block read interrupted");
+        } catch (ExecutionException e) {
+            cancelAll(tasks);
+            throw new IOException("Block read error: " + e.getCause().getMessage(), e.getCause());
+        }
+        return blocks;
+    }
+
+    private static void cancelAll(List<FutureTask<Block>> tasks) {
+        for (FutureTask<Block> task : tasks) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * @return number of reads issued by readBlocks and the number of blocks they covered
+     */
+    public String getCoalescedReadStatistics() {
+        return "Coalesced block reads: " + numCoalescedBlocks.get() + " blocks in " + numCoalescedReads.get() + " reads";
+    }
+
+    public void resetCoalescedReadStatistics() {
+        numCoalescedReads.set(0);
+        numCoalescedBlocks.set(0);
+    }
+
+    private Block parseBlock(int blockNumber, MatrixZoomData zd, byte[] buffer) throws IOException {
+        LittleEndianInputStream dis = new LittleEndianInputStream(new ByteArrayInputStream(buffer));
+        int nRecords = dis.readInt();
+        int[] binXs = new int[nRecords];
+        int[] binYs = new int[nRecords];
+        float[] counts = new float[nRecords];
+        int numFound = nRecords;
+
+        if (version < 7) {
+            for (int i = 0; i < nRecords; i++) {
+                binXs[i] = dis.readInt();
+                binYs[i] = dis.readInt();
+                counts[i] = dis.readFloat();
+            }
+        } else {
+
+            int binXOffset = dis.readInt();
+            int binYOffset = dis.readInt();
+
+            boolean useShort = dis.readByte() == 0;
+            boolean useShortBinX = true, useShortBinY = true;
+            if (version > 8) {
+                useShortBinX = dis.readByte() == 0;
+                useShortBinY = dis.readByte() == 0;
+            }
+
+            byte type = dis.readByte();
+            numFound = BinReader.handleBinType(dis, type, binXOffset, binYOffset, binXs, binYs, counts,
+                    useShortBinX, useShortBinY, useShort);
+
+        }
+        return new Block(blockNumber, binXs, binYs, counts, numFound, zd.getBlockKey(blockNumber, NormalizationHandler.NONE));
+    }
+
+    /**
+     * Decompressed payload of a block, or null if the block does not exist. Used to benchmark block codecs.
+     */
+    public byte[] readUncompressedBlockBytes(int blockNumber, MatrixZoomData zd) throws IOException {
+        BlockIndex blockIndex = blockIndexMap.get(zd.getKey());
+        if (blockIndex == null) return null;
+        IndexEntry idx = blockIndex.getBlock(blockNumber);
+        if (idx == null) return null;
+        if (mappedFile != null) {
+            return decompress(mappedFile.slice(idx.position, idx.size));
+        }
+        return decompress(seekAndFullyReadCompressedBytes(idx));
+    }
+
+    private byte[] decompress(byte[] compressedBytes) throws IOException {
+        if (blockCodec == BlockCodec.LZ4) {
+            return LZ4Compression.decompress(compressedBytes);
+        }
         return compressionUtils.decompress(compressedBytes);
     }
+
+    private byte[] decompress(ByteBuffer compressedBytes) throws IOException {
+        if (blockCodec == BlockCodec.LZ4) {
+            if (compressedBytes.hasArray()) {
+                return LZ4Compression.decompress(compressedBytes.array(),
+                        compressedBytes.arrayOffset() + compressedBytes.position(), compressedBytes.remaining());
+            }
+            byte[] bytes = new byte[compressedBytes.remaining()];
+            compressedBytes.get(bytes);
+            return LZ4Compression.decompress(bytes);
+        }
+        Inflater inflater = new Inflater();
+        byte[] input = new byte[Math.min(compressedBytes.remaining(), 65536)];
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(compressedBytes.remaining() * 4);
+        byte[] output = new byte[65536];
+        try {
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (!compressedBytes.hasRemaining()) {
+                        throw new IOException("Unexpected end of compressed block");
+                    }
+                    int n = Math.min(input.length, compressedBytes.remaining());
+                    compressedBytes.get(input, 0, n);
+                    inflater.setInput(input, 0, n);
+                }
+                int count = inflater.inflate(output);
+                bos.write(output, 0, count);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+        return bos.toByteArray();
+    }
 }
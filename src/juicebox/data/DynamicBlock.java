@@ -24,25 +24,20 @@
 
 package juicebox.data;
 
-import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 public class DynamicBlock extends Block {
     Set<ContactRecord> recordSet = new HashSet<>();
 
     public DynamicBlock(int number, ContactRecord record, String regionID) {
-        super(number, null, regionID);
-        recordSet.add(record);
-    }
-
-    @Override
-    public List<ContactRecord> getContactRecords() {
-        return new ArrayList<>(recordSet);
+        super(number, regionID);
+        addContactRecord(record);
     }
 
     public void addContactRecord(ContactRecord cr) {
-        recordSet.add(cr);
+        if (recordSet.add(cr)) {
+            addRecord(cr.getBinX(), cr.getBinY(), cr.getCounts());
+        }
     }
 }
@@ -80,7 +80,8 @@ public class DynamicMatrixZoomData extends MatrixZoomData {
             }
         }
 
-        Set<Integer> blockNumbers = new HashSet<>();
+        // blocks are kept here as well, since the shared cache may evict or decline them
+        Map<Integer, DynamicBlock> blocks = new HashMap<>();
 
         for (int bx : condensedRecords.keySet()) {
             int cx = bx / blockBinCount;
@@ -90,23 +91,22 @@ public class DynamicMatrixZoomData extends MatrixZoomData {
                 int ry = by / blockBinCount;
 
                 int blockNumber = ry * blockColumnCount + cx;
-                blockNumbers.add(blockNumber);
                 String key = getBlockKey(blockNumber, norm);
 
-                DynamicBlock b;
-                if (blockCache.containsKey(key)) {
-                    b = (DynamicBlock) blockCache.get(key);
+                DynamicBlock b = blocks.get(blockNumber);
+                if (b != null) {
                     b.addContactRecord(cr);
                 } else {
                     DynamicBlock block = new DynamicBlock(blockNumber, cr, key);
-                    blockCache.put(key, block);
+                    blocks.put(blockNumber, block);
                 }
             }
         }
 
         List<Block> blockList = new ArrayList<>();
-        for (Integer num : blockNumbers) {
-            blockList.add(blockCache.get(getBlockKey(num, norm)));
+        for (DynamicBlock block : blocks.values()) {
+            blockCache.put(getBlockKey(block.getNumber(), norm), block);
+            blockList.add(block);
         }
         return blockList;
     }
@@ -320,28 +320,9 @@ public class HiCFileTools {
         if (blocks.size() > 0) {
             for (Block b : blocks) {
                 if (b != null) {
-                    for (ContactRecord rec : b.getContactRecords()) {
-    
-                        // only called for small regions - should not exceed int
-                        int relativeX = (int) (rec.getBinX() - binXStart);
-                        int relativeY = (int) (rec.getBinY() - binYStart);
-    
-                        if (relativeX >= 0 && relativeX < numRows) {
-                            if (relativeY >= 0 && relativeY < numCols) {
-                                data.addToEntry(relativeX, relativeY, rec.getCounts());
-                            }
-                        }
-    
-                        if (fillUnderDiagonal) {
-                            relativeX = (int) (rec.getBinY() - binXStart);
-                            relativeY = (int) (rec.getBinX() - binYStart);
-        
-                            if (relativeX >= 0 && relativeX < numRows) {
-                                if (relativeY >= 0 && relativeY < numCols) {
-                                    data.addToEntry(relativeX, relativeY, rec.getCounts());
-                                }
-                            }
-                        }
+                    addRegionRecords(data, b, binXStart, binYStart, numRows, numCols, false);
+                    if (fillUnderDiagonal) {
+                        addRegionRecords(data, b, binXStart, binYStart, numRows, numCols, true);
                     }
                 }
             }
@@ -353,6 +334,31 @@ public class HiCFileTools {
         return data;
     }
     
+    /**
+     * Adds the block's records that fall inside the numRows x numCols region to the matrix,
+     * using the block's row index to visit only those records.
+     * With transpose, a record at (binX, binY) is added at (binY, binX) instead.
+     */
+    private static void addRegionRecords(RealMatrix data, Block b, long binXStart, long binYStart,
+                                         int numRows, int numCols, boolean transpose) {
+        int minRow = clampToInt(binXStart);
+        int maxRow = clampToInt(binXStart + numRows - 1);
+        int minCol = clampToInt(binYStart);
+        int maxCol = clampToInt(binYStart + numCols - 1);
+        Block.RegionCursor cursor = transpose ? b.regionCursor(minCol, maxCol, minRow, maxRow)
+                : b.regionCursor(minRow, maxRow, minCol, maxCol);
+        while (cursor.next()) {
+            // only called for small regions - should not exceed int
+            int binRow = transpose ? cursor.getBinY() : cursor.getBinX();
+            int binCol = transpose ? cursor.getBinX() : cursor.getBinY();
+            data.addToEntry((int) (binRow - binXStart), (int) (binCol - binYStart), cursor.getCounts());
+        }
+    }
+
+    private static int clampToInt(long value) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+    }
+
     public static List<Block> getAllRegionBlocks(MatrixZoomData zd, long binXStart, long binXEnd,
                                                  long binYStart, long binYEnd,
                                                  NormalizationType normalizationType, boolean fillUnderDiagonal) throws IOException {
@@ -0,0 +1,217 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.data;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Pure-Java implementation of the LZ4 block format, used as a faster alternative to deflate for .hic blocks.
+ * The compressed form is the uncompressed length (little-endian int) followed by a single LZ4 block.
+ * Only the greedy fast compressor is implemented; decompression speed is the goal, not ratio.
+ */
+public class LZ4Compression {
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 14;
+    private static final int RUN_MASK = 15;
+    private static final long MAX_EXPANSION = 255;
+
+    public static byte[] compress(byte[] src) {
+        int n = src.length;
+        byte[] dst = new byte[4 + n + n / 255 + 16];
+        writeIntLE(dst, 0, n);
+        int dp = 4;
+        int anchor = 0;
+
+        if (n > MATCH_FIND_LIMIT) {
+            int[] table = new int[1 << HASH_LOG];
+            Arrays.fill(table, -1);
+            int matchStartLimit = n - MATCH_FIND_LIMIT;
+            int matchEndLimit = n - LAST_LITERALS;
+
+            int ip = 0;
+            while (ip <= matchStartLimit) {
+                int sequence = readIntLE(src, ip);
+                int h = hash(sequence);
+                int ref = table[h];
+                table[h] = ip;
+                if (ref < 0 || ip - ref > MAX_DISTANCE || readIntLE(src, ref) != sequence) {
+                    ip++;
+                    continue;
+                }
+
+                while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < matchEndLimit && src[ref + matchLength] == src[ip + matchLength]) {
+                    matchLength++;
+                }
+
+                dp = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dst, dp);
+                ip += matchLength;
+                anchor = ip;
+            }
+        }
+
+        // final literals
+        int literalLength = n - anchor;
+        int token = Math.min(literalLength, RUN_MASK) << 4;
+        dst[dp++] = (byte) token;
+        dp = writeLength(literalLength, dst, dp);
+        System.arraycopy(src, anchor, dst, dp, literalLength);
+        dp += literalLength;
+
+        return Arrays.copyOf(dst, dp);
+    }
+
+    public static byte[] decompress(byte[] src) throws IOException {
+        return decompress(src, 0, src.length);
+    }
+
+    public static byte[] decompress(byte[] src, int offset, int length) throws IOException {
+        if (length < 5) {
+            throw new IOException("LZ4 block too short: " + length);
+        }
+        int n = readIntLE(src, offset);
+        // each compressed byte can expand to at most 255 bytes, so a larger length means a corrupt header
+        if (n < 0 || n > MAX_EXPANSION * length) {
+            throw new IOException("Corrupt LZ4 block: uncompressed length " + n + " for " + length + " compressed bytes");
+        }
+        byte[] dst = new byte[n];
+        int sp = offset + 4;
+        int end = offset + length;
+        int dp = 0;
+
+        try {
+            while (sp < end) {
+                int token = src[sp++] & 0xFF;
+
+                int literalLength = token >>> 4;
+                if (literalLength == RUN_MASK) {
+                    int b;
+                    do {
+                        checkAvailable(1, sp, end, dp);
+                        b = src[sp++] & 0xFF;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+                // src may be a larger buffer, so reads past the end of the block would not fail by themselves
+                checkAvailable(literalLength, sp, end, dp);
+                System.arraycopy(src, sp, dst, dp, literalLength);
+                sp += literalLength;
+                dp += literalLength;
+                if (sp >= end) {
+                    break;
+                }
+
+                checkAvailable(2, sp, end, dp);
+                int distance = (src[sp] & 0xFF) | ((src[sp + 1] & 0xFF) << 8);
+                sp += 2;
+                int matchLength = token & RUN_MASK;
+                if (matchLength == RUN_MASK) {
+                    int b;
+                    do {
+                        checkAvailable(1, sp, end, dp);
+                        b = src[sp++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+
+                int ref = dp - distance;
+                if (distance == 0 || ref < 0) {
+                    throw new IOException("Invalid LZ4 match offset " + distance + " at " + dp);
+                }
+                if (distance >= matchLength) {
+                    System.arraycopy(dst, ref, dst, dp, matchLength);
+                    dp += matchLength;
+                } else {
+                    // overlapping copy repeats the last distance bytes
+                    for (int i = 0; i < matchLength; i++) {
+                        dst[dp++] = dst[ref++];
+                    }
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Malformed LZ4 block", e);
+        }
+
+        if (dp != n) {
+            throw new IOException("LZ4 block decompressed to " + dp + " bytes, expected " + n);
+        }
+        return dst;
+    }
+
+    private static void checkAvailable(int numBytes, int sp, int end, int dp) throws IOException {
+        if (numBytes < 0 || numBytes > end - sp) {
+            throw new IOException("Truncated LZ4 block at " + dp);
+        }
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literalLength, int distance, int matchLength,
+                                     byte[] dst, int dp) {
+        int matchCode = matchLength - MIN_MATCH;
+        dst[dp++] = (byte) ((Math.min(literalLength, RUN_MASK) << 4) | Math.min(matchCode, RUN_MASK));
+        dp = writeLength(literalLength, dst, dp);
+        System.arraycopy(src, literalStart, dst, dp, literalLength);
+        dp += literalLength;
+        dst[dp++] = (byte) distance;
+        dst[dp++] = (byte) (distance >>> 8);
+        return writeLength(matchCode, dst, dp);
+    }
+
+    private static int writeLength(int length, byte[] dst, int dp) {
+        if (length >= RUN_MASK) {
+            int remainder = length - RUN_MASK;
+            while (remainder >= 255) {
+                dst[dp++] = (byte) 255;
+                remainder -= 255;
+            }
+            dst[dp++] = (byte) remainder;
+        }
+        return dp;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int readIntLE(byte[] b, int i) {
+        return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8) | ((b[i + 2] & 0xFF) << 16) | ((b[i + 3] & 0xFF) << 24);
+    }
+
+    private static void writeIntLE(byte[] b, int i, int value) {
+        b[i] = (byte) value;
+        b[i + 1] = (byte) (value >>> 8);
+        b[i + 2] = (byte) (value >>> 16);
+        b[i + 3] = (byte) (value >>> 24);
+    }
+}
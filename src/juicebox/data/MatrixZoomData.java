@@ -39,8 +39,10 @@ import juicebox.data.v9depth.LogDepth;
 import juicebox.data.v9depth.V9Depth;
 import juicebox.gui.SuperAdapter;
 import juicebox.matrix.BasicMatrix;
+import juicebox.matrix.ImplicitPearsonsMatrix;
+import juicebox.matrix.LanczosEigensolver;
 import juicebox.matrix.RealMatrixWrapper;
-import juicebox.tools.clt.old.Pearsons;
+import juicebox.matrix.SymmetricLinearOperator;
 import juicebox.tools.utils.original.*;
 import juicebox.track.HiCFixedGridAxis;
 import juicebox.track.HiCFragmentAxis;
@@ -50,27 +52,17 @@ import juicebox.windowui.MatrixType;
 import juicebox.windowui.NormalizationHandler;
 import juicebox.windowui.NormalizationType;
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
-import org.apache.commons.math3.linear.EigenDecomposition;
-import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.linear.RealVector;
 import org.broad.igv.tdf.BufferedByteWriter;
 import org.broad.igv.util.Pair;
 import org.broad.igv.util.collections.DownsampledDoubleArrayList;
-import org.broad.igv.util.collections.LRUCache;
 
 import java.awt.*;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.*;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.zip.Deflater;
+import java.util.concurrent.*;
 
 
 public class MatrixZoomData {
@@ -84,8 +76,10 @@ public class MatrixZoomData {
     // Observed values are organized into sub-matrices ("blocks")
     protected final int blockBinCount;   // block size in bins
     protected final int blockColumnCount;     // number of block columns
-    // Cache the last 20 blocks loaded
-    protected final LRUCache<String, Block> blockCache = new LRUCache<>(500);
+    // Blocks loaded for this matrix, held in the shared byte-bounded cache
+    protected final BlockCache blockCache;
+    // blocks read together by one coalesced read when dumping
+    private static final int NUM_BLOCKS_PER_PREFETCH = 64;
     private final HashMap<NormalizationType, BasicMatrix> pearsonsMap;
     private final HashMap<NormalizationType, BasicMatrix> normSquaredMaps;
     //private BigContactRecordList localCacheOfRecords = null;
@@ -115,6 +109,7 @@ public class MatrixZoomData {
         this.zoom = zoom;
         this.isIntra = chr1.getIndex() == chr2.getIndex();
         this.reader = reader;
+        this.blockCache = new BlockCache(reader);
         this.blockBinCount = blockBinCount;
         if (reader.getVersion() > 8) {
             v9Depth = V9Depth.setDepthMethod(reader.getDepthBase(), blockBinCount);
@@ -293,9 +288,8 @@ public class MatrixZoomData {
     private void populateBlocksToLoadV9(int positionAlongDiagonal, int depth, NormalizationType no, List<Block> blockList, Set<Integer> blocksToLoad) {
         int blockNumber = getBlockNumberVersion9FromPADAndDepth(positionAlongDiagonal, depth);
         String key = getBlockKey(blockNumber, no);
-        Block b;
-        if (HiCGlobals.useCache && blockCache.containsKey(key)) {
-            b = blockCache.get(key);
+        Block b = HiCGlobals.useCache ? blockCache.get(key) : null;
+        if (b != null) {
             blockList.add(b);
         } else {
             blocksToLoad.add(blockNumber);
@@ -335,9 +329,8 @@ public class MatrixZoomData {
     private void populateBlocksToLoad(int r, int c, NormalizationType no, List<Block> blockList, Set<Integer> blocksToLoad) {
         int blockNumber = r * getBlockColumnCount() + c;
         String key = getBlockKey(blockNumber, no);
-        Block b;
-        if (HiCGlobals.useCache && blockCache.containsKey(key)) {
-            b = blockCache.get(key);
+        Block b = HiCGlobals.useCache ? blockCache.get(key) : null;
+        if (b != null) {
             blockList.add(b);
         } else {
             blocksToLoad.add(blockNumber);
@@ -488,10 +481,9 @@ public class MatrixZoomData {
                 for (int blockNumber : tempBlockNumbers) {
                     if (!blocksToLoad.contains(blockNumber)) {
                         String key = getBlockKey(blockNumber, no);
-                        Block b;
                         //temp fix for AllByAll. TODO: trace this!
-                        if (HiCGlobals.useCache && blockCache.containsKey(key)) {
-                            b = blockCache.get(key);
+                        Block b = HiCGlobals.useCache ? blockCache.get(key) : null;
+                        if (b != null) {
                             blockList.add(b);
                         } else {
                             blocksToLoad.add(blockNumber);
@@ -524,120 +516,197 @@ public class MatrixZoomData {
 //        return AssemblyHeatmapHandler.mergeRedundantContiguousContigs(axisContigs);
 //    }
 
-    private void actuallyLoadGivenBlocks(final List<Block> blockList, Set<Integer> blocksToLoad,
-                                         final NormalizationType no) {
-        final AtomicInteger errorCounter = new AtomicInteger();
-
-        ExecutorService service = HiCGlobals.newFixedThreadPool();
-
-        final int binSize = getBinSize();
-        final int chr1Index = chr1.getIndex();
-        final int chr2Index = chr2.getIndex();
+    /**
+     * Normalized blocks are views over the raw block, so the raw block is read (or taken from the cache) once
+     * and shared by every normalization of this matrix.
+     */
+    private Block readNormalizedBlock(int blockNumber, NormalizationType no) throws IOException {
+        return readNormalizedBlock(blockNumber, no, null);
+    }
 
-        for (final int blockNumber : blocksToLoad) {
-            Runnable loader = new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        String key = getBlockKey(blockNumber, no);
-                        Block b = reader.readNormalizedBlock(blockNumber, MatrixZoomData.this, no);
-                        if (b == null) {
-                            b = new Block(blockNumber, key);   // An empty block
-                        }
-                        //Run out of memory if do it here
-                        if (SuperAdapter.assemblyModeCurrentlyActive) {
-                            b = AssemblyHeatmapHandler.modifyBlock(b, key, binSize, chr1Index, chr2Index);
-                        }
-                        if (HiCGlobals.useCache) {
-                            blockCache.put(key, b);
-                        }
-                        blockList.add(b);
-                    } catch (IOException e) {
-                        errorCounter.incrementAndGet();
-                    }
-                }
-            };
+    /**
+     * @param prefetchedRawBlock raw block already read by prefetchRawBlocks, or null to read it here
+     */
+    private Block readNormalizedBlock(int blockNumber, NormalizationType no, Block prefetchedRawBlock) throws IOException {
+        if (prefetchedRawBlock != null && no.equals(NormalizationHandler.NONE)) {
+            return prefetchedRawBlock;
+        }
+        // combined readers normalize each file separately, and assembly mode caches rearranged blocks
+        if (prefetchedRawBlock == null && (!HiCGlobals.useCache || !usesNormalizedViews(no))) {
+            return reader.readNormalizedBlock(blockNumber, this, no);
+        }
 
-            service.submit(loader);
+        NormalizationVector nv1 = reader.getNormalizationVector(chr1.getIndex(), zoom, no);
+        NormalizationVector nv2 = reader.getNormalizationVector(chr2.getIndex(), zoom, no);
+        if (nv1 == null || nv2 == null) {
+            if (HiCGlobals.printVerboseComments) {
+                System.err.println("Norm " + no + " missing for: " + getDescription());
+            }
+            return null;
         }
 
-        // done submitting all jobs
-        service.shutdown();
+        String rawKey = getBlockKey(blockNumber, NormalizationHandler.NONE);
+        Block rawBlock = prefetchedRawBlock != null ? prefetchedRawBlock : blockCache.get(rawKey);
+        if (rawBlock == null) {
+            rawBlock = reader.readNormalizedBlock(blockNumber, this, NormalizationHandler.NONE);
+            if (rawBlock == null) {
+                return null;
+            }
+            blockCache.put(rawKey, rawBlock);
+        }
+        return new NormalizedBlock(rawBlock, nv1.getData(), nv2.getData(), getBlockKey(blockNumber, no));
+    }
 
-        // wait for all to finish
+    /**
+     * Reads the raw blocks with one coalesced, sorted batch of reads (see DatasetReaderV2.readBlocks)
+     * instead of a seek per block. Blocks already cached are returned from the cache.
+     *
+     * @return raw blocks by number; empty if batching does not apply, in which case blocks are read one at a time
+     */
+    private Map<Integer, Block> prefetchRawBlocks(Collection<Integer> blockNumbers) {
+        if (!HiCGlobals.useCoalescedBlockReads || blockNumbers.size() < 2 || !(reader instanceof DatasetReaderV2)
+                || SuperAdapter.assemblyModeCurrentlyActive) {
+            return Collections.emptyMap();
+        }
+        Map<Integer, Block> rawBlocks = new HashMap<>();
+        List<Integer> blocksToRead = new ArrayList<>();
+        for (int blockNumber : blockNumbers) {
+            Block b = HiCGlobals.useCache ? blockCache.get(getBlockKey(blockNumber, NormalizationHandler.NONE)) : null;
+            if (b != null) {
+                rawBlocks.put(blockNumber, b);
+            } else {
+                blocksToRead.add(blockNumber);
+            }
+        }
+        if (blocksToRead.size() < 2) {
+            return rawBlocks;
+        }
         try {
-            service.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            System.err.println("Error loading mzd data " + e.getLocalizedMessage());
+            Map<Integer, Block> blocks = ((DatasetReaderV2) reader).readBlocks(blocksToRead, this);
+            if (HiCGlobals.useCache) {
+                for (Block b : blocks.values()) {
+                    blockCache.put(getBlockKey(b.getNumber(), NormalizationHandler.NONE), b);
+                }
+            }
+            rawBlocks.putAll(blocks);
+        } catch (IOException e) {
             if (HiCGlobals.printVerboseComments) {
-                e.printStackTrace();
+                System.err.println("Coalesced block read failed for " + getDescription() + ": " + e.getMessage());
             }
         }
+        return rawBlocks;
+    }
 
-        // error printing
-        if (errorCounter.get() > 0) {
-            System.err.println(errorCounter.get() + " errors while reading blocks");
+    /**
+     * Prefetches the next batch of blocks when iterating over a sorted list of block numbers
+     *
+     * @return the raw blocks of the batch containing the given position
+     */
+    private Map<Integer, Block> prefetchRawBlocksAt(List<Integer> blockNumbers, int index, Map<Integer, Block> currentBatch) {
+        if (index % NUM_BLOCKS_PER_PREFETCH != 0) {
+            return currentBatch;
         }
+        return prefetchRawBlocks(blockNumbers.subList(index, Math.min(index + NUM_BLOCKS_PER_PREFETCH, blockNumbers.size())));
     }
 
     private void actuallyLoadGivenBlocks(final List<Block> blockList, Set<Integer> blocksToLoad,
-                                         final NormalizationType no, final int chr1Id, final int chr2Id) {
-        final AtomicInteger errorCounter = new AtomicInteger();
+                                         final NormalizationType no) {
+        final int binSize = getBinSize();
+        final int chr1Index = chr1.getIndex();
+        final int chr2Index = chr2.getIndex();
+        final Map<Integer, Block> rawBlocks = prefetchRawBlocks(blocksToLoad);
 
-        ExecutorService service = Executors.newFixedThreadPool(200);
+        Map<String, Callable<Block>> loaders = new HashMap<>();
+        for (final int blockNumber : blocksToLoad) {
+            final String key = getBlockKey(blockNumber, no);
+            loaders.put(key, new Callable<Block>() {
+                @Override
+                public Block call() throws IOException {
+                    Block b = readNormalizedBlock(blockNumber, no, rawBlocks.get(blockNumber));
+                    return finishLoadedBlock(b, blockNumber, key, binSize, chr1Index, chr2Index);
+                }
+            });
+        }
+        loadBlocks(blockList, loaders);
+    }
 
+    private void actuallyLoadGivenBlocks(final List<Block> blockList, Set<Integer> blocksToLoad,
+                                         final NormalizationType no, final int chr1Id, final int chr2Id) {
         final int binSize = getBinSize();
+        final Map<Integer, Block> rawBlocks = prefetchRawBlocks(blocksToLoad);
 
+        Map<String, Callable<Block>> loaders = new HashMap<>();
         for (final int blockNumber : blocksToLoad) {
-            Runnable loader = new Runnable() {
+            final String key = getBlockKey(blockNumber, no, chr1Id, chr2Id);
+            loaders.put(key, new Callable<Block>() {
                 @Override
-                public void run() {
-                    try {
-                        String key = getBlockKey(blockNumber, no, chr1Id, chr2Id);
-                        Block b = reader.readNormalizedBlock(blockNumber, MatrixZoomData.this, no);
-                        if (b == null) {
-                            b = new Block(blockNumber, key);   // An empty block
-                        }
-                        //Run out of memory if do it here
-                        if (SuperAdapter.assemblyModeCurrentlyActive) {
-                            b = AssemblyHeatmapHandler.modifyBlock(b, key, binSize, chr1Id, chr2Id);
-                        }
-                        if (HiCGlobals.useCache) {
-                            blockCache.put(key, b);
-                        }
-                        blockList.add(b);
-                    } catch (IOException e) {
-                        errorCounter.incrementAndGet();
-                    }
+                public Block call() throws IOException {
+                    Block rawBlock = rawBlocks.get(blockNumber);
+                    Block b = rawBlock != null ? readNormalizedBlock(blockNumber, no, rawBlock)
+                            : reader.readNormalizedBlock(blockNumber, MatrixZoomData.this, no);
+                    return finishLoadedBlock(b, blockNumber, key, binSize, chr1Id, chr2Id);
                 }
-            };
+            });
+        }
+        loadBlocks(blockList, loaders);
+    }
 
-            service.submit(loader);
+    private Block finishLoadedBlock(Block b, int blockNumber, String key, int binSize, int chr1Id, int chr2Id) {
+        if (b == null) {
+            b = new Block(blockNumber, key);   // An empty block
+        }
+        //Run out of memory if do it here
+        if (SuperAdapter.assemblyModeCurrentlyActive) {
+            b = AssemblyHeatmapHandler.modifyBlock(b, key, binSize, chr1Id, chr2Id);
         }
+        // normalized views are cached too; the cache drops them along with their raw block
+        if (HiCGlobals.useCache) {
+            blockCache.put(key, b);
+        }
+        return b;
+    }
 
-        // done submitting all jobs
-        service.shutdown();
+    /**
+     * Runs the loads on the reader's shared block loader and waits for them. Loads of a block that is
+     * already being read (e.g. by another tile) are coalesced. If the waiting thread is interrupted,
+     * e.g. because the region is no longer on screen, loads nobody else is waiting for are cancelled.
+     */
+    private void loadBlocks(List<Block> blockList, Map<String, Callable<Block>> loaders) {
+        BlockLoader blockLoader = reader.getBlockLoader();
+        List<Future<Block>> futures = new ArrayList<>(loaders.size());
+        for (Map.Entry<String, Callable<Block>> entry : loaders.entrySet()) {
+            futures.add(blockLoader.load(entry.getKey(), entry.getValue()));
+        }
 
-        // wait for all to finish
+        int numErrors = 0;
         try {
-            service.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            for (Future<Block> future : futures) {
+                try {
+                    blockList.add(future.get());
+                } catch (ExecutionException | CancellationException e) {
+                    numErrors++;
+                }
+            }
         } catch (InterruptedException e) {
-            System.err.println("Error loading mzd data " + e.getLocalizedMessage());
+            blockLoader.cancel(futures);
+            Thread.currentThread().interrupt();
             if (HiCGlobals.printVerboseComments) {
-                e.printStackTrace();
+                System.err.println("Block loading cancelled for " + getDescription());
             }
         }
 
         // error printing
-        if (errorCounter.get() > 0) {
-            System.err.println(errorCounter.get() + " errors while reading blocks");
+        if (numErrors > 0) {
+            System.err.println(numErrors + " errors while reading blocks");
         }
     }
 
 
     /**
      * Return the observed value at the specified location. Supports tooltip text
-     * This implementation is naive, but might get away with it for tooltip.
+     * Uses the blocks' row index, so each lookup is a binary search rather than a scan of the blocks.
+     * Normalized values are looked up in the raw blocks and normalized for the one record found,
+     * rather than building the normalized view of each block.
      *
      * @param binX              X bin
      * @param binY              Y bin
@@ -655,19 +724,52 @@ public class MatrixZoomData {
             }
         }
 
+        if (usesNormalizedViews(normalizationType)) {
+            return getNormalizedObservedValue(binX, binY, normalizationType);
+        }
+
         List<Block> blocks = getNormalizedBlocksOverlapping(binX, binY, binX, binY, normalizationType, false, false);
         if (blocks == null) return 0;
         for (Block b : blocks) {
-            for (ContactRecord rec : b.getContactRecords()) {
-                if (rec.getBinX() == binX && rec.getBinY() == binY) {
-                    return rec.getCounts();
-                }
+            int index = b.findRecord(binX, binY);
+            if (index >= 0) {
+                return b.getCounts(index);
             }
         }
         // No record found for this bin
         return 0;
     }
 
+    /**
+     * Same value as the record in the NormalizedBlock view, which skips records whose normalized value is NaN
+     */
+    private float getNormalizedObservedValue(int binX, int binY, NormalizationType normalizationType) {
+        NormalizationVector nv1 = reader.getNormalizationVector(chr1.getIndex(), zoom, normalizationType);
+        NormalizationVector nv2 = reader.getNormalizationVector(chr2.getIndex(), zoom, normalizationType);
+        if (nv1 == null || nv2 == null) return 0;
+
+        List<Block> blocks = getNormalizedBlocksOverlapping(binX, binY, binX, binY, NormalizationHandler.NONE, false, false);
+        if (blocks == null) return 0;
+        for (Block b : blocks) {
+            int index = b.findRecord(binX, binY);
+            if (index >= 0) {
+                float value = (float) (b.getCounts(index) / (nv1.getData().get(binX) * nv2.getData().get(binY)));
+                if (!Float.isNaN(value)) {
+                    return value;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return true if blocks of this normalization are NormalizedBlock views over the raw blocks
+     */
+    private boolean usesNormalizedViews(NormalizationType no) {
+        return !no.equals(NormalizationHandler.NONE) && reader instanceof DatasetReaderV2
+                && !SuperAdapter.assemblyModeCurrentlyActive;
+    }
+
 //    /**
 //     * Return a slice of the matrix at the specified Y been as a list of wiggle scores
 //     *
@@ -721,10 +823,17 @@ public class MatrixZoomData {
         }
 
         int[] newPosToOrig = getMapNewPosToOriginal(dim, bitSet);
+        if (newPosToOrig.length <= which) {
+            return null;
+        }
 
-        RealMatrix subMatrix = getSubsetOfMatrix(newPosToOrig, bitSet.cardinality(), pearsons);
-        RealVector rv = (new EigenDecomposition(subMatrix)).getEigenvector(which);
-        double[] ev = rv.toArray();
+        SymmetricLinearOperator operator;
+        if (pearsons instanceof ImplicitPearsonsMatrix) {
+            operator = ((ImplicitPearsonsMatrix) pearsons).getOperator(newPosToOrig);
+        } else {
+            operator = LanczosEigensolver.getSubsetOperator(pearsons, newPosToOrig);
+        }
+        double[] ev = LanczosEigensolver.computeEigenvector(operator, which);
 
         int size = pearsons.getColumnDimension();
         double[] eigenvector = new double[size];
@@ -736,21 +845,6 @@ public class MatrixZoomData {
         return eigenvector;
     }
 
-    private RealMatrix getSubsetOfMatrix(int[] newPosToOrig, int subsetN, BasicMatrix pearsons) {
-        double[][] data = new double[subsetN][subsetN];
-
-        for (int newI = 0; newI < newPosToOrig.length; newI++) {
-            int oldI = newPosToOrig[newI];
-            for (int newJ = newI; newJ < newPosToOrig.length; newJ++) {
-                int oldJ = newPosToOrig[newJ];
-                float tmp = pearsons.getEntry(oldI, oldJ);
-                data[newI][newJ] = tmp;
-                data[newJ][newI] = tmp;
-            }
-        }
-        return new Array2DRowRealMatrix(data);
-    }
-
     private int[] getMapNewPosToOriginal(int dim, BitSet bitSet) {
         int[] newPosToOrig = new int[bitSet.cardinality()];
         int count = 0;
@@ -832,8 +926,8 @@ public class MatrixZoomData {
     }
 
     /**
-     * Compute the Pearson's.  Read in the observed, calculate O/E from the expected value function, subtract the row
-     * means, compute the Pearson's correlation on that matrix
+     * Compute the Pearson's.  Read in the observed and calculate O/E from the expected value function; the
+     * Pearson's correlation of the row centered O/E matrix is then computed from the sparse O/E values as needed
      *
      * @param df Expected value
      * @return Pearson's correlation matrix
@@ -850,22 +944,10 @@ public class MatrixZoomData {
             dim = ((DatasetReaderV2) reader).getFragCount(chr1) / zoom.getBinSize() + 1;
         }
 
-        // Compute O/E column vectors
-        double[][] oeMatrix = new double[dim][dim];
-        BitSet bitSet = new BitSet(dim);
-        populateOEMatrixAndBitset(oeMatrix, bitSet, df);
-
-        BasicMatrix pearsons;
-        if (HiCGlobals.guiIsCurrentlyActive) { // todo ask Neva
-            pearsons = Pearsons.computeParallelizedPearsons(oeMatrix, dim, bitSet);
-        } else {
-            pearsons = Pearsons.computePearsons(oeMatrix, dim, bitSet);
-        }
-        pearsonsMap.put(df.getNormalizationType(), pearsons);
-        return pearsons;
-    }
-
-    private void populateOEMatrixAndBitset(double[][] oeMatrix, BitSet bitSet, ExpectedValueFunction df) {
+        int numValues = 0;
+        int[] binXs = new int[1024];
+        int[] binYs = new int[1024];
+        float[] oeValues = new float[1024];
         Iterator<ContactRecord> iterator = getNewContactRecordIterator();
         while (iterator.hasNext()) {
             ContactRecord record = iterator.next();
@@ -877,14 +959,23 @@ public class MatrixZoomData {
             int dist = Math.abs(i - j);
 
             double expected = df.getExpectedValue(chr1.getIndex(), dist);
-            double oeValue = counts / expected;
-
-            oeMatrix[i][j] = oeValue;
-            oeMatrix[j][i] = oeValue;
-
-            bitSet.set(i);
-            bitSet.set(j);
+            float oeValue = (float) (counts / expected);
+            if (Float.isNaN(oeValue) || Float.isInfinite(oeValue)) continue;
+
+            if (numValues == binXs.length) {
+                int newLength = (int) Math.min(Integer.MAX_VALUE - 8, 2L * binXs.length);
+                binXs = Arrays.copyOf(binXs, newLength);
+                binYs = Arrays.copyOf(binYs, newLength);
+                oeValues = Arrays.copyOf(oeValues, newLength);
+            }
+            binXs[numValues] = i;
+            binYs[numValues] = j;
+            oeValues[numValues++] = oeValue;
         }
+
+        BasicMatrix pearsons = new ImplicitPearsonsMatrix(dim, numValues, binXs, binYs, oeValues);
+        pearsonsMap.put(df.getNormalizationType(), pearsons);
+        return pearsons;
     }
 
     /**
@@ -980,8 +1071,11 @@ public class MatrixZoomData {
         }
 
         if (!dense) {
-            for (Integer blockNumber : blocksToIterateOver) {
-                Block b = reader.readNormalizedBlock(blockNumber, MatrixZoomData.this, norm);
+            Map<Integer, Block> rawBlocks = Collections.emptyMap();
+            for (int k = 0; k < blocksToIterateOver.size(); k++) {
+                int blockNumber = blocksToIterateOver.get(k);
+                rawBlocks = prefetchRawBlocksAt(blocksToIterateOver, k, rawBlocks);
+                Block b = readNormalizedBlock(blockNumber, norm, rawBlocks.get(blockNumber));
                 if (b != null) {
                     for (ContactRecord rec : b.getContactRecords()) {
                         float counts = rec.getCounts();
@@ -1039,12 +1133,15 @@ public class MatrixZoomData {
         else {
             int maxX = 0;
             int maxY = 0;
-            for (Integer blockNumber : blocksToIterateOver) {
-                Block b = reader.readNormalizedBlock(blockNumber, MatrixZoomData.this, norm);
+            Map<Integer, Block> rawBlocks = Collections.emptyMap();
+            for (int k = 0; k < blocksToIterateOver.size(); k++) {
+                int blockNumber = blocksToIterateOver.get(k);
+                rawBlocks = prefetchRawBlocksAt(blocksToIterateOver, k, rawBlocks);
+                Block b = readNormalizedBlock(blockNumber, norm, rawBlocks.get(blockNumber));
                 if (b != null) {
-                    for (ContactRecord rec : b.getContactRecords()) {
-                        int x = rec.getBinX();
-                        int y = rec.getBinY();
+                    for (int i = 0; i < b.getNumRecords(); i++) {
+                        int x = b.getBinX(i);
+                        int y = b.getBinY(i);
                         if (maxX < x) maxX = x;
                         if (maxY < y) maxY = y;
                     }
@@ -1062,8 +1159,11 @@ public class MatrixZoomData {
             maxY++;
             float[][] matrix = new float[maxX][maxY];  // auto initialized to 0
 
-            for (Integer blockNumber : blocksToIterateOver) {
-                Block b = reader.readNormalizedBlock(blockNumber, MatrixZoomData.this, norm);
+            rawBlocks = Collections.emptyMap();
+            for (int k = 0; k < blocksToIterateOver.size(); k++) {
+                int blockNumber = blocksToIterateOver.get(k);
+                rawBlocks = prefetchRawBlocksAt(blocksToIterateOver, k, rawBlocks);
+                Block b = readNormalizedBlock(blockNumber, norm, rawBlocks.get(blockNumber));
                 if (b != null) {
                     for (ContactRecord rec : b.getContactRecords()) {
                         float counts = rec.getCounts();
@@ -1152,7 +1252,7 @@ public class MatrixZoomData {
         for (Integer blockNumber : blocksToIterateOver) {
             Block b = null;
             try {
-                b = reader.readNormalizedBlock(blockNumber, MatrixZoomData.this, norm);
+                b = readNormalizedBlock(blockNumber, norm);
             } catch (Exception e) {
                 System.err.println("Skipping block " + blockNumber);
             }
@@ -1249,7 +1349,7 @@ public class MatrixZoomData {
     }
 
     // Merge and write out blocks one at a time.
-    public Pair<List<IndexEntry>,ExpectedValueCalculation> mergeAndWriteBlocks(LittleEndianOutputStream los, Deflater compressor,
+    public Pair<List<IndexEntry>,ExpectedValueCalculation> mergeAndWriteBlocks(LittleEndianOutputStream los, BlockCompressor compressor,
                                                 boolean calculateExpecteds, Map<String, Integer> fragmentCountMap, ChromosomeHandler chromosomeHandler,
                                                                                double subsampleFraction, Random randomSubsampleGenerator) throws IOException {
 
@@ -1280,7 +1380,7 @@ public class MatrixZoomData {
     }
 
     // Merge and write out blocks multithreaded.
-    public Pair<List<IndexEntry>,ExpectedValueCalculation> mergeAndWriteBlocks(LittleEndianOutputStream[] losArray, Deflater compressor, int whichZoom, int numResolutions,
+    public Pair<List<IndexEntry>,ExpectedValueCalculation> mergeAndWriteBlocks(LittleEndianOutputStream[] losArray, BlockCompressor compressor, int whichZoom, int numResolutions,
                                                                                boolean calculateExpecteds, Map<String, Integer> fragmentCountMap, ChromosomeHandler chromosomeHandler,
                                                                                double subsampleFraction, Random randomSubsampleGenerator) {
         List<Integer> sortedBlockNumbers = reader.getBlockNumbers(this);
@@ -1350,7 +1450,7 @@ public class MatrixZoomData {
                 @Override
                 public void run() {
                     try {
-                        writeBlockChunk(startBlock, endBlock, sortedBlockNumbers, losArray, whichLos, indexEntries, calc, subsampleFraction, randomSubsampleGenerator);
+                        writeBlockChunk(compressor.getCodec(), startBlock, endBlock, sortedBlockNumbers, losArray, whichLos, indexEntries, calc, subsampleFraction, randomSubsampleGenerator);
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
@@ -1408,10 +1508,9 @@ public class MatrixZoomData {
         return new Pair<>(finalIndexEntries, zoomCalc);
     }
 
-    private void writeBlockChunk(int startBlock, int endBlock, List<Integer> sortedBlockNumbers, LittleEndianOutputStream[] losArray,
+    private void writeBlockChunk(BlockCodec codec, int startBlock, int endBlock, List<Integer> sortedBlockNumbers, LittleEndianOutputStream[] losArray,
                                  int threadNum, List<IndexEntry> indexEntries, ExpectedValueCalculation calc, double subsampleFraction, Random randomSubsampleGenerator) throws IOException{
-        Deflater compressor = new Deflater();
-        compressor.setLevel(Deflater.DEFAULT_COMPRESSION);
+        BlockCompressor compressor = new BlockCompressor(codec);
         //System.err.println(threadBlocks.length);
         for (int i = startBlock; i <= endBlock; i++) {
 
@@ -1436,7 +1535,7 @@ public class MatrixZoomData {
      * @param block       Block to write
      * @throws IOException
      */
-    protected void writeBlock(Block block, LittleEndianOutputStream los, Deflater compressor, ExpectedValueCalculation calc, double subsampleFraction, Random randomSubsampleGenerator) throws IOException {
+    protected void writeBlock(Block block, LittleEndianOutputStream los, BlockCompressor compressor, ExpectedValueCalculation calc, double subsampleFraction, Random randomSubsampleGenerator) throws IOException {
 
         final List<ContactRecord> records;
         if (subsampleFraction < 1) {
@@ -1602,47 +1701,11 @@ public class MatrixZoomData {
 
 
         byte[] bytes = buffer.getBytes();
-        byte[] compressedBytes = compress(bytes, compressor);
+        byte[] compressedBytes = compressor.compress(bytes);
         los.write(compressedBytes);
 
     }
 
-    /**
-     * todo should this be synchronized?
-     *
-     * @param data
-     * @param compressor
-     * @return
-     */
-    protected byte[] compress(byte[] data, Deflater compressor) {
-
-        // Give the compressor the data to compress
-        compressor.reset();
-        compressor.setInput(data);
-        compressor.finish();
-
-        // Create an expandable byte array to hold the compressed data.
-        // You cannot use an array that's the same size as the orginal because
-        // there is no guarantee that the compressed data will be smaller than
-        // the uncompressed data.
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length);
-
-        // Compress the data
-        byte[] buf = new byte[1024];
-        while (!compressor.finished()) {
-            int count = compressor.deflate(buf);
-            bos.write(buf, 0, count);
-        }
-        try {
-            bos.close();
-        } catch (IOException e) {
-            System.err.println("Error clossing ByteArrayOutputStream");
-            e.printStackTrace();
-        }
-
-        return bos.toByteArray();
-    }
-
     // Merge and write out blocks multithreaded.
     public ExpectedValueCalculation computeExpected(boolean calculateExpecteds, Map<String, Integer> fragmentCountMap, ChromosomeHandler chromosomeHandler, int numCPUThreads) {
         List<Integer> sortedBlockNumbers = reader.getBlockNumbers(this);
@@ -0,0 +1,225 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only memory mapping of a local .hic file.
+ * <p>
+ * FileChannel.map is limited to 2 GB per buffer, so the file is mapped as a series of segments.
+ * Consecutive segments overlap by SEGMENT_OVERLAP bytes, which guarantees that any range up to
+ * that size (i.e. every block, and almost every index or vector) lies entirely inside one segment
+ * and can be returned as a slice without copying.
+ * <p>
+ * close() unmaps the file right away rather than waiting for the garbage collector; slices must not be
+ * used after that.
+ */
+public class MemoryMappedFile {
+
+    private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+    private static final long SEGMENT_OVERLAP = 64L * 1024 * 1024;
+    private static final long SEGMENT_STEP = MAX_SEGMENT_SIZE - SEGMENT_OVERLAP;
+
+    private final String path;
+    private final long length;
+    private final MappedByteBuffer[] segments;
+    private volatile boolean closed = false;
+
+    public MemoryMappedFile(String path) throws IOException {
+        this.path = path;
+        try (RandomAccessFile raf = new RandomAccessFile(path, "r"); FileChannel channel = raf.getChannel()) {
+            length = channel.size();
+            int numSegments = (int) Math.max(1, (Math.max(0, length - SEGMENT_OVERLAP) + SEGMENT_STEP - 1) / SEGMENT_STEP);
+            segments = new MappedByteBuffer[numSegments];
+            for (int i = 0; i < numSegments; i++) {
+                long start = i * SEGMENT_STEP;
+                long size = Math.min(MAX_SEGMENT_SIZE, length - start);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            }
+        }
+    }
+
+    /**
+     * Only plain local files can be mapped; http, S3, etc. paths should keep using streams.
+     */
+    public static boolean canMap(String path) {
+        if (path == null || path.contains("://")) return false;
+        File file = new File(path);
+        return file.isFile() && file.canRead();
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /**
+     * @return little-endian view of [position, position + size); zero-copy unless it straddles a segment boundary
+     */
+    public ByteBuffer slice(long position, int size) throws IOException {
+        checkBounds(position, size);
+        int index = segmentIndex(position);
+        int offset = (int) (position - index * SEGMENT_STEP);
+        MappedByteBuffer segment = segments[index];
+        if (offset + size <= segment.capacity()) {
+            ByteBuffer view = segment.duplicate();
+            view.position(offset);
+            view.limit(offset + size);
+            return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        // rare case of a very large range; fall back to a copy
+        byte[] copy = new byte[size];
+        InputStream is = getInputStream(position);
+        int total = 0;
+        while (total < size) {
+            total += is.read(copy, total, size - total);
+        }
+        return ByteBuffer.wrap(copy).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Sequential stream over the mapped file starting at the given position; reads go straight to the mapping.
+     */
+    public InputStream getInputStream(long position) throws IOException {
+        checkBounds(position, 0);
+        return new MappedInputStream(position);
+    }
+
+    /**
+     * Unmaps the file; reads after this fail with an IOException. The caller must make sure that no read is
+     * in progress. If the runtime does not allow unmapping, the mappings are released when garbage collected.
+     */
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        for (int i = 0; i < segments.length; i++) {
+            unmap(segments[i]);
+            segments[i] = null;
+        }
+    }
+
+    /**
+     * sun.misc.Unsafe.invokeCleaner on Java 9+, or the buffer's cleaner on Java 8, via reflection
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (Exception e) {
+            // not Java 9+
+        }
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            // left to the garbage collector
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException(path + " has been closed");
+        }
+    }
+
+    private int segmentIndex(long position) {
+        return (int) Math.min(segments.length - 1, position / SEGMENT_STEP);
+    }
+
+    private void checkBounds(long position, long size) throws IOException {
+        ensureOpen();
+        if (position < 0 || size < 0 || position + size > length) {
+            throw new IOException("Range " + position + "+" + size + " is outside of " + path + " (" + length + " bytes)");
+        }
+    }
+
+    private class MappedInputStream extends InputStream {
+
+        private long position;
+
+        MappedInputStream(long position) {
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            ensureOpen();
+            if (position >= length) return -1;
+            int index = segmentIndex(position);
+            int value = segments[index].get((int) (position - index * SEGMENT_STEP)) & 0xff;
+            position++;
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            if (len == 0) return 0;
+            if (position >= length) return -1;
+            int index = segmentIndex(position);
+            int offset = (int) (position - index * SEGMENT_STEP);
+            MappedByteBuffer segment = segments[index];
+            int n = Math.min(len, segment.capacity() - offset);
+            ByteBuffer view = segment.duplicate();
+            view.position(offset);
+            view.get(b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, length - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, length - position);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.data;
+
+import juicebox.data.basics.ListOfDoubleArrays;
+
+/**
+ * A normalized block that is a view over a raw (NONE) block and the two normalization vectors.
+ * Normalized counts are computed on access, so every normalization of a matrix shares one decompressed raw block.
+ * Records whose normalized value is NaN are skipped, as they were when normalized blocks were copied.
+ * <p>
+ * Views are cached under their normalized key and weighed by the arrays they own; the BlockCache drops a view
+ * when its raw block leaves the cache, so the raw arrays are never kept alive without being counted. Writes (e.g. through getContactRecords().set()) first copy the normalized records into a block of
+ * their own, so the shared raw block is never modified.
+ */
+public class NormalizedBlock extends Block {
+
+    private Block rawBlock;
+    private final ListOfDoubleArrays nv1Data;
+    private final ListOfDoubleArrays nv2Data;
+    // positions of the kept records in the raw block; null if every record is kept
+    private int[] rawIndices;
+    private int numRecords;
+    // normalized records, once this view has been written to
+    private volatile Block copy = null;
+
+    public NormalizedBlock(Block rawBlock, ListOfDoubleArrays nv1Data, ListOfDoubleArrays nv2Data, String regionID) {
+        super(rawBlock.getNumber(), regionID);
+        this.rawBlock = rawBlock;
+        this.nv1Data = nv1Data;
+        this.nv2Data = nv2Data;
+
+        int numRaw = rawBlock.getNumRecords();
+        int[] kept = null;
+        int n = 0;
+        for (int i = 0; i < numRaw; i++) {
+            double denominator = nv1Data.get(rawBlock.getBinX(i)) * nv2Data.get(rawBlock.getBinY(i));
+            if (Float.isNaN((float) (rawBlock.getCounts(i) / denominator))) {
+                if (kept == null) {
+                    kept = new int[numRaw];
+                    for (int j = 0; j < i; j++) {
+                        kept[j] = j;
+                    }
+                }
+            } else {
+                if (kept != null) {
+                    kept[n] = i;
+                }
+                n++;
+            }
+        }
+        this.rawIndices = kept;
+        this.numRecords = n;
+    }
+
+    public Block getRawBlock() {
+        return rawBlock;
+    }
+
+    @Override
+    public int getNumRecords() {
+        if (copy != null) return copy.getNumRecords();
+        return numRecords;
+    }
+
+    @Override
+    public int getBinX(int index) {
+        if (copy != null) return copy.getBinX(index);
+        return rawBlock.getBinX(toRawIndex(index));
+    }
+
+    @Override
+    public int getBinY(int index) {
+        if (copy != null) return copy.getBinY(index);
+        return rawBlock.getBinY(toRawIndex(index));
+    }
+
+    @Override
+    public float getCounts(int index) {
+        if (copy != null) return copy.getCounts(index);
+        int i = toRawIndex(index);
+        return (float) (rawBlock.getCounts(i) / (nv1Data.get(rawBlock.getBinX(i)) * nv2Data.get(rawBlock.getBinY(i))));
+    }
+
+    /**
+     * Only the arrays this view owns; the raw block is weighed by its own cache entry
+     */
+    @Override
+    public long getEstimatedMemoryUsage() {
+        long usage = 64 + 40 + 2L * getUniqueRegionID().length() + (rawIndices == null ? 0 : 16 + 4L * rawIndices.length);
+        Block currentCopy = copy;
+        return usage + (currentCopy == null ? 0 : currentCopy.getEstimatedMemoryUsage());
+    }
+
+    @Override
+    protected synchronized void addRecord(int binX, int binY, float count) {
+        copyOnWrite().addRecord(binX, binY, count);
+    }
+
+    @Override
+    protected synchronized void setRecord(int index, int binX, int binY, float count) {
+        copyOnWrite().setRecord(index, binX, binY, count);
+    }
+
+    private Block copyOnWrite() {
+        if (copy == null) {
+            int n = numRecords;
+            int[] binXs = new int[n];
+            int[] binYs = new int[n];
+            float[] counts = new float[n];
+            for (int i = 0; i < n; i++) {
+                binXs[i] = getBinX(i);
+                binYs[i] = getBinY(i);
+                counts[i] = getCounts(i);
+            }
+            copy = new Block(getNumber(), binXs, binYs, counts, n, "");
+        }
+        return copy;
+    }
+
+    /**
+     * Drops this view's reference to the raw block; the raw block itself may still be cached and is left intact
+     */
+    @Override
+    public void clear() {
+        rawBlock = new Block(rawBlock.getNumber(), getUniqueRegionID());
+        rawIndices = null;
+        numRecords = 0;
+        copy = null;
+    }
+
+    /**
+     * Shares the raw block's row index when no records were dropped, since the record positions are then identical
+     */
+    @Override
+    RowIndex getRowIndex() {
+        if (copy != null) return copy.getRowIndex();
+        return rawIndices == null ? rawBlock.getRowIndex() : super.getRowIndex();
+    }
+
+    private int toRawIndex(int index) {
+        return rawIndices == null ? index : rawIndices[index];
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.data;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import org.broad.igv.util.stream.IGVSeekableStreamFactory;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of open seekable streams for a single .hic file, so that block reads
+ * can reuse a stream rather than paying an open/close for every block.
+ * <p>
+ * Streams are handed out to one thread at a time; callers must always seek before reading.
+ * Streams that sit idle for longer than the timeout are closed the next time the pool is touched.
+ */
+public class SeekableStreamPool {
+
+    private final String path;
+    private final int maxIdleStreams;
+    private final long idleTimeoutMillis;
+    private final IGVSeekableStreamFactory streamFactory = IGVSeekableStreamFactory.getInstance();
+    // most recently released streams are at the head, stale ones drift to the tail
+    private final ConcurrentLinkedDeque<PooledStream> idleStreams = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger numIdle = new AtomicInteger();
+    private final AtomicLong numOpened = new AtomicLong();
+    private final AtomicLong numReused = new AtomicLong();
+    private final AtomicLong numEvicted = new AtomicLong();
+    private final AtomicLong numDiscarded = new AtomicLong();
+    private volatile boolean closed = false;
+
+    public SeekableStreamPool(String path, int maxIdleStreams, long idleTimeoutMillis) {
+        this.path = path;
+        this.maxIdleStreams = Math.max(1, maxIdleStreams);
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * @return an open stream for exclusive use by the caller; give it back with release() or invalidate()
+     */
+    public SeekableStream borrow() throws IOException {
+        evictIdleStreams();
+        PooledStream pooled = idleStreams.pollFirst();
+        if (pooled != null) {
+            numIdle.decrementAndGet();
+            numReused.incrementAndGet();
+            return pooled.stream;
+        }
+        return openStream();
+    }
+
+    /**
+     * Return a healthy stream to the pool; it is closed instead if the pool is already full.
+     */
+    public void release(SeekableStream stream) {
+        if (stream == null) return;
+        if (closed) {
+            closeQuietly(stream);
+            return;
+        }
+        if (numIdle.incrementAndGet() > maxIdleStreams) {
+            numIdle.decrementAndGet();
+            numDiscarded.incrementAndGet();
+            closeQuietly(stream);
+        } else {
+            idleStreams.offerFirst(new PooledStream(stream, System.currentTimeMillis()));
+        }
+        evictIdleStreams();
+    }
+
+    /**
+     * Close a stream that hit an error rather than returning it to the pool.
+     */
+    public void invalidate(SeekableStream stream) {
+        if (stream == null) return;
+        numDiscarded.incrementAndGet();
+        closeQuietly(stream);
+    }
+
+    /**
+     * Close all idle streams, once the reader is discarded; streams still borrowed are closed
+     * when they are released rather than being pooled again
+     */
+    public void closeAll() {
+        closed = true;
+        PooledStream pooled;
+        while ((pooled = idleStreams.pollFirst()) != null) {
+            numIdle.decrementAndGet();
+            closeQuietly(pooled.stream);
+        }
+    }
+
+    private SeekableStream openStream() throws IOException {
+        SeekableStream stream;
+        do {
+            stream = streamFactory.getStreamFor(path);
+        } while (stream == null);
+        numOpened.incrementAndGet();
+        return stream;
+    }
+
+    private void evictIdleStreams() {
+        if (idleTimeoutMillis <= 0) return;
+        long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+        Iterator<PooledStream> iterator = idleStreams.descendingIterator();
+        while (iterator.hasNext()) {
+            PooledStream pooled = iterator.next();
+            if (pooled.lastUsed >= cutoff) {
+                break;
+            }
+            if (idleStreams.removeLastOccurrence(pooled)) {
+                numIdle.decrementAndGet();
+                numEvicted.incrementAndGet();
+                closeQuietly(pooled.stream);
+            }
+        }
+    }
+
+    private static void closeQuietly(SeekableStream stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            System.err.println("Error closing pooled stream " + e.getLocalizedMessage());
+        }
+    }
+
+    public int getNumIdle() {
+        return numIdle.get();
+    }
+
+    public long getNumOpened() {
+        return numOpened.get();
+    }
+
+    public long getNumReused() {
+        return numReused.get();
+    }
+
+    public long getNumEvicted() {
+        return numEvicted.get();
+    }
+
+    public long getNumDiscarded() {
+        return numDiscarded.get();
+    }
+
+    public void resetStatistics() {
+        numOpened.set(0);
+        numReused.set(0);
+        numEvicted.set(0);
+        numDiscarded.set(0);
+    }
+
+    public String getStatistics() {
+        return "Stream pool for " + path + ": opened " + numOpened.get() + ", reused " + numReused.get() +
+                ", evicted " + numEvicted.get() + ", discarded " + numDiscarded.get() + ", idle " + numIdle.get();
+    }
+
+    private static class PooledStream {
+        final SeekableStream stream;
+        final long lastUsed;
+
+        PooledStream(SeekableStream stream, long lastUsed) {
+            this.stream = stream;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
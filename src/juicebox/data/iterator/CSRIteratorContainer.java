@@ -0,0 +1,354 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.data.iterator;
+
+import juicebox.data.ContactRecord;
+import juicebox.data.basics.ListOfDoubleArrays;
+import juicebox.data.basics.ListOfFloatArrays;
+import juicebox.data.basics.ListOfIntArrays;
+import juicebox.tools.dev.ParallelizedJuicerTools;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Contact records packed into a symmetric compressed sparse row matrix of primitive arrays.
+ * Both triangles are stored, so a matrix-vector product is computed row by row and the rows can be
+ * split across threads without per-thread result vectors. Rows are grouped into segments so the
+ * number of entries is not limited by the maximum array size.
+ */
+public class CSRIteratorContainer extends IteratorContainer {
+
+    private static final int SEGMENT_CAPACITY = 1 << 28;
+    private static final int CHUNKS_PER_THREAD = 8;
+
+    private final long[] rowStarts;
+    private final int[] segmentFirstRows;
+    private final int[][] segmentColumns;
+    private final float[][] segmentValues;
+    private final int[] chunkFirstRows;
+
+    /**
+     * @param iterators supplies the iterators over all the contact records of the matrix; called twice,
+     *                  once to count the entries of each row and once to fill them in
+     */
+    public CSRIteratorContainer(IteratorSupplier iterators, long matrixSize) {
+        super(matrixSize);
+        int n = (int) matrixSize;
+
+        int[] rowCounts = countEntriesPerRow(iterators.get(), n);
+        rowStarts = new long[n + 1];
+        for (int i = 0; i < n; i++) {
+            rowStarts[i + 1] = rowStarts[i] + rowCounts[i];
+        }
+
+        segmentFirstRows = createSegments(rowCounts, n);
+        int numSegments = segmentFirstRows.length - 1;
+        segmentColumns = new int[numSegments][];
+        segmentValues = new float[numSegments][];
+        for (int s = 0; s < numSegments; s++) {
+            int size = (int) (rowStarts[segmentFirstRows[s + 1]] - rowStarts[segmentFirstRows[s]]);
+            segmentColumns[s] = new int[size];
+            segmentValues[s] = new float[size];
+        }
+
+        setNumberOfContactRecords(fill(iterators.get(), n));
+        // the number of threads available for products can grow once other tasks finish
+        int maxThreads = Math.max(numCPUMatrixThreads, Runtime.getRuntime().availableProcessors());
+        chunkFirstRows = createChunks(n, maxThreads * CHUNKS_PER_THREAD);
+        sortRows();
+    }
+
+    private static int[] countEntriesPerRow(List<Iterator<ContactRecord>> iterators, int n) {
+        int[] rowCounts = new int[n];
+        AtomicInteger index = new AtomicInteger(0);
+        ParallelizedJuicerTools.launchParallelizedCode(numCPUMatrixThreads, () -> {
+            int[] localCounts = new int[n];
+            int i = index.getAndIncrement();
+            while (i < iterators.size()) {
+                Iterator<ContactRecord> iterator = iterators.get(i);
+                while (iterator.hasNext()) {
+                    ContactRecord cr = iterator.next();
+                    localCounts[cr.getBinX()]++;
+                    if (cr.getBinX() != cr.getBinY()) {
+                        localCounts[cr.getBinY()]++;
+                    }
+                }
+                i = index.getAndIncrement();
+            }
+            synchronized (rowCounts) {
+                for (int r = 0; r < n; r++) {
+                    rowCounts[r] += localCounts[r];
+                }
+            }
+        });
+        return rowCounts;
+    }
+
+    /**
+     * @return first row of each segment, plus n; a segment holds at most SEGMENT_CAPACITY entries
+     * unless a single row needs more
+     */
+    private static int[] createSegments(int[] rowCounts, int n) {
+        int[] firstRows = new int[n + 2];
+        int numSegments = 1;
+        long size = 0;
+        for (int r = 0; r < n; r++) {
+            if (size > 0 && size + rowCounts[r] > SEGMENT_CAPACITY) {
+                firstRows[numSegments++] = r;
+                size = 0;
+            }
+            size += rowCounts[r];
+        }
+        firstRows[numSegments] = n;
+        return Arrays.copyOf(firstRows, numSegments + 1);
+    }
+
+    private long fill(List<Iterator<ContactRecord>> iterators, int n) {
+        AtomicIntegerArray filled = new AtomicIntegerArray(n);
+        AtomicInteger index = new AtomicInteger(0);
+        long[] numRecords = new long[1];
+        ParallelizedJuicerTools.launchParallelizedCode(numCPUMatrixThreads, () -> {
+            long localRecords = 0;
+            int i = index.getAndIncrement();
+            while (i < iterators.size()) {
+                Iterator<ContactRecord> iterator = iterators.get(i);
+                while (iterator.hasNext()) {
+                    ContactRecord cr = iterator.next();
+                    int x = cr.getBinX();
+                    int y = cr.getBinY();
+                    put(x, y, cr.getCounts(), filled);
+                    if (x != y) {
+                        put(y, x, cr.getCounts(), filled);
+                    }
+                    localRecords++;
+                }
+                i = index.getAndIncrement();
+            }
+            synchronized (numRecords) {
+                numRecords[0] += localRecords;
+            }
+        });
+        return numRecords[0];
+    }
+
+    private void put(int row, int column, float value, AtomicIntegerArray filled) {
+        int segment = getSegment(row);
+        int position = (int) (rowStarts[row] - rowStarts[segmentFirstRows[segment]]) + filled.getAndIncrement(row);
+        segmentColumns[segment][position] = column;
+        segmentValues[segment][position] = value;
+    }
+
+    private int getSegment(int row) {
+        int segment = Arrays.binarySearch(segmentFirstRows, row);
+        if (segment < 0) {
+            return -segment - 2;
+        }
+        // empty segments cannot occur, but rows past the end belong to the last segment
+        return Math.min(segment, segmentFirstRows.length - 2);
+    }
+
+    /**
+     * @return first row of each chunk of work, with about the same number of entries in each chunk
+     */
+    private int[] createChunks(int n, int numChunks) {
+        long total = rowStarts[n];
+        int[] firstRows = new int[numChunks + 1];
+        int row = 0;
+        for (int c = 1; c < numChunks; c++) {
+            long target = total * c / numChunks;
+            while (row < n && rowStarts[row] < target) {
+                row++;
+            }
+            firstRows[c] = row;
+        }
+        firstRows[numChunks] = n;
+        return firstRows;
+    }
+
+    /**
+     * Orders the entries of each row by column, which makes the products deterministic whatever order
+     * the records were filled in, and walks the vector forwards
+     */
+    private void sortRows() {
+        AtomicInteger index = new AtomicInteger(0);
+        ParallelizedJuicerTools.launchParallelizedCode(numCPUMatrixThreads, () -> {
+            long[] buffer = new long[0];
+            int c = index.getAndIncrement();
+            while (c < chunkFirstRows.length - 1) {
+                for (int row = chunkFirstRows[c]; row < chunkFirstRows[c + 1]; row++) {
+                    int segment = getSegment(row);
+                    int[] columns = segmentColumns[segment];
+                    float[] values = segmentValues[segment];
+                    int start = (int) (rowStarts[row] - rowStarts[segmentFirstRows[segment]]);
+                    int length = (int) (rowStarts[row + 1] - rowStarts[row]);
+                    if (buffer.length < length) {
+                        buffer = new long[length];
+                    }
+                    for (int k = 0; k < length; k++) {
+                        buffer[k] = ((long) columns[start + k] << 32) | (Float.floatToRawIntBits(values[start + k]) & 0xFFFFFFFFL);
+                    }
+                    Arrays.sort(buffer, 0, length);
+                    for (int k = 0; k < length; k++) {
+                        columns[start + k] = (int) (buffer[k] >>> 32);
+                        values[start + k] = Float.intBitsToFloat((int) buffer[k]);
+                    }
+                }
+                c = index.getAndIncrement();
+            }
+        });
+    }
+
+    @Override
+    public Iterator<ContactRecord> getNewContactRecordIterator() {
+        return new UpperTriangleIterator();
+    }
+
+    @Override
+    public boolean getIsThereEnoughMemoryForNormCalculation() {
+        // float is 4 bytes; one for each row (row sums), plus the row offsets
+        // 2 entries of 8 bytes (int column, float value) per off-diagonal contact record
+        return 12 * getMatrixSize() + 16 * getNumberOfContactRecords() < Runtime.getRuntime().maxMemory();
+    }
+
+    @Override
+    public ListOfFloatArrays sparseMultiply(ListOfFloatArrays vector, long vectorLength, int numThreads) {
+        int n = (int) getMatrixSize();
+        float[] x = new float[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = vector.get(i);
+        }
+
+        ListOfFloatArrays result = new ListOfFloatArrays(vectorLength);
+        forEachChunk(numThreads, (row, columns, values, start, end) -> {
+            double sum = 0;
+            for (int k = start; k < end; k++) {
+                sum += (double) values[k] * x[columns[k]];
+            }
+            result.set(row, (float) sum);
+        });
+        return result;
+    }
+
+    @Override
+    public ListOfDoubleArrays sparseMultiply(ListOfIntArrays offset, ListOfDoubleArrays vector, int numThreads) {
+        int n = (int) getMatrixSize();
+        double[] x = new double[n];
+        for (int i = 0; i < n; i++) {
+            int index = offset.get(i);
+            if (index != -1) {
+                x[i] = vector.get(index);
+            }
+        }
+
+        ListOfDoubleArrays result = new ListOfDoubleArrays(vector.getLength());
+        forEachChunk(numThreads, (row, columns, values, start, end) -> {
+            int index = offset.get(row);
+            if (index == -1) return;
+            double sum = 0;
+            for (int k = start; k < end; k++) {
+                sum += x[columns[k]] * values[k];
+            }
+            result.set(index, sum);
+        });
+        return result;
+    }
+
+    private void forEachChunk(int numThreads, RowOperation operation) {
+        AtomicInteger index = new AtomicInteger(0);
+        ParallelizedJuicerTools.launchParallelizedCode(numThreads, () -> {
+            int c = index.getAndIncrement();
+            while (c < chunkFirstRows.length - 1) {
+                for (int row = chunkFirstRows[c]; row < chunkFirstRows[c + 1]; row++) {
+                    int segment = getSegment(row);
+                    long segmentStart = rowStarts[segmentFirstRows[segment]];
+                    operation.apply(row, segmentColumns[segment], segmentValues[segment],
+                            (int) (rowStarts[row] - segmentStart), (int) (rowStarts[row + 1] - segmentStart));
+                }
+                c = index.getAndIncrement();
+            }
+        });
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(segmentColumns, null);
+        Arrays.fill(segmentValues, null);
+    }
+
+    public interface IteratorSupplier {
+        List<Iterator<ContactRecord>> get();
+    }
+
+    private interface RowOperation {
+        void apply(int row, int[] columns, float[] values, int start, int end);
+    }
+
+    /**
+     * Each contact record once, as the entries on or above the diagonal
+     */
+    private class UpperTriangleIterator implements Iterator<ContactRecord> {
+        private int row = 0, segment = 0;
+        private long position = 0;
+        private ContactRecord next = advance();
+
+        private ContactRecord advance() {
+            while (row < rowStarts.length - 1) {
+                while (position < rowStarts[row + 1]) {
+                    while (row >= segmentFirstRows[segment + 1]) {
+                        segment++;
+                    }
+                    int k = (int) (position - rowStarts[segmentFirstRows[segment]]);
+                    position++;
+                    int column = segmentColumns[segment][k];
+                    if (column >= row) {
+                        return new ContactRecord(row, column, segmentValues[segment][k]);
+                    }
+                }
+                row++;
+            }
+            return null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public ContactRecord next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            ContactRecord current = next;
+            next = advance();
+            return current;
+        }
+    }
+}
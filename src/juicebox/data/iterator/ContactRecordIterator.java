@@ -26,32 +26,37 @@ package juicebox.data.iterator;
 
 import juicebox.HiCGlobals;
 import juicebox.data.Block;
+import juicebox.data.BlockCache;
 import juicebox.data.ContactRecord;
 import juicebox.data.DatasetReader;
+import juicebox.data.DatasetReaderV2;
 import juicebox.data.MatrixZoomData;
 import juicebox.windowui.NormalizationHandler;
-import org.broad.igv.util.collections.LRUCache;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 public /**
  * Class for iterating over the contact records
  */
 class ContactRecordIterator implements Iterator<ContactRecord> {
-    
+
+    private static final int NUM_BLOCKS_PER_READ = 64;
     private final List<Integer> blockNumbers;
     private int blockIdx;
     private Iterator<ContactRecord> currentBlockIterator;
     private final DatasetReader reader;
     private final MatrixZoomData zd;
-    private final LRUCache<String, Block> blockCache;
-    
+    private final BlockCache blockCache;
+    private Map<Integer, Block> prefetchedBlocks = Collections.emptyMap();
+
     /**
      * Initializes the iterator
      */
-    ContactRecordIterator(DatasetReader reader, MatrixZoomData zd, LRUCache<String, Block> blockCache) {
+    ContactRecordIterator(DatasetReader reader, MatrixZoomData zd, BlockCache blockCache) {
         this.reader = reader;
         this.zd = zd;
         this.blockCache = blockCache;
@@ -75,13 +80,17 @@ class ContactRecordIterator implements Iterator<ContactRecord> {
             if (blockNumbers != null && blockIdx < blockNumbers.size()) {
                 try {
                     int blockNumber = blockNumbers.get(blockIdx);
+                    if (blockIdx % NUM_BLOCKS_PER_READ == 0) {
+                        prefetchNextBlocks();
+                    }
 
                     // Optionally check the cache
                     String key = zd.getBlockKey(blockNumber, NormalizationHandler.NONE);
-                    Block nextBlock;
-                    if (HiCGlobals.useCache && blockCache.containsKey(key)) {
-                        nextBlock = blockCache.get(key);
-                    } else {
+                    Block nextBlock = HiCGlobals.useCache ? blockCache.get(key) : null;
+                    if (nextBlock == null) {
+                        nextBlock = prefetchedBlocks.get(blockNumber);
+                    }
+                    if (nextBlock == null) {
                         nextBlock = reader.readNormalizedBlock(blockNumber, zd, NormalizationHandler.NONE);
                     }
                     currentBlockIterator = nextBlock.getContactRecords().iterator();
@@ -96,6 +105,17 @@ class ContactRecordIterator implements Iterator<ContactRecord> {
         return false;
     }
 
+    /**
+     * Reads the next batch of blocks with one coalesced read rather than a seek per block
+     */
+    private void prefetchNextBlocks() throws IOException {
+        prefetchedBlocks = Collections.emptyMap();
+        if (HiCGlobals.useCoalescedBlockReads && reader instanceof DatasetReaderV2) {
+            prefetchedBlocks = ((DatasetReaderV2) reader).readBlocks(
+                    blockNumbers.subList(blockIdx, Math.min(blockIdx + NUM_BLOCKS_PER_READ, blockNumbers.size())), zd);
+        }
+    }
+
     /**
      * Returns the next contact record
      *
@@ -72,13 +72,13 @@ public class GWIteratorContainer extends IteratorContainer {
     }
 
     @Override
-    public ListOfFloatArrays sparseMultiply(ListOfFloatArrays vector, long vectorLength) {
+    public ListOfFloatArrays sparseMultiply(ListOfFloatArrays vector, long vectorLength, int numThreads) {
         final ListOfFloatArrays totalSumVector = new ListOfFloatArrays(vectorLength);
 
         List<Iterator<ContactRecord>> allIterators = getAllFromFileContactRecordIterators();
 
         AtomicInteger index = new AtomicInteger(0);
-        ParallelizedJuicerTools.launchParallelizedCode(numCPUMatrixThreads, () -> {
+        ParallelizedJuicerTools.launchParallelizedCode(numThreads, () -> {
             int i = index.getAndIncrement();
             ListOfFloatArrays accumSumVector = new ListOfFloatArrays(vectorLength);
             while (i < allIterators.size()) {
@@ -27,6 +27,7 @@ package juicebox.data.iterator;
 import juicebox.data.ContactRecord;
 import juicebox.data.basics.ListOfDoubleArrays;
 import juicebox.data.basics.ListOfFloatArrays;
+import juicebox.data.basics.ListOfIntArrays;
 
 import java.util.Iterator;
 
@@ -59,6 +60,15 @@ public abstract class IteratorContainer {
         return numberOfContactRecords;
     }
 
+    /**
+     * @return the number of contact records if it is already known, otherwise the matrix size;
+     * unlike getNumberOfContactRecords, this never iterates through the records
+     */
+    public long getEstimatedNumberOfContactRecords() {
+        if (numberOfContactRecords > 0) return numberOfContactRecords;
+        return matrixSize;
+    }
+
     public long getMatrixSize() {
         return matrixSize;
     }
@@ -70,7 +80,48 @@ public abstract class IteratorContainer {
         return matrixSize * 4 < Runtime.getRuntime().maxMemory();
     }
 
-    public abstract ListOfFloatArrays sparseMultiply(ListOfFloatArrays vector, long vectorLength);
+    public ListOfFloatArrays sparseMultiply(ListOfFloatArrays vector, long vectorLength) {
+        return sparseMultiply(vector, vectorLength, numCPUMatrixThreads);
+    }
+
+    /**
+     * Multiplies the matrix with the vector using at most numThreads threads, so that tasks running
+     * side by side can split the CPUs between them without changing numCPUMatrixThreads
+     */
+    public abstract ListOfFloatArrays sparseMultiply(ListOfFloatArrays vector, long vectorLength, int numThreads);
+
+    public ListOfDoubleArrays sparseMultiply(ListOfIntArrays offset, ListOfDoubleArrays vector) {
+        return sparseMultiply(offset, vector, numCPUMatrixThreads);
+    }
+
+    /**
+     * Multiplies the matrix restricted to the rows and columns kept by offset with the vector;
+     * offset maps each row of the matrix to its index in the vector, or -1 if the row was removed.
+     * This version runs on the calling thread; subclasses that can split the work use up to numThreads threads
+     */
+    public ListOfDoubleArrays sparseMultiply(ListOfIntArrays offset, ListOfDoubleArrays vector, int numThreads) {
+        ListOfDoubleArrays result = new ListOfDoubleArrays(vector.getLength());
+
+        Iterator<ContactRecord> iterator = getNewContactRecordIterator();
+        while (iterator.hasNext()) {
+            ContactRecord cr = iterator.next();
+            int row = cr.getBinX();
+            int col = cr.getBinY();
+            float value = cr.getCounts();
+
+            row = offset.get(row);
+            col = offset.get(col);
+
+            if (row != -1 && col != -1) {
+                result.addTo(row, vector.get(col) * value);
+                if (row != col) {
+                    result.addTo(col, vector.get(row) * value);
+                }
+            }
+        }
+
+        return result;
+    }
 
     public abstract void clear();
 
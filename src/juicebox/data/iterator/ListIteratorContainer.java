@@ -91,8 +91,8 @@ public class ListIteratorContainer extends IteratorContainer {
     }
 
     @Override
-    public ListOfFloatArrays sparseMultiply(ListOfFloatArrays vector, long vectorLength) {
-        return sparseMultiplyByListContacts(readList, vector, vectorLength, numCPUMatrixThreads);
+    public ListOfFloatArrays sparseMultiply(ListOfFloatArrays vector, long vectorLength, int numThreads) {
+        return sparseMultiplyByListContacts(readList, vector, vectorLength, numThreads);
     }
 
     @Override
@@ -28,8 +28,8 @@ import juicebox.HiCGlobals;
 import juicebox.data.*;
 import juicebox.tools.dev.ParallelizedJuicerTools;
 import juicebox.windowui.HiCZoom;
-import org.broad.igv.util.collections.LRUCache;
 
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -37,7 +37,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class ListOfListGenerator {
 
     public static IteratorContainer createFromZD(DatasetReader reader, MatrixZoomData matrixZoomData,
-                                                 LRUCache<String, Block> blockCache) {
+                                                 BlockCache blockCache) {
         IteratorContainer ic = new ZDIteratorContainer(reader, matrixZoomData, blockCache);
         return tryToCreateIteratorInRAM(ic);
     }
@@ -48,26 +48,29 @@ public class ListOfListGenerator {
         return tryToCreateIteratorInRAM(ic);
     }
 
+    /**
+     * Holds the contact records in RAM when they fit, otherwise (or with --conserve-ram) in spill files
+     * if those are enabled, and only as a last resort re-reads the blocks on every pass
+     */
     private static IteratorContainer tryToCreateIteratorInRAM(IteratorContainer ic0) {
-        if (HiCGlobals.USE_ITERATOR_NOT_ALL_IN_RAM) {
-            return ic0;
-        }
-
         try {
             // we should count once to ensure this is reasonable to do so memory-wise
-            boolean shouldFitInMemory = true;
-            if (HiCGlobals.CHECK_RAM_USAGE) {
+            boolean shouldFitInMemory = !HiCGlobals.USE_ITERATOR_NOT_ALL_IN_RAM;
+            if (shouldFitInMemory && HiCGlobals.CHECK_RAM_USAGE) {
                 shouldFitInMemory = checkMemory(ic0);
             }
 
             if (shouldFitInMemory) {
-                BigContactRecordList allContactRecords = populateListOfLists(ic0);
-                long numOfContactRecords = allContactRecords.getTotalSize();
-
-                IteratorContainer newIC = new ListOfListIteratorContainer(allContactRecords,
-                        ic0.getMatrixSize(),
-                        numOfContactRecords);
-                return newIC;
+                try {
+                    return createInRAM(ic0);
+                } catch (OutOfMemoryError e) {
+                    // whatever was built so far is garbage now
+                    System.err.println("Contact records do not fit in RAM");
+                }
+            }
+            if (HiCGlobals.USE_SPILL_FILE_FOR_NORMS) {
+                // decode the blocks once, rather than on every iteration of the norm calculation
+                return new SpillFileIteratorContainer(getAllContactRecordIterators(ic0), ic0.getMatrixSize());
             }
         } catch (Exception e) {
             System.err.println(e.getLocalizedMessage());
@@ -77,6 +80,18 @@ public class ListOfListGenerator {
         return ic0;
     }
 
+    private static IteratorContainer createInRAM(IteratorContainer ic0) {
+        if (HiCGlobals.USE_CSR_MATRIX_FOR_NORMS) {
+            return new CSRIteratorContainer(() -> getAllContactRecordIterators(ic0), ic0.getMatrixSize());
+        }
+        BigContactRecordList allContactRecords = populateListOfLists(ic0);
+        long numOfContactRecords = allContactRecords.getTotalSize();
+
+        return new ListOfListIteratorContainer(allContactRecords,
+                ic0.getMatrixSize(),
+                numOfContactRecords);
+    }
+
     private static BigContactRecordList populateListOfLists(IteratorContainer ic) {
 
         if (ic instanceof GWIteratorContainer) {
@@ -102,9 +117,22 @@ public class ListOfListGenerator {
         }
     }
 
+    private static List<Iterator<ContactRecord>> getAllContactRecordIterators(IteratorContainer ic) {
+        if (ic instanceof GWIteratorContainer) {
+            return ((GWIteratorContainer) ic).getAllFromFileContactRecordIterators();
+        } else {
+            return Collections.singletonList(ic.getNewContactRecordIterator());
+        }
+    }
+
     private static boolean checkMemory(IteratorContainer ic) {
         long ramForRowSums = ic.getMatrixSize() * 4;
         long ramForAllContactRecords = ic.getNumberOfContactRecords() * 12;
+        if (HiCGlobals.USE_CSR_MATRIX_FOR_NORMS) {
+            // row offsets, and a column and value for both triangles
+            ramForRowSums += ic.getMatrixSize() * 8;
+            ramForAllContactRecords = ic.getNumberOfContactRecords() * 16;
+        }
         return ramForRowSums + ramForAllContactRecords < Runtime.getRuntime().maxMemory();
     }
 }
@@ -57,19 +57,19 @@ public class ListOfListIteratorContainer extends IteratorContainer {
     }
 
     @Override
-    public ListOfFloatArrays sparseMultiply(ListOfFloatArrays vector, long vectorLength) {
+    public ListOfFloatArrays sparseMultiply(ListOfFloatArrays vector, long vectorLength, int numThreads) {
 
-        if (allContactRecords.getNumLists() < numCPUMatrixThreads) {
+        if (allContactRecords.getNumLists() < numThreads) {
             final ListOfFloatArrays totalSumVector = new ListOfFloatArrays(vectorLength);
             for (int k = 0; k < allContactRecords.getNumLists(); k++) {
                 List<ContactRecord> contactRecords = allContactRecords.getSubList(k);
                 totalSumVector.addValuesFrom(ListIteratorContainer.sparseMultiplyByListContacts(
-                        contactRecords, vector, vectorLength, numCPUMatrixThreads));
+                        contactRecords, vector, vectorLength, numThreads));
             }
             return totalSumVector;
         }
 
-        return sparseMultiplyAcrossLists(vector, vectorLength);
+        return sparseMultiplyAcrossLists(vector, vectorLength, numThreads);
     }
 
     @Override
@@ -77,11 +77,11 @@ public class ListOfListIteratorContainer extends IteratorContainer {
         allContactRecords.clear();
     }
 
-    private ListOfFloatArrays sparseMultiplyAcrossLists(ListOfFloatArrays vector, long vectorLength) {
+    private ListOfFloatArrays sparseMultiplyAcrossLists(ListOfFloatArrays vector, long vectorLength, int numThreads) {
         final ListOfDoubleArrays totalSumVector = new ListOfDoubleArrays(vectorLength);
 
         AtomicInteger index = new AtomicInteger(0);
-        ParallelizedJuicerTools.launchParallelizedCode(numCPUMatrixThreads, () -> {
+        ParallelizedJuicerTools.launchParallelizedCode(numThreads, () -> {
             int sIndx = index.getAndIncrement();
             ListOfDoubleArrays sumVector = new ListOfDoubleArrays(vectorLength);
             while (sIndx < allContactRecords.getNumLists()) {
@@ -0,0 +1,270 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.data.iterator;
+
+import com.google.common.util.concurrent.AtomicDoubleArray;
+import juicebox.HiCGlobals;
+import juicebox.data.ContactRecord;
+import juicebox.data.basics.ListOfDoubleArrays;
+import juicebox.data.basics.ListOfFloatArrays;
+import juicebox.data.basics.ListOfIntArrays;
+import juicebox.tools.dev.ParallelizedJuicerTools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Contact records decoded once from the .hic file into binary spill files (int binX, int binY, float counts)
+ * and memory-mapped for every later pass, for matrices whose records do not fit in the heap.
+ * Each file holds at most MAX_RECORDS_PER_FILE records so that it can be mapped as a single buffer.
+ * Products add into one shared vector rather than a full-length vector per thread, as the matrices that end up
+ * here are the ones too big for the heap.
+ */
+public class SpillFileIteratorContainer extends IteratorContainer {
+
+    private static final int RECORD_SIZE = 12;
+    private static final int MAX_RECORDS_PER_FILE = Integer.MAX_VALUE / RECORD_SIZE;
+    private static final int WRITE_BUFFER_SIZE = RECORD_SIZE * 100000;
+
+    private final List<File> files = new ArrayList<>();
+    private final List<ByteBuffer> buffers = new ArrayList<>();
+
+    public SpillFileIteratorContainer(List<Iterator<ContactRecord>> iterators, long matrixSize) throws IOException {
+        super(matrixSize);
+        try {
+            setNumberOfContactRecords(writeSpillFiles(iterators));
+            for (File file : files) {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    buffers.add(buffer.order(ByteOrder.LITTLE_ENDIAN));
+                }
+            }
+        } catch (IOException e) {
+            clear();
+            throw e;
+        }
+    }
+
+    private long writeSpillFiles(List<Iterator<ContactRecord>> iterators) throws IOException {
+        AtomicInteger index = new AtomicInteger(0);
+        long[] numRecords = new long[1];
+        IOException[] failure = new IOException[1];
+        ParallelizedJuicerTools.launchParallelizedCode(numCPUMatrixThreads, () -> {
+            try (SpillWriter writer = new SpillWriter()) {
+                int i = index.getAndIncrement();
+                while (i < iterators.size()) {
+                    Iterator<ContactRecord> iterator = iterators.get(i);
+                    while (iterator.hasNext()) {
+                        writer.write(iterator.next());
+                    }
+                    i = index.getAndIncrement();
+                }
+                synchronized (numRecords) {
+                    numRecords[0] += writer.totalRecords;
+                }
+            } catch (IOException e) {
+                synchronized (numRecords) {
+                    failure[0] = e;
+                }
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return numRecords[0];
+    }
+
+    private synchronized File createSpillFile() throws IOException {
+        File directory = HiCGlobals.NORM_SPILL_DIRECTORY == null ? null : new File(HiCGlobals.NORM_SPILL_DIRECTORY);
+        File file = File.createTempFile("norm_contacts_", ".bin", directory);
+        file.deleteOnExit();
+        files.add(file);
+        return file;
+    }
+
+    @Override
+    public Iterator<ContactRecord> getNewContactRecordIterator() {
+        return new SpillFileIterator();
+    }
+
+    @Override
+    public ListOfFloatArrays sparseMultiply(ListOfFloatArrays vector, long vectorLength, int numThreads) {
+        final AtomicDoubleArray sumVector = new AtomicDoubleArray((int) vectorLength);
+
+        AtomicInteger index = new AtomicInteger(0);
+        ParallelizedJuicerTools.launchParallelizedCode(numThreads, () -> {
+            int i = index.getAndIncrement();
+            while (i < buffers.size()) {
+                ByteBuffer buffer = buffers.get(i);
+                for (int position = 0; position < buffer.limit(); position += RECORD_SIZE) {
+                    int x = buffer.getInt(position);
+                    int y = buffer.getInt(position + 4);
+                    double counts = buffer.getFloat(position + 8);
+                    if (x == y) {
+                        counts *= .5;
+                    }
+                    sumVector.addAndGet(x, counts * vector.get(y));
+                    sumVector.addAndGet(y, counts * vector.get(x));
+                }
+                i = index.getAndIncrement();
+            }
+        });
+
+        ListOfFloatArrays result = new ListOfFloatArrays(vectorLength);
+        for (int k = 0; k < sumVector.length(); k++) {
+            result.set(k, (float) sumVector.get(k));
+        }
+        return result;
+    }
+
+    @Override
+    public ListOfDoubleArrays sparseMultiply(ListOfIntArrays offset, ListOfDoubleArrays vector, int numThreads) {
+        final AtomicDoubleArray sumVector = new AtomicDoubleArray((int) vector.getLength());
+
+        AtomicInteger index = new AtomicInteger(0);
+        ParallelizedJuicerTools.launchParallelizedCode(numThreads, () -> {
+            int i = index.getAndIncrement();
+            while (i < buffers.size()) {
+                ByteBuffer buffer = buffers.get(i);
+                for (int position = 0; position < buffer.limit(); position += RECORD_SIZE) {
+                    int row = offset.get(buffer.getInt(position));
+                    int col = offset.get(buffer.getInt(position + 4));
+                    if (row != -1 && col != -1) {
+                        float value = buffer.getFloat(position + 8);
+                        sumVector.addAndGet(row, vector.get(col) * value);
+                        if (row != col) {
+                            sumVector.addAndGet(col, vector.get(row) * value);
+                        }
+                    }
+                }
+                i = index.getAndIncrement();
+            }
+        });
+
+        ListOfDoubleArrays result = new ListOfDoubleArrays(vector.getLength());
+        for (int k = 0; k < sumVector.length(); k++) {
+            result.set(k, sumVector.get(k));
+        }
+        return result;
+    }
+
+    @Override
+    public void clear() {
+        // the mappings are released by the garbage collector; the files can be deleted right away
+        buffers.clear();
+        for (File file : files) {
+            if (!file.delete()) {
+                System.err.println("Unable to delete " + file.getAbsolutePath());
+            }
+        }
+        files.clear();
+    }
+
+    private class SpillWriter implements AutoCloseable {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private RandomAccessFile raf = null;
+        private FileChannel channel = null;
+        private int recordsInFile = 0;
+        private long totalRecords = 0;
+
+        void write(ContactRecord cr) throws IOException {
+            if (channel == null || recordsInFile == MAX_RECORDS_PER_FILE) {
+                nextFile();
+            }
+            if (buffer.remaining() < RECORD_SIZE) {
+                flush();
+            }
+            buffer.putInt(cr.getBinX());
+            buffer.putInt(cr.getBinY());
+            buffer.putFloat(cr.getCounts());
+            recordsInFile++;
+            totalRecords++;
+        }
+
+        private void nextFile() throws IOException {
+            close();
+            raf = new RandomAccessFile(createSpillFile(), "rw");
+            channel = raf.getChannel();
+            recordsInFile = 0;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                flush();
+                channel.close();
+                raf.close();
+                channel = null;
+            }
+        }
+    }
+
+    private class SpillFileIterator implements Iterator<ContactRecord> {
+        private int bufferIndex = 0;
+        private int position = 0;
+
+        @Override
+        public boolean hasNext() {
+            while (bufferIndex < buffers.size()) {
+                if (position < buffers.get(bufferIndex).limit()) {
+                    return true;
+                }
+                bufferIndex++;
+                position = 0;
+            }
+            return false;
+        }
+
+        @Override
+        public ContactRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ByteBuffer buffer = buffers.get(bufferIndex);
+            ContactRecord record = new ContactRecord(buffer.getInt(position), buffer.getInt(position + 4),
+                    buffer.getFloat(position + 8));
+            position += RECORD_SIZE;
+            return record;
+        }
+    }
+}
@@ -24,23 +24,22 @@
 
 package juicebox.data.iterator;
 
-import juicebox.data.Block;
+import juicebox.data.BlockCache;
 import juicebox.data.ContactRecord;
 import juicebox.data.DatasetReader;
 import juicebox.data.MatrixZoomData;
 import juicebox.data.basics.ListOfDoubleArrays;
 import juicebox.data.basics.ListOfFloatArrays;
-import org.broad.igv.util.collections.LRUCache;
 
 import java.util.Iterator;
 
 public class ZDIteratorContainer extends IteratorContainer {
 
-    private final LRUCache<String, Block> blockCache;
+    private final BlockCache blockCache;
     private final DatasetReader reader;
     private final MatrixZoomData zd;
 
-    public ZDIteratorContainer(DatasetReader reader, MatrixZoomData zd, LRUCache<String, Block> blockCache) {
+    public ZDIteratorContainer(DatasetReader reader, MatrixZoomData zd, BlockCache blockCache) {
         super(zd.getXGridAxis().getBinCount());
         this.reader = reader;
         this.zd = zd;
@@ -63,7 +62,7 @@ public class ZDIteratorContainer extends IteratorContainer {
     }
 
     @Override
-    public ListOfFloatArrays sparseMultiply(ListOfFloatArrays vector, long vectorLength) {
+    public ListOfFloatArrays sparseMultiply(ListOfFloatArrays vector, long vectorLength, int numThreads) {
         return matrixVectorMultiplyOnIterator(getNewContactRecordIterator(), vector, vectorLength);
     }
 
@@ -438,20 +438,24 @@ public class SuperAdapter {
             Dataset dataset = reader.read();
             if (reader.getVersion() < HiCGlobals.minVersion) {
                 JOptionPane.showMessageDialog(mainWindow, "This version of \"hic\" format is no longer supported");
+                reader.close();
                 return false;
             }
             if (control && !genomesAreCompatible(dataset, hic.getDataset())) {
                 JOptionPane.showMessageDialog(mainWindow, "Cannot load maps with different genomes");
+                reader.close();
                 return false;
             }
             if (control && dataset.getVersion() != hic.getDataset().getVersion() &&
                     (dataset.getVersion() < 7 || hic.getDataset().getVersion() < 7)) {
                 JOptionPane.showMessageDialog(mainWindow, "Cannot load control with .hic files less than version 7");
+                reader.close();
                 return false;
             }
 
             if (assemblyModeCurrentlyActive) {
                 if (!exitAssemblyMode()) {
+                    reader.close();
                     return false; //if user does not exit assembly mode then do not load new map
                 }
             }
@@ -0,0 +1,82 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.mapcolorui;
+
+import org.broad.igv.renderer.ColorScale;
+import org.broad.igv.renderer.ContinuousColorScale;
+
+/**
+ * Quantized ARGB lookup table for a color scale, so rendering a contact is an array access
+ * instead of building a Color. The table covers the range over which the scale varies;
+ * scores outside it (where the scale saturates) or NaN fall back to the scale itself.
+ */
+class ColorLookupTable {
+
+    private static final int NUM_ENTRIES = 4096;
+    private final ColorScale colorScale;
+    private final boolean logScale;
+    private final double lowerBound, upperBound, binsPerUnit;
+    private final int[] argb = new int[NUM_ENTRIES];
+
+    /**
+     * @param logScale if true, the table is evenly spaced in log(score), the bounds being given in log space
+     */
+    ColorLookupTable(ColorScale colorScale, double lowerBound, double upperBound, boolean logScale) {
+        this.colorScale = colorScale;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+        this.logScale = logScale;
+        binsPerUnit = (NUM_ENTRIES - 1) / (upperBound - lowerBound);
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            double value = lowerBound + i / binsPerUnit;
+            argb[i] = colorScale.getColor((float) (logScale ? Math.exp(value) : value)).getRGB();
+        }
+    }
+
+    /**
+     * @return lookup table for the current range of the color scale, or null if the scale's range is not known
+     */
+    static ColorLookupTable create(ColorScale colorScale) {
+        if (colorScale instanceof OEColorScale) {
+            return ((OEColorScale) colorScale).createLookupTable();
+        } else if (colorScale instanceof ContinuousColorScale) {
+            ContinuousColorScale continuousColorScale = (ContinuousColorScale) colorScale;
+            double min = continuousColorScale.getMinimum();
+            double max = continuousColorScale.getMaximum();
+            if (max > min) {
+                return new ColorLookupTable(colorScale, min, max, false);
+            }
+        }
+        return null;
+    }
+
+    int getRGB(float score) {
+        double value = logScale ? Math.log(score) : score;
+        if (value >= lowerBound && value <= upperBound) {
+            return argb[(int) ((value - lowerBound) * binsPerUnit + 0.5)];
+        }
+        return colorScale.getColor(score).getRGB();
+    }
+}
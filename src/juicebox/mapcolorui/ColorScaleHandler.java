@@ -26,7 +26,6 @@ package juicebox.mapcolorui;
 
 import juicebox.HiCGlobals;
 import juicebox.data.Block;
-import juicebox.data.ContactRecord;
 import juicebox.gui.SuperAdapter;
 import juicebox.matrix.BasicMatrix;
 import juicebox.windowui.MatrixType;
@@ -49,7 +48,7 @@ public class ColorScaleHandler {
         return pearsonColorScale;
     }
 
-    public void reset() {
+    public synchronized void reset() {
         observedColorScaleMap.clear();
         ratioColorScaleMap.clear();
     }
@@ -68,7 +67,7 @@ public class ColorScaleHandler {
         return color;
     }
 
-    public void setNewDisplayRange(MatrixType displayOption, double min, double max, String key) {
+    public synchronized void setNewDisplayRange(MatrixType displayOption, double min, double max, String key) {
 
         if (MatrixType.isOEColorScaleType(displayOption)) {
 
@@ -103,7 +102,7 @@ public class ColorScaleHandler {
         }
     }
 
-    public ColorScale getColorScale(String key, MatrixType displayOption, boolean wholeGenome, List<Block> blocks, float givenMax) {
+    public synchronized ColorScale getColorScale(String key, MatrixType displayOption, boolean wholeGenome, List<Block> blocks, float givenMax) {
 
         if (MatrixType.isOEColorScaleType(displayOption)) {
             OEColorScale oeColorScale = ratioColorScaleMap.get(key);
@@ -136,7 +135,7 @@ public class ColorScaleHandler {
         }
     }
 
-    public void updateColorSliderFromColorScale(SuperAdapter superAdapter, MatrixType displayOption, String key) {
+    public synchronized void updateColorSliderFromColorScale(SuperAdapter superAdapter, MatrixType displayOption, String key) {
 
         if (MatrixType.isOEColorScaleType(displayOption)) {
             OEColorScale oeColorScale = ratioColorScaleMap.get(key);
@@ -159,10 +158,9 @@ public class ColorScaleHandler {
         DescriptiveStatistics stats = new DescriptiveStatistics();
         if (blocks != null) {
             for (Block b : blocks) {
-                for (int i = 0; i < b.getContactRecords().size(); i += 10) {
-                    ContactRecord rec = b.getContactRecords().get(i);
-                    if (rec.getBinX() != rec.getBinY()) { // Filter diagonal
-                        stats.addValue(rec.getCounts());
+                for (int i = 0; i < b.getNumRecords(); i += 10) {
+                    if (b.getBinX(i) != b.getBinY(i)) { // Filter diagonal
+                        stats.addValue(b.getCounts(i));
                     }
                 }
             }
@@ -58,6 +58,9 @@ public class GeneralTileManager {
         int tTop = (int) (binOriginY / imageTileWidth);
         int tBottom = (int) Math.ceil(bBottom / imageTileWidth);
 
+        mapTileManager.renderMissingTiles(zd, controlZd, tTop, tBottom, tLeft, tRight, displayOption,
+                observedNormalizationType, controlNormalizationType, hic, parent);
+
         for (int tileRow = tTop; tileRow <= tBottom; tileRow++) {
             for (int tileColumn = tLeft; tileColumn <= tRight; tileColumn++) {
 
@@ -152,6 +155,11 @@ public class GeneralTileManager {
             //debrisFeatureSize = (int) (debrisFeatureSize * scaleFactor);
         }
 
+        if (!allTilesNull) {
+            mapTileManager.prefetchTiles(zd, controlZd, binOriginX, binOriginY, bRight, bBottom, displayOption,
+                    observedNormalizationType, controlNormalizationType, hic, parent);
+        }
+
         return allTilesNull;
     }
 
@@ -209,6 +217,10 @@ public class GeneralTileManager {
         mapTileManager.clearTileCache();
     }
 
+    public String getStatistics() {
+        return mapTileManager.getStatistics();
+    }
+
     static class ImageTile {
         final int bLeft;
         final int bTop;
@@ -164,6 +164,12 @@ public class HeatmapPanel extends JComponent {
 
         g.setColor(color0);
 
+        if (HiCGlobals.displayTiles) {
+            g.setFont(FontManager.getFont(10));
+            g.drawString(tileManager.getStatistics(), 5, screenHeight - 5);
+            g.setColor(color0);
+        }
+
         if (allTilesNull) {
             g.setFont(FontManager.getFont(12));
             GraphicUtils.drawCenteredText("Normalization vectors not available at this resolution.  Try a different normalization.", clipBounds, g);
@@ -194,12 +194,12 @@ public class HeatmapRenderer {
                 if (controlZD == null) return false;
                 if (sameChr && (df == null || controlDF == null)) return false;
                 renderOERatioMap(blocks, ctrlBlocks, zd, controlZD, df, controlDF, originX, originY,
-                        width, height, 0, 0, cs, sameChr, controlNormalizationType, chr1);
+                        width, height, 0, 0, cs, sameChr, chr1);
             } else if (displayOption == MatrixType.OERATIOP1V2 || displayOption == MatrixType.OERATIOP1) {
                 if (controlZD == null) return false;
                 if (sameChr && (df == null || controlDF == null)) return false;
                 renderOERatioMap(blocks, ctrlBlocks, zd, controlZD, df, controlDF, originX, originY,
-                        width, height, pseudoCountObs, pseudoCountCtrl, cs, sameChr, controlNormalizationType, chr1);
+                        width, height, pseudoCountObs, pseudoCountCtrl, cs, sameChr, chr1);
             }
 
         } else if (displayOption == MatrixType.EXPECTED) {
@@ -259,7 +259,7 @@ public class HeatmapRenderer {
 
             renderLogRatioWithExpMap(blocks, ctrlBlocks, zd, controlZD, chr1, df, controlDF,
                     originX, originY, width, height,
-                    cs, sameChr, controlNormalizationType);
+                    cs, sameChr);
         } else if (displayOption == MatrixType.OERATIOMINUS) {
             List<Block> blocks = getTheBlocks(zd, x, y, maxX, maxY, observedNormalizationType, isImportant);
             List<Block> ctrlBlocks = getTheBlocks(controlZD, x, y, maxX, maxY, controlNormalizationType, isImportant);
@@ -270,7 +270,7 @@ public class HeatmapRenderer {
 
             renderOERatioMinus(blocks, ctrlBlocks, zd, controlZD, df, controlDF, chr1,
                     0, 0, originX, originY, width, height,
-                    cs, sameChr, controlNormalizationType);
+                    cs, sameChr);
 
         } else if (displayOption == MatrixType.OERATIOMINUSP1) {
             List<Block> blocks = getTheBlocks(zd, x, y, maxX, maxY, observedNormalizationType, isImportant);
@@ -281,7 +281,7 @@ public class HeatmapRenderer {
 
             renderOERatioMinus(blocks, ctrlBlocks, zd, controlZD, df, controlDF, chr1,
                     pseudoCountObs, pseudoCountCtrl, originX, originY, width, height,
-                    cs, sameChr, controlNormalizationType);
+                    cs, sameChr);
         } else if (displayOption == MatrixType.RATIOV2 || displayOption == MatrixType.RATIO) {
             List<Block> blocks = getTheBlocks(zd, x, y, maxX, maxY, observedNormalizationType, isImportant);
             List<Block> ctrlBlocks = getTheBlocks(controlZD, x, y, maxX, maxY, controlNormalizationType, isImportant);
@@ -290,7 +290,7 @@ public class HeatmapRenderer {
 
             renderRatioWithAvgMap(blocks, ctrlBlocks, zd, controlZD,
                     0, 0, originX, originY, width, height,
-                    cs, sameChr, controlNormalizationType);
+                    cs, sameChr);
         } else if (displayOption == MatrixType.RATIOP1V2 || displayOption == MatrixType.RATIOP1) {
             List<Block> blocks = getTheBlocks(zd, x, y, maxX, maxY, observedNormalizationType, isImportant);
             List<Block> ctrlBlocks = getTheBlocks(controlZD, x, y, maxX, maxY, controlNormalizationType, isImportant);
@@ -299,7 +299,7 @@ public class HeatmapRenderer {
 
             renderRatioWithAvgMap(blocks, ctrlBlocks, zd, controlZD,
                     pseudoCountObs, pseudoCountCtrl, originX, originY, width, height,
-                    cs, sameChr, controlNormalizationType);
+                    cs, sameChr);
         } else if (displayOption == MatrixType.LOGRATIOV2 || displayOption == MatrixType.LOGRATIO) {
             List<Block> blocks = getTheBlocks(zd, x, y, maxX, maxY, observedNormalizationType, isImportant);
             List<Block> ctrlBlocks = getTheBlocks(controlZD, x, y, maxX, maxY, controlNormalizationType, isImportant);
@@ -308,7 +308,7 @@ public class HeatmapRenderer {
 
             renderLogRatioWithAvgMap(blocks, ctrlBlocks, zd, controlZD,
                     originX, originY, width, height,
-                    cs, sameChr, controlNormalizationType);
+                    cs, sameChr);
         } else if (displayOption == MatrixType.RATIO0V2 || displayOption == MatrixType.RATIO0) {
             List<Block> blocks = getTheBlocks(zd, x, y, maxX, maxY, observedNormalizationType, isImportant);
             List<Block> ctrlBlocks = getTheBlocks(controlZD, x, y, maxX, maxY, controlNormalizationType, isImportant);
@@ -318,7 +318,7 @@ public class HeatmapRenderer {
 
             renderRatioWithExpMap(blocks, ctrlBlocks, zd, controlZD, chr1, df, controlDF,
                     0, 0, originX, originY, width, height,
-                    cs, sameChr, controlNormalizationType);
+                    cs, sameChr);
         } else if (displayOption == MatrixType.RATIO0P1V2 || displayOption == MatrixType.RATIO0P1) {
             List<Block> blocks = getTheBlocks(zd, x, y, maxX, maxY, observedNormalizationType, isImportant);
             List<Block> ctrlBlocks = getTheBlocks(controlZD, x, y, maxX, maxY, controlNormalizationType, isImportant);
@@ -328,7 +328,7 @@ public class HeatmapRenderer {
 
             renderRatioWithExpMap(blocks, ctrlBlocks, zd, controlZD, chr1, df, controlDF,
                     pseudoCountObs, pseudoCountCtrl, originX, originY, width, height,
-                    cs, sameChr, controlNormalizationType);
+                    cs, sameChr);
         } else if (displayOption == MatrixType.DIFF) {
             List<Block> blocks = getTheBlocks(zd, x, y, maxX, maxY, observedNormalizationType, isImportant);
             List<Block> ctrlBlocks = getTheBlocks(controlZD, x, y, maxX, maxY, controlNormalizationType, isImportant);
@@ -337,7 +337,7 @@ public class HeatmapRenderer {
             ColorScale cs = colorScaleHandler.getColorScale(key, displayOption, isWholeGenome, blocks, 1f);
 
             renderDiffMap(blocks, ctrlBlocks, zd, controlZD, originX, originY, width, height,
-                    cs, sameChr, controlNormalizationType);
+                    cs, sameChr);
         } else if (displayOption == MatrixType.LOG) {
             List<Block> blocks = getTheBlocks(zd, x, y, maxX, maxY, observedNormalizationType, isImportant);
             if (blocks == null) return false;
@@ -363,7 +363,7 @@ public class HeatmapRenderer {
                                           MatrixZoomData zd, MatrixZoomData controlZD, int chr1,
                                           ExpectedValueFunction df, ExpectedValueFunction controlDF,
                                           int originX, int originY, int width, int height,
-                                          ColorScale cs, boolean sameChr, NormalizationType controlNormalizationType) {
+                                          ColorScale cs, boolean sameChr) {
         Map<String, Block> controlBlocks = convertBlockListToMap(ctrlBlocks, controlZD);
 
         float averageCount = (float) zd.getAverageCount();
@@ -375,13 +375,13 @@ public class HeatmapRenderer {
                 Collection<ContactRecord> recs = b.getContactRecords();
                 if (recs != null) {
 
-                    Map<String, ContactRecord> controlRecords = linkRecords(zd, controlNormalizationType, controlBlocks, b);
+                    Block cb = controlBlocks.get(zd.getNormLessBlockKey(b));
 
                     for (ContactRecord rec : recs) {
-                        ContactRecord ctrlRecord = controlRecords.get(rec.getKey(controlNormalizationType));
-                        if (ctrlRecord != null) {
+                        int ctrlIndex = findControlRecord(cb, rec);
+                        if (ctrlIndex > -1) {
                             float num = rec.getCounts();
-                            float den = ctrlRecord.getCounts();
+                            float den = cb.getCounts(ctrlIndex);
 
                             float obsExpected = getExpectedValue(df, chr1, rec);
                             float ctrlExpected = getExpectedValue(controlDF, chr1, rec);
@@ -398,16 +398,16 @@ public class HeatmapRenderer {
                 Collection<ContactRecord> recs = b.getContactRecords();
                 if (recs != null) {
 
-                    Map<String, ContactRecord> controlRecords = linkRecords(zd, controlNormalizationType, controlBlocks, b);
+                    Block cb = controlBlocks.get(zd.getNormLessBlockKey(b));
 
                     float obsExpected = (averageCount > 0 ? averageCount : 1);
                     float ctrlExpected = (ctrlAverageCount > 0 ? ctrlAverageCount : 1);
 
                     for (ContactRecord rec : recs) {
-                        ContactRecord ctrlRecord = controlRecords.get(rec.getKey(controlNormalizationType));
-                        if (ctrlRecord != null) {
+                        int ctrlIndex = findControlRecord(cb, rec);
+                        if (ctrlIndex > -1) {
                             float num = rec.getCounts();
-                            float den = ctrlRecord.getCounts();
+                            float den = cb.getCounts(ctrlIndex);
 
                             if (logPainting(cs, num, den, obsExpected, ctrlExpected)) continue;
 
@@ -430,7 +430,7 @@ public class HeatmapRenderer {
     private void renderLogRatioWithAvgMap(List<Block> blocks, List<Block> ctrlBlocks,
                                           MatrixZoomData zd, MatrixZoomData controlZD,
                                           int originX, int originY, int width, int height,
-                                          ColorScale cs, boolean sameChr, NormalizationType controlNormalizationType) {
+                                          ColorScale cs, boolean sameChr) {
         float averageCount = (float) zd.getAverageCount();
         float ctrlAverageCount = controlZD == null ? 1 : (float) controlZD.getAverageCount();
 
@@ -439,14 +439,14 @@ public class HeatmapRenderer {
         for (Block b : blocks) {
             Collection<ContactRecord> recs = b.getContactRecords();
 
-            Map<String, ContactRecord> controlRecords = linkRecords(zd, controlNormalizationType, controlBlocks, b);
+            Block cb = controlBlocks.get(zd.getNormLessBlockKey(b));
 
             if (recs != null) {
                 for (ContactRecord rec : recs) {
-                    ContactRecord ctrlRecord = controlRecords.get(rec.getKey(controlNormalizationType));
-                    if (ctrlRecord != null) {
+                    int ctrlIndex = findControlRecord(cb, rec);
+                    if (ctrlIndex > -1) {
                         float num = (float) Math.log(rec.getCounts() / averageCount + 1);
-                        float den = (float) Math.log(ctrlRecord.getCounts() / ctrlAverageCount + 1);
+                        float den = (float) Math.log(cb.getCounts(ctrlIndex) / ctrlAverageCount + 1);
                         ratioPainting(originX, originY, width, height, cs, sameChr, rec, num, den);
                     }
                 }
@@ -457,7 +457,7 @@ public class HeatmapRenderer {
     private void renderDiffMap(List<Block> blocks, List<Block> ctrlBlocks,
                                MatrixZoomData zd, MatrixZoomData controlZD,
                                int originX, int originY, int width, int height, ColorScale cs,
-                               boolean sameChr, NormalizationType controlNormalizationType) {
+                               boolean sameChr) {
         float averageCount = (float) zd.getAverageCount();
         float ctrlAverageCount = controlZD == null ? 1 : (float) controlZD.getAverageCount();
         float averageAcrossMapAndControl = (averageCount / 2f + ctrlAverageCount / 2f);
@@ -467,17 +467,17 @@ public class HeatmapRenderer {
         for (Block b : blocks) {
             Collection<ContactRecord> recs = b.getContactRecords();
 
-            Map<String, ContactRecord> controlRecords = linkRecords(zd, controlNormalizationType, controlBlocks, b);
+            Block cb = controlBlocks.get(zd.getNormLessBlockKey(b));
 
             if (recs != null) {
                 for (ContactRecord rec : recs) {
-                    ContactRecord ctrlRecord = controlRecords.get(rec.getKey(controlNormalizationType));
-                    if (ctrlRecord != null) {
+                    int ctrlIndex = findControlRecord(cb, rec);
+                    if (ctrlIndex > -1) {
                         float num = rec.getCounts() / averageCount;
-                        float den = ctrlRecord.getCounts() / ctrlAverageCount;
+                        float den = cb.getCounts(ctrlIndex) / ctrlAverageCount;
                         float score = (num - den) * averageAcrossMapAndControl;
                         if (Float.isNaN(score) || Float.isInfinite(score)) continue;
-                        setColor(cs.getColor(score));
+                        setColor(cs, score);
                         intraPainting2(originX, originY, width, height, sameChr, rec);
                     }
                 }
@@ -490,21 +490,21 @@ public class HeatmapRenderer {
                                        int chr1, ExpectedValueFunction df, ExpectedValueFunction controlDF,
                                        float pseudoCountObs, float pseudoCountCtrl,
                                        int originX, int originY, int width, int height,
-                                       ColorScale cs, boolean sameChr, NormalizationType controlNormalizationType) {
+                                       ColorScale cs, boolean sameChr) {
 
         Map<String, Block> controlBlocks = convertBlockListToMap(ctrlBlocks, controlZD);
 
         for (Block b : blocks) {
             Collection<ContactRecord> recs = b.getContactRecords();
 
-            Map<String, ContactRecord> controlRecords = linkRecords(zd, controlNormalizationType, controlBlocks, b);
+            Block cb = controlBlocks.get(zd.getNormLessBlockKey(b));
 
             if (recs != null) {
                 for (ContactRecord rec : recs) {
-                    ContactRecord ctrlRecord = controlRecords.get(rec.getKey(controlNormalizationType));
-                    if (ctrlRecord != null) {
+                    int ctrlIndex = findControlRecord(cb, rec);
+                    if (ctrlIndex > -1) {
                         float num = ((rec.getCounts() + pseudoCountObs) / (getExpectedValue(df, chr1, 0, 0) + pseudoCountObs));
-                        float den = ((ctrlRecord.getCounts() + pseudoCountCtrl) / (getExpectedValue(controlDF, chr1, 0, 0) + pseudoCountCtrl));
+                        float den = ((cb.getCounts(ctrlIndex) + pseudoCountCtrl) / (getExpectedValue(controlDF, chr1, 0, 0) + pseudoCountCtrl));
                         ratioPainting(originX, originY, width, height, cs, sameChr, rec, num, den);
                     }
                 }
@@ -516,7 +516,7 @@ public class HeatmapRenderer {
                                        MatrixZoomData zd, MatrixZoomData controlZD,
                                        float pseudoCountObs, float pseudoCountCtrl,
                                        int originX, int originY, int width, int height,
-                                       ColorScale cs, boolean sameChr, NormalizationType controlNormalizationType) {
+                                       ColorScale cs, boolean sameChr) {
         float averageCount = (float) zd.getAverageCount();
         float ctrlAverageCount = controlZD == null ? 1 : (float) controlZD.getAverageCount();
 
@@ -525,14 +525,14 @@ public class HeatmapRenderer {
         for (Block b : blocks) {
             Collection<ContactRecord> recs = b.getContactRecords();
 
-            Map<String, ContactRecord> controlRecords = linkRecords(zd, controlNormalizationType, controlBlocks, b);
+            Block cb = controlBlocks.get(zd.getNormLessBlockKey(b));
 
             if (recs != null) {
                 for (ContactRecord rec : recs) {
-                    ContactRecord ctrlRecord = controlRecords.get(rec.getKey(controlNormalizationType));
-                    if (ctrlRecord != null) {
+                    int ctrlIndex = findControlRecord(cb, rec);
+                    if (ctrlIndex > -1) {
                         float num = (rec.getCounts() + pseudoCountObs) / (averageCount + pseudoCountObs);
-                        float den = (ctrlRecord.getCounts() + pseudoCountCtrl) / (ctrlAverageCount + pseudoCountCtrl);
+                        float den = (cb.getCounts(ctrlIndex) + pseudoCountCtrl) / (ctrlAverageCount + pseudoCountCtrl);
                         ratioPainting(originX, originY, width, height, cs, sameChr, rec, num, den);
                     }
                 }
@@ -544,8 +544,7 @@ public class HeatmapRenderer {
                                     MatrixZoomData zd, MatrixZoomData controlZD,
                                     ExpectedValueFunction df, ExpectedValueFunction controlDF, int chr1,
                                     float pseudoCountObs, float pseudoCountCtrl, int originX, int originY,
-                                    int width, int height, ColorScale cs, boolean sameChr,
-                                    NormalizationType controlNormalizationType) {
+                                    int width, int height, ColorScale cs, boolean sameChr) {
         Map<String, Block> controlBlocks = convertBlockListToMap(ctrlBlocks, controlZD);
 
         float averageCount = (float) zd.getAverageCount();
@@ -556,13 +555,13 @@ public class HeatmapRenderer {
                 Collection<ContactRecord> recs = b.getContactRecords();
                 if (recs != null) {
 
-                    Map<String, ContactRecord> controlRecords = linkRecords(zd, controlNormalizationType, controlBlocks, b);
+                    Block cb = controlBlocks.get(zd.getNormLessBlockKey(b));
 
                     for (ContactRecord rec : recs) {
-                        ContactRecord ctrlRecord = controlRecords.get(rec.getKey(controlNormalizationType));
-                        if (ctrlRecord != null) {
+                        int ctrlIndex = findControlRecord(cb, rec);
+                        if (ctrlIndex > -1) {
                             float num = rec.getCounts() + pseudoCountObs;
-                            float den = ctrlRecord.getCounts() + pseudoCountCtrl;
+                            float den = cb.getCounts(ctrlIndex) + pseudoCountCtrl;
 
                             float obsExpected = getExpectedValue(df, chr1, rec) + pseudoCountObs;
                             float ctrlExpected = getExpectedValue(controlDF, chr1, rec) + pseudoCountCtrl;
@@ -570,7 +569,7 @@ public class HeatmapRenderer {
                             float score = (num / obsExpected) - (den / ctrlExpected);
                             if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                            setColor(cs.getColor(score));
+                            setColor(cs, score);
 
                             intraPainting(originX, originY, width, height, rec);
                         }
@@ -582,7 +581,7 @@ public class HeatmapRenderer {
                 Collection<ContactRecord> recs = b.getContactRecords();
                 if (recs != null) {
 
-                    Map<String, ContactRecord> controlRecords = linkRecords(zd, controlNormalizationType, controlBlocks, b);
+                    Block cb = controlBlocks.get(zd.getNormLessBlockKey(b));
 
                     float obsExpected = (averageCount > 0 ? averageCount : 1);
                     float ctrlExpected = (ctrlAverageCount > 0 ? ctrlAverageCount : 1);
@@ -590,15 +589,15 @@ public class HeatmapRenderer {
                     ctrlExpected += pseudoCountCtrl;
 
                     for (ContactRecord rec : recs) {
-                        ContactRecord ctrlRecord = controlRecords.get(rec.getKey(controlNormalizationType));
-                        if (ctrlRecord != null) {
+                        int ctrlIndex = findControlRecord(cb, rec);
+                        if (ctrlIndex > -1) {
                             float num = rec.getCounts() + pseudoCountObs;
-                            float den = ctrlRecord.getCounts() + pseudoCountCtrl;
+                            float den = cb.getCounts(ctrlIndex) + pseudoCountCtrl;
 
                             float score = (num / obsExpected) - (den / ctrlExpected);
                             if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                            setColor(cs.getColor(score));
+                            setColor(cs, score);
 
                             aboveDiagonalPainting(originX, originY, width, height, rec);
                         }
@@ -608,15 +607,14 @@ public class HeatmapRenderer {
         }
     }
 
-    private Map<String, ContactRecord> linkRecords(MatrixZoomData zd, NormalizationType controlNormalizationType, Map<String, Block> controlBlocks, Block b) {
-        Map<String, ContactRecord> controlRecords = new HashMap<>();
-        Block cb = controlBlocks.get(zd.getNormLessBlockKey(b));
-        if (cb != null) {
-            for (ContactRecord ctrlRec : cb.getContactRecords()) {
-                controlRecords.put(ctrlRec.getKey(controlNormalizationType), ctrlRec);
-            }
-        }
-        return controlRecords;
+    /**
+     * Joins an observed record with the record at the same bins of the matching control block,
+     * through the control block's row index rather than a map keyed by strings
+     *
+     * @return index of the control record, or -1 if there is none
+     */
+    private int findControlRecord(Block cb, ContactRecord rec) {
+        return cb == null ? -1 : cb.findRecord(rec.getBinX(), rec.getBinY());
     }
 
     private void renderOERatioMap(List<Block> blocks, List<Block> ctrlBlocks,
@@ -624,7 +622,7 @@ public class HeatmapRenderer {
                                   ExpectedValueFunction df, ExpectedValueFunction controlDF,
                                   int originX, int originY, int width, int height,
                                   float pseudoCountObs, float pseudoCountCtrl, ColorScale cs, boolean sameChr,
-                                  NormalizationType controlNormalizationType, int chr1) {
+                                  int chr1) {
         Map<String, Block> controlBlocks = convertBlockListToMap(ctrlBlocks, controlZD);
 
         if (sameChr) {
@@ -632,13 +630,13 @@ public class HeatmapRenderer {
                 Collection<ContactRecord> recs = b.getContactRecords();
                 if (recs != null) {
 
-                    Map<String, ContactRecord> controlRecords = linkRecords(zd, controlNormalizationType, controlBlocks, b);
+                    Block cb = controlBlocks.get(zd.getNormLessBlockKey(b));
 
                     for (ContactRecord rec : recs) {
-                        ContactRecord ctrlRecord = controlRecords.get(rec.getKey(controlNormalizationType));
-                        if (ctrlRecord != null) {
+                        int ctrlIndex = findControlRecord(cb, rec);
+                        if (ctrlIndex > -1) {
                             float num = rec.getCounts() + pseudoCountObs;
-                            float den = ctrlRecord.getCounts() + pseudoCountCtrl;
+                            float den = cb.getCounts(ctrlIndex) + pseudoCountCtrl;
 
                             float obsExpected = getExpectedValue(df, chr1, rec) + pseudoCountObs;
                             float ctrlExpected = getExpectedValue(controlDF, chr1, rec) + pseudoCountCtrl;
@@ -646,7 +644,7 @@ public class HeatmapRenderer {
                             float score = (num / obsExpected) / (den / ctrlExpected);
                             if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                            setColor(cs.getColor(score));
+                            setColor(cs, score);
 
                             intraPainting(originX, originY, width, height, rec);
                         }
@@ -665,18 +663,18 @@ public class HeatmapRenderer {
                 Collection<ContactRecord> recs = b.getContactRecords();
                 if (recs != null) {
 
-                    Map<String, ContactRecord> controlRecords = linkRecords(zd, controlNormalizationType, controlBlocks, b);
+                    Block cb = controlBlocks.get(zd.getNormLessBlockKey(b));
 
                     for (ContactRecord rec : recs) {
-                        ContactRecord ctrlRecord = controlRecords.get(rec.getKey(controlNormalizationType));
-                        if (ctrlRecord != null) {
+                        int ctrlIndex = findControlRecord(cb, rec);
+                        if (ctrlIndex > -1) {
                             float num = rec.getCounts() + pseudoCountObs;
-                            float den = ctrlRecord.getCounts() + pseudoCountCtrl;
+                            float den = cb.getCounts(ctrlIndex) + pseudoCountCtrl;
 
                             float score = (num / obsExpected) / (den / ctrlExpected);
                             if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                            setColor(cs.getColor(score));
+                            setColor(cs, score);
 
                             aboveDiagonalPainting(originX, originY, width, height, rec);
                         }
@@ -699,7 +697,7 @@ public class HeatmapRenderer {
                             float score = (float) Math.exp((Math.log(rec.getCounts() + 1) / Math.log(expected + 1)));
                             if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                            setColor(cs.getColor(score));
+                            setColor(cs, score);
 
                             intraPainting(originX, originY, width, height, rec);
                         }
@@ -717,7 +715,7 @@ public class HeatmapRenderer {
                         float score = (float) Math.exp((Math.log(rec.getCounts() + 1) / Math.log(expected + 1)));
                         if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                        setColor(cs.getColor(score));
+                        setColor(cs, score);
 
                         interPainting(originX, originY, width, height, rec);
                     }
@@ -736,7 +734,7 @@ public class HeatmapRenderer {
                         int binX = px + originX;
                         int binY = py + originY;
                         float expected = getExpectedValue(df, chr1, binX, binY);
-                        setColor(cs.getColor(expected));
+                        setColor(cs, expected);
                         directPixelPainting(px, py);
                     }
                 }
@@ -744,7 +742,7 @@ public class HeatmapRenderer {
         } else {
             float averageCount = (float) zd.getAverageCount();
             float expected = (averageCount > 0 ? averageCount : 1);
-            setColor(cs.getColor(expected));
+            setColor(cs, expected);
             for (int px = 0; px <= width; px++) {
                 for (int py = 0; py <= height; py++) {
                     directPixelPainting(px, py);
@@ -768,7 +766,7 @@ public class HeatmapRenderer {
 
                         float expected = getExpectedValue(df, chr1, rec);
                         score = rec.getCounts() - expected;
-                        setColor(cs.getColor(score));
+                        setColor(cs, score);
 
                         aboveDiagonalPainting(originX, originY, width, height, rec);
                     }
@@ -791,7 +789,7 @@ public class HeatmapRenderer {
                             float expected = getExpectedValue(controlDF, chr1, rec);
                             score = rec.getCounts() - expected;
 
-                            setColor(cs.getColor(score));
+                            setColor(cs, score);
                             belowDiagonalPainting(originX, originY, width, height, rec);
                         }
                     }
@@ -812,7 +810,7 @@ public class HeatmapRenderer {
                         float expected = getExpectedValue(df, chr1, rec);
                         float score = (float) (Math.log(rec.getCounts() + 1) / Math.log(expected + 1));
                         if (Float.isNaN(score) || Float.isInfinite(score)) continue;
-                        setColor(cs.getColor(score));
+                        setColor(cs, score);
 
                         aboveDiagonalPainting(originX, originY, width, height, rec);
                     }
@@ -832,7 +830,7 @@ public class HeatmapRenderer {
                             float score = (float) (Math.log(rec.getCounts() + 1) / Math.log(expected + 1));
                             if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                            setColor(cs.getColor(score));
+                            setColor(cs, score);
                             belowDiagonalPainting(originX, originY, width, height, rec);
                         }
                     }
@@ -858,7 +856,7 @@ public class HeatmapRenderer {
                         float score = (float) Math.log(averageAcrossMapAndControl * (rec.getCounts() / averageCount) + 1);
                         if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                        setColor(cs.getColor(score));
+                        setColor(cs, score);
 
                         aboveDiagonalPainting(originX, originY, width, height, rec);
                     }
@@ -874,7 +872,7 @@ public class HeatmapRenderer {
                         float score = (float) Math.log(averageAcrossMapAndControl * (rec.getCounts() / ctrlAverageCount) + 1);
                         if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                        setColor(cs.getColor(score));
+                        setColor(cs, score);
 
                         belowDiagonalPainting(originX, originY, width, height, rec);
                     }
@@ -901,7 +899,7 @@ public class HeatmapRenderer {
                         if (Float.isNaN(score) || Float.isInfinite(score)) continue;
                         score = (score / averageCount) * averageAcrossMapAndControl;
 
-                        setColor(cs.getColor(score));
+                        setColor(cs, score);
 
                         aboveDiagonalPainting(originX, originY, width, height, rec);
                     }
@@ -918,7 +916,7 @@ public class HeatmapRenderer {
                         if (Float.isNaN(score) || Float.isInfinite(score)) continue;
                         score = (score / ctrlAverageCount) * averageAcrossMapAndControl;
 
-                        setColor(cs.getColor(score));
+                        setColor(cs, score);
                         belowDiagonalPainting(originX, originY, width, height, rec);
                     }
                 }
@@ -940,7 +938,7 @@ public class HeatmapRenderer {
                             float score = (float) (Math.log(rec.getCounts() + 1) / Math.log(expected + 1));
                             if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                            setColor(cs.getColor(score));
+                            setColor(cs, score);
 
                             intraPainting(originX, originY, width, height, rec);
                         }
@@ -958,7 +956,7 @@ public class HeatmapRenderer {
                         float score = (float) (Math.log(rec.getCounts() + 1) / Math.log(expected + 1));
                         if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                        setColor(cs.getColor(score));
+                        setColor(cs, score);
 
                         interPainting(originX, originY, width, height, rec);
                     }
@@ -984,7 +982,7 @@ public class HeatmapRenderer {
                         float expected = getExpectedValue(df, chromosome, rec);
                         score = (rec.getCounts() + pseudoCountObs) / (expected + pseudoCountObs);
 
-                        setColor(cs.getColor(score));
+                        setColor(cs, score);
                         aboveDiagonalPainting(originX, originY, width, height, rec);
                     }
                 }
@@ -1006,7 +1004,7 @@ public class HeatmapRenderer {
                             float expected = getExpectedValue(controlDF, chromosome, rec);
                             score = (rec.getCounts() + pseudoCountCtrl) / (expected + pseudoCountCtrl);
 
-                            setColor(cs.getColor(score));
+                            setColor(cs, score);
                             belowDiagonalPainting(originX, originY, width, height, rec);
                         }
                     }
@@ -1038,7 +1036,7 @@ public class HeatmapRenderer {
                             float score = (rec.getCounts() + pseudoCount) / (expected + pseudoCount);
                             if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                            setColor(cs.getColor(score));
+                            setColor(cs, score);
 
                             intraPainting(originX, originY, width, height, rec);
                         }
@@ -1056,7 +1054,7 @@ public class HeatmapRenderer {
                         float score = (rec.getCounts() + pseudoCount) / (expected + pseudoCount);
                         if (Float.isNaN(score) || Float.isInfinite(score)) continue;
 
-                        setColor(cs.getColor(score));
+                        setColor(cs, score);
 
                         interPainting(originX, originY, width, height, rec);
                     }
@@ -1202,7 +1200,7 @@ public class HeatmapRenderer {
 
     private void simplePainting(ColorScale cs, int width, int height, boolean sameChr, int originX, int originY, ContactRecord rec, float score) {
         if (Float.isNaN(score) || Float.isInfinite(score)) return;
-        setColor(cs.getColor(score));
+        setColor(cs, score);
 
         aboveDiagonalPainting(originX, originY, width, height, rec);
         if (sameChr) belowDiagonalPainting(originX, originY, width, height, rec);
@@ -1211,14 +1209,14 @@ public class HeatmapRenderer {
     private boolean logPainting(ColorScale cs, float num, float den, float obsExpected, float ctrlExpected) {
         float score = (float) ((Math.log(num + 1) / Math.log(obsExpected + 1)) / (Math.log(den + 1) / Math.log(ctrlExpected + 1)));
         if (Float.isNaN(score) || Float.isInfinite(score)) return true;
-        setColor(cs.getColor(score));
+        setColor(cs, score);
         return false;
     }
 
     private void ratioPainting(int originX, int originY, int width, int height, ColorScale cs, boolean sameChr, ContactRecord rec, float num, float den) {
         float score = num / den;
         if (Float.isNaN(score) || Float.isInfinite(score)) return;
-        setColor(cs.getColor(score));
+        setColor(cs, score);
         intraPainting2(originX, originY, width, height, sameChr, rec);
     }
 
@@ -1264,6 +1262,10 @@ public class HeatmapRenderer {
         g.setColor(color);
     }
 
+    protected void setColor(ColorScale cs, float score) {
+        setColor(cs.getColor(score));
+    }
+
     protected void directPixelPainting(int px, int py) {
         g.fillRect(px, py, PIXEL_WIDTH, PIXEL_HEIGHT);
     }
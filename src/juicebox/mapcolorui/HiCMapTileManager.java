@@ -24,30 +24,71 @@
 
 package juicebox.mapcolorui;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
 import juicebox.HiC;
 import juicebox.HiCGlobals;
+import juicebox.data.BlockCache;
+import juicebox.data.Dataset;
 import juicebox.data.ExpectedValueFunction;
+import juicebox.data.Matrix;
 import juicebox.data.MatrixZoomData;
 import juicebox.gui.SuperAdapter;
+import juicebox.windowui.HiCZoom;
 import juicebox.windowui.MatrixType;
 import juicebox.windowui.NormalizationType;
-import org.broad.igv.util.ObjectCache;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Renders heatmap tiles and caches them, bounded by the bytes of the cached images.
+ * <p>
+ * Tiles missing from a view are rendered in parallel. After each view is drawn, the ring of tiles around it
+ * and the same region at the next and previous resolutions are rendered speculatively on low priority threads.
+ * Prefetches that are no longer wanted when the view moves on are cancelled, which also cancels their block reads.
+ * The budget is set with -Djuicebox.tileCache.maxBytes=... (suffixes k, m, g allowed), and defaults to
+ * an eighth of the max heap.
+ */
 public class HiCMapTileManager {
+    public static final String MAX_BYTES_PROPERTY = "juicebox.tileCache.maxBytes";
     private static final int imageTileWidth = 500;
-    private final ObjectCache<String, GeneralTileManager.ImageTile> tileCache = new ObjectCache<>(30);
+    private static final ExecutorService tileRenderer = createTileRenderer("tile-renderer",
+            HiCGlobals.getIdealThreadCount(), Thread.NORM_PRIORITY);
+    private static final ExecutorService tilePrefetcher = createTileRenderer("tile-prefetcher",
+            Math.max(1, HiCGlobals.getIdealThreadCount() / 2), Thread.MIN_PRIORITY);
+    private final Cache<String, GeneralTileManager.ImageTile> tileCache = buildCache(readMaxBytesProperty());
+    private final Map<String, Future<GeneralTileManager.ImageTile>> prefetches = new HashMap<>();
+    private final Set<String> prefetchedKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicLong numPrefetched = new AtomicLong();
+    private final AtomicLong numPrefetchHits = new AtomicLong();
+    private final AtomicLong numPrefetchesCancelled = new AtomicLong();
     private final ColorScaleHandler colorScaleHandler;
+    // incremented when the cache is cleared, so renders started before that are not cached
+    private volatile int generation = 0;
 
     public HiCMapTileManager(ColorScaleHandler colorScaleHandler) {
         this.colorScaleHandler = colorScaleHandler;
     }
 
     public void clearTileCache() {
-        tileCache.clear();
+        generation++;
+        synchronized (prefetches) {
+            for (Future<GeneralTileManager.ImageTile> future : prefetches.values()) {
+                future.cancel(true);
+            }
+            prefetches.clear();
+        }
+        tileCache.invalidateAll();
+        prefetchedKeys.clear();
     }
 
     public GeneralTileManager.ImageTile getImageTile(MatrixZoomData zd, MatrixZoomData controlZd, int tileRow, int tileColumn, MatrixType displayOption,
@@ -55,45 +96,223 @@ public class HiCMapTileManager {
                                                      HiC hic, JComponent parent) {
 
         String key = zd.getTileKey(tileRow, tileColumn, displayOption);
-        GeneralTileManager.ImageTile tile = tileCache.get(key);
+        GeneralTileManager.ImageTile tile = getCachedTile(key);
 
         if (tile == null) {
+            int startGeneration = generation;
+            tile = createImageTile(zd, controlZd, tileRow, tileColumn, displayOption, obsNormalizationType,
+                    ctrlNormalizationType, hic.getExpectedValues(), hic.getExpectedControlValues(), parent);
+            if (tile != null && startGeneration == generation) {
+                tileCache.put(key, tile);
+            }
+        }
+        return tile;
+    }
+
+    private GeneralTileManager.ImageTile getCachedTile(String key) {
+        GeneralTileManager.ImageTile tile = tileCache.getIfPresent(key);
+        if (tile != null && prefetchedKeys.remove(key)) {
+            numPrefetchHits.incrementAndGet();
+        }
+        return tile;
+    }
+
+    /**
+     * Pearson and NORM2 maps compute and cache dense matrices while rendering, so they are only rendered on the calling thread
+     */
+    private static boolean canRenderInBackground(MatrixType displayOption) {
+        return !MatrixType.isPearsonType(displayOption) && displayOption != MatrixType.NORM2
+                && displayOption != MatrixType.NORM2CTRL && displayOption != MatrixType.NORM2OBSVSCTRL;
+    }
+
+    /**
+     * Renders the tiles in the given range that are not cached yet in parallel, off the calling thread.
+     * Tiles that are already being prefetched are waited for rather than rendered again.
+     */
+    public void renderMissingTiles(final MatrixZoomData zd, final MatrixZoomData controlZd, int tTop, int tBottom, int tLeft, int tRight,
+                                   final MatrixType displayOption, final NormalizationType obsNormalizationType,
+                                   final NormalizationType ctrlNormalizationType, final HiC hic, final JComponent parent) {
+        if (!HiCGlobals.renderTilesInParallel || !canRenderInBackground(displayOption)) {
+            return;
+        }
 
-            // Image size can be smaller than tile width when zoomed out, or near the edges.
+        final ExpectedValueFunction df = hic.getExpectedValues();
+        final ExpectedValueFunction controlDF = hic.getExpectedControlValues();
+        final int startGeneration = generation;
+        Map<String, Future<GeneralTileManager.ImageTile>> pending = new LinkedHashMap<>();
+        for (int tileRow = tTop; tileRow <= tBottom; tileRow++) {
+            for (int tileColumn = tLeft; tileColumn <= tRight; tileColumn++) {
+                String key = zd.getTileKey(tileRow, tileColumn, displayOption);
+                if (tileCache.asMap().containsKey(key) || pending.containsKey(key)) continue;
+                Future<GeneralTileManager.ImageTile> future;
+                synchronized (prefetches) {
+                    future = prefetches.get(key);
+                }
+                if (future == null) {
+                    final int row = tileRow, column = tileColumn;
+                    future = tileRenderer.submit(new Callable<GeneralTileManager.ImageTile>() {
+                        @Override
+                        public GeneralTileManager.ImageTile call() {
+                            return createImageTile(zd, controlZd, row, column, displayOption, obsNormalizationType,
+                                    ctrlNormalizationType, df, controlDF, parent);
+                        }
+                    });
+                }
+                pending.put(key, future);
+            }
+        }
 
-            long maxBinCountX = zd.getXGridAxis().getBinCount();
-            long maxBinCountY = zd.getYGridAxis().getBinCount();
+        for (Map.Entry<String, Future<GeneralTileManager.ImageTile>> entry : pending.entrySet()) {
+            try {
+                GeneralTileManager.ImageTile tile = entry.getValue().get();
+                if (tile != null && startGeneration == generation) {
+                    tileCache.put(entry.getKey(), tile);
+                }
+            } catch (ExecutionException | CancellationException e) {
+                // left for getImageTile, which renders it again and reports any error
+                if (HiCGlobals.printVerboseComments) {
+                    System.err.println("Tile rendering failed: " + e);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
 
-            if (maxBinCountX < 0 || maxBinCountY < 0) return null;
+    /**
+     * Speculatively renders the tiles around the current view, and the region at the center of the view at the
+     * next finer and coarser resolutions. Prefetches still running for tiles outside that set are cancelled.
+     */
+    public void prefetchTiles(MatrixZoomData zd, MatrixZoomData controlZd, double binOriginX, double binOriginY,
+                              double bRight, double bBottom, MatrixType displayOption,
+                              NormalizationType obsNormalizationType, NormalizationType ctrlNormalizationType,
+                              HiC hic, JComponent parent) {
+        if (!HiCGlobals.prefetchTiles || !canRenderInBackground(displayOption)) {
+            return;
+        }
 
-            int imageWidth = maxBinCountX < imageTileWidth ? (int) maxBinCountX : imageTileWidth;
-            int imageHeight = maxBinCountY < imageTileWidth ? (int) maxBinCountY : imageTileWidth;
-            final int bx0 = tileColumn * imageTileWidth;
-            final int by0 = tileRow * imageTileWidth;
+        Map<String, Runnable> wanted = new LinkedHashMap<>();
+        addTilesToPrefetch(wanted, zd, controlZd, binOriginX - imageTileWidth, binOriginY - imageTileWidth,
+                bRight + imageTileWidth, bBottom + imageTileWidth, displayOption, obsNormalizationType,
+                ctrlNormalizationType, hic.getExpectedValues(), hic.getExpectedControlValues(), parent);
 
-            Image image = renderDataWithCPU(parent, bx0, by0, imageWidth, imageHeight,
-                    zd, controlZd, displayOption, obsNormalizationType, ctrlNormalizationType,
-                    hic.getExpectedValues(), hic.getExpectedControlValues());
+        if (zd.getChr1Idx() != 0 && hic.getMatrix() != null && hic.getZoom() != null) {
+            HiCZoom zoom = hic.getZoom();
+            Dataset dataset = hic.getDataset();
+            List<HiCZoom> zoomList = zoom.getUnit() == HiC.Unit.BP ? dataset.getBpZooms() : dataset.getFragZooms();
+            int zoomIndex = zoomList.indexOf(zoom);
+            for (int neighbor : new int[]{zoomIndex + 1, zoomIndex - 1}) {
+                if (zoomIndex < 0 || neighbor < 0 || neighbor >= zoomList.size()) continue;
+                HiCZoom neighborZoom = zoomList.get(neighbor);
+                MatrixZoomData neighborZd = hic.getMatrix().getZoomData(neighborZoom);
+                if (neighborZd == null) continue;
+                Matrix controlMatrix = hic.getControlMatrix();
+                MatrixZoomData neighborControlZd = controlMatrix == null ? null : controlMatrix.getZoomData(neighborZoom);
+                Dataset controlDataset = hic.getControlDataset();
 
-            // if (scaleFactor > 0.999 && scaleFactor < 1.001) {
-            tile = new GeneralTileManager.ImageTile(image, bx0, by0);
-            tileCache.put(key, tile);
+                // same view size in bins, centered on the same genomic position
+                double ratio = (double) zoom.getBinSize() / neighborZoom.getBinSize();
+                double centerX = (binOriginX + bRight) / 2 * ratio, centerY = (binOriginY + bBottom) / 2 * ratio;
+                double halfWidth = (bRight - binOriginX) / 2, halfHeight = (bBottom - binOriginY) / 2;
+                addTilesToPrefetch(wanted, neighborZd, neighborControlZd, centerX - halfWidth, centerY - halfHeight,
+                        centerX + halfWidth, centerY + halfHeight, displayOption, obsNormalizationType, ctrlNormalizationType,
+                        dataset.getExpectedValues(neighborZoom, obsNormalizationType),
+                        controlDataset == null ? null : controlDataset.getExpectedValues(neighborZoom, ctrlNormalizationType),
+                        parent);
+            }
         }
-        return tile;
+
+        synchronized (prefetches) {
+            Iterator<Map.Entry<String, Future<GeneralTileManager.ImageTile>>> iterator = prefetches.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Future<GeneralTileManager.ImageTile>> entry = iterator.next();
+                if (entry.getValue().isDone()) {
+                    iterator.remove();
+                } else if (!wanted.containsKey(entry.getKey())) {
+                    entry.getValue().cancel(true);
+                    numPrefetchesCancelled.incrementAndGet();
+                    iterator.remove();
+                }
+            }
+            for (Map.Entry<String, Runnable> entry : wanted.entrySet()) {
+                if (!prefetches.containsKey(entry.getKey())) {
+                    FutureTask<GeneralTileManager.ImageTile> task = new FutureTask<>(entry.getValue(), null);
+                    prefetches.put(entry.getKey(), task);
+                    tilePrefetcher.execute(task);
+                }
+            }
+        }
+    }
+
+    private void addTilesToPrefetch(Map<String, Runnable> wanted, final MatrixZoomData zd, final MatrixZoomData controlZd,
+                                    double bLeft, double bTop, double bRight, double bBottom, final MatrixType displayOption,
+                                    final NormalizationType obsNormalizationType, final NormalizationType ctrlNormalizationType,
+                                    final ExpectedValueFunction df, final ExpectedValueFunction controlDF, final JComponent parent) {
+        long maxBinCountX = zd.getXGridAxis().getBinCount();
+        long maxBinCountY = zd.getYGridAxis().getBinCount();
+        if (maxBinCountX < 0 || maxBinCountY < 0) return;
+
+        int tLeft = (int) Math.max(0, bLeft / imageTileWidth);
+        int tTop = (int) Math.max(0, bTop / imageTileWidth);
+        int tRight = (int) Math.min(Math.ceil(bRight / imageTileWidth), maxBinCountX / imageTileWidth);
+        int tBottom = (int) Math.min(Math.ceil(bBottom / imageTileWidth), maxBinCountY / imageTileWidth);
+        final int startGeneration = generation;
+
+        for (int tileRow = tTop; tileRow <= tBottom; tileRow++) {
+            for (int tileColumn = tLeft; tileColumn <= tRight; tileColumn++) {
+                final String key = zd.getTileKey(tileRow, tileColumn, displayOption);
+                if (wanted.containsKey(key) || tileCache.asMap().containsKey(key)) continue;
+                final int row = tileRow, column = tileColumn;
+                wanted.put(key, new Runnable() {
+                    @Override
+                    public void run() {
+                        GeneralTileManager.ImageTile tile = createImageTile(zd, controlZd, row, column, displayOption,
+                                obsNormalizationType, ctrlNormalizationType, df, controlDF, parent);
+                        // a cancelled render may have been cut short, so it is not cached
+                        if (tile != null && !Thread.currentThread().isInterrupted() && startGeneration == generation) {
+                            tileCache.put(key, tile);
+                            prefetchedKeys.add(key);
+                            numPrefetched.incrementAndGet();
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private GeneralTileManager.ImageTile createImageTile(MatrixZoomData zd, MatrixZoomData controlZd, int tileRow, int tileColumn,
+                                                         MatrixType displayOption, NormalizationType obsNormalizationType,
+                                                         NormalizationType ctrlNormalizationType, ExpectedValueFunction df,
+                                                         ExpectedValueFunction controlDF, JComponent parent) {
+        // Image size can be smaller than tile width when zoomed out, or near the edges.
+
+        long maxBinCountX = zd.getXGridAxis().getBinCount();
+        long maxBinCountY = zd.getYGridAxis().getBinCount();
+
+        if (maxBinCountX < 0 || maxBinCountY < 0) return null;
+
+        int imageWidth = maxBinCountX < imageTileWidth ? (int) maxBinCountX : imageTileWidth;
+        int imageHeight = maxBinCountY < imageTileWidth ? (int) maxBinCountY : imageTileWidth;
+        final int bx0 = tileColumn * imageTileWidth;
+        final int by0 = tileRow * imageTileWidth;
+
+        Image image = renderDataWithCPU(parent, bx0, by0, imageWidth, imageHeight,
+                zd, controlZd, displayOption, obsNormalizationType, ctrlNormalizationType, df, controlDF);
+
+        // if (scaleFactor > 0.999 && scaleFactor < 1.001) {
+        return new GeneralTileManager.ImageTile(image, bx0, by0);
     }
 
     private BufferedImage renderDataWithCPU(JComponent parent, int bx0, int by0, int imageWidth, int imageHeight,
                                             MatrixZoomData zd, MatrixZoomData controlZd, MatrixType displayOption,
                                             NormalizationType obsNormalizationType, NormalizationType ctrlNormalizationType,
                                             ExpectedValueFunction expectedValues, ExpectedValueFunction expectedControlValues) {
-        BufferedImage image = (BufferedImage) parent.createImage(imageWidth, imageHeight);
-        Graphics2D g2D = (Graphics2D) image.getGraphics();
-        if (HiCGlobals.isDarkulaModeEnabled) {
-            g2D.setColor(Color.darkGray);
-            g2D.fillRect(0, 0, imageWidth, imageHeight);
-        }
+        Color background = HiCGlobals.isDarkulaModeEnabled ? Color.darkGray : parent.getBackground();
+        BufferedImage image = RasterHeatmapRenderer.createImage(imageWidth, imageHeight,
+                background != null ? background : Color.white);
 
-        HeatmapRenderer renderer = new HeatmapRenderer(g2D, colorScaleHandler);
+        HeatmapRenderer renderer = new RasterHeatmapRenderer(image, colorScaleHandler);
         if (!renderer.render(bx0, by0, imageWidth, imageHeight,
                 zd, controlZd, displayOption,
                 obsNormalizationType, ctrlNormalizationType,
@@ -103,6 +322,70 @@ public class HiCMapTileManager {
         return image;
     }
 
+    public String getStatistics() {
+        CacheStats stats = tileCache.stats();
+        long prefetched = numPrefetched.get();
+        return String.format("Tile cache: %d tiles, %.1f MB, hit rate %.3f; prefetched %d, prefetch hit rate %.3f, %d cancelled",
+                tileCache.size(), getResidentBytes() / 1048576.0, stats.hitRate(), prefetched,
+                prefetched == 0 ? 0.0 : (double) numPrefetchHits.get() / prefetched, numPrefetchesCancelled.get());
+    }
+
+    private long getResidentBytes() {
+        long bytes = 0;
+        for (GeneralTileManager.ImageTile tile : tileCache.asMap().values()) {
+            bytes += getImageBytes(tile);
+        }
+        return bytes;
+    }
+
+    private static int getImageBytes(GeneralTileManager.ImageTile tile) {
+        if (tile.image == null) return 1;
+        return 4 * Math.max(1, tile.image.getWidth(null)) * Math.max(1, tile.image.getHeight(null));
+    }
+
+    private static Cache<String, GeneralTileManager.ImageTile> buildCache(long maxBytes) {
+        return CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(new Weigher<String, GeneralTileManager.ImageTile>() {
+                    @Override
+                    public int weigh(String key, GeneralTileManager.ImageTile tile) {
+                        return getImageBytes(tile);
+                    }
+                })
+                .concurrencyLevel(Math.max(4, HiCGlobals.getIdealThreadCount()))
+                .recordStats()
+                .build();
+    }
+
+    private static long readMaxBytesProperty() {
+        String value = System.getProperty(MAX_BYTES_PROPERTY);
+        if (value != null) {
+            try {
+                return BlockCache.parseByteSize(value);
+            } catch (NumberFormatException e) {
+                System.err.println("Unable to parse " + MAX_BYTES_PROPERTY + "=" + value + "; using default tile cache size");
+            }
+        }
+        return Runtime.getRuntime().maxMemory() / 8;
+    }
+
+    private static ExecutorService createTileRenderer(final String name, int numThreads, final int priority) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(priority);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     public void updateColorSliderFromColorScale(SuperAdapter superAdapter, MatrixType displayOption, String cacheKey) {
         colorScaleHandler.updateColorSliderFromColorScale(superAdapter, displayOption, cacheKey);
     }
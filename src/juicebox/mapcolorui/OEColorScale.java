@@ -106,6 +106,22 @@ class OEColorScale implements ColorScale {
 
     }
 
+    /**
+     * @return lookup table over the scores for which the scale is not saturated, or null if the range is empty
+     */
+    ColorLookupTable createLookupTable() {
+        if (!(threshold > 0)) {
+            return null;
+        } else if (HiCGlobals.HACK_COLORSCALE) {
+            return new ColorLookupTable(this, 0, threshold, false);
+        } else if (MatrixType.isSubtactType(type)) {
+            return new ColorLookupTable(this, -threshold, threshold, false);
+        } else if (HiCGlobals.HACK_COLORSCALE_LINEAR) {
+            return new ColorLookupTable(this, -Math.log(1 + threshold), Math.log(1 + threshold), true);
+        }
+        return new ColorLookupTable(this, -threshold, threshold, true);
+    }
+
     public Color getColor(String symbol) {
         return null;  //To change body of implemented methods use File | Settings | File Templates.
     }
@@ -0,0 +1,87 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.mapcolorui;
+
+import org.broad.igv.renderer.ColorScale;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Renders a heatmap tile by writing pixels straight into the image's int raster, looking colors up in
+ * a quantized table per color scale instead of going through Graphics2D for every contact.
+ * It does not touch any Swing state, so tiles can be rendered in parallel off the EDT.
+ * Vector exports still go through the Graphics2D based HeatmapRenderer.
+ */
+class RasterHeatmapRenderer extends HeatmapRenderer {
+
+    private final int[] pixels;
+    private final int width, height;
+    private final Map<ColorScale, ColorLookupTable> lookupTables = new IdentityHashMap<>();
+    private int currentRGB;
+
+    /**
+     * @param image TYPE_INT_RGB or TYPE_INT_ARGB image to render into
+     */
+    RasterHeatmapRenderer(BufferedImage image, ColorScaleHandler colorScaleHandler) {
+        super(null, colorScaleHandler);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        width = image.getWidth();
+        height = image.getHeight();
+    }
+
+    static BufferedImage createImage(int width, int height, Color background) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Arrays.fill(((DataBufferInt) image.getRaster().getDataBuffer()).getData(), background.getRGB());
+        return image;
+    }
+
+    @Override
+    protected void setColor(Color color) {
+        currentRGB = color.getRGB();
+    }
+
+    @Override
+    protected void setColor(ColorScale cs, float score) {
+        ColorLookupTable lookupTable = lookupTables.get(cs);
+        if (lookupTable == null && !lookupTables.containsKey(cs)) {
+            // built once per tile, so changes to the scale's range are picked up by the next tile
+            lookupTable = ColorLookupTable.create(cs);
+            lookupTables.put(cs, lookupTable);
+        }
+        currentRGB = lookupTable != null ? lookupTable.getRGB(score) : cs.getColor(score).getRGB();
+    }
+
+    @Override
+    protected void directPixelPainting(int px, int py) {
+        if (px >= 0 && py >= 0 && px < width && py < height) {
+            pixels[py * width + px] = currentRGB;
+        }
+    }
+}
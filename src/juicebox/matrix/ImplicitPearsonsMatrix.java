@@ -0,0 +1,389 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.matrix;
+
+import juicebox.tools.dev.ParallelizedJuicerTools;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pearson's correlation matrix of the rows of an O/E matrix, after subtracting the row means, which is what
+ * Pearsons.computePearsons calculates densely.
+ * <p>
+ * Only the sparse O/E values and a few statistics per row are stored. A centered, normalized row is
+ * (O_i - m - mu_i) / s_i, with m the vector of row means, so correlations and products with the matrix
+ * reduce to sparse products with O plus low rank corrections. Entries are computed a 500x500 tile at a
+ * time when first requested, and the most recently used tiles are kept.
+ */
+public class ImplicitPearsonsMatrix implements BasicMatrix {
+
+    public static final int TILE_WIDTH = 500;
+    private static final int MIN_CACHED_TILES = 64;
+    private static final int NUM_ROWS_FOR_BOUNDS = 20;
+    private static final int ROWS_PER_TASK = 64;
+
+    private final int dim;
+    private final int numTiles;
+    // symmetric O/E matrix in compressed sparse row format, with both triangles stored
+    private final int[] rowStarts;
+    private final int[] columns;
+    private final float[] values;
+    private final BitSet validBins = new BitSet();
+    private final double[] means;
+    private final double[] centeredMeans;
+    private final double[] norms;
+    private final double[] rowSums;
+    private final double[] rowDotMeans;
+    private final double sumOfMeans;
+    private final double sumOfSquaredMeans;
+    private final Map<Long, float[]> tiles;
+    private volatile Tile lastTile = null;
+    private float lowerValue = Float.NaN;
+    private float upperValue = Float.NaN;
+
+    /**
+     * @param binXs  row of each O/E value; each (x, y) pair of the upper or lower triangle should appear only once
+     * @param binYs  column of each O/E value
+     * @param values O/E values
+     */
+    public ImplicitPearsonsMatrix(int dim, int numValues, int[] binXs, int[] binYs, float[] values) {
+        this.dim = dim;
+        this.numTiles = (dim + TILE_WIDTH - 1) / TILE_WIDTH;
+        final int maxTiles = Math.max(MIN_CACHED_TILES, numTiles + 1);
+        tiles = new LinkedHashMap<Long, float[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, float[]> eldest) {
+                return size() > maxTiles;
+            }
+        };
+
+        int[] rowCounts = new int[dim];
+        long numEntries = 0;
+        for (int k = 0; k < numValues; k++) {
+            rowCounts[binXs[k]]++;
+            numEntries++;
+            if (binXs[k] != binYs[k]) {
+                rowCounts[binYs[k]]++;
+                numEntries++;
+            }
+            validBins.set(binXs[k]);
+            validBins.set(binYs[k]);
+        }
+        if (numEntries > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many contacts for Pearson's: " + numEntries);
+        }
+
+        rowStarts = new int[dim + 1];
+        for (int i = 0; i < dim; i++) {
+            rowStarts[i + 1] = rowStarts[i] + rowCounts[i];
+        }
+        columns = new int[(int) numEntries];
+        this.values = new float[(int) numEntries];
+        int[] nextPosition = new int[dim];
+        System.arraycopy(rowStarts, 0, nextPosition, 0, dim);
+        for (int k = 0; k < numValues; k++) {
+            int x = binXs[k], y = binYs[k];
+            columns[nextPosition[x]] = y;
+            this.values[nextPosition[x]++] = values[k];
+            if (x != y) {
+                columns[nextPosition[y]] = x;
+                this.values[nextPosition[y]++] = values[k];
+            }
+        }
+
+        rowSums = new double[dim];
+        means = new double[dim];
+        double sumOfMeans = 0, sumOfSquaredMeans = 0;
+        for (int i = validBins.nextSetBit(0); i >= 0; i = validBins.nextSetBit(i + 1)) {
+            for (int p = rowStarts[i]; p < rowStarts[i + 1]; p++) {
+                rowSums[i] += this.values[p];
+            }
+            means[i] = rowSums[i] / dim;
+            sumOfMeans += means[i];
+            sumOfSquaredMeans += means[i] * means[i];
+        }
+        this.sumOfMeans = sumOfMeans;
+        this.sumOfSquaredMeans = sumOfSquaredMeans;
+
+        rowDotMeans = new double[dim];
+        centeredMeans = new double[dim];
+        norms = new double[dim];
+        for (int i = validBins.nextSetBit(0); i >= 0; i = validBins.nextSetBit(i + 1)) {
+            double sumOfSquares = 0;
+            for (int p = rowStarts[i]; p < rowStarts[i + 1]; p++) {
+                rowDotMeans[i] += this.values[p] * means[columns[p]];
+                sumOfSquares += this.values[p] * this.values[p];
+            }
+            centeredMeans[i] = (rowSums[i] - sumOfMeans) / dim;
+            double squaredNorm = getCenteredDotProduct(i, i, sumOfSquares);
+            if (squaredNorm > 0) {
+                norms[i] = Math.sqrt(squaredNorm);
+            }
+        }
+        // constant rows have no correlation with anything
+        for (int i = validBins.nextSetBit(0); i >= 0; i = validBins.nextSetBit(i + 1)) {
+            if (norms[i] == 0) validBins.clear(i);
+        }
+    }
+
+    /**
+     * @return (O_i - m - mu_i) . (O_j - m - mu_j) given O_i . O_j
+     */
+    private double getCenteredDotProduct(int i, int j, double dotProduct) {
+        return dotProduct - rowDotMeans[i] - rowDotMeans[j] - centeredMeans[j] * rowSums[i] - centeredMeans[i] * rowSums[j]
+                + sumOfSquaredMeans + (centeredMeans[i] + centeredMeans[j]) * sumOfMeans
+                + (double) dim * centeredMeans[i] * centeredMeans[j];
+    }
+
+    @Override
+    public float getEntry(int row, int col) {
+        if (row < 0 || col < 0 || row >= dim || col >= dim || !validBins.get(row) || !validBins.get(col)) {
+            return Float.NaN;
+        }
+        if (row == col) {
+            return 1;
+        }
+
+        int rowTile = row / TILE_WIDTH, colTile = col / TILE_WIDTH;
+        if (rowTile > colTile) { // only tiles on or above the diagonal are computed
+            int tmp = row;
+            row = col;
+            col = tmp;
+            tmp = rowTile;
+            rowTile = colTile;
+            colTile = tmp;
+        }
+
+        long key = (long) rowTile * numTiles + colTile;
+        Tile tile = lastTile;
+        if (tile == null || tile.key != key) {
+            tile = new Tile(key, getTile(rowTile, colTile, key));
+            lastTile = tile;
+        }
+        int width = Math.min(TILE_WIDTH, dim - colTile * TILE_WIDTH);
+        return tile.values[(row - rowTile * TILE_WIDTH) * width + col - colTile * TILE_WIDTH];
+    }
+
+    private float[] getTile(int rowTile, int colTile, long key) {
+        float[] tile;
+        synchronized (tiles) {
+            tile = tiles.get(key);
+        }
+        if (tile == null) {
+            tile = computeTile(rowTile, colTile);
+            synchronized (tiles) {
+                tiles.put(key, tile);
+            }
+        }
+        return tile;
+    }
+
+    private float[] computeTile(int rowTile, int colTile) {
+        final int r0 = rowTile * TILE_WIDTH, r1 = Math.min(r0 + TILE_WIDTH, dim);
+        final int c0 = colTile * TILE_WIDTH, c1 = Math.min(c0 + TILE_WIDTH, dim);
+        final int width = c1 - c0;
+        final float[] tile = new float[(r1 - r0) * width];
+        final AtomicInteger nextColumn = new AtomicInteger(c0);
+
+        ParallelizedJuicerTools.launchParallelizedCode(() -> {
+            double[] dense = new double[dim];
+            int j;
+            while ((j = nextColumn.getAndIncrement()) < c1) {
+                boolean validJ = validBins.get(j);
+                if (validJ) {
+                    for (int p = rowStarts[j]; p < rowStarts[j + 1]; p++) {
+                        dense[columns[p]] = values[p];
+                    }
+                }
+                for (int i = r0; i < r1; i++) {
+                    float corr;
+                    if (!validJ || !validBins.get(i)) {
+                        corr = Float.NaN;
+                    } else if (i == j) {
+                        corr = 1;
+                    } else {
+                        double dotProduct = 0;
+                        for (int p = rowStarts[i]; p < rowStarts[i + 1]; p++) {
+                            dotProduct += values[p] * dense[columns[p]];
+                        }
+                        corr = (float) (getCenteredDotProduct(i, j, dotProduct) / (norms[i] * norms[j]));
+                    }
+                    tile[(i - r0) * width + j - c0] = corr;
+                }
+                if (validJ) {
+                    for (int p = rowStarts[j]; p < rowStarts[j + 1]; p++) {
+                        dense[columns[p]] = 0;
+                    }
+                }
+            }
+        });
+        return tile;
+    }
+
+    /**
+     * Computes y = P x for the Pearson's matrix P, treating invalid bins as zero rows and columns.
+     * Costs two sparse products with the O/E matrix.
+     */
+    public void multiply(double[] x, double[] y) {
+        double[] w = new double[dim];
+        double sumW = 0, sumWMu = 0;
+        for (int i = validBins.nextSetBit(0); i >= 0; i = validBins.nextSetBit(i + 1)) {
+            w[i] = x[i] / norms[i];
+            sumW += w[i];
+            sumWMu += w[i] * centeredMeans[i];
+        }
+
+        // t = sum of w_i (O_i - m - mu_i)
+        double[] t = new double[dim];
+        multiplySparse(w, t);
+        double mDotT = 0, sumT = 0;
+        for (int c = 0; c < dim; c++) {
+            t[c] -= sumW * means[c] + sumWMu;
+            mDotT += means[c] * t[c];
+            sumT += t[c];
+        }
+
+        double[] u = new double[dim];
+        multiplySparse(t, u);
+        for (int k = 0; k < dim; k++) {
+            y[k] = validBins.get(k) ? (u[k] - mDotT - centeredMeans[k] * sumT) / norms[k] : 0;
+        }
+    }
+
+    private void multiplySparse(final double[] x, final double[] y) {
+        final AtomicInteger nextRow = new AtomicInteger(0);
+        ParallelizedJuicerTools.launchParallelizedCode(() -> {
+            int start;
+            while ((start = nextRow.getAndAdd(ROWS_PER_TASK)) < dim) {
+                int end = Math.min(start + ROWS_PER_TASK, dim);
+                for (int i = start; i < end; i++) {
+                    double sum = 0;
+                    for (int p = rowStarts[i]; p < rowStarts[i + 1]; p++) {
+                        sum += values[p] * x[columns[p]];
+                    }
+                    y[i] = sum;
+                }
+            }
+        });
+    }
+
+    /**
+     * @param bins bins to restrict the matrix to, e.g. the valid bins
+     * @return the Pearson's matrix restricted to the given bins, for iterative eigensolvers
+     */
+    public SymmetricLinearOperator getOperator(final int[] bins) {
+        return new SymmetricLinearOperator() {
+            @Override
+            public int getDimension() {
+                return bins.length;
+            }
+
+            @Override
+            public void multiply(double[] x, double[] y) {
+                double[] fullX = new double[dim];
+                double[] fullY = new double[dim];
+                for (int k = 0; k < bins.length; k++) {
+                    fullX[bins[k]] = x[k];
+                }
+                ImplicitPearsonsMatrix.this.multiply(fullX, fullY);
+                for (int k = 0; k < bins.length; k++) {
+                    y[k] = fullY[bins[k]];
+                }
+            }
+        };
+    }
+
+    public BitSet getValidBins() {
+        return (BitSet) validBins.clone();
+    }
+
+    @Override
+    public int getRowDimension() {
+        return dim;
+    }
+
+    @Override
+    public int getColumnDimension() {
+        return dim;
+    }
+
+    @Override
+    public float getLowerValue() {
+        if (Float.isNaN(lowerValue)) {
+            computeBounds();
+        }
+        return lowerValue;
+    }
+
+    @Override
+    public float getUpperValue() {
+        if (Float.isNaN(upperValue)) {
+            computeBounds();
+        }
+        return upperValue;
+    }
+
+    /**
+     * Percentiles are estimated from evenly spaced rows rather than the whole matrix
+     */
+    private synchronized void computeBounds() {
+        DescriptiveStatistics stats = new DescriptiveStatistics();
+        int numValid = validBins.cardinality();
+        int step = Math.max(1, numValid / NUM_ROWS_FOR_BOUNDS);
+        double[] x = new double[dim];
+        double[] y = new double[dim];
+        int count = 0;
+        for (int i = validBins.nextSetBit(0); i >= 0; i = validBins.nextSetBit(i + 1), count++) {
+            if (count % step != 0) continue;
+            x[i] = 1;
+            multiply(x, y);
+            x[i] = 0;
+            for (int j = validBins.nextSetBit(0); j >= 0; j = validBins.nextSetBit(j + 1)) {
+                stats.addValue(j == i ? 1 : y[j]);
+            }
+        }
+        lowerValue = (float) stats.getPercentile(5);
+        upperValue = (float) stats.getPercentile(95);
+    }
+
+    @Override
+    public void setEntry(int i, int j, float corr) {
+
+    }
+
+    private static class Tile {
+        final long key;
+        final float[] values;
+
+        Tile(long key, float[] values) {
+            this.key = key;
+            this.values = values;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.matrix;
+
+import juicebox.tools.dev.ParallelizedJuicerTools;
+import org.apache.commons.math3.linear.EigenDecomposition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes the eigenvectors with the largest eigenvalues of a symmetric matrix by the Lanczos method,
+ * using only products with the matrix. The Krylov basis is fully reorthogonalized, which keeps the
+ * Ritz vectors accurate at the cost of storing one vector per iteration; compartment eigenvectors
+ * usually converge in well under a hundred iterations.
+ */
+public class LanczosEigensolver {
+
+    private static final double TOLERANCE = 1e-8;
+    private static final int CHECK_CONVERGENCE_EVERY = 5;
+    private static final int DEFAULT_MAX_ITERATIONS = 500;
+
+    /**
+     * @param which index of the eigenvector when sorted by decreasing eigenvalue, as in EigenDecomposition
+     * @return unit eigenvector
+     */
+    public static double[] computeEigenvector(SymmetricLinearOperator operator, int which) {
+        return computeLargestEigenvectors(operator, which + 1, DEFAULT_MAX_ITERATIONS)[which];
+    }
+
+    /**
+     * @param indices rows (and columns) of the matrix to keep, e.g. its valid bins
+     * @return the matrix restricted to the given rows and columns, for matrices that can only be read entry by entry;
+     * each row is read the first time a product needs it and then kept, so later iterations don't read the matrix again
+     */
+    public static SymmetricLinearOperator getSubsetOperator(final BasicMatrix matrix, final int[] indices) {
+        final int n = indices.length;
+        final float[][] rows = new float[n][];
+        return new SymmetricLinearOperator() {
+            @Override
+            public int getDimension() {
+                return n;
+            }
+
+            @Override
+            public void multiply(final double[] x, final double[] y) {
+                final AtomicInteger nextRow = new AtomicInteger(0);
+                // each row is only touched by one thread per product, and the threads are joined before the next one
+                ParallelizedJuicerTools.launchParallelizedCode(() -> {
+                    int i;
+                    while ((i = nextRow.getAndIncrement()) < n) {
+                        float[] row = rows[i];
+                        if (row == null) {
+                            row = new float[n];
+                            for (int j = 0; j < n; j++) {
+                                row[j] = matrix.getEntry(indices[i], indices[j]);
+                            }
+                            rows[i] = row;
+                        }
+                        double sum = 0;
+                        for (int j = 0; j < n; j++) {
+                            sum += row[j] * x[j];
+                        }
+                        y[i] = sum;
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * @return the k unit eigenvectors with the largest eigenvalues, in order of decreasing eigenvalue
+     */
+    public static double[][] computeLargestEigenvectors(SymmetricLinearOperator operator, int k, int maxIterations) {
+        int n = operator.getDimension();
+        if (k < 1 || k > n) {
+            throw new IllegalArgumentException("Cannot compute " + k + " eigenvectors of a " + n + "x" + n + " matrix");
+        }
+        int maxSteps = Math.min(n, Math.max(maxIterations, 2 * k + 20));
+
+        List<double[]> basis = new ArrayList<>();
+        double[] alpha = new double[maxSteps];
+        double[] beta = new double[maxSteps];
+
+        // fixed seed so the same matrix always gives the same eigenvector
+        double[] v = new double[n];
+        Random random = new Random(0);
+        for (int i = 0; i < n; i++) {
+            v[i] = random.nextDouble() - 0.5;
+        }
+        scale(v, 1 / norm(v));
+
+        double[] w = new double[n];
+        double[][] ritzVectors = null;
+        int steps = 0;
+        while (steps < maxSteps) {
+            basis.add(v);
+            operator.multiply(v, w);
+            alpha[steps] = dot(w, v);
+
+            // full reorthogonalization against the basis; twice is enough in floating point
+            for (int pass = 0; pass < 2; pass++) {
+                for (double[] q : basis) {
+                    axpy(-dot(w, q), q, w);
+                }
+            }
+            beta[steps] = norm(w);
+            steps++;
+
+            boolean invariantSubspace = beta[steps - 1] <= TOLERANCE * Math.max(1, Math.abs(alpha[0]));
+            if (steps >= k && (invariantSubspace || steps == maxSteps || steps % CHECK_CONVERGENCE_EVERY == 0)) {
+                ritzVectors = getRitzVectors(alpha, beta, steps, k, basis, n, invariantSubspace || steps == maxSteps);
+                if (ritzVectors != null) {
+                    break;
+                }
+            }
+            if (invariantSubspace) {
+                // the whole Krylov space has been found; restart from a vector orthogonal to it
+                w = randomOrthogonalVector(basis, n, random);
+                beta[steps - 1] = 0;
+            }
+
+            v = w;
+            scale(v, 1 / norm(v));
+            w = new double[n];
+        }
+        return ritzVectors;
+    }
+
+    /**
+     * Solves the tridiagonal projection and returns the top k Ritz vectors,
+     * or null if they have not converged yet and more steps are possible
+     */
+    private static double[][] getRitzVectors(double[] alpha, double[] beta, int m, int k, List<double[]> basis,
+                                             int n, boolean isFinal) {
+        double[] main = Arrays.copyOf(alpha, m);
+        double[] secondary = Arrays.copyOf(beta, m - 1);
+        EigenDecomposition decomposition = new EigenDecomposition(main, secondary);
+        double[] eigenvalues = decomposition.getRealEigenvalues();
+
+        Integer[] order = new Integer[m];
+        for (int i = 0; i < m; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(eigenvalues[b], eigenvalues[a]));
+
+        double scale = Math.max(1, Math.abs(eigenvalues[order[0]]));
+        double[][] tridiagonalVectors = new double[k][];
+        for (int i = 0; i < k; i++) {
+            double[] s = decomposition.getEigenvector(order[i]).toArray();
+            // residual norm of the Ritz pair is |beta_m * last component of s|
+            if (!isFinal && Math.abs(beta[m - 1] * s[m - 1]) > TOLERANCE * scale) {
+                return null;
+            }
+            tridiagonalVectors[i] = s;
+        }
+
+        double[][] ritzVectors = new double[k][n];
+        for (int i = 0; i < k; i++) {
+            for (int j = 0; j < m; j++) {
+                axpy(tridiagonalVectors[i][j], basis.get(j), ritzVectors[i]);
+            }
+            scale(ritzVectors[i], 1 / norm(ritzVectors[i]));
+        }
+        return ritzVectors;
+    }
+
+    private static double[] randomOrthogonalVector(List<double[]> basis, int n, Random random) {
+        double[] w = new double[n];
+        for (int i = 0; i < n; i++) {
+            w[i] = random.nextDouble() - 0.5;
+        }
+        for (int pass = 0; pass < 2; pass++) {
+            for (double[] q : basis) {
+                axpy(-dot(w, q), q, w);
+            }
+        }
+        return w;
+    }
+
+    private static double dot(double[] x, double[] y) {
+        double sum = 0;
+        for (int i = 0; i < x.length; i++) {
+            sum += x[i] * y[i];
+        }
+        return sum;
+    }
+
+    private static double norm(double[] x) {
+        return Math.sqrt(dot(x, x));
+    }
+
+    private static void scale(double[] x, double factor) {
+        for (int i = 0; i < x.length; i++) {
+            x[i] *= factor;
+        }
+    }
+
+    /**
+     * y += a x
+     */
+    private static void axpy(double a, double[] x, double[] y) {
+        for (int i = 0; i < y.length; i++) {
+            y[i] += a * x[i];
+        }
+    }
+}
@@ -26,6 +26,8 @@ package juicebox.tools;
 
 import jargs.gnu.CmdLineParser;
 import juicebox.HiCGlobals;
+import juicebox.data.BlockCache;
+import juicebox.data.DatasetReaderFactory;
 import juicebox.tools.clt.CLTFactory;
 import juicebox.tools.clt.CommandLineParser;
 import juicebox.tools.clt.CommandLineParserForJuicer;
@@ -60,7 +62,8 @@ public class HiCTools {
         CommandLineParser parser = new CommandLineParser();
         if (CommandLineParserForJuicer.isJuicerCommand(cmdName)) {
             parser = new CommandLineParserForJuicer();
-            HiCGlobals.useCache = false; //TODO until memory leak cleared
+            // the block cache is byte-bounded now, but stays off for juicer tools unless a bound was given explicitly
+            HiCGlobals.useCache = BlockCache.hasConfiguredMaximumSize();
         }
         boolean help;
         boolean version;
@@ -74,6 +77,7 @@ public class HiCTools {
         help = parser.getHelpOption();
         version = parser.getVersionOption();
         HiCGlobals.printVerboseComments = parser.getVerboseOption();
+        DatasetReaderFactory.setUseMemoryMapping(parser.getMemoryMapOption());
 
         String[] args = parser.getRemainingArgs();
 
@@ -44,6 +44,7 @@ public class CommandLineParser extends CmdLineParser {
     protected final Option verboseOption = addBooleanOption('v', "verbose");
     protected final Option helpOption = addBooleanOption('h', "help");
     protected final Option versionOption = addBooleanOption('V', "version");
+    protected final Option memoryMapOption = addBooleanOption("mmap");
 
     // boolean
     private final Option diagonalsOption = addBooleanOption('d', "diagonals");
@@ -56,6 +57,7 @@ public class CommandLineParser extends CmdLineParser {
     private final Option useMinRAM = addBooleanOption("conserve-ram");
     private final Option checkMemory = addBooleanOption("check-ram-usage");
     private final Option fromHIC = addBooleanOption("from-hic");
+    private final Option byteLevelParser = addBooleanOption("byte-parser");
 
     // String
     private final Option fragmentOption = addStringOption('f', "restriction-fragment-site-file");
@@ -68,6 +70,7 @@ public class CommandLineParser extends CmdLineParser {
     private final Option mndIndexOption = addStringOption('i', "mndindex");
     private final Option ligationOption = addStringOption("ligation");
     private final Option shellOption = addStringOption("shell");
+    private final Option blockCodecOption = addStringOption("codec");
 
     // ints
     private final Option blockCapacityOption = addIntegerOption("block-capacity");
@@ -135,6 +138,10 @@ public class CommandLineParser extends CmdLineParser {
         return optionToBoolean(versionOption);
     }
 
+    public boolean getMemoryMapOption() {
+        return optionToBoolean(memoryMapOption);
+    }
+
     public boolean getRandomizePositionsOption() {
         return optionToBoolean(randomizePositionOption);
     }
@@ -153,6 +160,10 @@ public class CommandLineParser extends CmdLineParser {
 
     public boolean getFromHICOption() { return optionToBoolean(fromHIC); }
 
+    public boolean getByteLevelParserOption() {
+        return optionToBoolean(byteLevelParser);
+    }
+
     /**
      * String flags
      */
@@ -195,6 +206,10 @@ public class CommandLineParser extends CmdLineParser {
         return optionToString(shellOption);
     }
 
+    public String getBlockCodecOption() {
+        return optionToString(blockCodecOption);
+    }
+
     public Alignment getAlignmentOption() {
         int alignmentInt = optionToInt(alignmentFilterOption);
 
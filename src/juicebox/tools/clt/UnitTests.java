@@ -30,6 +30,10 @@ import juicebox.HiCGlobals;
 import juicebox.data.*;
 import juicebox.data.basics.Chromosome;
 import juicebox.matrix.BasicMatrix;
+import juicebox.matrix.ImplicitPearsonsMatrix;
+import juicebox.matrix.InMemoryMatrix;
+import juicebox.matrix.LanczosEigensolver;
+import juicebox.tools.clt.old.Pearsons;
 import juicebox.tools.utils.common.MatrixTools;
 import juicebox.tools.utils.juicer.hiccups.HiCCUPSConfiguration;
 import juicebox.tools.utils.juicer.hiccups.HiCCUPSUtils;
@@ -38,8 +42,11 @@ import juicebox.track.feature.Feature2DParser;
 import juicebox.windowui.HiCZoom;
 import juicebox.windowui.NormalizationHandler;
 import juicebox.windowui.NormalizationType;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.EigenDecomposition;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -47,6 +54,241 @@ import java.util.*;
  */
 class UnitTests {
 
+    /**
+     * Runs the tests that need no data files; each throws an AssertionError on failure
+     */
+    public static void main(String[] args) {
+        implicitPearsonsMatchesDense();
+        lanczosMatchesEigenDecomposition();
+        lz4RoundTrips();
+        lz4RejectsCorruptBlocks();
+        System.out.println("All tests passed");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * Compares the implicit Pearson's matrix with the dense calculation on a random O/E matrix that spans
+     * several tiles and has empty bins, entry by entry and through products with the matrix
+     */
+    private static void implicitPearsonsMatchesDense() {
+        int dim = 2 * ImplicitPearsonsMatrix.TILE_WIDTH + 37;
+        Random random = new Random(18);
+        double[][] oeMatrix = new double[dim][dim];
+        BitSet bitSet = new BitSet(dim);
+        List<int[]> positions = new ArrayList<>();
+        List<Float> oeValues = new ArrayList<>();
+        for (int i = 0; i < dim; i++) {
+            if (i % 97 == 5) continue; // e.g. a centromere
+            for (int j = i; j < dim; j++) {
+                if (j % 97 == 5 || random.nextDouble() > 0.05 + 1.0 / (1 + j - i)) continue;
+                float value = (float) (random.nextDouble() * 4 / (1 + 0.01 * (j - i)));
+                oeMatrix[i][j] = value;
+                oeMatrix[j][i] = value;
+                bitSet.set(i);
+                bitSet.set(j);
+                positions.add(new int[]{i, j});
+                oeValues.add(value);
+            }
+        }
+        int numValues = oeValues.size();
+        int[] binXs = new int[numValues];
+        int[] binYs = new int[numValues];
+        float[] values = new float[numValues];
+        for (int k = 0; k < numValues; k++) {
+            // the implicit matrix takes either triangle
+            boolean lower = k % 2 == 0;
+            binXs[k] = positions.get(k)[lower ? 1 : 0];
+            binYs[k] = positions.get(k)[lower ? 0 : 1];
+            values[k] = oeValues.get(k);
+        }
+
+        ImplicitPearsonsMatrix implicit = new ImplicitPearsonsMatrix(dim, numValues, binXs, binYs, values);
+        BasicMatrix dense = Pearsons.computePearsons(oeMatrix, dim, bitSet);
+
+        for (int i = 0; i < dim; i++) {
+            for (int j = 0; j < dim; j++) {
+                float expected = dense.getEntry(i, j);
+                float actual = implicit.getEntry(i, j);
+                if (Float.isNaN(expected)) {
+                    check(Float.isNaN(actual), "Pearson's entry (" + i + ", " + j + ") should be NaN, was " + actual);
+                } else {
+                    check(Math.abs(expected - actual) < 1e-5,
+                            "Pearson's entry (" + i + ", " + j + ") is " + actual + ", expected " + expected);
+                }
+            }
+        }
+
+        double[] x = new double[dim];
+        for (int i = 0; i < dim; i++) {
+            x[i] = random.nextDouble() - 0.5;
+        }
+        double[] y = new double[dim];
+        implicit.multiply(x, y);
+        int[] validBins = implicit.getValidBins().stream().toArray();
+        double[] subsetX = new double[validBins.length];
+        double[] subsetY = new double[validBins.length];
+        for (int k = 0; k < validBins.length; k++) {
+            subsetX[k] = x[validBins[k]];
+        }
+        implicit.getOperator(validBins).multiply(subsetX, subsetY);
+        for (int i = 0; i < dim; i++) {
+            double expected = 0;
+            if (bitSet.get(i)) {
+                for (int j = 0; j < dim; j++) {
+                    if (bitSet.get(j)) {
+                        expected += dense.getEntry(i, j) * x[j];
+                    }
+                }
+            }
+            check(Math.abs(expected - y[i]) < 1e-4 * (1 + Math.abs(expected)),
+                    "Pearson's product row " + i + " is " + y[i] + ", expected " + expected);
+        }
+        for (int k = 0; k < validBins.length; k++) {
+            check(Math.abs(y[validBins[k]] - subsetY[k]) < 1e-9 * (1 + Math.abs(subsetY[k])),
+                    "Pearson's operator row " + k + " differs from the full product");
+        }
+    }
+
+    /**
+     * Compares the top eigenvectors found by the Lanczos solver, through the subset operator of a matrix
+     * read entry by entry, with a full eigen decomposition of the same submatrix
+     */
+    private static void lanczosMatchesEigenDecomposition() {
+        int dim = 120;
+        Random random = new Random(17);
+        BasicMatrix matrix = new InMemoryMatrix(dim);
+        for (int i = 0; i < dim; i++) {
+            for (int j = i; j < dim; j++) {
+                float value = (float) (random.nextDouble() - 0.5);
+                matrix.setEntry(i, j, value);
+                matrix.setEntry(j, i, value);
+            }
+        }
+        int[] indices = new int[dim - dim / 7];
+        for (int i = 0, k = 0; i < dim; i++) {
+            if (i % 7 != 3) indices[k++] = i;
+        }
+        int n = indices.length;
+
+        double[][] subset = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                subset[i][j] = matrix.getEntry(indices[i], indices[j]);
+            }
+        }
+        EigenDecomposition decomposition = new EigenDecomposition(new Array2DRowRealMatrix(subset));
+        double[] eigenvalues = decomposition.getRealEigenvalues();
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(eigenvalues[b], eigenvalues[a]));
+
+        for (int which = 0; which < 2; which++) {
+            double[] expected = decomposition.getEigenvector(order[which]).toArray();
+            double[] actual = LanczosEigensolver.computeEigenvector(
+                    LanczosEigensolver.getSubsetOperator(matrix, indices), which);
+            double dotProduct = 0;
+            for (int i = 0; i < n; i++) {
+                dotProduct += expected[i] * actual[i];
+            }
+            // eigenvectors are only defined up to sign
+            check(Math.abs(Math.abs(dotProduct) - 1) < 1e-6,
+                    "Lanczos eigenvector " + which + " has overlap " + dotProduct + " with the exact one");
+        }
+    }
+
+    private static void lz4RoundTrips() {
+        Random random = new Random(6);
+        List<byte[]> inputs = new ArrayList<>();
+        inputs.add(new byte[0]);
+        // too short for the compressor to look for matches
+        for (int length = 1; length <= 12; length++) {
+            byte[] input = new byte[length];
+            Arrays.fill(input, (byte) 7);
+            inputs.add(input);
+        }
+        // highly repetitive: long matches, and overlapping copies with small offsets
+        byte[] repetitive = new byte[100000];
+        for (int i = 0; i < repetitive.length; i++) {
+            repetitive[i] = (byte) (i % 3);
+        }
+        inputs.add(repetitive);
+        inputs.add(new byte[70000]);
+        // incompressible: long literal runs
+        byte[] incompressible = new byte[100000];
+        random.nextBytes(incompressible);
+        inputs.add(incompressible);
+        // literal and match lengths around 15 + 255, where the length takes extra bytes
+        for (int length : new int[]{14, 15, 16, 269, 270, 271, 524, 525, 526}) {
+            byte[] literals = new byte[length];
+            random.nextBytes(literals);
+            byte[] input = new byte[3 * length + 8];
+            System.arraycopy(literals, 0, input, 0, length);
+            System.arraycopy(literals, 0, input, length, length);
+            random.nextBytes(literals);
+            System.arraycopy(literals, 0, input, 2 * length, length);
+            inputs.add(input);
+        }
+
+        for (byte[] input : inputs) {
+            byte[] compressed = LZ4Compression.compress(input);
+            try {
+                check(Arrays.equals(input, LZ4Compression.decompress(compressed)),
+                        "LZ4 round trip of " + input.length + " bytes changed the data");
+                // the same block in the middle of a larger buffer
+                byte[] buffer = new byte[compressed.length + 20];
+                System.arraycopy(compressed, 0, buffer, 10, compressed.length);
+                check(Arrays.equals(input, LZ4Compression.decompress(buffer, 10, compressed.length)),
+                        "LZ4 round trip of " + input.length + " bytes at an offset changed the data");
+            } catch (IOException e) {
+                throw new AssertionError("LZ4 round trip of " + input.length + " bytes failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void lz4RejectsCorruptBlocks() {
+        // 8 bytes: 4 literals, then a match of 4 at the given offset
+        byte[] badOffset = {8, 0, 0, 0, 0x40, 1, 2, 3, 4, 16, 0};
+        checkLZ4Fails(badOffset, 0, badOffset.length, "an offset before the start of the output");
+        byte[] zeroOffset = {8, 0, 0, 0, 0x40, 1, 2, 3, 4, 0, 0};
+        checkLZ4Fails(zeroOffset, 0, zeroOffset.length, "a zero offset");
+
+        byte[] input = new byte[5000];
+        Random random = new Random(6);
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (byte) random.nextInt(4);
+        }
+        byte[] compressed = LZ4Compression.compress(input);
+        for (int length = 0; length < compressed.length; length++) {
+            checkLZ4Fails(Arrays.copyOf(compressed, length), 0, length, "a block truncated to " + length + " bytes");
+            // the bytes after the block must not be read as part of it
+            checkLZ4Fails(compressed, 0, length, "a block truncated to " + length + " bytes of a larger buffer");
+        }
+
+        byte[] inflated = compressed.clone();
+        inflated[0]++;
+        checkLZ4Fails(inflated, 0, inflated.length, "a header length one too big");
+        inflated[3] = 0x7F;
+        checkLZ4Fails(inflated, 0, inflated.length, "a header length bigger than any block could expand to");
+        inflated[3] = (byte) 0x80;
+        checkLZ4Fails(inflated, 0, inflated.length, "a negative header length");
+    }
+
+    private static void checkLZ4Fails(byte[] src, int offset, int length, String description) {
+        try {
+            LZ4Compression.decompress(src, offset, length);
+        } catch (IOException e) {
+            return;
+        } catch (RuntimeException e) {
+            throw new AssertionError("LZ4 threw " + e + " instead of an IOException for " + description);
+        }
+        throw new AssertionError("LZ4 accepted " + description);
+    }
+
     public static void pearsonsAndEigenvector() {
 
         List<String> files = new ArrayList<>();
@@ -247,7 +247,8 @@ public class HiCCUPS extends JuicerCLT {
             System.out.println(CPU_VERSION_WARNING);
         }
 
-        updateNumberOfCPUThreads(juicerParser, 1);
+        // the CPU version runs a region per core unless told otherwise
+        updateNumberOfCPUThreads(juicerParser, useCPUVersionHiCCUPS ? Runtime.getRuntime().availableProcessors() : 1);
     }
 
     /**
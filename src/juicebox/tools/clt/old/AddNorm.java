@@ -59,7 +59,8 @@ public class AddNorm extends JuiceboxCLT {
                 + "           : -r resolutions for respective normalizations to build to\n"
                 + "           : -j number of CPU threads to use\n"
                 + "           : --conserve-ram will minimize RAM usage\n"
-                + "           : --check-ram-usage will check ram requirements prior to running"
+                + "           : --check-ram-usage will check ram requirements prior to running\n"
+                + "           : -t <tmpDir> Set a temporary directory for contacts that don't fit in RAM"
         );
     }
 
@@ -97,6 +98,7 @@ public class AddNorm extends JuiceboxCLT {
         noFragNorm = parser.getNoFragNormOption();
         HiCGlobals.USE_ITERATOR_NOT_ALL_IN_RAM = parser.getDontPutAllContactsIntoRAM();
         HiCGlobals.CHECK_RAM_USAGE = parser.shouldCheckRAMUsage();
+        HiCGlobals.NORM_SPILL_DIRECTORY = parser.getTmpdirOption();
         updateNumberOfCPUThreads(parser, 10);
         IteratorContainer.numCPUMatrixThreads = numCPUThreads;
 
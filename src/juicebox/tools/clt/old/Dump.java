@@ -498,4 +498,11 @@ public class Dump extends JuiceboxCLT {
     public ChromosomeHandler getChromosomeHandler() {
         return chromosomeHandler;
     }
+
+    /**
+     * Added for benchmark
+     */
+    public Dataset getDataset() {
+        return dataset;
+    }
 }
\ No newline at end of file
@@ -25,6 +25,7 @@
 package juicebox.tools.clt.old;
 
 import juicebox.HiCGlobals;
+import juicebox.data.BlockCodec;
 import juicebox.data.ChromosomeHandler;
 import juicebox.data.HiCFileTools;
 import juicebox.data.iterator.IteratorContainer;
@@ -60,9 +61,11 @@ public class PreProcessing extends JuiceboxCLT {
             + "           : -k normalizations to include\n"
             + "           : -j number of CPU threads to use\n"
             + "           : --threads <int> number of threads \n"
-            + "           : --mndindex <filepath> to mnd chr block indices\n"
+            + "           : --mndindex <filepath> to mnd chr block indices; computed automatically for uncompressed or BGZF input\n"
             + "           : --conserve-ram will minimize RAM usage\n"
             + "           : --check-ram-usage will check ram requirements prior to running\n"
+            + "           : --byte-parser parse merged nodups lines in place at the byte level\n"
+            + "           : --codec <deflate or lz4> compression for contact blocks [deflate]\n"
             + "           : --shell how to execute shell (sh, bash, zsh, etc); default: sh";
 
     private String inputFile;
@@ -117,7 +120,7 @@ public class PreProcessing extends JuiceboxCLT {
             } else {
                 try {
                     preprocessor = new MultithreadedPreprocessor(new File(outputFile), genomeId, chromHandler,
-                            hicFileScalingFactor, numCPUThreads, parser.getMndIndexOption());
+                            hicFileScalingFactor, numCPUThreads, parser.getMndIndexOption(), inputFile);
                     usingMultiThreadedVersion = true;
                 } catch (Exception e) {
                     System.err.println(e.getLocalizedMessage() + "\nUsing single threaded preprocessor");
@@ -147,6 +150,16 @@ public class PreProcessing extends JuiceboxCLT {
         preprocessor.setThrowOutIntraFragOption(parser.getThrowIntraFragOption());
         preprocessor.setSubsampler(parser.getSubsampleOption());
 
+        String blockCodec = parser.getBlockCodecOption();
+        if (blockCodec != null) {
+            try {
+                preprocessor.setBlockCodec(BlockCodec.fromName(blockCodec));
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                printUsageAndExit();
+            }
+        }
+
         int blockCapacity = parser.getBlockCapacityOption();
         if (blockCapacity > 10) {
             Preprocessor.BLOCK_CAPACITY = blockCapacity;
@@ -162,6 +175,8 @@ public class PreProcessing extends JuiceboxCLT {
         normalizationTypes.addAll(parser.getAllNormalizationTypesOption());
         HiCGlobals.USE_ITERATOR_NOT_ALL_IN_RAM = parser.getDontPutAllContactsIntoRAM();
         HiCGlobals.CHECK_RAM_USAGE = parser.shouldCheckRAMUsage();
+        HiCGlobals.NORM_SPILL_DIRECTORY = tmpDir;
+        HiCGlobals.USE_BYTE_LEVEL_MND_PARSER = parser.getByteLevelParserOption();
     }
 
     @Override
@@ -24,14 +24,31 @@
 
 package juicebox.tools.utils;
 
-import juicebox.data.ChromosomeHandler;
+import juicebox.HiC;
+import juicebox.HiCGlobals;
+import juicebox.data.*;
 import juicebox.data.basics.Chromosome;
 import juicebox.tools.clt.CommandLineParser;
 import juicebox.tools.clt.JuiceboxCLT;
+import juicebox.tools.clt.juicer.HiCCUPS;
+import juicebox.tools.clt.juicer.HiCCUPSRegionHandler;
 import juicebox.tools.clt.old.Dump;
+import juicebox.tools.utils.juicer.hiccups.GPUController;
+import juicebox.tools.utils.juicer.hiccups.HiCCUPSConfiguration;
+import juicebox.tools.utils.juicer.hiccups.HiCCUPSRegionContainer;
+import juicebox.tools.utils.original.ExpectedValueCalculation;
+import juicebox.tools.utils.original.mnditerator.AlignmentPair;
+import juicebox.tools.utils.original.mnditerator.PairIterator;
+import juicebox.windowui.HiCZoom;
+import juicebox.windowui.NormalizationHandler;
+import juicebox.windowui.NormalizationType;
 import org.broad.igv.Globals;
 
-import java.util.Random;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
  * Created by Neva Durand on 8/4/16 for benchmark testing for DCIC.
@@ -40,16 +57,29 @@ import java.util.Random;
 public class Benchmark extends JuiceboxCLT {
 
     private final int NUM_QUERIES = 1000;
+    private final int NUM_CODEC_BLOCKS = 2000;
+    private final int CODEC_DECODE_ITERATIONS = 5;
+    private final int MND_PARSE_ITERATIONS = 3;
+    private final int HICCUPS_MATRIX_SIZE = 512;
+    private final int HICCUPS_REGIONS = 20;
+    private final int HICCUPS_ITERATIONS = 10;
+    private final int EXPECTED_THREADS = 32;
+    private final int EXPECTED_MAX_PAIRS = 20000000;
+    private final int EXPECTED_BIN_SIZE = 5000;
     // Query 10,000 times at 256x256 and 2048x2048
     private int QUERY_SIZE = 256;
     private Dump dump;
+    private String mndFile = null;
+    private String normName = null;
+    private ChromosomeHandler mndChromosomeHandler = null;
     
     public Benchmark() {
         super(getUsage());
     }
 
     private static String getUsage() {
-        return "benchmark <hicFile> <norm>";
+        return "benchmark <hicFile> <norm>\n" +
+                "benchmark <merged_nodups file> <genomeID> to compare the merged nodups parsers";
     }
 
     @Override
@@ -61,7 +91,14 @@ public class Benchmark extends JuiceboxCLT {
             printUsageAndExit();
         }
 
+        if (!argv[1].endsWith(".hic")) {
+            mndFile = argv[1];
+            mndChromosomeHandler = HiCFileTools.loadChromosomes(argv[2]);
+            return;
+        }
+
         dump = new Dump();
+        normName = argv[2];
 
         // dump will read in the index of the .hic file and output the observed matrix with no normalization
         // change "NONE" to "KR" or "VC" for different normalizations
@@ -76,11 +113,15 @@ public class Benchmark extends JuiceboxCLT {
     @Override
     public void run() {
 
+        if (mndFile != null) {
+            compareMndParsers();
+            compareExpectedAccumulation();
+            return;
+        }
+
         // will use to make sure we're not off the end of the chromosome
         ChromosomeHandler handler = dump.getChromosomeHandler();
 
-        Random random = new Random();
-
         // chromosomes in this dataset, so we query them
         String[] chrs = new String[handler.size() - 1];
         int ind=0;
@@ -92,27 +133,300 @@ public class Benchmark extends JuiceboxCLT {
         // BP bin sizes in this dataset
         int[] bpBinSizes = dump.getBpBinSizes();
 
+        SeekableStreamPool streamPool = null;
+        DatasetReader reader = dump.getDataset().getReader();
+        if (reader instanceof DatasetReaderV2) {
+            streamPool = ((DatasetReaderV2) reader).getStreamPool();
+        }
 
-        long sum=0;
-        for (int i=0; i<NUM_QUERIES; i++) {
-            // Randomly choose chromosome and resolution to query
-            String chr1 = chrs[random.nextInt(chrs.length)];
-            int binSize = bpBinSizes[random.nextInt(bpBinSizes.length)];
-    
-            long end1 = random.nextInt((int) handler.getChromosomeFromName(chr1).getLength()); // endpoint between 0 and end of chromosome
-            long start1 = end1 - binSize * QUERY_SIZE; // QUERY_SIZE number of bins earlier
-            if (start1 < 0) start1 = 0;
-    
-            dump.setQuery(chr1 + ":" + start1 + ":" + end1, chr1 + ":" + start1 + ":" + end1, binSize);
-            long currentTime = System.currentTimeMillis();
-            dump.run();
-            long totalTime = System.currentTimeMillis() - currentTime;
-            sum += totalTime;
+        boolean originalPoolSetting = HiCGlobals.useStreamPool;
+        boolean originalCoalesceSetting = HiCGlobals.useCoalescedBlockReads;
+        long seed = System.currentTimeMillis();
+        for (int querySize : new int[]{256, 2048}) {
+            QUERY_SIZE = querySize;
+
+            // same queries for every path so the timings are comparable; caches are cleared so each path reads the file
+            HiCGlobals.useStreamPool = false;
+            HiCGlobals.useCoalescedBlockReads = false;
+            dump.getDataset().clearCache(false);
+            long sum = runQueries(handler, chrs, bpBinSizes, new Random(seed));
+            System.err.println("Average time to query " + QUERY_SIZE + "x" + QUERY_SIZE + ": " + sum / NUM_QUERIES + " milliseconds");
+
+            HiCGlobals.useStreamPool = true;
+            if (streamPool != null) streamPool.resetStatistics();
+            reader.getBlockLoader().resetStatistics();
+            dump.getDataset().clearCache(false);
+            sum = runQueries(handler, chrs, bpBinSizes, new Random(seed));
+            System.err.println("Average time to query " + QUERY_SIZE + "x" + QUERY_SIZE + " with pooled streams: " + sum / NUM_QUERIES + " milliseconds");
+            if (streamPool != null) System.err.println(streamPool.getStatistics());
+            System.err.println(reader.getBlockLoader().getStatistics());
+
+            HiCGlobals.useCoalescedBlockReads = true;
+            if (reader instanceof DatasetReaderV2) ((DatasetReaderV2) reader).resetCoalescedReadStatistics();
+            dump.getDataset().clearCache(false);
+            sum = runQueries(handler, chrs, bpBinSizes, new Random(seed));
+            System.err.println("Average time to query " + QUERY_SIZE + "x" + QUERY_SIZE + " with coalesced block reads: " + sum / NUM_QUERIES + " milliseconds");
+            if (reader instanceof DatasetReaderV2) System.err.println(((DatasetReaderV2) reader).getCoalescedReadStatistics());
         }
-        System.err.println("Average time to query " + QUERY_SIZE + "x" + QUERY_SIZE +": " + sum/NUM_QUERIES + " milliseconds");
+        HiCGlobals.useStreamPool = originalPoolSetting;
+        HiCGlobals.useCoalescedBlockReads = originalCoalesceSetting;
+
+        if (reader instanceof DatasetReaderV2) {
+            compareBlockCodecs((DatasetReaderV2) reader, handler, bpBinSizes[bpBinSizes.length - 1]);
+        }
+
+        compareHiCCUPSKernels(handler);
+    }
 
-        QUERY_SIZE=2048;
-        sum=0;
+    /**
+     * Runs the CPU HiCCUPS kernel with and without row batching on the same 5 kb regions along the diagonal
+     * and reports the average time per region once the JIT has warmed up.
+     */
+    private void compareHiCCUPSKernels(ChromosomeHandler handler) {
+        HiCCUPSConfiguration conf = HiCCUPSConfiguration.getDefaultConfigFor5K();
+        HiCZoom zoom = new HiCZoom(HiC.Unit.BP, conf.getResolution());
+        if (dump.getDataset().getZoomForBPResolution(conf.getResolution()) == null) return;
+        NormalizationType norm = dump.getDataset().getNormalizationHandler().getNormTypeFromString(normName);
+
+        HiCCUPSRegionHandler regionHandler = new HiCCUPSRegionHandler(dump.getDataset(), handler, zoom, norm, conf,
+                HICCUPS_MATRIX_SIZE - 2 * HiCCUPS.regionMargin, HiCCUPS.regionMargin, true);
+        List<HiCCUPSRegionContainer> regions = new ArrayList<>();
+        for (int i = 0; i < regionHandler.getSize() && regions.size() < HICCUPS_REGIONS; i++) {
+            HiCCUPSRegionContainer region = regionHandler.getRegionFromIndex(i);
+            if (region.getRowBounds()[0] == region.getColumnBounds()[0]) {
+                regions.add(region);
+            }
+        }
+        if (regions.isEmpty()) return;
+
+        float[] thresholds = new float[HiCCUPS.w1];
+        boolean originalSetting = HiCGlobals.useBatchedHiCCUPSRows;
+        for (boolean useBatchedRows : new boolean[]{false, true}) {
+            HiCGlobals.useBatchedHiCCUPSRows = useBatchedRows;
+            GPUController controller = new GPUController(conf.getWindowWidth(), HICCUPS_MATRIX_SIZE,
+                    conf.getPeakWidth(), true);
+            try {
+                long elapsed = 0;
+                for (int iter = 0; iter < HICCUPS_ITERATIONS; iter++) {
+                    long start = System.nanoTime();
+                    for (HiCCUPSRegionContainer region : regions) {
+                        controller.process(regionHandler, region, HICCUPS_MATRIX_SIZE, thresholds, thresholds,
+                                thresholds, thresholds, norm, zoom);
+                    }
+                    // first half of the passes is warm-up
+                    if (iter >= HICCUPS_ITERATIONS / 2) elapsed += System.nanoTime() - start;
+                }
+                int timedRegions = regions.size() * (HICCUPS_ITERATIONS - HICCUPS_ITERATIONS / 2);
+                System.err.printf("HiCCUPS CPU kernel%s: %.2f ms per %d x %d region at %d BP%n",
+                        useBatchedRows ? " with batched rows" : "", elapsed / 1e6 / timedRegions,
+                        HICCUPS_MATRIX_SIZE, HICCUPS_MATRIX_SIZE, conf.getResolution());
+            } catch (IOException e) {
+                System.err.println("Could not run HiCCUPS kernel comparison: " + e.getMessage());
+                break;
+            }
+        }
+        HiCGlobals.useBatchedHiCCUPSRows = originalSetting;
+    }
+
+    /**
+     * Re-encodes the blocks of the intra-chromosomal maps at one resolution with each codec,
+     * and reports the total compressed size and the decode throughput.
+     */
+    private void compareBlockCodecs(DatasetReaderV2 reader, ChromosomeHandler handler, int binSize) {
+        List<byte[]> payloads = new ArrayList<>();
+        long totalBytes = 0;
+        HiCZoom zoom = new HiCZoom(HiC.Unit.BP, binSize);
+        try {
+            for (Chromosome chr : handler.getChromosomeArrayWithoutAllByAll()) {
+                Matrix matrix = dump.getDataset().getMatrix(chr, chr);
+                if (matrix == null) continue;
+                MatrixZoomData zd = matrix.getZoomData(zoom);
+                if (zd == null) continue;
+                for (int blockNumber : reader.getBlockNumbers(zd)) {
+                    byte[] payload = reader.readUncompressedBlockBytes(blockNumber, zd);
+                    if (payload != null) {
+                        payloads.add(payload);
+                        totalBytes += payload.length;
+                    }
+                    if (payloads.size() >= NUM_CODEC_BLOCKS) break;
+                }
+                if (payloads.size() >= NUM_CODEC_BLOCKS) break;
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read blocks for codec comparison: " + e.getMessage());
+            return;
+        }
+        if (payloads.isEmpty()) return;
+
+        System.err.println("Codec comparison on " + payloads.size() + " blocks at " + binSize + " BP, " + totalBytes + " bytes uncompressed (file codec: " + reader.getBlockCodec().getName() + ")");
+        for (BlockCodec codec : BlockCodec.values()) {
+            BlockCompressor compressor = new BlockCompressor(codec);
+            List<byte[]> compressed = new ArrayList<>(payloads.size());
+            long compressedBytes = 0;
+            for (byte[] payload : payloads) {
+                byte[] bytes = compressor.compress(payload);
+                compressed.add(bytes);
+                compressedBytes += bytes.length;
+            }
+
+            long decoded = 0;
+            long start = System.nanoTime();
+            try {
+                for (int iter = 0; iter < CODEC_DECODE_ITERATIONS; iter++) {
+                    for (byte[] bytes : compressed) {
+                        decoded += decode(codec, bytes).length;
+                    }
+                }
+            } catch (IOException | DataFormatException e) {
+                System.err.println(codec.getName() + " failed to decode: " + e.getMessage());
+                continue;
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.err.printf("%-8s %12d bytes (%.1f%% of raw), decode %.1f MB/s%n", codec.getName(), compressedBytes,
+                    100.0 * compressedBytes / totalBytes, decoded / seconds / (1024 * 1024));
+        }
+    }
+
+    /**
+     * Parses the whole merged nodups file with the String based and the byte level parser and
+     * reports the throughput of each; the checksums should agree.
+     */
+    private void compareMndParsers() {
+        Map<String, Integer> chromosomeIndexes = new HashMap<>();
+        for (int i = 0; i < mndChromosomeHandler.size(); i++) {
+            chromosomeIndexes.put(mndChromosomeHandler.getChromosomeFromIndex(i).getName(), i);
+        }
+        boolean originalSetting = HiCGlobals.USE_BYTE_LEVEL_MND_PARSER;
+        for (boolean useByteParser : new boolean[]{false, true}) {
+            HiCGlobals.USE_BYTE_LEVEL_MND_PARSER = useByteParser;
+            String name = useByteParser ? "byte" : "string";
+            for (int iter = 0; iter < MND_PARSE_ITERATIONS; iter++) {
+                long numPairs = 0, checksum = 0;
+                long start = System.nanoTime();
+                try {
+                    PairIterator pairs = PairIterator.getIterator(mndFile, chromosomeIndexes, mndChromosomeHandler);
+                    while (pairs.hasNext()) {
+                        AlignmentPair pair = pairs.next();
+                        numPairs++;
+                        if (!pair.isContigPair()) {
+                            checksum += 31L * (pair.getChr1() + pair.getPos1() + pair.getFrag1() + pair.getMapq1())
+                                    + pair.getChr2() + pair.getPos2() + pair.getFrag2() + pair.getMapq2()
+                                    + (pair.getStrand1() ? 1 : 0) + (pair.getStrand2() ? 2 : 0) + (long) pair.getScore();
+                        }
+                    }
+                    pairs.close();
+                } catch (IOException e) {
+                    System.err.println(name + " parser failed: " + e.getMessage());
+                    break;
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.err.printf("%-7s parser, pass %d: %d pairs in %.2f s (%.2f M pairs/s), checksum %d%n",
+                        name, iter + 1, numPairs, seconds, numPairs / seconds / 1e6, checksum);
+            }
+        }
+        HiCGlobals.USE_BYTE_LEVEL_MND_PARSER = originalSetting;
+    }
+
+    /**
+     * Adds the intra-chromosomal pairs of the merged nodups file to expected value calculations from many threads,
+     * once through a single shared calculation behind a lock and once through one calculation per thread
+     * merged at the end, and reports the throughput of each.
+     */
+    private void compareExpectedAccumulation() {
+        Map<String, Integer> chromosomeIndexes = new HashMap<>();
+        for (int i = 0; i < mndChromosomeHandler.size(); i++) {
+            chromosomeIndexes.put(mndChromosomeHandler.getChromosomeFromIndex(i).getName(), i);
+        }
+        int[] chrs = new int[EXPECTED_MAX_PAIRS];
+        int[] bins1 = new int[EXPECTED_MAX_PAIRS];
+        int[] bins2 = new int[EXPECTED_MAX_PAIRS];
+        int numPairs = 0;
+        try {
+            PairIterator pairs = PairIterator.getIterator(mndFile, chromosomeIndexes, mndChromosomeHandler);
+            while (pairs.hasNext() && numPairs < EXPECTED_MAX_PAIRS) {
+                AlignmentPair pair = pairs.next();
+                if (!pair.isContigPair() && pair.getChr1() == pair.getChr2()) {
+                    chrs[numPairs] = pair.getChr1();
+                    bins1[numPairs] = pair.getPos1() / EXPECTED_BIN_SIZE;
+                    bins2[numPairs] = pair.getPos2() / EXPECTED_BIN_SIZE;
+                    numPairs++;
+                }
+            }
+            pairs.close();
+        } catch (IOException e) {
+            System.err.println("Could not read pairs for expected value comparison: " + e.getMessage());
+            return;
+        }
+        if (numPairs == 0) return;
+
+        final int totalPairs = numPairs;
+        for (final boolean useThreadLocal : new boolean[]{false, true}) {
+            final ExpectedValueCalculation shared = new ExpectedValueCalculation(mndChromosomeHandler, EXPECTED_BIN_SIZE, null, NormalizationHandler.NONE);
+            final ExpectedValueCalculation[] locals = new ExpectedValueCalculation[EXPECTED_THREADS];
+            Thread[] threads = new Thread[EXPECTED_THREADS];
+            long start = System.nanoTime();
+            for (int t = 0; t < EXPECTED_THREADS; t++) {
+                final int threadNum = t;
+                threads[t] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        ExpectedValueCalculation calc = useThreadLocal ? new ExpectedValueCalculation(mndChromosomeHandler,
+                                EXPECTED_BIN_SIZE, null, NormalizationHandler.NONE) : shared;
+                        for (int i = threadNum; i < totalPairs; i += EXPECTED_THREADS) {
+                            if (useThreadLocal) {
+                                calc.addDistance(chrs[i], bins1[i], bins2[i], 1);
+                            } else {
+                                synchronized (calc) {
+                                    calc.addDistance(chrs[i], bins1[i], bins2[i], 1);
+                                }
+                            }
+                        }
+                        locals[threadNum] = calc;
+                    }
+                });
+                threads[t].start();
+            }
+            try {
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            } catch (InterruptedException e) {
+                System.err.println(e.getLocalizedMessage());
+                return;
+            }
+            if (useThreadLocal) {
+                for (ExpectedValueCalculation local : locals) {
+                    shared.merge(local);
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.err.printf("%-12s expected accumulation, %d threads: %d pairs in %.2f s (%.2f M pairs/s)%n",
+                    useThreadLocal ? "thread-local" : "shared", EXPECTED_THREADS, totalPairs, seconds, totalPairs / seconds / 1e6);
+        }
+    }
+
+    private static byte[] decode(BlockCodec codec, byte[] bytes) throws IOException, DataFormatException {
+        if (codec == BlockCodec.LZ4) {
+            return LZ4Compression.decompress(bytes);
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(bytes.length * 4);
+            byte[] buffer = new byte[65536];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && inflater.needsInput()) break;
+                bos.write(buffer, 0, count);
+            }
+            return bos.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private long runQueries(ChromosomeHandler handler, String[] chrs, int[] bpBinSizes, Random random) {
+        long sum=0;
         for (int i=0; i<NUM_QUERIES; i++) {
             // Randomly choose chromosome and resolution to query
             String chr1 = chrs[random.nextInt(chrs.length)];
@@ -128,6 +442,6 @@ public class Benchmark extends JuiceboxCLT {
             long totalTime = System.currentTimeMillis() - currentTime;
             sum += totalTime;
         }
-        System.err.println("Average time to query " + QUERY_SIZE + "x" + QUERY_SIZE +": " + sum/NUM_QUERIES + " milliseconds");
+        return sum;
     }
 }
@@ -0,0 +1,376 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.tools.utils.juicer.hiccups;
+
+import juicebox.HiCGlobals;
+import juicebox.tools.clt.juicer.HiCCUPS;
+
+import java.util.Arrays;
+
+/**
+ * CPU version of the HiCCUPS kernel.
+ * <p>
+ * Summed area tables of the observed and distance expected values are built once per region, so each
+ * window sum (lower left, donut, horizontal, vertical) is evaluated with four lookups instead of looping
+ * over the window. The sums follow the CUDA kernel exactly: the lower left and donut boxes only count
+ * non-NaN pixels above the diagonal, the donut cross hairs are subtracted wherever they are not NaN,
+ * and the horizontal and vertical windows count every pixel, so a NaN there makes the sum NaN.
+ */
+class CPUHiCCUPSKernel {
+
+    private static final float LOG_NORM = (float) Math.log(Math.pow(2.0, .33));
+    private static final float[] BIN_LOWER_BOUNDS = computeBinLowerBounds();
+    private static final int[] OCTAVE_START_BINS = computeOctaveStartBins();
+
+    private final int window;
+    private final int matrixSize;
+    private final int peakWidth;
+    private final boolean useBatchedRows;
+
+    CPUHiCCUPSKernel(int window, int matrixSize, int peakWidth) {
+        this(window, matrixSize, peakWidth, HiCGlobals.useBatchedHiCCUPSRows);
+    }
+
+    CPUHiCCUPSKernel(int window, int matrixSize, int peakWidth, boolean useBatchedRows) {
+        this.window = window;
+        this.matrixSize = matrixSize;
+        this.peakWidth = peakWidth;
+        this.useBatchedRows = useBatchedRows;
+    }
+
+    /**
+     * @param c     observed values of the region, normalized
+     * @param d     expected value by distance from the diagonal
+     * @param kr1   normalization vector for the rows of the region
+     * @param kr2   normalization vector for the columns of the region
+     * @param diff  row bound minus column bound, to convert region coordinates to distance from the diagonal
+     */
+    GPUOutputContainer process(double[][] c, float[] d, float[] kr1, float[] kr2, int diff,
+                               float[] thresholdBL, float[] thresholdDonut, float[] thresholdH, float[] thresholdV,
+                               int[] rowBounds, int[] columnBounds) {
+        final int n = matrixSize;
+        final int bufferWidth = HiCCUPS.regionMargin;
+
+        // summed area tables, (n+1) x (n+1) with a zero first row and column
+        SummedAreaTable observedAbove = new SummedAreaTable(n);
+        SummedAreaTable expectedAbove = new SummedAreaTable(n);
+        SummedAreaTable observedAll = new SummedAreaTable(n);
+        SummedAreaTable expectedNotNaN = new SummedAreaTable(n);
+        SummedAreaTable expectedAll = new SummedAreaTable(n);
+        SummedAreaTable nanCounts = new SummedAreaTable(n);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                double value = c[i][j];
+                int dist = Math.abs(i + diff - j);
+                double expected = dist < d.length ? d[dist] : 0;
+                if (Double.isNaN(value)) {
+                    nanCounts.set(i, j, 1);
+                } else {
+                    observedAll.set(i, j, value);
+                    expectedNotNaN.set(i, j, expected);
+                    if (i + diff - j < 0) {
+                        observedAbove.set(i, j, value);
+                        expectedAbove.set(i, j, expected);
+                    }
+                }
+                expectedAll.set(i, j, expected);
+            }
+        }
+        observedAbove.accumulate();
+        expectedAbove.accumulate();
+        observedAll.accumulate();
+        expectedNotNaN.accumulate();
+        expectedAll.accumulate();
+        nanCounts.accumulate();
+
+        // x2, y2 not inclusive here
+        int x1 = rowBounds[2];
+        int y1 = columnBounds[2];
+        int x2 = x1 + rowBounds[5] - rowBounds[4];
+        int y2 = y1 + columnBounds[5] - columnBounds[4];
+        int numRows = x2 - x1;
+        int numColumns = y2 - y1;
+
+        float[][] observedDense = new float[numRows][numColumns];
+        float[][] peakDense = new float[numRows][numColumns];
+        float[][] binBLDense = new float[numRows][numColumns];
+        float[][] binDonutDense = new float[numRows][numColumns];
+        float[][] binHDense = new float[numRows][numColumns];
+        float[][] binVDense = new float[numRows][numColumns];
+        float[][] expectedBLDense = new float[numRows][numColumns];
+        float[][] expectedDonutDense = new float[numRows][numColumns];
+        float[][] expectedHDense = new float[numRows][numColumns];
+        float[][] expectedVDense = new float[numRows][numColumns];
+
+        int maxIndex = n - bufferWidth;
+        int rowStart = Math.max(x1, bufferWidth), rowEnd = Math.min(x2, maxIndex);
+        int colStart = Math.max(y1, bufferWidth), colEnd = Math.min(y2, maxIndex);
+        RowSums sums = new RowSums(Math.max(0, colEnd - colStart));
+        for (int tRow = rowStart; tRow < rowEnd; tRow++) {
+            int i = tRow - x1;
+            for (int tCol = colStart; tCol < colEnd; tCol++) {
+                int j = tCol - colStart;
+                int diagDist = Math.abs(tRow + diff - tCol);
+                int wsize = Math.min(window, (diagDist - 1) / 2);
+                if (wsize <= peakWidth) {
+                    wsize = peakWidth + 1;
+                }
+                wsize = Math.min(wsize, bufferWidth);
+
+                // lower left box without the peak, grown until it holds enough counts
+                float evalueBL = lowerLeft(observedAbove, tRow, tCol, wsize);
+                while (evalueBL < 16) {
+                    wsize += 1;
+                    evalueBL = lowerLeft(observedAbove, tRow, tCol, wsize);
+                    if (wsize >= bufferWidth) {
+                        break;
+                    }
+                    if (2 * wsize >= diagDist) {
+                        break;
+                    }
+                }
+                sums.observedBL[j] = evalueBL;
+                sums.expectedBL[j] = lowerLeft(expectedAbove, tRow, tCol, wsize);
+
+                sums.observedDonut[j] = (float) (donut(observedAbove, tRow, tCol, wsize)
+                        - crossHairs(observedAll, tRow, tCol, wsize));
+                sums.expectedDonut[j] = (float) (donut(expectedAbove, tRow, tCol, wsize)
+                        - crossHairs(expectedNotNaN, tRow, tCol, wsize));
+
+                if (vertical(nanCounts, tRow, tCol, wsize) > 0) {
+                    sums.observedV[j] = Float.NaN;
+                } else {
+                    sums.observedV[j] = (float) vertical(observedAll, tRow, tCol, wsize);
+                }
+                if (horizontal(nanCounts, tRow, tCol, wsize) > 0) {
+                    sums.observedH[j] = Float.NaN;
+                } else {
+                    sums.observedH[j] = (float) horizontal(observedAll, tRow, tCol, wsize);
+                }
+                sums.expectedV[j] = (float) vertical(expectedAll, tRow, tCol, wsize);
+                sums.expectedH[j] = (float) horizontal(expectedAll, tRow, tCol, wsize);
+                sums.diagonalExpected[j] = d[diagDist];
+                sums.observed[j] = Math.round(c[tRow][tCol] * kr1[tRow] * kr2[tCol]);
+            }
+
+            int offset = colStart - y1;
+            if (useBatchedRows) {
+                scaleRow(sums.observedBL, sums.expectedBL, sums.diagonalExpected, kr1[tRow], kr2, colStart, expectedBLDense[i], offset);
+                scaleRow(sums.observedDonut, sums.expectedDonut, sums.diagonalExpected, kr1[tRow], kr2, colStart, expectedDonutDense[i], offset);
+                scaleRow(sums.observedH, sums.expectedH, sums.diagonalExpected, kr1[tRow], kr2, colStart, expectedHDense[i], offset);
+                scaleRow(sums.observedV, sums.expectedV, sums.diagonalExpected, kr1[tRow], kr2, colStart, expectedVDense[i], offset);
+                binRow(expectedBLDense[i], binBLDense[i], offset, sums.length);
+                binRow(expectedDonutDense[i], binDonutDense[i], offset, sums.length);
+                binRow(expectedHDense[i], binHDense[i], offset, sums.length);
+                binRow(expectedVDense[i], binVDense[i], offset, sums.length);
+            } else {
+                for (int j = 0; j < sums.length; j++) {
+                    expectedBLDense[i][offset + j] = ((sums.observedBL[j] * sums.diagonalExpected[j]) / sums.expectedBL[j]) * kr1[tRow] * kr2[colStart + j];
+                    expectedDonutDense[i][offset + j] = ((sums.observedDonut[j] * sums.diagonalExpected[j]) / sums.expectedDonut[j]) * kr1[tRow] * kr2[colStart + j];
+                    expectedHDense[i][offset + j] = ((sums.observedH[j] * sums.diagonalExpected[j]) / sums.expectedH[j]) * kr1[tRow] * kr2[colStart + j];
+                    expectedVDense[i][offset + j] = ((sums.observedV[j] * sums.diagonalExpected[j]) / sums.expectedV[j]) * kr1[tRow] * kr2[colStart + j];
+                    binBLDense[i][offset + j] = getBin(expectedBLDense[i][offset + j]);
+                    binDonutDense[i][offset + j] = getBin(expectedDonutDense[i][offset + j]);
+                    binHDense[i][offset + j] = getBin(expectedHDense[i][offset + j]);
+                    binVDense[i][offset + j] = getBin(expectedVDense[i][offset + j]);
+                }
+            }
+
+            for (int j = 0; j < sums.length; j++) {
+                int col = offset + j;
+                float o = sums.observed[j];
+                observedDense[i][col] = o;
+                float sbtrkt = Math.max(thresholdBL[(int) binBLDense[i][col]], thresholdDonut[(int) binDonutDense[i][col]]);
+                sbtrkt = Math.max(sbtrkt, thresholdH[(int) binHDense[i][col]]);
+                sbtrkt = Math.max(sbtrkt, thresholdV[(int) binVDense[i][col]]);
+                peakDense[i][col] = o - sbtrkt;
+            }
+        }
+
+        return new GPUOutputContainer(observedDense, peakDense,
+                binBLDense, binDonutDense, binHDense, binVDense,
+                expectedBLDense, expectedDonutDense, expectedHDense, expectedVDense);
+    }
+
+    private static float getBin(float expected) {
+        float bin = 0;
+        if (!Float.isNaN(expected) && !Float.isInfinite(expected) && expected > 1) {
+            bin = (float) Math.floor(Math.log(expected) / LOG_NORM);
+        }
+        return Math.min(bin, HiCCUPS.w1 - 1);
+    }
+
+    /**
+     * expected = ((observed window * diagonal expected) / expected window) * kr1 * kr2, with the operations
+     * in the same order as the per pixel version so the results are identical
+     */
+    private static void scaleRow(float[] observedSum, float[] expectedSum, float[] diagonalExpected, float kr1Value,
+                                 float[] kr2, int kr2Offset, float[] result, int resultOffset) {
+        for (int j = 0; j < observedSum.length; j++) {
+            result[resultOffset + j] = ((observedSum[j] * diagonalExpected[j]) / expectedSum[j]) * kr1Value * kr2[kr2Offset + j];
+        }
+    }
+
+    /**
+     * Same bins as getBin without taking logs: the float exponent gives the bin at the start of the octave,
+     * and the at most four bin boundaries within an octave are compared without branching
+     */
+    private static void binRow(float[] expected, float[] bins, int offset, int length) {
+        for (int j = offset; j < offset + length; j++) {
+            float e = expected[j];
+            int bin = 0;
+            if (e > 1 && e != Float.POSITIVE_INFINITY) {
+                int k = OCTAVE_START_BINS[Math.getExponent(e)];
+                bin = k + (e >= BIN_LOWER_BOUNDS[k + 1] ? 1 : 0) + (e >= BIN_LOWER_BOUNDS[k + 2] ? 1 : 0)
+                        + (e >= BIN_LOWER_BOUNDS[k + 3] ? 1 : 0) + (e >= BIN_LOWER_BOUNDS[k + 4] ? 1 : 0);
+            }
+            bins[j] = bin;
+        }
+    }
+
+    /**
+     * @return at index k, the smallest float whose getBin is at least k; infinite past the last bin
+     */
+    private static float[] computeBinLowerBounds() {
+        float[] bounds = new float[HiCCUPS.w1 + 4];
+        Arrays.fill(bounds, Float.POSITIVE_INFINITY);
+        bounds[0] = Float.NEGATIVE_INFINITY;
+        for (int k = 1; k < HiCCUPS.w1; k++) {
+            int lo = Float.floatToIntBits(1f), hi = Float.floatToIntBits(Float.MAX_VALUE);
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (getBin(Float.intBitsToFloat(mid)) >= k) {
+                    hi = mid;
+                } else {
+                    lo = mid + 1;
+                }
+            }
+            bounds[k] = Float.intBitsToFloat(lo);
+        }
+        return bounds;
+    }
+
+    /**
+     * @return at index E, the bin of 2^E
+     */
+    private static int[] computeOctaveStartBins() {
+        int[] startBins = new int[Float.MAX_EXPONENT + 1];
+        for (int exponent = 0; exponent <= Float.MAX_EXPONENT; exponent++) {
+            startBins[exponent] = (int) getBin(Math.scalb(1f, exponent));
+        }
+        return startBins;
+    }
+
+    /**
+     * rows (tRow, tRow + wsize], columns [tCol - wsize, tCol), without the peak's rows and columns
+     */
+    private float lowerLeft(SummedAreaTable table, int tRow, int tCol, int wsize) {
+        return (float) (table.sum(tRow + 1, tRow + wsize, tCol - wsize, tCol - 1)
+                - table.sum(tRow + 1, tRow + peakWidth, tCol - peakWidth, tCol - 1));
+    }
+
+    private double donut(SummedAreaTable table, int tRow, int tCol, int wsize) {
+        return table.sum(tRow - wsize, tRow + wsize, tCol - wsize, tCol + wsize)
+                - table.sum(tRow - peakWidth, tRow + peakWidth, tCol - peakWidth, tCol + peakWidth);
+    }
+
+    private double crossHairs(SummedAreaTable table, int tRow, int tCol, int wsize) {
+        return table.sum(tRow - wsize, tRow - peakWidth - 1, tCol, tCol)
+                + table.sum(tRow + peakWidth + 1, tRow + wsize, tCol, tCol)
+                + table.sum(tRow, tRow, tCol - wsize, tCol - peakWidth - 1)
+                + table.sum(tRow, tRow, tCol + peakWidth + 1, tCol + wsize);
+    }
+
+    private double vertical(SummedAreaTable table, int tRow, int tCol, int wsize) {
+        return table.sum(tRow - wsize, tRow - peakWidth - 1, tCol - 1, tCol + 1)
+                + table.sum(tRow + peakWidth + 1, tRow + wsize, tCol - 1, tCol + 1);
+    }
+
+    private double horizontal(SummedAreaTable table, int tRow, int tCol, int wsize) {
+        return table.sum(tRow - 1, tRow + 1, tCol - wsize, tCol - peakWidth - 1)
+                + table.sum(tRow - 1, tRow + 1, tCol + peakWidth + 1, tCol + wsize);
+    }
+
+    /**
+     * Window sums for the pixels of one row, so the rest of the computation runs over contiguous arrays
+     */
+    private static class RowSums {
+        final int length;
+        final float[] observedBL, expectedBL, observedDonut, expectedDonut;
+        final float[] observedH, expectedH, observedV, expectedV;
+        final float[] diagonalExpected, observed;
+
+        RowSums(int length) {
+            this.length = length;
+            observedBL = new float[length];
+            expectedBL = new float[length];
+            observedDonut = new float[length];
+            expectedDonut = new float[length];
+            observedH = new float[length];
+            expectedH = new float[length];
+            observedV = new float[length];
+            expectedV = new float[length];
+            diagonalExpected = new float[length];
+            observed = new float[length];
+        }
+    }
+
+    /**
+     * 2D prefix sums; sum over an inclusive rectangle in O(1)
+     */
+    private static class SummedAreaTable {
+        private final int width;
+        private final double[] sums;
+
+        SummedAreaTable(int n) {
+            width = n + 1;
+            sums = new double[width * width];
+        }
+
+        void set(int i, int j, double value) {
+            sums[(i + 1) * width + j + 1] = value;
+        }
+
+        void accumulate() {
+            for (int i = 1; i < width; i++) {
+                double rowSum = 0;
+                int offset = i * width;
+                for (int j = 1; j < width; j++) {
+                    rowSum += sums[offset + j];
+                    sums[offset + j] = rowSum + sums[offset - width + j];
+                }
+            }
+        }
+
+        /**
+         * @return sum over rows [r1, r2] and columns [c1, c2], 0 if empty
+         */
+        double sum(int r1, int r2, int c1, int c2) {
+            if (r2 < r1 || c2 < c1) return 0;
+            int top = r1 * width, bottom = (r2 + 1) * width;
+            return sums[bottom + c2 + 1] - sums[top + c2 + 1] - sums[bottom + c1] + sums[top + c1];
+        }
+    }
+}
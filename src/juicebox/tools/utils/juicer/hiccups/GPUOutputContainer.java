@@ -103,18 +103,23 @@ public class GPUOutputContainer {
         }
     }
 
-    public synchronized void updateHistograms(long[][] histBL, long[][] histDonut, long[][] histH, long[][] histV, int maxRows, int maxColumns) {
-        for (int i = 0; i < numRows; i++) {
-            for (int j = 0; j < numColumns; j++) {
+    /**
+     * The histograms are shared by all the threads processing regions
+     */
+    public void updateHistograms(long[][] histBL, long[][] histDonut, long[][] histH, long[][] histV, int maxRows, int maxColumns) {
+        synchronized (histBL) {
+            for (int i = 0; i < numRows; i++) {
+                for (int j = 0; j < numColumns; j++) {
 
-                if (Float.isNaN(observed[i][j]) || Float.isInfinite(observed[i][j]))
-                    continue;
+                    if (Float.isNaN(observed[i][j]) || Float.isInfinite(observed[i][j]))
+                        continue;
 
-                int val = (int) observed[i][j];
-                processHistogramValue(binBL[i][j], val, histBL, maxRows, maxColumns);
-                processHistogramValue(binDonut[i][j], val, histDonut, maxRows, maxColumns);
-                processHistogramValue(binH[i][j], val, histH, maxRows, maxColumns);
-                processHistogramValue(binV[i][j], val, histV, maxRows, maxColumns);
+                    int val = (int) observed[i][j];
+                    processHistogramValue(binBL[i][j], val, histBL, maxRows, maxColumns);
+                    processHistogramValue(binDonut[i][j], val, histDonut, maxRows, maxColumns);
+                    processHistogramValue(binH[i][j], val, histH, maxRows, maxColumns);
+                    processHistogramValue(binV[i][j], val, histV, maxRows, maxColumns);
+                }
             }
         }
     }
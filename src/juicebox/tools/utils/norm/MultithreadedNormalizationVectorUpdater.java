@@ -29,6 +29,7 @@ import juicebox.HiCGlobals;
 import juicebox.data.*;
 import juicebox.data.basics.Chromosome;
 import juicebox.data.basics.ListOfFloatArrays;
+import juicebox.data.iterator.IteratorContainer;
 import juicebox.tools.utils.original.ExpectedValueCalculation;
 import juicebox.windowui.HiCZoom;
 import juicebox.windowui.NormalizationHandler;
@@ -38,8 +39,6 @@ import org.broad.igv.tdf.BufferedByteWriter;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class MultithreadedNormalizationVectorUpdater extends NormalizationVectorUpdater {
@@ -52,9 +51,13 @@ public class MultithreadedNormalizationVectorUpdater extends NormalizationVector
     protected Map<HiCZoom, Set<Chromosome>> zoomSpecifickrFragFailedChromsomes = new ConcurrentHashMap<>();
     protected Map<HiCZoom, Set<Chromosome>> zoomSpecificmmbaBPFailedChromsomes = new ConcurrentHashMap<>();
     protected Map<HiCZoom, Set<Chromosome>> zoomSpecificmmbaFragFailedChromsomes = new ConcurrentHashMap<>();
+    // datasets read by the scheduler's threads for the current resolution
+    private final Map<Thread, Dataset> localDatasets = new ConcurrentHashMap<>();
 
 
     protected static int numCPUThreads = 1;
+    // rough number of matrix-vector products for KR or SCALE, relative to the single pass of VC
+    private static final int PASSES_PER_ITERATIVE_SOLVE = 100;
 
     public MultithreadedNormalizationVectorUpdater(int numCPUThreads) {
         MultithreadedNormalizationVectorUpdater.numCPUThreads = numCPUThreads;
@@ -82,6 +85,7 @@ public class MultithreadedNormalizationVectorUpdater extends NormalizationVector
         reEvaluateWhichIntraNormsToBuild(normalizationsToBuild);
 
         normVectorBuffers.add(new BufferedByteWriter());
+        NormalizationTaskScheduler scheduler = new NormalizationTaskScheduler(numCPUThreads);
         for (HiCZoom zoom : resolutions) {
             if (zoom.getBinSize() < minResolution) {
                 System.out.println("skipping zoom" + zoom);
@@ -114,8 +118,6 @@ public class MultithreadedNormalizationVectorUpdater extends NormalizationVector
             Map<Integer, ListOfFloatArrays> withinZoomKRVectors = new ConcurrentHashMap<>();
             Map<Integer, ListOfFloatArrays> withinZoomSCALEVectors = new ConcurrentHashMap<>();
 
-            final AtomicInteger chromosomeIndex = new AtomicInteger(0);
-
             Set<Chromosome> withinZoomSynckrBPFailedChromosomes = Collections.synchronizedSet(new HashSet<>());
             Set<Chromosome> withinZoomSynckrFragFailedChromosomes = Collections.synchronizedSet(new HashSet<>());
             Set<Chromosome> withinZoomSyncmmbaBPFailedChromosomes = Collections.synchronizedSet(new HashSet<>());
@@ -123,44 +125,17 @@ public class MultithreadedNormalizationVectorUpdater extends NormalizationVector
 
             Map<Integer, MatrixZoomData> allChrZoomData = new ConcurrentHashMap<>();
 
-            ExecutorService executor = Executors.newFixedThreadPool(numCPUThreads);
-            for (int l = 0; l < numCPUThreads; l++) {
-                final int threadNum = l;
-
-                Runnable worker = new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            DatasetReaderV2 localReader;
-                            Dataset localds;
-                            ChromosomeHandler localChromosomeHandler;
-                            synchronized(this){
-                                localReader = new DatasetReaderV2(path);
-                                localds = localReader.read();
-                                localChromosomeHandler = localds.getChromosomeHandler();
-                            }
-                            runIndividualChromosomeCode(chromosomeIndex, localds, localChromosomeHandler, zoom, resolutionsToBuildTo,
-                                    withinZoomVCSumFactors, withinZoomVCSQRTSumFactors, withinZoomKRSumFactors, withinZoomSCALESumFactors,
-                                    withinZoomVCVectors, withinZoomVCSQRTVectors, withinZoomKRVectors, withinZoomSCALEVectors,
-                                    withinZoomSynckrBPFailedChromosomes, withinZoomSynckrFragFailedChromosomes, withinZoomSyncmmbaBPFailedChromosomes,
-                                    withinZoomSyncmmbaFragFailedChromosomes, allChrZoomData, threadNum);
-                        } catch (IOException e) {
-                            System.err.println("Error: " + e);
-                        }
-                    }
-                    //}
-                };
-                executor.execute(worker);
-            }
-
-            executor.shutdown();
-
-            // Wait until all threads finish
-            while (!executor.isTerminated()) {
+            for (Chromosome chr : chromosomeHandler.getChromosomeArrayWithoutAllByAll()) {
+                scheduler.submitLoad("loading " + chr + " at " + zoom, chr.getLength(),
+                        numMatrixThreads -> loadChromosomeAndSubmitSolves(scheduler, chr, path, zoom, resolutionsToBuildTo,
+                                withinZoomVCSumFactors, withinZoomVCSQRTSumFactors, withinZoomKRSumFactors, withinZoomSCALESumFactors,
+                                withinZoomVCVectors, withinZoomVCSQRTVectors, withinZoomKRVectors, withinZoomSCALEVectors,
+                                withinZoomSynckrBPFailedChromosomes, withinZoomSynckrFragFailedChromosomes, withinZoomSyncmmbaBPFailedChromosomes,
+                                withinZoomSyncmmbaFragFailedChromosomes, allChrZoomData, evVC, evVCSqrt, evKR, evSCALE));
             }
+            scheduler.awaitCompletion();
 
-
-            // Loop through chromosomes
+            // the expected values were added as each chromosome finished; write the vectors in chromosome order
             for (Chromosome chr : chromosomeHandler.getChromosomeArrayWithoutAllByAll()) {
 
                 if (allChrZoomData.get(chr.getIndex()) == null) continue;
@@ -168,16 +143,14 @@ public class MultithreadedNormalizationVectorUpdater extends NormalizationVector
 
                 if (weShouldBuildVC && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.VC)) {
                     if (withinZoomVCSumFactors.get(chr.getIndex())!=null&&withinZoomVCVectors.get(chr.getIndex())!=null) {
-                        updateExpectedValueCalculationForChr(chr.getIndex(), withinZoomVCSumFactors.get(chr.getIndex()),
-                                withinZoomVCVectors.get(chr.getIndex()), NormalizationHandler.VC,
-                                zoom, allChrZoomData.get(chr.getIndex()), evVC, normVectorBuffers, normVectorIndices);
+                        updateNormVectorIndexWithVector(normVectorIndices, normVectorBuffers, withinZoomVCVectors.get(chr.getIndex()),
+                                chr.getIndex(), NormalizationHandler.VC, zoom);
                     }
                 }
                 if (weShouldBuildVCSqrt && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.VC_SQRT)) {
                     if (withinZoomVCSQRTSumFactors.get(chr.getIndex())!=null&&withinZoomVCSQRTVectors.get(chr.getIndex())!=null) {
-                        updateExpectedValueCalculationForChr(chr.getIndex(), withinZoomVCSQRTSumFactors.get(chr.getIndex()),
-                                withinZoomVCSQRTVectors.get(chr.getIndex()), NormalizationHandler.VC_SQRT,
-                                zoom, allChrZoomData.get(chr.getIndex()), evVCSqrt, normVectorBuffers, normVectorIndices);
+                        updateNormVectorIndexWithVector(normVectorIndices, normVectorBuffers, withinZoomVCSQRTVectors.get(chr.getIndex()),
+                                chr.getIndex(), NormalizationHandler.VC_SQRT, zoom);
                     }
                 }
 
@@ -185,9 +158,8 @@ public class MultithreadedNormalizationVectorUpdater extends NormalizationVector
                 if (weShouldBuildKR && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.KR)) {
                     Set<Chromosome> withinZoomFailureSetKR = zoom.getUnit() == HiC.Unit.FRAG ? withinZoomSynckrFragFailedChromosomes : withinZoomSynckrBPFailedChromosomes;
                     if (!withinZoomFailureSetKR.contains(chr)&&withinZoomKRSumFactors.get(chr.getIndex())!=null&&withinZoomKRVectors.get(chr.getIndex())!=null) {
-                        updateExpectedValueCalculationForChr(chr.getIndex(), withinZoomKRSumFactors.get(chr.getIndex()),
-                                withinZoomKRVectors.get(chr.getIndex()), NormalizationHandler.KR,
-                                zoom, allChrZoomData.get(chr.getIndex()), evKR, normVectorBuffers, normVectorIndices);
+                        updateNormVectorIndexWithVector(normVectorIndices, normVectorBuffers, withinZoomKRVectors.get(chr.getIndex()),
+                                chr.getIndex(), NormalizationHandler.KR, zoom);
                     }
                 }
 
@@ -195,9 +167,8 @@ public class MultithreadedNormalizationVectorUpdater extends NormalizationVector
                 if (weShouldBuildScale && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.SCALE)) {
                     Set<Chromosome> withinZoomFailureSetMMBA = zoom.getUnit() == HiC.Unit.FRAG ? withinZoomSyncmmbaFragFailedChromosomes : withinZoomSyncmmbaBPFailedChromosomes;
                     if (!withinZoomFailureSetMMBA.contains(chr)&&withinZoomSCALESumFactors.get(chr.getIndex())!=null&&withinZoomSCALEVectors.get(chr.getIndex())!=null) {
-                        updateExpectedValueCalculationForChr(chr.getIndex(), withinZoomSCALESumFactors.get(chr.getIndex()),
-                                withinZoomSCALEVectors.get(chr.getIndex()), NormalizationHandler.SCALE,
-                                zoom, allChrZoomData.get(chr.getIndex()), evSCALE, normVectorBuffers, normVectorIndices);
+                        updateNormVectorIndexWithVector(normVectorIndices, normVectorBuffers, withinZoomSCALEVectors.get(chr.getIndex()),
+                                chr.getIndex(), NormalizationHandler.SCALE, zoom);
                     }
                 }
             }
@@ -215,21 +186,29 @@ public class MultithreadedNormalizationVectorUpdater extends NormalizationVector
                 expectedValueCalculations.add(evSCALE);
             }
 
-
+            // the matrices of this resolution were freed as their chromosomes finished
+            closeLocalDatasets();
         }
+        scheduler.shutdown();
+        scheduler.printTimings();
+
         writeNormsToUpdateFile(reader, path, true, expectedValueCalculations, null, normVectorIndices,
                 normVectorBuffers, "Finished writing norms");
 
     }
 
-    protected static void updateExpectedValueCalculationForChr(final int chrIdx, double factor, ListOfFloatArrays vec, NormalizationType type, HiCZoom zoom, MatrixZoomData zd,
-                                                               ExpectedValueCalculation ev, List<BufferedByteWriter> normVectorBuffers, List<NormalizationVectorIndexEntry> normVectorIndex) throws IOException {
-        vec.multiplyEverythingBy(factor);
-
-        updateNormVectorIndexWithVector(normVectorIndex, normVectorBuffers, vec, chrIdx, type, zoom);
-
-        ev.addDistancesFromIterator(chrIdx, zd.getIteratorContainer(), vec);
-
+    /**
+     * Scales the vector by its sum factor and adds the chromosome to the expected values; the scaled vector
+     * is written out once the whole resolution is done
+     */
+    private static void addChromosomeToExpectedValues(int chrIdx, IteratorContainer ic, ExpectedValueCalculation ev,
+                                                      Map<Integer, Double> sumFactors, Map<Integer, ListOfFloatArrays> vectors) {
+        Double factor = sumFactors.get(chrIdx);
+        ListOfFloatArrays vec = vectors.get(chrIdx);
+        if (factor != null && vec != null) {
+            vec.multiplyEverythingBy(factor);
+            ev.addDistancesFromIterator(chrIdx, ic, vec);
+        }
     }
 
     protected void buildVCOrVCSQRT(boolean weShouldBuildVC, boolean weShouldBuildVCSqrt, Chromosome chr,
@@ -307,48 +286,123 @@ public class MultithreadedNormalizationVectorUpdater extends NormalizationVector
         }
     }
 
-    protected void runIndividualChromosomeCode(AtomicInteger chromosomeIndex,
-                                               Dataset ds, ChromosomeHandler chromosomeHandler, HiCZoom zoom, Map<NormalizationType, Integer> resolutionsToBuildTo,
-                                               Map<Integer, Double> withinZoomVCSumFactors, Map<Integer, Double> withinZoomVCSQRTSumFactors,
-                                               Map<Integer, Double> withinZoomKRSumFactors, Map<Integer, Double> withinZoomSCALESumFactors,
-                                               Map<Integer, ListOfFloatArrays> withinZoomVCVectors, Map<Integer, ListOfFloatArrays> withinZoomVCSQRTVectors,
-                                               Map<Integer, ListOfFloatArrays> withinZoomKRVectors, Map<Integer, ListOfFloatArrays> withinZoomSCALEVectors,
-                                               Set<Chromosome> withinZoomSynckrBPFailedChromosomes, Set<Chromosome> withinZoomSynckrFragFailedChromosomes,
-                                               Set<Chromosome> withinZoomSyncmmbaBPFailedChromosomes, Set<Chromosome> withinZoomSyncmmbaFragFailedChromosomes,
-                                               Map<Integer, MatrixZoomData> allChrZoomData, int threadnum) throws IOException {
-
-        int i = chromosomeIndex.getAndIncrement();
-        while (i < chromosomeHandler.getChromosomeArrayWithoutAllByAll().length) {
-            Chromosome chr = chromosomeHandler.getChromosomeArrayWithoutAllByAll()[i];
-            MatrixZoomData zd = HiCFileTools.getMatrixZoomData(ds, chr, chr, zoom);
-
-            if (zd == null) {
-                i = chromosomeIndex.getAndIncrement();
-                continue;
-            }
-            NormalizationCalculations nc = new NormalizationCalculations(zd.getIteratorContainer());
-            if (!nc.isEnoughMemory()) {
-                System.err.println("Not enough memory, skipping " + chr);
-                i = chromosomeIndex.getAndIncrement();
-                continue;
-            }
-            allChrZoomData.put(chr.getIndex(), zd);
+    /**
+     * Each thread of the scheduler looks up matrices through its own dataset, as the dataset's matrix cache
+     * is not thread safe. The datasets only live for one resolution; see closeLocalDatasets().
+     */
+    private Dataset getLocalDataset(String path) throws IOException {
+        Dataset localds = localDatasets.get(Thread.currentThread());
+        if (localds == null) {
+            DatasetReaderV2 localReader = new DatasetReaderV2(path);
+            localds = localReader.read();
+            localDatasets.put(Thread.currentThread(), localds);
+        }
+        return localds;
+    }
 
-            if (weShouldBuildVC || weShouldBuildVCSqrt) {
+    private void closeLocalDatasets() {
+        for (Dataset localds : localDatasets.values()) {
+            localds.getReader().close();
+        }
+        localDatasets.clear();
+    }
 
-                buildVCOrVCSQRT(weShouldBuildVC && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.VC),
-                        weShouldBuildVCSqrt && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.VC_SQRT),
-                        chr, nc, zoom, withinZoomVCSumFactors, withinZoomVCVectors, withinZoomVCSQRTSumFactors, withinZoomVCSQRTVectors);
-            }
-            if (weShouldBuildKR && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.KR)) {
-                buildKR(chr, nc, zoom, withinZoomKRSumFactors, withinZoomKRVectors, withinZoomSynckrBPFailedChromosomes,
-                        withinZoomSynckrFragFailedChromosomes);
-            }
-            if (weShouldBuildScale && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.SCALE)) {
-                buildScale(chr, nc, zoom, withinZoomSCALESumFactors, withinZoomSCALEVectors, withinZoomSyncmmbaBPFailedChromosomes,
-                        withinZoomSyncmmbaFragFailedChromosomes);
+    /**
+     * Loads the matrix of a chromosome, then submits its VC, KR, and SCALE solves with a cost estimated
+     * from the number of contact records and how many passes over them each solve usually needs.
+     * Once the last of them has finished, the chromosome is added to the expected values, its matrix is
+     * freed, and the scheduler may start the next load.
+     * <p>
+     * The solves may run on other threads than the one that loaded the matrix. That is safe because they never
+     * touch the loader's dataset: they only read the iterator container, which is built here before the solves
+     * are submitted (the scheduler's queue publishes it) and is not modified afterwards. If the container reads
+     * blocks from the file instead of holding them in memory, those reads go through the reader's stream pool,
+     * its concurrent block index map, and the concurrent block cache, which are safe to share between threads.
+     */
+    protected void loadChromosomeAndSubmitSolves(NormalizationTaskScheduler scheduler, Chromosome chr,
+                                                 String path, HiCZoom zoom, Map<NormalizationType, Integer> resolutionsToBuildTo,
+                                                 Map<Integer, Double> withinZoomVCSumFactors, Map<Integer, Double> withinZoomVCSQRTSumFactors,
+                                                 Map<Integer, Double> withinZoomKRSumFactors, Map<Integer, Double> withinZoomSCALESumFactors,
+                                                 Map<Integer, ListOfFloatArrays> withinZoomVCVectors, Map<Integer, ListOfFloatArrays> withinZoomVCSQRTVectors,
+                                                 Map<Integer, ListOfFloatArrays> withinZoomKRVectors, Map<Integer, ListOfFloatArrays> withinZoomSCALEVectors,
+                                                 Set<Chromosome> withinZoomSynckrBPFailedChromosomes, Set<Chromosome> withinZoomSynckrFragFailedChromosomes,
+                                                 Set<Chromosome> withinZoomSyncmmbaBPFailedChromosomes, Set<Chromosome> withinZoomSyncmmbaFragFailedChromosomes,
+                                                 Map<Integer, MatrixZoomData> allChrZoomData, ExpectedValueCalculation evVC,
+                                                 ExpectedValueCalculation evVCSqrt, ExpectedValueCalculation evKR,
+                                                 ExpectedValueCalculation evSCALE) throws IOException {
+
+        MatrixZoomData zd = HiCFileTools.getMatrixZoomData(getLocalDataset(path), chr, chr, zoom);
+        if (zd == null) {
+            scheduler.releaseLoad();
+            return;
+        }
+
+        IteratorContainer ic = zd.getIteratorContainer();
+        if (!ic.getIsThereEnoughMemoryForNormCalculation()) {
+            System.err.println("Not enough memory, skipping " + chr);
+            zd.clearCache(false);
+            scheduler.releaseLoad();
+            return;
+        }
+        allChrZoomData.put(chr.getIndex(), zd);
+
+        boolean buildVC = weShouldBuildVC || weShouldBuildVCSqrt;
+        boolean buildKR = weShouldBuildKR && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.KR);
+        boolean buildScale = weShouldBuildScale && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.SCALE);
+        AtomicInteger remainingSolves = new AtomicInteger((buildVC ? 1 : 0) + (buildKR ? 1 : 0) + (buildScale ? 1 : 0));
+        Runnable finishChromosome = () -> {
+            try {
+                final int chrIdx = chr.getIndex();
+                addChromosomeToExpectedValues(chrIdx, ic, evVC, withinZoomVCSumFactors, withinZoomVCVectors);
+                addChromosomeToExpectedValues(chrIdx, ic, evVCSqrt, withinZoomVCSQRTSumFactors, withinZoomVCSQRTVectors);
+                addChromosomeToExpectedValues(chrIdx, ic, evKR, withinZoomKRSumFactors, withinZoomKRVectors);
+                addChromosomeToExpectedValues(chrIdx, ic, evSCALE, withinZoomSCALESumFactors, withinZoomSCALEVectors);
+            } finally {
+                zd.clearCache(false);
+                scheduler.releaseLoad();
             }
-            i = chromosomeIndex.getAndIncrement();
+        };
+        if (remainingSolves.get() == 0) {
+            finishChromosome.run();
+            return;
         }
+
+        double numRecords = ic.getEstimatedNumberOfContactRecords();
+        String suffix = " of " + chr + " at " + zoom;
+
+        if (buildVC) {
+            submitChromosomeSolve(scheduler, "VC and VC_SQRT" + suffix, numRecords, remainingSolves, finishChromosome,
+                    numMatrixThreads -> buildVCOrVCSQRT(weShouldBuildVC && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.VC),
+                            weShouldBuildVCSqrt && zoom.getBinSize() >= resolutionsToBuildTo.get(NormalizationHandler.VC_SQRT),
+                            chr, new NormalizationCalculations(ic, numMatrixThreads), zoom, withinZoomVCSumFactors, withinZoomVCVectors,
+                            withinZoomVCSQRTSumFactors, withinZoomVCSQRTVectors));
+        }
+        if (buildKR) {
+            submitChromosomeSolve(scheduler, "KR" + suffix, numRecords * PASSES_PER_ITERATIVE_SOLVE, remainingSolves, finishChromosome,
+                    numMatrixThreads -> buildKR(chr, new NormalizationCalculations(ic, numMatrixThreads), zoom, withinZoomKRSumFactors,
+                            withinZoomKRVectors, withinZoomSynckrBPFailedChromosomes, withinZoomSynckrFragFailedChromosomes));
+        }
+        if (buildScale) {
+            submitChromosomeSolve(scheduler, "SCALE" + suffix, numRecords * PASSES_PER_ITERATIVE_SOLVE, remainingSolves, finishChromosome,
+                    numMatrixThreads -> buildScale(chr, new NormalizationCalculations(ic, numMatrixThreads), zoom, withinZoomSCALESumFactors,
+                            withinZoomSCALEVectors, withinZoomSyncmmbaBPFailedChromosomes, withinZoomSyncmmbaFragFailedChromosomes));
+        }
+    }
+
+    /**
+     * Submits one of the solves of a chromosome; whichever of them finishes last, even by failing, finishes the chromosome
+     */
+    private static void submitChromosomeSolve(NormalizationTaskScheduler scheduler, String name, double cost,
+                                              AtomicInteger remainingSolves, Runnable finishChromosome,
+                                              NormalizationTaskScheduler.Action solve) {
+        scheduler.submitSolve(name, cost, numMatrixThreads -> {
+            try {
+                solve.run(numMatrixThreads);
+            } finally {
+                if (remainingSolves.decrementAndGet() == 0) {
+                    finishChromosome.run();
+                }
+            }
+        });
     }
 }
@@ -52,37 +52,23 @@ public class NormalizationCalculations {
     private final long matrixSize; // x and y symmetric
     private boolean isEnoughMemory = false;
     private final IteratorContainer ic;
+    private final int numMatrixThreads;
 
     public NormalizationCalculations(IteratorContainer ic) {
+        this(ic, IteratorContainer.numCPUMatrixThreads);
+    }
+
+    /**
+     * @param numMatrixThreads threads each matrix-vector product may use, so that several
+     *                         calculations can run side by side without oversubscribing the CPUs
+     */
+    public NormalizationCalculations(IteratorContainer ic, int numMatrixThreads) {
         this.ic = ic;
+        this.numMatrixThreads = numMatrixThreads;
         this.matrixSize = ic.getMatrixSize();
         isEnoughMemory = ic.getIsThereEnoughMemoryForNormCalculation();
     }
 
-    private static ListOfDoubleArrays sparseMultiplyFromContactRecords(ListOfIntArrays offset,
-                                                                       Iterator<ContactRecord> iterator, ListOfDoubleArrays vector) {
-        ListOfDoubleArrays result = new ListOfDoubleArrays(vector.getLength());
-
-        while (iterator.hasNext()) {
-            ContactRecord cr = iterator.next();
-            int row = cr.getBinX();
-            int col = cr.getBinY();
-            float value = cr.getCounts();
-
-            row = offset.get(row);
-            col = offset.get(col);
-
-            if (row != -1 && col != -1) {
-                result.addTo(row, vector.get(col) * value);
-                if (row != col) {
-                    result.addTo(col, vector.get(row) * value);
-                }
-            }
-        }
-
-        return result;
-    }
-
     /*
     function [x,res] = bnewt(A,tol,x0,delta,fl)
           % BNEWT A balancing algorithm for symmetric matrices
@@ -114,7 +100,7 @@ public class NormalizationCalculations {
 
         double rt = Math.pow(tol, 2);
 
-        ListOfDoubleArrays v = sparseMultiplyFromContactRecords(offset, getIterator(), x0);
+        ListOfDoubleArrays v = ic.sparseMultiply(offset, x0, numMatrixThreads);
         ListOfDoubleArrays rk = new ListOfDoubleArrays(v.getLength());
         for (long i = 0; i < v.getLength(); i++) {
             v.multiplyBy(i, x0.get(i));
@@ -169,7 +155,7 @@ public class NormalizationCalculations {
                 for (long i = 0; i < tmp.getLength(); i++) {
                     tmp.set(i, x0.get(i) * p.get(i));
                 }
-                tmp = sparseMultiplyFromContactRecords(offset, getIterator(), tmp);
+                tmp = ic.sparseMultiply(offset, tmp, numMatrixThreads);
                 alpha = 0;
                 // Update search direction efficiently.
                 for (long i = 0; i < tmp.getLength(); i++) {
@@ -219,7 +205,7 @@ public class NormalizationCalculations {
             for (long i = 0; i < x0.getLength(); i++) {
                 x0.multiplyBy(i, y.get(i));
             }
-            v = sparseMultiplyFromContactRecords(offset, getIterator(), x0);
+            v = ic.sparseMultiply(offset, x0, numMatrixThreads);
             rho_km1 = 0;
             for (long i = 0; i < v.getLength(); i++) {
                 v.multiplyBy(i, x0.get(i));
@@ -493,7 +479,7 @@ public class NormalizationCalculations {
         
         ListOfFloatArrays tempTargetVector = new ListOfFloatArrays(matrixSize, 1);
 
-        return ZeroScale.mmbaScaleToVector(ic, tempTargetVector);
+        return ZeroScale.mmbaScaleToVector(ic, tempTargetVector, numMatrixThreads);
     }
 
     /*public BigContactRecordList booleanBalancing() {
@@ -0,0 +1,218 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.tools.utils.norm;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs normalization tasks on a shared pool, always starting the most expensive pending task next,
+ * so that a single huge chromosome starts first instead of becoming a long tail.
+ * Tasks may submit further tasks (e.g. the solves for a chromosome once its matrix has been loaded).
+ * <p>
+ * At most numThreads loaded matrices are held at once: a load only starts when one of numThreads permits is free,
+ * and keeps it until releaseLoad() is called, normally once the last solve on its matrix has finished.
+ * Until then, free threads run the pending solves, so the matrices are solved as they are loaded rather than
+ * the whole genome being loaded first.
+ * <p>
+ * Each task is given the number of threads it may use for matrix-vector products when it starts,
+ * from the number of tasks that are running or could run at that point, so the last big solves
+ * get all the cores once everything else is done.
+ */
+public class NormalizationTaskScheduler {
+
+    private final int numThreads;
+    private final ForkJoinPool pool;
+    private final Semaphore loadPermits;
+    private final PriorityBlockingQueue<Task> pendingLoads = new PriorityBlockingQueue<>();
+    private final PriorityBlockingQueue<Task> pendingSolves = new PriorityBlockingQueue<>();
+    private final List<Task> finishedTasks = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong submissionCounter = new AtomicLong(0);
+    private int numUnfinishedTasks = 0;
+    private int numRunningTasks = 0;
+
+    public NormalizationTaskScheduler(int numThreads) {
+        this.numThreads = numThreads;
+        this.pool = new ForkJoinPool(numThreads);
+        this.loadPermits = new Semaphore(numThreads);
+    }
+
+    /**
+     * The load keeps its matrix permit until releaseLoad() is called, or until it fails with an exception
+     */
+    public void submitLoad(String name, double cost, Action action) {
+        submit(pendingLoads, new Task(name, true, cost, submissionCounter.getAndIncrement(), action));
+    }
+
+    public void submitSolve(String name, double cost, Action action) {
+        submit(pendingSolves, new Task(name, false, cost, submissionCounter.getAndIncrement(), action));
+    }
+
+    /**
+     * Called once per successful load, when its matrix is no longer needed, so that the next load can start
+     */
+    public void releaseLoad() {
+        loadPermits.release();
+        pool.execute(this::runPendingTasks);
+    }
+
+    private void submit(PriorityBlockingQueue<Task> queue, Task task) {
+        synchronized (this) {
+            numUnfinishedTasks++;
+        }
+        queue.add(task);
+        pool.execute(this::runPendingTasks);
+    }
+
+    /**
+     * Every event that may let a task start (a submission or a released permit) schedules this,
+     * so a call that finds nothing it is allowed to run can simply return
+     */
+    private void runPendingTasks() {
+        Task task = pollNextTask();
+        while (task != null) {
+            runTask(task);
+            task = pollNextTask();
+        }
+    }
+
+    private Task pollNextTask() {
+        if (loadPermits.tryAcquire()) {
+            Task task = pendingLoads.poll();
+            if (task != null) return task;
+            loadPermits.release();
+        }
+        return pendingSolves.poll();
+    }
+
+    private void runTask(Task task) {
+        int numMatrixThreads = startTask();
+        long startTime = System.currentTimeMillis();
+        boolean failed = true;
+        try {
+            task.action.run(numMatrixThreads);
+            failed = false;
+        } catch (IOException e) {
+            System.err.println("Error: " + e);
+        } catch (RuntimeException e) {
+            System.err.println("Error in " + task.name + ": " + e);
+        } finally {
+            task.elapsedTime = System.currentTimeMillis() - startTime;
+            finishedTasks.add(task);
+            if (failed && task.isLoad) {
+                releaseLoad();
+            }
+            synchronized (this) {
+                numRunningTasks--;
+                numUnfinishedTasks--;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return the threads the starting task may use, sharing numThreads between the tasks that are running
+     * or could be started right away
+     */
+    private synchronized int startTask() {
+        numRunningTasks++;
+        int numRunnableLoads = Math.min(pendingLoads.size(), loadPermits.availablePermits());
+        int numBusyTasks = Math.min(numThreads, numRunningTasks + pendingSolves.size() + numRunnableLoads);
+        return Math.max(1, numThreads / numBusyTasks);
+    }
+
+    /**
+     * Waits until all submitted tasks, including those submitted by other tasks, have finished
+     */
+    public synchronized void awaitCompletion() {
+        while (numUnfinishedTasks > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    public void printTimings() {
+        List<Task> tasks;
+        synchronized (finishedTasks) {
+            tasks = new ArrayList<>(finishedTasks);
+        }
+        tasks.sort((a, b) -> Long.compare(b.elapsedTime, a.elapsedTime));
+        long total = 0;
+        for (Task task : tasks) {
+            total += task.elapsedTime;
+        }
+        System.out.println();
+        System.out.println("Normalization task timings (" + tasks.size() + " tasks, " + total + " ms total on " + numThreads + " threads):");
+        for (Task task : tasks) {
+            System.out.println(task.elapsedTime + " ms\t" + task.name);
+        }
+    }
+
+    public interface Action {
+        /**
+         * @param numMatrixThreads threads this task may use for matrix-vector products
+         */
+        void run(int numMatrixThreads) throws IOException;
+    }
+
+    private static class Task implements Comparable<Task> {
+        private final String name;
+        private final boolean isLoad;
+        private final double cost;
+        private final long order;
+        private final Action action;
+        private long elapsedTime;
+
+        Task(String name, boolean isLoad, double cost, long order, Action action) {
+            this.name = name;
+            this.isLoad = isLoad;
+            this.cost = cost;
+            this.order = order;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Task o) {
+            if (cost != o.cost) {
+                return Double.compare(o.cost, cost);
+            }
+            return Long.compare(order, o.order);
+        }
+    }
+}
@@ -34,7 +34,12 @@ import java.util.Iterator;
 
 public class ZeroScale {
     public static ListOfFloatArrays scale(IteratorContainer ic, ListOfFloatArrays targetVectorInitial, String key) {
-        ListOfFloatArrays newVector = FinalScale.scaleToTargetVector(ic, targetVectorInitial);
+        return scale(ic, targetVectorInitial, key, IteratorContainer.numCPUMatrixThreads);
+    }
+
+    public static ListOfFloatArrays scale(IteratorContainer ic, ListOfFloatArrays targetVectorInitial, String key,
+                                          int numThreads) {
+        ListOfFloatArrays newVector = FinalScale.scaleToTargetVector(ic, targetVectorInitial, numThreads);
         if (newVector == null && HiCGlobals.printVerboseComments) {
             System.err.println("Scaling result still null for " + key + "; vector did not converge");
         }
@@ -84,8 +89,13 @@ public class ZeroScale {
     }
 
     public static ListOfFloatArrays mmbaScaleToVector(IteratorContainer ic, ListOfFloatArrays tempTargetVector) {
+        return mmbaScaleToVector(ic, tempTargetVector, IteratorContainer.numCPUMatrixThreads);
+    }
+
+    public static ListOfFloatArrays mmbaScaleToVector(IteratorContainer ic, ListOfFloatArrays tempTargetVector,
+                                                      int numThreads) {
 
-        ListOfFloatArrays newNormVector = scale(ic, tempTargetVector, "mmsa_scale");
+        ListOfFloatArrays newNormVector = scale(ic, tempTargetVector, "mmsa_scale", numThreads);
         if (newNormVector != null) {
             newNormVector = normalizeVectorByScaleFactor(newNormVector, ic);
         }
@@ -49,6 +49,11 @@ public class FinalScale {
     private static final float OFFSET = .5f;
 
     public static ListOfFloatArrays scaleToTargetVector(IteratorContainer ic, ListOfFloatArrays targetVectorInitial) {
+        return scaleToTargetVector(ic, targetVectorInitial, IteratorContainer.numCPUMatrixThreads);
+    }
+
+    public static ListOfFloatArrays scaleToTargetVector(IteratorContainer ic, ListOfFloatArrays targetVectorInitial,
+                                                        int numThreads) {
 
         double low, zHigh, zLow;
         int rlind, zlind, zhind;
@@ -141,7 +146,7 @@ public class FinalScale {
             }
         }
 
-        row = sparseMultiplyGetRowSums(ic, one, k);
+        row = sparseMultiplyGetRowSums(ic, one, k, numThreads);
         rowBackup = row.deepClone();
         
         for (long p = 0; p < k; p++) {
@@ -190,14 +195,14 @@ public class FinalScale {
             }
     
             // find column sums and update rows scaling vector
-            col = sparseMultiplyGetRowSums(ic, dr, k);
+            col = sparseMultiplyGetRowSums(ic, dr, k, numThreads);
             for (long p = 0; p < k; p++) col.multiplyBy(p, dc.get(p));
             for (long p = 0; p < k; p++) if (bad1.get(p) == 1) col.set(p, 1.0f);
             for (long p = 0; p < k; p++) s.set(p, zTargetVector.get(p) / col.get(p));
             for (long p = 0; p < k; p++) dc.multiplyBy(p, s.get(p));
     
             // find row sums and update columns scaling vector
-            row = sparseMultiplyGetRowSums(ic, dc, k);
+            row = sparseMultiplyGetRowSums(ic, dc, k, numThreads);
             for (long p = 0; p < k; p++) row.multiplyBy(p, dr.get(p));
     
             // calculate current scaling vector
@@ -221,7 +226,7 @@ public class FinalScale {
             //	since calculating the error in row sums requires matrix-vector multiplication we are are doing this every 10
             //	iterations
             if (iter % 10 == 0) {
-                col = sparseMultiplyGetRowSums(ic, calculatedVectorB, k);
+                col = sparseMultiplyGetRowSums(ic, calculatedVectorB, k, numThreads);
                 err = 0;
                 for (long p = 0; p < k; p++) {
                     if (bad1.get(p) == 1) continue;
@@ -308,7 +313,7 @@ public class FinalScale {
 
         //	find the final error in row sums
         if (iter % 10 == 0) {
-            col = sparseMultiplyGetRowSums(ic, calculatedVectorB, k);
+            col = sparseMultiplyGetRowSums(ic, calculatedVectorB, k, numThreads);
             err = 0;
             for (int p = 0; p < k; p++) {
                 if (bad1.get(p) == 1) continue;
@@ -370,7 +375,8 @@ public class FinalScale {
     }
 
     private static ListOfFloatArrays sparseMultiplyGetRowSums(IteratorContainer ic,
-                                                              ListOfFloatArrays vector, long vectorLength) {
-        return ic.sparseMultiply(vector, vectorLength);
+                                                              ListOfFloatArrays vector, long vectorLength,
+                                                              int numThreads) {
+        return ic.sparseMultiply(vector, vectorLength, numThreads);
     }
 }
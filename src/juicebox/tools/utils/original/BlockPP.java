@@ -24,10 +24,6 @@
 
 package juicebox.tools.utils.original;
 
-import java.awt.*;
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Representation of a sparse matrix block used for preprocessing.
  */
@@ -35,18 +31,18 @@ class BlockPP {
 
     private final int number;
 
-    // Key to the map is a Point representing the x,y coordinate for the cell.
-    private final Map<Point, ContactCount> contactRecordMap;
+    // Summed counts keyed by the x,y coordinate of each cell
+    private final ContactCountMap contactCounts;
 
 
     BlockPP(int number) {
         this.number = number;
-        this.contactRecordMap = new HashMap<>();
+        this.contactCounts = new ContactCountMap();
     }
 
-    BlockPP(int number, Map<Point, ContactCount> contactRecordMap) {
+    BlockPP(int number, ContactCountMap contactCounts) {
         this.number = number;
-        this.contactRecordMap = contactRecordMap;
+        this.contactCounts = contactCounts;
     }
 
 
@@ -54,42 +50,21 @@ class BlockPP {
         return number;
     }
 
-    int getNumRecords() {return contactRecordMap.size();}
+    int getNumRecords() {return contactCounts.size();}
 
     void incrementCount(int col, int row, float score) {
-        Point p = new Point(col, row);
-        ContactCount rec = contactRecordMap.get(p);
-        if (rec == null) {
-            rec = new ContactCount(score);
-            contactRecordMap.put(p, rec);
-
-        } else {
-            rec.incrementCount(score);
-        }
+        contactCounts.add(col, row, score);
     }
 
-    Map<Point, ContactCount> getContactRecordMap() {
-        return contactRecordMap;
+    ContactCountMap getContactCounts() {
+        return contactCounts;
     }
 
     void merge(BlockPP other) {
-
-        for (Map.Entry<Point, ContactCount> entry : other.getContactRecordMap().entrySet()) {
-
-            Point point = entry.getKey();
-            ContactCount otherValue = entry.getValue();
-
-            ContactCount value = contactRecordMap.get(point);
-            if (value == null) {
-                contactRecordMap.put(point, otherValue);
-            } else {
-                value.incrementCount(otherValue.getCounts());
-            }
-
-        }
+        contactCounts.addAll(other.getContactCounts());
     }
 
     void clear() {
-        contactRecordMap.clear();
+        contactCounts.clear();
     }
 }
@@ -30,6 +30,11 @@ interface BlockQueue {
 
     void advance() throws IOException;
 
-    BlockPP getBlock();
+    /**
+     * @return the current block, or null once the queue is exhausted
+     */
+    SortedBlock getBlock();
+
+    void close();
 
 }
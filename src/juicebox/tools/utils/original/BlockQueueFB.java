@@ -26,85 +26,87 @@ package juicebox.tools.utils.original;
 
 import htsjdk.tribble.util.LittleEndianInputStream;
 
-import java.awt.*;
-import java.io.*;
-import java.util.HashMap;
-import java.util.Map;
-
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads back the blocks spilled to a tmp file, in file order.
+ * <p>
+ * When a merge reads few spill files, each is read through one buffered stream kept open until the file is
+ * exhausted. The buffers share a fixed total budget, and beyond MAX_OPEN_FILES spill files the file is
+ * opened only while a block is read, so memory and file descriptors stay bounded however many files are merged.
+ */
 class BlockQueueFB implements BlockQueue {
 
+    private static final int TOTAL_BUFFER_SIZE = 16 * 1048576;
+    private static final int MIN_BUFFER_SIZE = 16384;
+    private static final int MAX_BUFFER_SIZE = 1048576;
+    private static final int MAX_OPEN_FILES = 64;
+
     final File file;
-    BlockPP block;
+    SortedBlock block;
     long filePosition;
-    long fileLength;
+    final long fileLength;
+    private final int bufferSize;
+    private final boolean keepOpen;
+    private LittleEndianInputStream lis;
 
-    BlockQueueFB(File file) {
+    /**
+     * @param numFiles number of spill files read at the same time by the caller
+     */
+    BlockQueueFB(File file, int numFiles) {
         this.file = file;
         fileLength = file.length();
+        numFiles = Math.max(1, numFiles);
+        bufferSize = Math.max(MIN_BUFFER_SIZE, Math.min(MAX_BUFFER_SIZE, TOTAL_BUFFER_SIZE / numFiles));
+        keepOpen = numFiles <= MAX_OPEN_FILES;
         try {
             advance();
         } catch (IOException e) {
             e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
+            close();
         }
     }
 
     public void advance() throws IOException {
         if (filePosition >= fileLength) {
             block = null;
+            close();
             return;
         }
 
-        FileInputStream fis = null;
-
-        try {
-            fis = new FileInputStream(file);
+        if (lis == null) {
+            FileInputStream fis = new FileInputStream(file);
             fis.getChannel().position(filePosition);
-
-            LittleEndianInputStream lis = new LittleEndianInputStream(fis);
+            lis = new LittleEndianInputStream(new BufferedInputStream(fis, bufferSize));
+        }
+        try {
             int blockNumber = lis.readInt();
-            int nRecords = lis.readInt();
-
-            byte[] bytes = new byte[nRecords * 12];
-            readFully(bytes, fis);
-
-            ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
-            lis = new LittleEndianInputStream(bis);
-
-
-            Map<Point, ContactCount> contactRecordMap = new HashMap<>(nRecords);
-            for (int i = 0; i < nRecords; i++) {
-                int x = lis.readInt();
-                int y = lis.readInt();
-                float v = lis.readFloat();
-                ContactCount rec = new ContactCount(v);
-                contactRecordMap.put(new Point(x, y), rec);
-            }
-            block = new BlockPP(blockNumber, contactRecordMap);
-
-            // Update file position based on # of bytes read, for next block
-            filePosition = fis.getChannel().position();
-
+            block = SortedBlock.read(blockNumber, lis);
         } finally {
-            if (fis != null) fis.close();
+            if (!keepOpen) {
+                close();
+            }
         }
+
+        // Update file position based on # of bytes read, for next block
+        filePosition += 8 + 12L * block.size();
     }
 
-    public BlockPP getBlock() {
+    public SortedBlock getBlock() {
         return block;
     }
 
-    /**
-     * Read enough bytes to fill the input buffer
-     */
-    void readFully(byte[] b, InputStream is) throws IOException {
-        int len = b.length;
-        if (len < 1) throw new IndexOutOfBoundsException();
-        int n = 0;
-        while (n < len) {
-            int count = is.read(b, n, len - n);
-            if (count < 0)
-                throw new EOFException();
-            n += count;
+    public void close() {
+        if (lis != null) {
+            try {
+                lis.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            lis = null;
         }
     }
 }
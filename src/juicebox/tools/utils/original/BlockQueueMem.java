@@ -33,6 +33,7 @@ class BlockQueueMem implements BlockQueue {
 
     final List<BlockPP> blocks;
     int idx = 0;
+    private SortedBlock current;
 
     BlockQueueMem(Collection<BlockPP> blockCollection) {
 
@@ -47,13 +48,21 @@ class BlockQueueMem implements BlockQueue {
 
     public void advance() {
         idx++;
+        current = null;
     }
 
-    public BlockPP getBlock() {
+    public SortedBlock getBlock() {
         if (idx >= blocks.size()) {
             return null;
-        } else {
-            return blocks.get(idx);
         }
+        if (current == null) {
+            current = SortedBlock.fromBlock(blocks.get(idx));
+        }
+        return current;
+    }
+
+    public void close() {
+        blocks.clear();
+        current = null;
     }
 }
@@ -0,0 +1,225 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.tools.utils.original;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from a cell (x, y) to its summed count, used to accumulate blocks during preprocessing.
+ * Cells are packed into a single long key and counts are kept in a parallel float array,
+ * so adding a contact does not allocate. Bins are never negative, which leaves -1 free as the empty-slot marker.
+ */
+class ContactCountMap {
+
+    private static final long EMPTY = -1L;
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private long[] keys;
+    private float[] values;
+    private int size;
+    private int threshold;
+
+    ContactCountMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    ContactCountMap(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Add value to the count of cell (x, y), inserting the cell if it is new
+     */
+    void add(int x, int y, float value) {
+        long key = pack(x, y);
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (true) {
+            long current = keys[slot];
+            if (current == key) {
+                values[slot] += value;
+                return;
+            }
+            if (current == EMPTY) {
+                keys[slot] = key;
+                values[slot] = value;
+                if (++size > threshold) {
+                    rehash(keys.length * 2);
+                }
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @return the count for cell (x, y), or 0 if the cell is not present
+     */
+    float get(int x, int y) {
+        long key = pack(x, y);
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (true) {
+            long current = keys[slot];
+            if (current == key) {
+                return values[slot];
+            }
+            if (current == EMPTY) {
+                return 0;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    void addAll(ContactCountMap other) {
+        long[] otherKeys = other.keys;
+        float[] otherValues = other.values;
+        for (int i = 0; i < otherKeys.length; i++) {
+            long key = otherKeys[i];
+            if (key != EMPTY) {
+                add(unpackX(key), unpackY(key), otherValues[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the occupied cells as (y << 32 | x) keys sorted in row-major order; decode with rowMajorX/rowMajorY
+     */
+    long[] getRowMajorKeys() {
+        long[] sorted = new long[size];
+        int n = 0;
+        for (long key : keys) {
+            if (key != EMPTY) {
+                sorted[n++] = ((long) unpackY(key) << 32) | unpackX(key);
+            }
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    static int rowMajorX(long rowMajorKey) {
+        return (int) rowMajorKey;
+    }
+
+    static int rowMajorY(long rowMajorKey) {
+        return (int) (rowMajorKey >>> 32);
+    }
+
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    void clear() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        float[] oldValues = values;
+        allocate(newCapacity);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != EMPTY) {
+                int slot = hash(key) & mask;
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+                size++;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new float[capacity];
+        size = 0;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    private static int unpackX(long key) {
+        return (int) (key >>> 32);
+    }
+
+    private static int unpackY(long key) {
+        return (int) key;
+    }
+
+    private static int hash(long key) {
+        // finalizer from MurmurHash3, so neighbouring cells spread across the table
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /**
+     * Allocation-free iteration over the cells, in table order
+     */
+    class Cursor {
+        private int slot = -1;
+
+        boolean next() {
+            while (++slot < keys.length) {
+                if (keys[slot] != EMPTY) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int getX() {
+            return unpackX(keys[slot]);
+        }
+
+        int getY() {
+            return unpackY(keys[slot]);
+        }
+
+        float getCounts() {
+            return values[slot];
+        }
+    }
+}
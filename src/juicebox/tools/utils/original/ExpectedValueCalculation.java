@@ -62,9 +62,10 @@ public class ExpectedValueCalculation {
 
     private final int numberOfBins;
     /**
-     * Map of chromosome index -> total count for that chromosome
+     * Chromosome index -> total count for that chromosome, and whether anything was observed on it
      */
-    private final Map<Integer, Double> chromosomeCounts = new ConcurrentHashMap<>();
+    private final double[] chromosomeCounts;
+    private final boolean[] chromosomeObserved;
     /**
      * Map of chromosome index -> "normalization factor", essentially a fudge factor to make
      * the "expected total"  == observed total
@@ -85,6 +86,7 @@ public class ExpectedValueCalculation {
 	 * Chromosome in this genome, needed for normalizations
 	 */
 	private final Map<Integer, Chromosome> chromosomesMap = new ConcurrentHashMap<>();
+    private final Chromosome[] chromosomesByIndex;
     /**
      * Stores restriction site fragment information for fragment maps
      */
@@ -111,10 +113,12 @@ public class ExpectedValueCalculation {
         }
 
         long maxLen = 0;
+        int maxIndex = 0;
 
         for (Chromosome chr : chromosomeHandler.getChromosomeArrayWithoutAllByAll()) {
             if (chr != null) {
                 chromosomesMap.put(chr.getIndex(), chr);
+                maxIndex = Math.max(maxIndex, chr.getIndex());
                 try {
                     maxLen = isFrag ?
                             Math.max(maxLen, fragmentCountMap.get(chr.getName())) :
@@ -139,6 +143,13 @@ public class ExpectedValueCalculation {
 
         numberOfBins = (int) (maxLen / gridSize) + 1;
 
+        chromosomesByIndex = new Chromosome[maxIndex + 1];
+        for (Chromosome chr : chromosomesMap.values()) {
+            chromosomesByIndex[chr.getIndex()] = chr;
+        }
+        chromosomeCounts = new double[maxIndex + 1];
+        chromosomeObserved = new boolean[maxIndex + 1];
+
         actualDistances = new double[numberOfBins];
         Arrays.fill(actualDistances, 0);
     }
@@ -149,44 +160,30 @@ public class ExpectedValueCalculation {
 
 
     /**
-     * Add an observed distance.  This is called for each pair in the data set
+     * Add an observed distance.  This is called for each pair in the data set.
+     * Not synchronized: each thread should fill its own calculation, which are then combined with merge.
      *
      * @param chrIdx index of chromosome where observed, so can increment count
      * @param bin1   Position1 observed in units of "bins"
      * @param bin2   Position2 observed in units of "bins"
      */
-    public synchronized void addDistance(Integer chrIdx, int bin1, int bin2, double weight) {
+    public void addDistance(int chrIdx, int bin1, int bin2, double weight) {
 
         // Ignore NaN values    TODO -- is this the right thing to do?
         if (Double.isNaN(weight)) return;
 
-        int dist;
-        Chromosome chr = chromosomesMap.get(chrIdx);
-        if (chr == null) return;
-
-        Double count = chromosomeCounts.get(chrIdx);
-        if (count == null) {
-            chromosomeCounts.put(chrIdx, weight);
-        } else {
-            chromosomeCounts.put(chrIdx, count + weight);
-        }
-        dist = Math.abs(bin1 - bin2);
+        if (chrIdx < 0 || chrIdx >= chromosomesByIndex.length || chromosomesByIndex[chrIdx] == null) return;
 
-        actualDistances[dist] += weight;
+        chromosomeCounts[chrIdx] += weight;
+        chromosomeObserved[chrIdx] = true;
+        actualDistances[Math.abs(bin1 - bin2)] += weight;
     }
 
-    public void merge(ExpectedValueCalculation otherEVCalc) {
-        for (Map.Entry<Integer, Chromosome> entry : otherEVCalc.chromosomesMap.entrySet()) {
-            Chromosome chr = chromosomesMap.get(entry.getKey());
-            if (chr != null) {
-                if (otherEVCalc.chromosomeCounts.get(entry.getKey()) != null) {
-                    Double count = chromosomeCounts.get(entry.getKey());
-                    if (count == null) {
-                        chromosomeCounts.put(entry.getKey(), otherEVCalc.chromosomeCounts.get(entry.getKey()));
-                    } else {
-                        chromosomeCounts.put(entry.getKey(), count + otherEVCalc.chromosomeCounts.get(entry.getKey()));
-                    }
-                }
+    public synchronized void merge(ExpectedValueCalculation otherEVCalc) {
+        for (int chrIdx = 0; chrIdx < otherEVCalc.chromosomeObserved.length; chrIdx++) {
+            if (otherEVCalc.chromosomeObserved[chrIdx] && chrIdx < chromosomesByIndex.length && chromosomesByIndex[chrIdx] != null) {
+                chromosomeCounts[chrIdx] += otherEVCalc.chromosomeCounts[chrIdx];
+                chromosomeObserved[chrIdx] = true;
             }
         }
         for (int i = 0; i < actualDistances.length; i++) {
@@ -194,8 +191,22 @@ public class ExpectedValueCalculation {
         }
     }
 
-    public boolean hasData() {
-        return !chromosomeCounts.isEmpty();
+    /**
+     * Adds the distances of one chromosome accumulated elsewhere, e.g. by a single thread
+     */
+    private synchronized void addDistances(int chrIdx, double[] distances, double total) {
+        chromosomeCounts[chrIdx] += total;
+        chromosomeObserved[chrIdx] = true;
+        for (int i = 0; i < actualDistances.length; i++) {
+            actualDistances[i] += distances[i];
+        }
+    }
+
+    public synchronized boolean hasData() {
+        for (boolean observed : chromosomeObserved) {
+            if (observed) return true;
+        }
+        return false;
     }
 
     /**
@@ -220,7 +231,7 @@ public class ExpectedValueCalculation {
 		for (Chromosome chr : chromosomesMap.values()) {
 		
 			// didn't see anything at all from a chromosome, then don't include it in possDists.
-			if (chr == null || !chromosomeCounts.containsKey(chr.getIndex())) continue;
+			if (chr == null || !chromosomeObserved[chr.getIndex()]) continue;
 		
 			// use correct units (bp or fragments)
 			long len = isFrag ? fragmentCountMap.get(chr.getName()) : chr.getLength();
@@ -277,7 +288,7 @@ public class ExpectedValueCalculation {
 
         for (Chromosome chr : chromosomesMap.values()) {
 	
-			if (chr == null || !chromosomeCounts.containsKey(chr.getIndex())) {
+			if (chr == null || !chromosomeObserved[chr.getIndex()]) {
 				continue;
 			}
 			//int len = isFrag ? fragmentCalculation.getNumberFragments(chr.getName()) : chr.getLength();
@@ -299,7 +310,7 @@ public class ExpectedValueCalculation {
 				}
             }
 
-            double observedCount = chromosomeCounts.get(chr.getIndex());
+            double observedCount = chromosomeCounts[chr.getIndex()];
             double f = expectedCount / observedCount;
             chrScaleFactors.put(chr.getIndex(), f);
         }
@@ -338,7 +349,16 @@ public class ExpectedValueCalculation {
     }
 
     // TODO: this is often inefficient, we have all of the contact records when we leave norm calculations, should do this there if possible
+    /**
+     * Safe to call from several threads on the same calculation: the chromosome is accumulated locally
+     * and added under the lock once
+     */
     public void addDistancesFromIterator(int chrIndx, IteratorContainer ic, ListOfFloatArrays vector) {
+        if (chrIndx < 0 || chrIndx >= chromosomesByIndex.length || chromosomesByIndex[chrIndx] == null) return;
+
+        double[] distances = new double[numberOfBins];
+        double total = 0;
+        boolean observed = false;
         Iterator<ContactRecord> iterator = ic.getNewContactRecordIterator();
         while (iterator.hasNext()) {
             ContactRecord cr = iterator.next();
@@ -349,9 +369,15 @@ public class ExpectedValueCalculation {
             float yVal = vector.get(y);
             if (NormVectorUpdater.isValidNormValue(xVal) & NormVectorUpdater.isValidNormValue(yVal)) {
                 double value = counts / (xVal * yVal);
-                addDistance(chrIndx, x, y, value);
+                if (Double.isNaN(value)) continue;
+                distances[Math.abs(x - y)] += value;
+                total += value;
+                observed = true;
             }
         }
+        if (observed) {
+            addDistances(chrIndx, distances, total);
+        }
     }
 
     public void addDistancesFromZD(MatrixZoomData zd, Map<String, Integer> fragmentCountMap, ChromosomeHandler chromosomeHandler, int numCPUThreads) {
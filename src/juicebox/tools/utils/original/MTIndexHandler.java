@@ -41,7 +41,6 @@ public class MTIndexHandler {
                                                          Map<Integer, String> chromosomePairIndexes) {
         FileInputStream is = null;
         Map<String, List<Chunk>> tempIndex = new HashMap<>();
-        Map<Integer, List<Chunk>> mndIndex = new ConcurrentHashMap<>();
         try {
             is = new FileInputStream(mndIndexFile);
             BufferedReader reader = new BufferedReader(new InputStreamReader(is), HiCGlobals.bufferSize);
@@ -69,6 +68,15 @@ public class MTIndexHandler {
             System.exit(70);
         }
 
+        return mapChunksToChromosomePairs(tempIndex, chromosomePairIndexes);
+    }
+
+    /**
+     * Converts an index keyed by "chr1-chr2" names to one keyed by chromosome pair index
+     */
+    public static Map<Integer, List<Chunk>> mapChunksToChromosomePairs(Map<String, List<Chunk>> tempIndex,
+                                                                       Map<Integer, String> chromosomePairIndexes) {
+        Map<Integer, List<Chunk>> mndIndex = new ConcurrentHashMap<>();
         for (Map.Entry<Integer, String> entry : chromosomePairIndexes.entrySet()) {
             String reverseName = entry.getValue().split("-")[1] + "-" + entry.getValue().split("-")[0];
             if (tempIndex.containsKey(entry.getValue())) {
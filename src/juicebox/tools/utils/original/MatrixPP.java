@@ -25,6 +25,7 @@
 package juicebox.tools.utils.original;
 
 import juicebox.HiC;
+import juicebox.HiCGlobals;
 import juicebox.data.ChromosomeHandler;
 import juicebox.data.ContactRecord;
 import juicebox.data.basics.Chromosome;
@@ -32,6 +33,8 @@ import juicebox.windowui.HiCZoom;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Map;
 
 public class MatrixPP {
@@ -42,6 +45,8 @@ public class MatrixPP {
     private final int chr1Idx;
     private final int chr2Idx;
     private final MatrixZoomDataPP[] zoomData;
+    // index of the finer zoom each zoom is summed from once parsing is complete, or -1 if it is built from pairs
+    private final int[] sourceZooms;
 
     /**
      * Constructor for creating a matrix and initializing zoomed data at predefined resolution scales.  This
@@ -104,6 +109,29 @@ public class MatrixPP {
                 zoom++;
             }
         }
+
+        sourceZooms = findSourceZooms(zoomData, HiCGlobals.USE_RESOLUTION_PYRAMID_IN_PRE);
+    }
+
+    /**
+     * For each zoom, the coarsest finer zoom of the same unit whose bin size divides its own, so that
+     * its cells sum exactly into this zoom's cells
+     */
+    private static int[] findSourceZooms(MatrixZoomDataPP[] zoomData, boolean usePyramid) {
+        int[] sources = new int[zoomData.length];
+        Arrays.fill(sources, -1);
+        if (!usePyramid) return sources;
+
+        for (int i = 0; i < zoomData.length; i++) {
+            for (int j = 0; j < zoomData.length; j++) {
+                if (zoomData[j].isFrag == zoomData[i].isFrag && zoomData[j].getBinSize() < zoomData[i].getBinSize()
+                        && zoomData[i].getBinSize() % zoomData[j].getBinSize() == 0
+                        && (sources[i] < 0 || zoomData[j].getBinSize() > zoomData[sources[i]].getBinSize())) {
+                    sources[i] = j;
+                }
+            }
+        }
+        return sources;
     }
 
     private int getNumColumnsFromNumBins(int nBins, int binSize, int cutoff) {
@@ -131,7 +159,7 @@ public class MatrixPP {
         zoomData = new MatrixZoomDataPP[1];
         zoomData[0] = new MatrixZoomDataPP(chromosomeHandler.getChromosomeFromIndex(chr1Idx), chromosomeHandler.getChromosomeFromIndex(chr2Idx),
                 binSize, blockColumnCount, 0, false, fragmentCalculation, countThreshold, v9DepthBase);
-
+        sourceZooms = new int[]{-1};
     }
 
 
@@ -141,11 +169,12 @@ public class MatrixPP {
 
 
     void incrementCount(int pos1, int pos2, int frag1, int frag2, float score, Map<String, ExpectedValueCalculation> expectedValueCalculations, File tmpDir) throws IOException {
-        for (MatrixZoomDataPP aZoomData : zoomData) {
-            if (aZoomData.isFrag) {
-                aZoomData.incrementCount(frag1, frag2, score, expectedValueCalculations, tmpDir);
+        for (int i = 0; i < zoomData.length; i++) {
+            if (sourceZooms[i] >= 0) continue;
+            if (zoomData[i].isFrag) {
+                zoomData[i].incrementCount(frag1, frag2, score, expectedValueCalculations, tmpDir);
             } else {
-                aZoomData.incrementCount(pos1, pos2, score, expectedValueCalculations, tmpDir);
+                zoomData[i].incrementCount(pos1, pos2, score, expectedValueCalculations, tmpDir);
             }
         }
     }
@@ -160,6 +189,29 @@ public class MatrixPP {
         }
     }
 
+    /**
+     * Completes a matrix filled with incrementCount from pairs: zooms that were skipped are summed from
+     * their finer source zoom, finest first, before the blocks are tallied
+     */
+    void parsingComplete(Map<String, ExpectedValueCalculation> expectedValueCalculations, File tmpDir) throws IOException {
+        Integer[] order = new Integer[zoomData.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Integer.compare(zoomData[o1].getBinSize(), zoomData[o2].getBinSize());
+            }
+        });
+        for (int i : order) {
+            if (sourceZooms[i] >= 0) {
+                zoomData[i].aggregateFrom(zoomData[sourceZooms[i]], expectedValueCalculations, tmpDir);
+            }
+        }
+        parsingComplete();
+    }
+
     public void parsingComplete() {
         for (MatrixZoomDataPP zd : zoomData) {
             if (zd != null) // fragment level could be null
@@ -24,10 +24,11 @@
 
 package juicebox.tools.utils.original;
 
-import htsjdk.tribble.util.LittleEndianInputStream;
 import htsjdk.tribble.util.LittleEndianOutputStream;
 import juicebox.HiC;
 import juicebox.HiCGlobals;
+import juicebox.data.BlockCodec;
+import juicebox.data.BlockCompressor;
 import juicebox.data.ContactRecord;
 import juicebox.data.basics.Chromosome;
 import juicebox.data.v9depth.V9Depth;
@@ -36,14 +37,15 @@ import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.broad.igv.tdf.BufferedByteWriter;
 import org.broad.igv.util.collections.DownsampledDoubleArrayList;
 
-import java.awt.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.List;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.zip.Deflater;
 
 public class MatrixZoomDataPP {
 
@@ -68,6 +70,8 @@ public class MatrixZoomDataPP {
     private double percent95;
     private int BLOCK_CAPACITY = 1000;
     private final V9Depth v9Depth;
+    // one open channel per spill file, shared by the threads merging blocks
+    private final Map<File, FileChannel> spillChannels = new ConcurrentHashMap<>();
 
     /**
      * Representation of MatrixZoomData used for preprocessing
@@ -196,56 +200,7 @@ public class MatrixZoomDataPP {
         int xBin = pos1 / binSize;
         int yBin = pos2 / binSize;
 
-        int blockNumber;
-
-        // Intra chromosome -- we'll store lower diagonal only
-        if (chr1.equals(chr2)) {
-            int b1 = Math.min(xBin, yBin);
-            int b2 = Math.max(xBin, yBin);
-            xBin = b1;
-            yBin = b2;
-
-            if (b1 != b2) {
-                sum += score;  // <= count for mirror cell.
-            }
-
-            if (expectedValueCalculations != null) {
-                String evKey = (isFrag ? "FRAG_" : "BP_") + binSize;
-                ExpectedValueCalculation ev = expectedValueCalculations.get(evKey);
-                if (ev != null) {
-                    ev.addDistance(chr1.getIndex(), xBin, yBin, score);
-                }
-            }
-
-            //compute intra chromosomal block number (version 9 and up)
-            int depth = v9Depth.getDepth(xBin, yBin);
-            int positionAlongDiagonal = ((xBin + yBin) / 2 / blockBinCount);
-            blockNumber = depth * blockColumnCount + positionAlongDiagonal;
-        }
-        else {
-            // compute interchromosomal block number (version 9 and up, first block is zero)
-            int blockCol = xBin / blockBinCount;
-            int blockRow = yBin / blockBinCount;
-            blockNumber = blockColumnCount * blockRow + blockCol;
-        }
-
-
-        BlockPP block = blocks.get(blockNumber);
-        if (block == null) {
-
-            block = new BlockPP(blockNumber);
-            blocks.put(blockNumber, block);
-        }
-        block.incrementCount(xBin, yBin, score);
-
-        // If too many blocks write to tmp directory
-        if (blocks.size() > BLOCK_CAPACITY) {
-            File tmpfile = tmpDir == null ? File.createTempFile("blocks", "bin") : File.createTempFile("blocks", "bin", tmpDir);
-            //System.out.println(chr1.getName() + "-" + chr2.getName() + " Dumping blocks to " + tmpfile.getAbsolutePath());
-            dumpBlocks(tmpfile);
-            tmpFiles.add(tmpfile);
-            tmpfile.deleteOnExit();
-        }
+        incrementBin(xBin, yBin, score, expectedValueCalculations, tmpDir);
     }
 
     /**
@@ -293,6 +248,44 @@ public class MatrixZoomDataPP {
                 }
             }
         }
+        incrementBin(xBin, yBin, score, expectedValueCalculations, tmpDir);
+    }
+
+    /**
+     * Sum the cells of a finer zoom of the same unit into this one; its bin size must divide this bin size.
+     * Cells are read from the finer zoom's in-memory blocks and spill files, which are left in place for writing.
+     */
+    void aggregateFrom(MatrixZoomDataPP finer, Map<String, ExpectedValueCalculation> expectedValueCalculations,
+                       File tmpDir) throws IOException {
+        int factor = binSize / finer.binSize;
+        for (BlockPP block : finer.blocks.values()) {
+            ContactCountMap.Cursor cursor = block.getContactCounts().cursor();
+            while (cursor.next()) {
+                float score = cursor.getCounts();
+                sum += score;
+                incrementBin(cursor.getX() / factor, cursor.getY() / factor, score, expectedValueCalculations, tmpDir);
+            }
+        }
+        for (File file : finer.tmpFiles) {
+            BlockQueue queue = new BlockQueueFB(file, 1);
+            while (queue.getBlock() != null) {
+                SortedBlock block = queue.getBlock();
+                for (int i = 0; i < block.size(); i++) {
+                    float score = block.getCounts(i);
+                    sum += score;
+                    incrementBin(block.getX(i) / factor, block.getY(i) / factor, score, expectedValueCalculations, tmpDir);
+                }
+                queue.advance();
+            }
+            queue.close();
+        }
+    }
+
+    /**
+     * Add to the count of bin (xBin, yBin), keeping the expected values, block and spill bookkeeping
+     */
+    private void incrementBin(int xBin, int yBin, float score, Map<String, ExpectedValueCalculation> expectedValueCalculations,
+                              File tmpDir) throws IOException {
         int blockNumber;
 
         // Intra chromosome -- we'll store lower diagonal only
@@ -388,19 +381,8 @@ public class MatrixZoomDataPP {
                 }
                 tmpFilesByBlockNumber.get(number).put(file, los.getWrittenCount());
 
-                los.writeInt(number);
-                Map<Point, ContactCount> records = b.getContactRecordMap();
-
-                los.writeInt(records.size());
-                for (Map.Entry<Point, ContactCount> entry : records.entrySet()) {
-
-                    Point point = entry.getKey();
-                    ContactCount count = entry.getValue();
-
-                    los.writeInt(point.x);
-                    los.writeInt(point.y);
-                    los.writeFloat(count.getCounts());
-                }
+                // cells are spilled in row-major order so the final merge can stream them
+                SortedBlock.fromBlock(b).write(los);
                 b.clear();
             }
 
@@ -417,59 +399,57 @@ public class MatrixZoomDataPP {
 
 
     // Merge and write out blocks one at a time.
-    protected List<IndexEntry> mergeAndWriteBlocks(LittleEndianOutputStream los, Deflater compressor) throws IOException {
+    protected List<IndexEntry> mergeAndWriteBlocks(LittleEndianOutputStream los, BlockCompressor compressor) throws IOException {
         DownsampledDoubleArrayList sampledData = new DownsampledDoubleArrayList(10000, 10000);
 
-        List<BlockQueue> activeList = new ArrayList<>();
+        PriorityQueue<BlockQueue> activeQueues = new PriorityQueue<>(Math.max(1, tmpFiles.size() + 1), new Comparator<BlockQueue>() {
+            @Override
+            public int compare(BlockQueue o1, BlockQueue o2) {
+                return o1.getBlock().getNumber() - o2.getBlock().getNumber();
+            }
+        });
 
         // Initialize queues -- first whatever is left over in memory
         if (blocks.size() > 0) {
             BlockQueue bqInMem = new BlockQueueMem(blocks.values());
-            activeList.add(bqInMem);
+            activeQueues.add(bqInMem);
         }
-        // Now from files
+        // Now from files, with buffers and open files bounded by BlockQueueFB
         for (File file : tmpFiles) {
-            BlockQueue bq = new BlockQueueFB(file);
+            BlockQueue bq = new BlockQueueFB(file, tmpFiles.size());
             if (bq.getBlock() != null) {
-                activeList.add(bq);
+                activeQueues.add(bq);
             }
         }
 
         List<IndexEntry> indexEntries = new ArrayList<>();
 
-        if (activeList.size() == 0) {
+        if (activeQueues.size() == 0) {
             throw new RuntimeException("No reads in Hi-C contact matrices. This could be because the MAPQ filter is set too high (-q) or because all reads map to the same fragment.");
         }
 
-        do {
-            activeList.sort(new Comparator<BlockQueue>() {
-                @Override
-                public int compare(BlockQueue o1, BlockQueue o2) {
-                    return o1.getBlock().getNumber() - o2.getBlock().getNumber();
-                }
-            });
-
-            BlockQueue topQueue = activeList.get(0);
-            BlockPP currentBlock = topQueue.getBlock();
-            topQueue.advance();
-            int num = currentBlock.getNumber();
-
-
-            for (int i = 1; i < activeList.size(); i++) {
-                BlockQueue blockQueue = activeList.get(i);
-                BlockPP block = blockQueue.getBlock();
-                if (block.getNumber() == num) {
-                    currentBlock.merge(block);
-                    blockQueue.advance();
-                }
+        List<BlockQueue> sameBlockQueues = new ArrayList<>();
+        List<SortedBlock> parts = new ArrayList<>();
+        while (!activeQueues.isEmpty()) {
+            // every queue positioned at the lowest block number contributes a sorted part of that block
+            int num = activeQueues.peek().getBlock().getNumber();
+            while (!activeQueues.isEmpty() && activeQueues.peek().getBlock().getNumber() == num) {
+                BlockQueue queue = activeQueues.poll();
+                parts.add(queue.getBlock());
+                sameBlockQueues.add(queue);
             }
+            SortedBlock currentBlock = SortedBlock.merge(parts);
+            parts.clear();
 
-            Iterator<BlockQueue> iterator = activeList.iterator();
-            while (iterator.hasNext()) {
-                if (iterator.next().getBlock() == null) {
-                    iterator.remove();
+            for (BlockQueue queue : sameBlockQueues) {
+                queue.advance();
+                if (queue.getBlock() != null) {
+                    activeQueues.add(queue);
+                } else {
+                    queue.close();
                 }
             }
+            sameBlockQueues.clear();
 
             // Output block
             long position = los.getWrittenCount();
@@ -477,8 +457,7 @@ public class MatrixZoomDataPP {
             long size = los.getWrittenCount() - position;
 
             indexEntries.add(new IndexEntry(num, position, (int) size));
-
-        } while (activeList.size() > 0);
+        }
 
 
         for (File f : tmpFiles) {
@@ -494,7 +473,7 @@ public class MatrixZoomDataPP {
     }
 
     // Merge and write out blocks multithreaded.
-    protected List<IndexEntry> mergeAndWriteBlocks(LittleEndianOutputStream[] losArray, Deflater compressor, int whichZoom, int numResolutions) {
+    protected List<IndexEntry> mergeAndWriteBlocks(LittleEndianOutputStream[] losArray, BlockCompressor compressor, int whichZoom, int numResolutions) {
         DownsampledDoubleArrayList sampledData = new DownsampledDoubleArrayList(10000, 10000);
         Integer[] sortedBlockNumbers = new Integer[blockNumbers.size()];
         blockNumbers.toArray(sortedBlockNumbers);
@@ -538,7 +517,7 @@ public class MatrixZoomDataPP {
                 @Override
                 public void run() {
                     try {
-                        writeBlockChunk(threadBlocks, threadSafeBlocks, losArray, whichLos, indexEntries, sampledData);
+                        writeBlockChunk(compressor.getCodec(), threadBlocks, threadSafeBlocks, losArray, whichLos, indexEntries, sampledData);
                         threadSafeBlocks.clear();
                     } catch (Exception e) {
                         e.printStackTrace();
@@ -580,6 +559,7 @@ public class MatrixZoomDataPP {
 
         }
 
+        closeSpillChannels();
         for (File f : tmpFiles) {
             boolean result = f.delete();
             if (!result) {
@@ -594,42 +574,36 @@ public class MatrixZoomDataPP {
         return finalIndexEntries;
     }
 
-    private void writeBlockChunk(Integer[] threadBlocks, Map<Integer, BlockPP> threadSafeBlocks,LittleEndianOutputStream[] losArray,
+    private void writeBlockChunk(BlockCodec codec, Integer[] threadBlocks, Map<Integer, BlockPP> threadSafeBlocks,LittleEndianOutputStream[] losArray,
                                  int threadNum, List<IndexEntry> indexEntries, DownsampledDoubleArrayList sampledData ) throws IOException{
-        Deflater compressor = new Deflater();
-        compressor.setLevel(Deflater.DEFAULT_COMPRESSION);
+        BlockCompressor compressor = new BlockCompressor(codec);
+        List<SortedBlock> parts = new ArrayList<>();
         //System.err.println(threadBlocks.length);
         for (int i = 0; i < threadBlocks.length; i++) {
-            BlockPP currentBlock = null;
             int num = threadBlocks[i];
-            if (threadSafeBlocks.get(num) != null ){
-                currentBlock = threadSafeBlocks.get(num);
-                threadSafeBlocks.remove(num);
-                if (tmpFilesByBlockNumber.get(num) != null) {
-                    for (Map.Entry<File, Long> entry : tmpFilesByBlockNumber.get(num).entrySet()) {
-                        readAndMerge(currentBlock, entry);
-                    }
-                }
-            } else if (tmpFilesByBlockNumber.get(num) != null) {
-                Iterator<Map.Entry<File, Long>> iter = tmpFilesByBlockNumber.get(num).entrySet().iterator();
-                if (iter.hasNext()) {
-                    Map.Entry<File, Long> firstEntry = iter.next();
-                    currentBlock = readTmpBlock(firstEntry.getKey(), firstEntry.getValue());
-                    if (currentBlock != null) {
-                        while (iter.hasNext()) {
-                            readAndMerge(currentBlock, iter.next());
-                        }
+            BlockPP inMemoryBlock = threadSafeBlocks.remove(num);
+            if (inMemoryBlock != null) {
+                parts.add(SortedBlock.fromBlock(inMemoryBlock));
+                inMemoryBlock.clear();
+            }
+            Map<File, Long> spilledParts = tmpFilesByBlockNumber.get(num);
+            if (spilledParts != null) {
+                for (Map.Entry<File, Long> entry : spilledParts.entrySet()) {
+                    SortedBlock part = readTmpBlock(entry.getKey(), entry.getValue());
+                    if (part != null) {
+                        parts.add(part);
                     }
                 }
             }
 
-            if (currentBlock != null) {
+            if (!parts.isEmpty()) {
+                SortedBlock currentBlock = SortedBlock.merge(parts);
+                parts.clear();
                 long position = losArray[threadNum + 1].getWrittenCount();
                 writeBlock(currentBlock, sampledData, losArray[threadNum + 1], compressor);
                 long size = losArray[threadNum + 1].getWrittenCount() - position;
                 indexEntries.add(new IndexEntry(num, position, (int) size));
             }
-            currentBlock.clear();
             if (HiCGlobals.printVerboseComments) {
                 System.err.println("Used Memory after writing block " + i);
                 System.err.println(Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
@@ -638,55 +612,67 @@ public class MatrixZoomDataPP {
         threadSafeBlocks.clear();
     }
 
-    private void readAndMerge(BlockPP currentBlock, Map.Entry<File, Long> entry) throws IOException {
-        BlockPP tmpBlock = readTmpBlock(entry.getKey(), entry.getValue());
-        if (tmpBlock != null) {
-            currentBlock.merge(tmpBlock);
+    /**
+     * Reads one spilled block with a positional read on the file's shared channel, which is safe across threads
+     */
+    private SortedBlock readTmpBlock(File file, long filePosition) throws IOException {
+        if (filePosition >= file.length()) {
+            return null;
         }
+
+        FileChannel channel = getSpillChannel(file);
+        ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header, filePosition);
+        int blockNumber = header.getInt(0);
+        int nRecords = header.getInt(4);
+
+        ByteBuffer records = ByteBuffer.allocate(nRecords * 12).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, records, filePosition + 8);
+        records.flip();
+
+        int[] xs = new int[nRecords];
+        int[] ys = new int[nRecords];
+        float[] counts = new float[nRecords];
+        for (int i = 0; i < nRecords; i++) {
+            xs[i] = records.getInt();
+            ys[i] = records.getInt();
+            counts[i] = records.getFloat();
+        }
+        return new SortedBlock(blockNumber, xs, ys, counts, nRecords);
     }
 
-    private BlockPP readTmpBlock(File file, long filePosition) throws IOException {
-        if (filePosition >= file.length()) {
-            return null;
+    private FileChannel getSpillChannel(File file) throws IOException {
+        FileChannel channel = spillChannels.get(file);
+        if (channel == null) {
+            synchronized (spillChannels) {
+                channel = spillChannels.get(file);
+                if (channel == null) {
+                    channel = new RandomAccessFile(file, "r").getChannel();
+                    spillChannels.put(file, channel);
+                }
+            }
         }
+        return channel;
+    }
 
-        FileInputStream fis = null;
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position + buffer.position());
+            if (count < 0) {
+                throw new EOFException();
+            }
+        }
+    }
 
-        try {
-            fis = new FileInputStream(file);
-            fis.getChannel().position(filePosition);
-
-            LittleEndianInputStream lis = new LittleEndianInputStream(fis);
-            int blockNumber = lis.readInt();
-            int nRecords = lis.readInt();
-
-            byte[] bytes = new byte[nRecords * 12];
-            int len = bytes.length;
-            if (len < 0)
-                throw new IndexOutOfBoundsException();
-            int n = 0;
-            while (n < len) {
-                int count = fis.read(bytes, n, len - n);
-                if (count < 0)
-                    throw new EOFException();
-                n += count;
-            }
-
-            ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
-            lis = new LittleEndianInputStream(bis);
-
-            Map<Point, ContactCount> contactRecordMap = new HashMap<>(nRecords);
-            for (int i = 0; i < nRecords; i++) {
-                int x = lis.readInt();
-                int y = lis.readInt();
-                float v = lis.readFloat();
-                ContactCount rec = new ContactCount(v);
-                contactRecordMap.put(new Point(x, y), rec);
-            }
-            return new BlockPP(blockNumber, contactRecordMap);
-        } finally {
-            if (fis != null) fis.close();
+    private void closeSpillChannels() {
+        for (FileChannel channel : spillChannels.values()) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing tmp file " + e.getLocalizedMessage());
+            }
         }
+        spillChannels.clear();
     }
 
     private void computeStats(DownsampledDoubleArrayList sampledData) {
@@ -760,23 +746,24 @@ public class MatrixZoomDataPP {
      * @param sampledData Array to hold a sample of the data (to compute statistics)
      * @throws IOException
      */
-    protected void writeBlock(BlockPP block, DownsampledDoubleArrayList sampledData, LittleEndianOutputStream los, Deflater compressor) throws IOException {
+    protected void writeBlock(SortedBlock block, DownsampledDoubleArrayList sampledData, LittleEndianOutputStream los, BlockCompressor compressor) throws IOException {
 
-        final Map<Point, ContactCount> records = block.getContactRecordMap();//   getContactRecords();
+        // Records arrive in row-major order, so each row is a contiguous run
+        final int size = block.size();
 
-        // System.out.println("Write contact records : records count = " + records.size());
+        // System.out.println("Write contact records : records count = " + size);
 
         // Count records first
         int nRecords;
         if (countThreshold > 0) {
             nRecords = 0;
-            for (ContactCount rec : records.values()) {
-                if (rec.getCounts() >= countThreshold) {
+            for (int i = 0; i < size; i++) {
+                if (block.getCounts(i) >= countThreshold) {
                     nRecords++;
                 }
             }
         } else {
-            nRecords = records.size();
+            nRecords = size;
         }
         BufferedByteWriter buffer = new BufferedByteWriter(nRecords * 12);
         buffer.putInt(nRecords);
@@ -787,30 +774,17 @@ public class MatrixZoomDataPP {
         int binYOffset = Integer.MAX_VALUE;
         int binXMax = 0;
         int binYMax = 0;
-        for (Map.Entry<Point, ContactCount> entry : records.entrySet()) {
-            Point point = entry.getKey();
-            binXOffset = Math.min(binXOffset, point.x);
-            binYOffset = Math.min(binYOffset, point.y);
-            binXMax = Math.max(binXMax, point.x);
-            binYMax = Math.max(binYMax, point.y);
+        for (int i = 0; i < size; i++) {
+            binXOffset = Math.min(binXOffset, block.getX(i));
+            binYOffset = Math.min(binYOffset, block.getY(i));
+            binXMax = Math.max(binXMax, block.getX(i));
+            binYMax = Math.max(binYMax, block.getY(i));
         }
 
         buffer.putInt(binXOffset);
         buffer.putInt(binYOffset);
 
-        // Sort keys in row-major order
-        List<Point> keys = new ArrayList<>(records.keySet());
-        keys.sort(new Comparator<Point>() {
-            @Override
-            public int compare(Point o1, Point o2) {
-                if (o1.y != o2.y) {
-                    return o1.y - o2.y;
-                } else {
-                    return o1.x - o2.x;
-                }
-            }
-        });
-        Point lastPoint = keys.get(keys.size() - 1);
+        final int last = size - 1;
         final short w = (short) (binXMax - binXOffset + 1);
         final int w1 = binXMax - binXOffset + 1;
         final int w2 = binYMax - binYOffset + 1;
@@ -818,23 +792,19 @@ public class MatrixZoomDataPP {
         boolean isInteger = true;
         float maxCounts = 0;
 
-        LinkedHashMap<Integer, List<ContactRecord>> rows = new LinkedHashMap<>();
-        for (Point point : keys) {
-            final ContactCount contactCount = records.get(point);
-            float counts = contactCount.getCounts();
+        int numRows = 0;
+        int currentRow = -1;
+        for (int i = 0; i < size; i++) {
+            float counts = block.getCounts(i);
             if (counts >= countThreshold) {
 
                 isInteger = isInteger && (Math.floor(counts) == counts);
                 maxCounts = Math.max(counts, maxCounts);
 
-                final int px = point.x - binXOffset;
-                final int py = point.y - binYOffset;
-                List<ContactRecord> row = rows.get(py);
-                if (row == null) {
-                    row = new ArrayList<>(10);
-                    rows.put(py, row);
+                if (numRows == 0 || block.getY(i) != currentRow) {
+                    numRows++;
+                    currentRow = block.getY(i);
                 }
-                row.add(new ContactRecord(px, py, counts));
             }
         }
 
@@ -844,13 +814,10 @@ public class MatrixZoomDataPP {
         boolean useShortBinY = w2 < Short.MAX_VALUE;
         int valueSize = useShort ? 2 : 4;
 
-        int lorSize = 0;
-        int nDensePts = (lastPoint.y - binYOffset) * w + (lastPoint.x - binXOffset) + 1;
+        int nDensePts = (block.getY(last) - binYOffset) * w + (block.getX(last) - binXOffset) + 1;
 
         int denseSize = nDensePts * valueSize;
-        for (List<ContactRecord> row : rows.values()) {
-            lorSize += 4 + row.size() * valueSize;
-        }
+        int lorSize = 4 * numRows + nRecords * valueSize;
 
         buffer.put((byte) (useShort ? 0 : 1));
         buffer.put((byte) (useShortBinX ? 0 : 1));
@@ -864,34 +831,50 @@ public class MatrixZoomDataPP {
             buffer.put((byte) 1);  // List of rows representation
 
             if (useShortBinY) {
-                buffer.putShort((short) rows.size()); // # of rows
+                buffer.putShort((short) numRows); // # of rows
             } else {
-                buffer.putInt(rows.size());  // # of rows
+                buffer.putInt(numRows);  // # of rows
             }
 
-            for (Map.Entry<Integer, List<ContactRecord>> entry : rows.entrySet()) {
+            int rowStart = 0;
+            while (rowStart < size) {
+                int y = block.getY(rowStart);
+                int rowEnd = rowStart;
+                int rowSize = 0;
+                while (rowEnd < size && block.getY(rowEnd) == y) {
+                    if (block.getCounts(rowEnd) >= countThreshold) {
+                        rowSize++;
+                    }
+                    rowEnd++;
+                }
+                if (rowSize == 0) {
+                    rowStart = rowEnd;
+                    continue;
+                }
 
-                int py = entry.getKey();
-                List<ContactRecord> row = entry.getValue();
+                int py = y - binYOffset;
                 if (useShortBinY) {
                     buffer.putShort((short) py);  // Row number
                 } else {
                     buffer.putInt(py); // Row number
                 }
                 if (useShortBinX) {
-                    buffer.putShort((short) row.size());  // size of row
+                    buffer.putShort((short) rowSize);  // size of row
                 } else {
-                    buffer.putInt(row.size()); // size of row
+                    buffer.putInt(rowSize); // size of row
                 }
 
-                for (ContactRecord contactRecord : row) {
+                for (int i = rowStart; i < rowEnd; i++) {
+                    final float counts = block.getCounts(i);
+                    if (counts < countThreshold) continue;
+
+                    int px = block.getX(i) - binXOffset;
                     if (useShortBinX) {
-                        buffer.putShort((short) (contactRecord.getBinX()));
+                        buffer.putShort((short) px);
                     } else {
-                        buffer.putInt(contactRecord.getBinX());
+                        buffer.putInt(px);
                     }
 
-                    final float counts = contactRecord.getCounts();
                     if (useShort) {
                         buffer.putShort((short) counts);
                     } else {
@@ -903,6 +886,7 @@ public class MatrixZoomDataPP {
                     }
                     incrementSum(counts);
                 }
+                rowStart = rowEnd;
             }
 
         } else {
@@ -912,9 +896,9 @@ public class MatrixZoomDataPP {
             buffer.putShort(w);
 
             int lastIdx = 0;
-            for (Point p : keys) {
+            for (int k = 0; k < size; k++) {
 
-                int idx = (p.y - binYOffset) * w + (p.x - binXOffset);
+                int idx = (block.getY(k) - binYOffset) * w + (block.getX(k) - binXOffset);
                 for (int i = lastIdx; i < idx; i++) {
                     // Filler value
                     if (useShort) {
@@ -923,7 +907,7 @@ public class MatrixZoomDataPP {
                         buffer.putFloat(Float.NaN);
                     }
                 }
-                float counts = records.get(p).getCounts();
+                float counts = block.getCounts(k);
                 if (useShort) {
                     buffer.putShort((short) counts);
                 } else {
@@ -940,7 +924,7 @@ public class MatrixZoomDataPP {
 
 
         byte[] bytes = buffer.getBytes();
-        byte[] compressedBytes = compress(bytes, compressor);
+        byte[] compressedBytes = compressor.compress(bytes);
         los.write(compressedBytes);
 
     }
@@ -953,39 +937,4 @@ public class MatrixZoomDataPP {
         cellCount += nRecords;
     }
 
-    /**
-     * todo should this be synchronized?
-     *
-     * @param data
-     * @param compressor
-     * @return
-     */
-    protected byte[] compress(byte[] data, Deflater compressor) {
-
-        // Give the compressor the data to compress
-        compressor.reset();
-        compressor.setInput(data);
-        compressor.finish();
-
-        // Create an expandable byte array to hold the compressed data.
-        // You cannot use an array that's the same size as the orginal because
-        // there is no guarantee that the compressed data will be smaller than
-        // the uncompressed data.
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length);
-
-        // Compress the data
-        byte[] buf = new byte[1024];
-        while (!compressor.finished()) {
-            int count = compressor.deflate(buf);
-            bos.write(buf, 0, count);
-        }
-        try {
-            bos.close();
-        } catch (IOException e) {
-            System.err.println("Error clossing ByteArrayOutputStream");
-            e.printStackTrace();
-        }
-
-        return bos.toByteArray();
-    }
 }
@@ -0,0 +1,457 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.tools.utils.original;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import juicebox.HiCGlobals;
+import juicebox.data.ChromosomeHandler;
+import juicebox.data.basics.Chromosome;
+import juicebox.tools.clt.JuiceboxCLT;
+import juicebox.tools.utils.original.mnditerator.MNDFileParser;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Discovers chunk boundaries of a merged nodups file so that it can be preprocessed with
+ * multiple threads without an externally computed mnd index.
+ * <p>
+ * Plain text files are indexed by byte offset; BGZF compressed files are indexed by virtual
+ * file offset (compressed block address << 16 | offset within the uncompressed block), so
+ * chunks can be read directly from the compressed file.
+ * <p>
+ * The file is split into ranges which are scanned in parallel. A range skips everything up
+ * to and including its first newline; that partial line is finished by the previous range,
+ * which keeps reading until it has consumed the first newline at or past the next range start.
+ * Every chunk only holds lines from a single chromosome pair.
+ */
+public class MndIndexBuilder {
+
+    private static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+    private static final int MIN_RANGE_SIZE = 16 * 1024 * 1024;
+    private static final int PLAIN_READ_SIZE = 1024 * 1024;
+    private static final int BGZF_HEADER_SIZE = 18;
+    private static final int BGZF_MAX_BLOCK_SIZE = 65536;
+
+    private final File file;
+    private final ChromosomeHandler handler;
+    private final int numThreads;
+    private final boolean isBGZF;
+    private int[] chrTokenIndices;
+
+    public MndIndexBuilder(String path, ChromosomeHandler handler, int numThreads) throws IOException {
+        this.file = new File(path);
+        this.handler = handler;
+        this.numThreads = Math.max(1, numThreads);
+        this.isBGZF = isBGZF(path);
+    }
+
+    /**
+     * @return true if the file can be read from arbitrary chunk positions, i.e. it is either
+     * uncompressed or BGZF compressed (plain gzip cannot be indexed)
+     */
+    public static boolean canBeIndexed(String path) throws IOException {
+        return !path.endsWith(".gz") || isBGZF(path);
+    }
+
+    public static boolean isBGZF(String path) throws IOException {
+        if (!path.endsWith(".gz")) {
+            return false;
+        }
+        try (InputStream is = new BufferedInputStream(new FileInputStream(path))) {
+            return BlockCompressedInputStream.isValidFile(is);
+        }
+    }
+
+    /**
+     * @return chunks keyed by chromosome pair name, in the same form as an mnd index file
+     */
+    public Map<String, List<Chunk>> buildIndex() throws IOException {
+        chrTokenIndices = readChromosomeTokenIndices();
+
+        long fileLength = file.length();
+        int numRanges = (int) Math.max(1, Math.min(numThreads * 4L, fileLength / MIN_RANGE_SIZE));
+        long[] rangeStarts = new long[numRanges + 1];
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            for (int r = 0; r < numRanges; r++) {
+                long start = fileLength * r / numRanges;
+                rangeStarts[r] = isBGZF && r > 0 ? findBlockStart(channel, start, fileLength) : start;
+            }
+        }
+        rangeStarts[numRanges] = fileLength;
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, numRanges));
+        List<Future<RangeScanner>> futures = new ArrayList<>();
+        for (int r = 0; r < numRanges; r++) {
+            final long start = rangeStarts[r];
+            final long end = rangeStarts[r + 1];
+            final boolean isFirst = r == 0;
+            futures.add(executor.submit(() -> {
+                RangeScanner scanner = new RangeScanner(!isFirst, end);
+                if (start < end) {
+                    if (isBGZF) {
+                        scanBGZFRange(scanner, start);
+                    } else {
+                        scanPlainRange(scanner, start);
+                    }
+                }
+                scanner.finish();
+                return scanner;
+            }));
+        }
+        executor.shutdown();
+
+        Map<String, List<Chunk>> index = new LinkedHashMap<>();
+        try {
+            for (Future<RangeScanner> future : futures) {
+                RangeScanner scanner = future.get();
+                for (int k = 0; k < scanner.chunkNames.size(); k++) {
+                    String name = scanner.chunkNames.get(k);
+                    if (!index.containsKey(name)) {
+                        index.put(name, new ArrayList<>());
+                    }
+                    index.get(name).add(scanner.chunks.get(k));
+                }
+            }
+        } catch (Exception e) {
+            executor.shutdownNow();
+            throw new IOException("Unable to index merged nodups file " + file.getPath(), e);
+        }
+
+        if (HiCGlobals.printVerboseComments) {
+            int numChunks = 0;
+            for (List<Chunk> chunks : index.values()) {
+                numChunks += chunks.size();
+            }
+            System.out.println("Indexed " + file.getPath() + " into " + numChunks + " chunks");
+        }
+        return index;
+    }
+
+    private int[] readChromosomeTokenIndices() throws IOException {
+        InputStream is = isBGZF ? new BlockCompressedInputStream(file) : new FileInputStream(file);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+            String firstLine = reader.readLine();
+            if (firstLine == null) {
+                throw new IOException("Merged nodups file " + file.getPath() + " is empty");
+            }
+            if (firstLine.startsWith("#")) {
+                throw new IOException("Automatic chunking is not supported for files with a header");
+            }
+            return MNDFileParser.getChromosomeTokenIndices(JuiceboxCLT.splitToList(firstLine).length, firstLine);
+        }
+    }
+
+    private void scanPlainRange(RangeScanner scanner, long position) throws IOException {
+        byte[] buffer = new byte[PLAIN_READ_SIZE];
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+            while (!scanner.isDone()) {
+                wrapper.clear();
+                int numRead = channel.read(wrapper, position);
+                if (numRead <= 0) {
+                    return;
+                }
+                scanner.consume(buffer, numRead, position, false);
+                position += numRead;
+            }
+        }
+    }
+
+    private void scanBGZFRange(RangeScanner scanner, long blockAddress) throws IOException {
+        byte[] compressed = new byte[BGZF_MAX_BLOCK_SIZE];
+        byte[] uncompressed = new byte[BGZF_MAX_BLOCK_SIZE];
+        Inflater inflater = new Inflater(true);
+        try (FileInputStream fis = new FileInputStream(file)) {
+            fis.getChannel().position(blockAddress);
+            DataInputStream is = new DataInputStream(new BufferedInputStream(fis, HiCGlobals.bufferSize));
+            while (!scanner.isDone()) {
+                int blockSize = readBlock(is, compressed);
+                if (blockSize < 0) {
+                    return;
+                }
+                int xlen = (compressed[10] & 0xff) | ((compressed[11] & 0xff) << 8);
+                int dataStart = 12 + xlen;
+                int uncompressedSize = readInt(compressed, blockSize - 4);
+                inflater.reset();
+                inflater.setInput(compressed, dataStart, blockSize - dataStart - 8);
+                try {
+                    int numInflated = 0;
+                    while (numInflated < uncompressedSize) {
+                        int n = inflater.inflate(uncompressed, numInflated, uncompressedSize - numInflated);
+                        if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                            break;
+                        }
+                        numInflated += n;
+                    }
+                    if (numInflated != uncompressedSize) {
+                        throw new IOException("Truncated BGZF block at " + blockAddress);
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt BGZF block at " + blockAddress, e);
+                }
+                scanner.consume(uncompressed, uncompressedSize, blockAddress, true);
+                blockAddress += blockSize;
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Reads one complete BGZF block into the buffer
+     *
+     * @return the compressed size of the block, or -1 at the end of the file
+     */
+    private static int readBlock(DataInputStream is, byte[] buffer) throws IOException {
+        int first = is.read();
+        if (first < 0) {
+            return -1;
+        }
+        buffer[0] = (byte) first;
+        is.readFully(buffer, 1, BGZF_HEADER_SIZE - 1);
+        int blockSize = getBlockSize(buffer, 0);
+        if (blockSize < 0) {
+            throw new IOException("Invalid BGZF block header");
+        }
+        is.readFully(buffer, BGZF_HEADER_SIZE, blockSize - BGZF_HEADER_SIZE);
+        return blockSize;
+    }
+
+    /**
+     * @return the total size of the BGZF block whose header starts at offset, or -1 if the bytes
+     * there are not a BGZF block header
+     */
+    private static int getBlockSize(byte[] buffer, int offset) {
+        if ((buffer[offset] & 0xff) != 31 || (buffer[offset + 1] & 0xff) != 139
+                || buffer[offset + 2] != 8 || buffer[offset + 3] != 4
+                || buffer[offset + 12] != 'B' || buffer[offset + 13] != 'C'
+                || buffer[offset + 14] != 2 || buffer[offset + 15] != 0) {
+            return -1;
+        }
+        return ((buffer[offset + 16] & 0xff) | ((buffer[offset + 17] & 0xff) << 8)) + 1;
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff) | ((buffer[offset + 1] & 0xff) << 8)
+                | ((buffer[offset + 2] & 0xff) << 16) | ((buffer[offset + 3] & 0xff) << 24);
+    }
+
+    /**
+     * Finds the first BGZF block at or after the given position. A candidate header is only
+     * accepted if another block header (or the end of the file) follows it.
+     */
+    private static long findBlockStart(FileChannel channel, long position, long fileLength) throws IOException {
+        byte[] window = new byte[2 * BGZF_MAX_BLOCK_SIZE + BGZF_HEADER_SIZE];
+        ByteBuffer wrapper = ByteBuffer.wrap(window);
+        while (position < fileLength) {
+            wrapper.clear();
+            int numRead = 0;
+            while (wrapper.hasRemaining()) {
+                int n = channel.read(wrapper, position + numRead);
+                if (n <= 0) break;
+                numRead += n;
+            }
+            int searchLimit = Math.min(numRead - BGZF_HEADER_SIZE, BGZF_MAX_BLOCK_SIZE);
+            for (int i = 0; i <= searchLimit; i++) {
+                int blockSize = getBlockSize(window, i);
+                if (blockSize > BGZF_HEADER_SIZE) {
+                    long next = position + i + blockSize;
+                    if (next == fileLength) {
+                        return position + i;
+                    }
+                    int nextOffset = i + blockSize;
+                    if (nextOffset + BGZF_HEADER_SIZE <= numRead && getBlockSize(window, nextOffset) > 0) {
+                        return position + i;
+                    }
+                }
+            }
+            if (searchLimit < BGZF_MAX_BLOCK_SIZE) {
+                break;
+            }
+            position += BGZF_MAX_BLOCK_SIZE;
+        }
+        return fileLength;
+    }
+
+    /**
+     * Splits the lines of one range into chunks
+     */
+    private class RangeScanner {
+        private final List<String> chunkNames = new ArrayList<>();
+        private final List<Chunk> chunks = new ArrayList<>();
+        private final long end;
+        private boolean skipping;
+        private boolean done = false;
+
+        private byte[] line = new byte[1024];
+        private int lineLength = 0;
+        private long lineStart = -1;
+
+        private byte[] lastChr1 = new byte[0], lastChr2 = new byte[0];
+        private String lastName = null;
+
+        private String chunkName = null;
+        private long chunkStart = -1;
+        private int chunkSize = 0;
+
+        RangeScanner(boolean skipFirstLine, long end) {
+            this.skipping = skipFirstLine;
+            this.end = end;
+        }
+
+        boolean isDone() {
+            return done;
+        }
+
+        /**
+         * @param base    file offset of data[0], or the block address for BGZF data
+         * @param virtual whether positions are BGZF virtual offsets
+         */
+        void consume(byte[] data, int length, long base, boolean virtual) {
+            for (int i = 0; i < length && !done; i++) {
+                byte b = data[i];
+                if (b == '\n') {
+                    if (!skipping) {
+                        processLine();
+                    }
+                    skipping = false;
+                    lineStart = -1;
+                    lineLength = 0;
+                    if ((virtual ? base : base + i) >= end) {
+                        done = true;
+                    }
+                } else if (!skipping) {
+                    if (lineStart < 0) {
+                        lineStart = virtual ? (base << 16) | i : base + i;
+                    }
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, 2 * line.length);
+                    }
+                    line[lineLength++] = b;
+                }
+            }
+        }
+
+        void finish() {
+            if (!done && !skipping && lineLength > 0) {
+                processLine();
+            }
+            closeChunk();
+            done = true;
+        }
+
+        private void processLine() {
+            int length = lineLength;
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            String name = getChromosomePairName(length);
+            if (name == null || !name.equals(chunkName) || (long) chunkSize + length + 1 > MAX_CHUNK_SIZE) {
+                closeChunk();
+                chunkName = name;
+                chunkStart = lineStart;
+                chunkSize = 0;
+            }
+            chunkSize += length + 1;
+        }
+
+        private void closeChunk() {
+            if (chunkName != null && chunkSize > 0) {
+                chunkNames.add(chunkName);
+                chunks.add(new Chunk(chunkStart, chunkSize));
+            }
+            chunkName = null;
+            chunkSize = 0;
+        }
+
+        /**
+         * @return name of the chromosome pair of the current line, or null if the line does not
+         * map to two known chromosomes
+         */
+        private String getChromosomePairName(int length) {
+            int s1 = -1, e1 = -1, s2 = -1, e2 = -1;
+            int token = 0;
+            int i = 0;
+            while (i < length && (s2 < 0 || e2 < 0)) {
+                while (i < length && isWhitespace(line[i])) i++;
+                if (i == length) break;
+                int start = i;
+                while (i < length && !isWhitespace(line[i])) i++;
+                if (token == chrTokenIndices[0]) {
+                    s1 = start;
+                    e1 = i;
+                } else if (token == chrTokenIndices[1]) {
+                    s2 = start;
+                    e2 = i;
+                }
+                token++;
+            }
+            if (s1 < 0 || s2 < 0) {
+                return null;
+            }
+            if (!matches(lastChr1, s1, e1) || !matches(lastChr2, s2, e2)) {
+                lastChr1 = Arrays.copyOfRange(line, s1, e1);
+                lastChr2 = Arrays.copyOfRange(line, s2, e2);
+                lastName = lookUpPairName(new String(lastChr1, StandardCharsets.UTF_8),
+                        new String(lastChr2, StandardCharsets.UTF_8));
+            }
+            return lastName;
+        }
+
+        private boolean matches(byte[] previous, int start, int end) {
+            if (previous.length != end - start) {
+                return false;
+            }
+            for (int k = 0; k < previous.length; k++) {
+                if (previous[k] != line[start + k]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private String lookUpPairName(String chrom1, String chrom2) {
+            Chromosome chr1 = handler.getChromosomeFromName(chrom1);
+            Chromosome chr2 = handler.getChromosomeFromName(chrom2);
+            if (chr1 == null || chr2 == null) {
+                return null;
+            }
+            return chr1.getName() + "-" + chr2.getName();
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+}
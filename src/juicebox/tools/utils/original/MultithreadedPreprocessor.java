@@ -26,9 +26,9 @@ package juicebox.tools.utils.original;
 
 import htsjdk.tribble.util.LittleEndianOutputStream;
 import juicebox.HiCGlobals;
+import juicebox.data.BlockCompressor;
 import juicebox.data.ChromosomeHandler;
 import juicebox.tools.utils.original.mnditerator.AlignmentPair;
-import juicebox.tools.utils.original.mnditerator.AsciiPairIterator;
 import juicebox.tools.utils.original.mnditerator.PairIterator;
 import juicebox.windowui.NormalizationHandler;
 import org.broad.igv.util.Pair;
@@ -39,7 +39,6 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.zip.Deflater;
 
 
 public class MultithreadedPreprocessor extends Preprocessor {
@@ -72,23 +71,30 @@ public class MultithreadedPreprocessor extends Preprocessor {
     private final ConcurrentHashMap<Integer, MatrixPP> finalChrMatrices = new ConcurrentHashMap<>();
 
     public MultithreadedPreprocessor(File outputFile, String genomeId, ChromosomeHandler chromosomeHandler,
-                                     double hicFileScalingFactor, int numCPUThreads, String mndIndexFile) throws IOException {
+                                     double hicFileScalingFactor, int numCPUThreads, String mndIndexFile,
+                                     String inputFile) throws IOException {
         super(outputFile, genomeId, chromosomeHandler, hicFileScalingFactor);
         MultithreadedPreprocessor.numCPUThreads = numCPUThreads;
         chromosomeIndexes = MTIndexHandler.populateChromosomeIndexes(chromosomeHandler, numCPUThreads);
         chromosomePairCounter = MTIndexHandler.populateChromosomePairIndexes(chromosomeHandler,
                 chromosomePairIndexes, chromosomePairIndexesReverse,
                 chromosomePairIndex1, chromosomePairIndex2);
-        setMndIndex(mndIndexFile, chromosomePairIndexes);
+        setMndIndex(mndIndexFile, inputFile, chromosomePairIndexes);
         this.chromosomePairBlockIndexes = new ConcurrentHashMap<>(chromosomePairCounter, (float) 0.75, numCPUThreads);
         this.allLocalExpectedValueCalculations = new ConcurrentHashMap<>(numCPUThreads, (float) 0.75, numCPUThreads);
     }
 
-    public void setMndIndex(String mndIndexFile, Map<Integer, String> chromosomePairIndexes) throws IOException {
+    public void setMndIndex(String mndIndexFile, String inputFile, Map<Integer, String> chromosomePairIndexes) throws IOException {
         if (mndIndexFile != null && mndIndexFile.length() > 1) {
             mndIndex = MTIndexHandler.readMndIndex(mndIndexFile, chromosomePairIndexes);
+        } else if (inputFile != null && MndIndexBuilder.canBeIndexed(inputFile)) {
+            Map<String, List<Chunk>> tempIndex = new MndIndexBuilder(inputFile, chromosomeHandler, numCPUThreads).buildIndex();
+            if (tempIndex.isEmpty()) {
+                throw new IOException("No contacts on known chromosomes found in " + inputFile);
+            }
+            mndIndex = MTIndexHandler.mapChunksToChromosomePairs(tempIndex, chromosomePairIndexes);
         } else {
-            throw new IOException("No mndIndex provided");
+            throw new IOException("No mndIndex provided and " + inputFile + " is not BGZF compressed");
         }
     }
 
@@ -170,7 +176,7 @@ public class MultithreadedPreprocessor extends Preprocessor {
                 System.err.println("No index for merged nodups file.");
                 System.exit(67);
             } else {
-                iter = new AsciiPairIterator(inputFile, chromosomeIndexes, chunkPositions.get(chrChunk),
+                iter = PairIterator.getChunkIterator(inputFile, chromosomeIndexes, chunkPositions.get(chrChunk),
                         chromosomeHandler);
             }
             while (iter.hasNext()) {
@@ -241,7 +247,7 @@ public class MultithreadedPreprocessor extends Preprocessor {
             i = chunkCounter.getAndIncrement();
         }
         if (currentMatrix != null) {
-            currentMatrix.parsingComplete();
+            currentMatrix.parsingComplete(localExpectedValueCalculations, tmpDir);
             //LittleEndianOutputStream[] localLos = {new LittleEndianOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile + "_" + chromosomePairIndexes.get(currentPairIndex)), HiCGlobals.bufferSize))};
             //writeMatrix(currentMatrix, localLos, getDefaultCompressor(), localMatrixPositions, currentPairIndex, true);
         }
@@ -450,9 +456,9 @@ public class MultithreadedPreprocessor extends Preprocessor {
     }
 
     @Override
-    // MatrixPP matrix, LittleEndianOutputStream los, Deflater compressor
+    // MatrixPP matrix, LittleEndianOutputStream los, BlockCompressor compressor
     protected Pair<Map<Long, List<IndexEntry>>, Long> writeMatrix(MatrixPP matrix, LittleEndianOutputStream[] localLos,
-                                                                  Deflater localCompressor, Map<String, IndexEntry> localMatrixPositions,
+                                                                  BlockCompressor localCompressor, Map<String, IndexEntry> localMatrixPositions,
                                                                   int chromosomePairIndex, boolean doMultiThreadedBehavior) throws IOException {
 
         Pair<Map<Long, List<IndexEntry>>, Long> localBlockIndexes = super.writeMatrix(matrix, localLos, localCompressor,
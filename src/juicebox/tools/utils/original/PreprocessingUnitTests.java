@@ -0,0 +1,171 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.tools.utils.original;
+
+import java.awt.*;
+import java.util.List;
+import java.util.*;
+
+/**
+ * Checks the primitive structures used to accumulate and merge blocks during preprocessing
+ * against the HashMap of Points they replaced; each test throws an AssertionError on failure
+ */
+class PreprocessingUnitTests {
+
+    public static void main(String[] args) {
+        contactCountMapMatchesHashMap();
+        sortedBlockMergeMatchesHashMap();
+        System.out.println("All tests passed");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * Integer counts keep the sums exact whatever order they are added in
+     */
+    private static void addRandomContacts(Random random, int numContacts, int maxBin, ContactCountMap map,
+                                          Map<Point, Float> reference) {
+        for (int i = 0; i < numContacts; i++) {
+            int x = random.nextInt(maxBin);
+            int y = random.nextInt(maxBin);
+            float count = 1 + random.nextInt(5);
+            map.add(x, y, count);
+            reference.merge(new Point(x, y), count, Float::sum);
+        }
+    }
+
+    private static void checkSameCounts(ContactCountMap map, Map<Point, Float> reference, String description) {
+        check(map.size() == reference.size(), description + " has " + map.size() + " cells, expected " + reference.size());
+        for (Map.Entry<Point, Float> entry : reference.entrySet()) {
+            Point p = entry.getKey();
+            check(map.get(p.x, p.y) == entry.getValue(), description + " has count " + map.get(p.x, p.y)
+                    + " at " + p.x + "," + p.y + ", expected " + entry.getValue());
+        }
+    }
+
+    /**
+     * @return the cells sorted in row-major order (by y, then x), as the old writeBlock sorted them
+     */
+    private static List<Point> getRowMajorCells(Map<Point, Float> reference) {
+        List<Point> cells = new ArrayList<>(reference.keySet());
+        cells.sort((a, b) -> a.y != b.y ? Integer.compare(a.y, b.y) : Integer.compare(a.x, b.x));
+        return cells;
+    }
+
+    private static void contactCountMapMatchesHashMap() {
+        Random random = new Random(7);
+        ContactCountMap map = new ContactCountMap();
+        Map<Point, Float> reference = new HashMap<>();
+        // enough cells to grow the table several times, with many repeated cells
+        addRandomContacts(random, 50000, 300, map, reference);
+        // bins near the edges of the packed key
+        for (int bin : new int[]{0, 1, Integer.MAX_VALUE - 1, Integer.MAX_VALUE}) {
+            map.add(bin, 0, 2);
+            map.add(0, bin, 3);
+            reference.merge(new Point(bin, 0), 2f, Float::sum);
+            reference.merge(new Point(0, bin), 3f, Float::sum);
+        }
+        checkSameCounts(map, reference, "ContactCountMap");
+        check(map.get(301, 301) == 0, "ContactCountMap has a count for a cell never added");
+
+        Set<Point> visited = new HashSet<>();
+        ContactCountMap.Cursor cursor = map.cursor();
+        while (cursor.next()) {
+            Point p = new Point(cursor.getX(), cursor.getY());
+            check(visited.add(p), "ContactCountMap cursor visits " + p + " twice");
+            check(cursor.getCounts() == reference.get(p), "ContactCountMap cursor has the wrong count at " + p);
+        }
+        check(visited.equals(reference.keySet()), "ContactCountMap cursor does not visit every cell");
+
+        long[] keys = map.getRowMajorKeys();
+        List<Point> cells = getRowMajorCells(reference);
+        check(keys.length == cells.size(), "ContactCountMap has " + keys.length + " row-major keys");
+        for (int i = 0; i < keys.length; i++) {
+            check(ContactCountMap.rowMajorX(keys[i]) == cells.get(i).x && ContactCountMap.rowMajorY(keys[i]) == cells.get(i).y,
+                    "ContactCountMap row-major key " + i + " is out of order");
+        }
+
+        // merging blocks, as BlockPP.merge does
+        ContactCountMap other = new ContactCountMap(1000);
+        Map<Point, Float> otherReference = new HashMap<>();
+        addRandomContacts(random, 20000, 400, other, otherReference);
+        map.addAll(other);
+        for (Map.Entry<Point, Float> entry : otherReference.entrySet()) {
+            reference.merge(entry.getKey(), entry.getValue(), Float::sum);
+        }
+        checkSameCounts(map, reference, "Merged ContactCountMap");
+
+        map.clear();
+        check(map.size() == 0 && map.get(0, 0) == 0, "ContactCountMap is not empty after clear");
+    }
+
+    private static void sortedBlockMergeMatchesHashMap() {
+        Random random = new Random(7);
+        Map<Point, Float> reference = new HashMap<>();
+        List<SortedBlock> parts = new ArrayList<>();
+        for (int p = 0; p < 7; p++) {
+            BlockPP block = new BlockPP(42);
+            // one part is empty, and the parts overlap in many cells
+            int numContacts = p == 3 ? 0 : 1000 * (p + 1);
+            Map<Point, Float> partReference = new HashMap<>();
+            addRandomContacts(random, numContacts, 150, block.getContactCounts(), partReference);
+            for (Map.Entry<Point, Float> entry : partReference.entrySet()) {
+                reference.merge(entry.getKey(), entry.getValue(), Float::sum);
+            }
+            SortedBlock part = SortedBlock.fromBlock(block);
+            checkSortedBlock(part, partReference, "Sorted block part " + p);
+            parts.add(part);
+        }
+
+        checkSortedBlock(SortedBlock.merge(parts), reference, "Merged sorted block");
+        checkSortedBlock(SortedBlock.merge(Collections.singletonList(parts.get(1))), getReference(parts.get(1)),
+                "Sorted block merged on its own");
+    }
+
+    private static Map<Point, Float> getReference(SortedBlock block) {
+        Map<Point, Float> reference = new HashMap<>();
+        for (int i = 0; i < block.size(); i++) {
+            reference.put(new Point(block.getX(i), block.getY(i)), block.getCounts(i));
+        }
+        return reference;
+    }
+
+    private static void checkSortedBlock(SortedBlock block, Map<Point, Float> reference, String description) {
+        check(block.getNumber() == 42, description + " has block number " + block.getNumber());
+        List<Point> cells = getRowMajorCells(reference);
+        check(block.size() == cells.size(), description + " has " + block.size() + " cells, expected " + cells.size());
+        for (int i = 0; i < cells.size(); i++) {
+            Point p = cells.get(i);
+            check(block.getX(i) == p.x && block.getY(i) == p.y, description + " has cell " + block.getX(i) + ","
+                    + block.getY(i) + " at position " + i + ", expected " + p.x + "," + p.y);
+            check(block.getCounts(i) == reference.get(p), description + " has count " + block.getCounts(i)
+                    + " at " + p.x + "," + p.y + ", expected " + reference.get(p));
+        }
+    }
+}
@@ -29,6 +29,8 @@ package juicebox.tools.utils.original;
 import htsjdk.tribble.util.LittleEndianOutputStream;
 import juicebox.HiC;
 import juicebox.HiCGlobals;
+import juicebox.data.BlockCodec;
+import juicebox.data.BlockCompressor;
 import juicebox.data.ChromosomeHandler;
 import juicebox.data.basics.Chromosome;
 import juicebox.data.basics.ListOfDoubleArrays;
@@ -43,7 +45,6 @@ import org.broad.igv.util.Pair;
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.zip.Deflater;
 
 
 /**
@@ -67,7 +68,8 @@ public class Preprocessor {
     protected final File outputFile;
     protected final Map<String, IndexEntry> matrixPositions;
     protected String genomeId;
-    protected final Deflater compressor;
+    protected BlockCodec blockCodec = BlockCodec.DEFLATE;
+    protected BlockCompressor compressor;
     protected LittleEndianOutputStream[] losArray = new LittleEndianOutputStream[1];
     protected long masterIndexPosition;
     protected int countThreshold = 0;
@@ -144,6 +146,11 @@ public class Preprocessor {
         }
     }
 
+    public void setBlockCodec(BlockCodec blockCodec) {
+        this.blockCodec = blockCodec;
+        compressor = getDefaultCompressor();
+    }
+
     public void setMapqThreshold(int mapqThreshold) {
         this.mapqThreshold = mapqThreshold;
     }
@@ -505,6 +512,7 @@ public class Preprocessor {
         if (graphs != null) nAttributes += 1;
         if (hicFileScaling != null) nAttributes += 1;
         if (v9DepthBase != 2) nAttributes += 1;
+        if (blockCodec != BlockCodec.DEFLATE) nAttributes += 1;
     
         los.writeInt(nAttributes);
         los.writeString(SOFTWARE);
@@ -525,6 +533,10 @@ public class Preprocessor {
             los.writeString(V9_DEPTH_BASE);
             los.writeString("" + v9DepthBase);
         }
+        if (blockCodec != BlockCodec.DEFLATE) {
+            los.writeString(BlockCodec.ATTRIBUTE_KEY);
+            los.writeString(blockCodec.getName());
+        }
 
 
         // Sequence dictionary
@@ -735,7 +747,7 @@ public class Preprocessor {
                 if (!(currentChr1 == chr1 && currentChr2 == chr2)) {
                     // Starting a new matrix
                     if (currentMatrix != null) {
-                        currentMatrix.parsingComplete();
+                        currentMatrix.parsingComplete(expectedValueCalculations, tmpDir);
                         writeMatrix(currentMatrix, losArray, compressor, matrixPositions, -1, false);
                         writtenMatrices.add(currentMatrixKey);
                         currentMatrix = null;
@@ -769,7 +781,7 @@ public class Preprocessor {
          */
 
         if (currentMatrix != null) {
-            currentMatrix.parsingComplete();
+            currentMatrix.parsingComplete(expectedValueCalculations, tmpDir);
             writeMatrix(currentMatrix, losArray, compressor, matrixPositions, -1, false);
         }
 
@@ -996,14 +1008,12 @@ public class Preprocessor {
         }
     }
 
-    protected Deflater getDefaultCompressor() {
-        Deflater compressor = new Deflater();
-        compressor.setLevel(Deflater.DEFAULT_COMPRESSION);
-        return compressor;
+    protected BlockCompressor getDefaultCompressor() {
+        return new BlockCompressor(blockCodec);
     }
 
     protected Pair<Map<Long, List<IndexEntry>>, Long> writeMatrix(MatrixPP matrix, LittleEndianOutputStream[] losArray,
-                                                                  Deflater compressor, Map<String, IndexEntry> matrixPositions, int chromosomePairIndex, boolean doMultiThreadedBehavior) throws IOException {
+                                                                  BlockCompressor compressor, Map<String, IndexEntry> matrixPositions, int chromosomePairIndex, boolean doMultiThreadedBehavior) throws IOException {
 
         if (HiCGlobals.printVerboseComments) {
             System.err.println("Used Memory for matrix");
@@ -0,0 +1,189 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.tools.utils.original;
+
+import htsjdk.tribble.util.LittleEndianInputStream;
+import htsjdk.tribble.util.LittleEndianOutputStream;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The cells of one block in row-major order (by y, then x), held in parallel primitive arrays.
+ * This is the form blocks are spilled to tmp files in, and the form they are merged and written out in,
+ * so that the final merge streams through sorted records instead of hashing them.
+ */
+class SortedBlock {
+
+    private final int number;
+    private final int[] xs;
+    private final int[] ys;
+    private final float[] counts;
+    private final int size;
+
+    SortedBlock(int number, int[] xs, int[] ys, float[] counts, int size) {
+        this.number = number;
+        this.xs = xs;
+        this.ys = ys;
+        this.counts = counts;
+        this.size = size;
+    }
+
+    static SortedBlock fromBlock(BlockPP block) {
+        ContactCountMap records = block.getContactCounts();
+        long[] keys = records.getRowMajorKeys();
+        int n = keys.length;
+        int[] xs = new int[n];
+        int[] ys = new int[n];
+        float[] counts = new float[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = ContactCountMap.rowMajorX(keys[i]);
+            ys[i] = ContactCountMap.rowMajorY(keys[i]);
+            counts[i] = records.get(xs[i], ys[i]);
+        }
+        return new SortedBlock(block.getNumber(), xs, ys, counts, n);
+    }
+
+    /**
+     * Reads the records of a spilled block; the block number has already been read
+     */
+    static SortedBlock read(int number, LittleEndianInputStream lis) throws IOException {
+        int n = lis.readInt();
+        int[] xs = new int[n];
+        int[] ys = new int[n];
+        float[] counts = new float[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = lis.readInt();
+            ys[i] = lis.readInt();
+            counts[i] = lis.readFloat();
+        }
+        return new SortedBlock(number, xs, ys, counts, n);
+    }
+
+    void write(LittleEndianOutputStream los) throws IOException {
+        los.writeInt(number);
+        los.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            los.writeInt(xs[i]);
+            los.writeInt(ys[i]);
+            los.writeFloat(counts[i]);
+        }
+    }
+
+    /**
+     * K-way merge of sorted parts of the same block; counts of cells present in several parts are summed
+     */
+    static SortedBlock merge(List<SortedBlock> parts) {
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+
+        int k = parts.size();
+        int total = 0;
+        for (SortedBlock part : parts) {
+            total += part.size;
+        }
+        int[] xs = new int[total];
+        int[] ys = new int[total];
+        float[] counts = new float[total];
+
+        // binary min-heap of part indices, ordered by the key of each part's next record
+        int[] heap = new int[k];
+        int[] positions = new int[k];
+        int heapSize = 0;
+        for (int p = 0; p < k; p++) {
+            if (parts.get(p).size > 0) {
+                heap[heapSize++] = p;
+            }
+        }
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(heap, heapSize, i, parts, positions);
+        }
+
+        int n = 0;
+        while (heapSize > 0) {
+            int p = heap[0];
+            SortedBlock part = parts.get(p);
+            int i = positions[p]++;
+            if (n > 0 && xs[n - 1] == part.xs[i] && ys[n - 1] == part.ys[i]) {
+                counts[n - 1] += part.counts[i];
+            } else {
+                xs[n] = part.xs[i];
+                ys[n] = part.ys[i];
+                counts[n] = part.counts[i];
+                n++;
+            }
+            if (positions[p] == part.size) {
+                heap[0] = heap[--heapSize];
+            }
+            siftDown(heap, heapSize, 0, parts, positions);
+        }
+
+        return new SortedBlock(parts.get(0).number, xs, ys, counts, n);
+    }
+
+    private static void siftDown(int[] heap, int heapSize, int i, List<SortedBlock> parts, int[] positions) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= heapSize) return;
+            int smallest = left;
+            int right = left + 1;
+            if (right < heapSize && headKey(heap[right], parts, positions) < headKey(heap[left], parts, positions)) {
+                smallest = right;
+            }
+            if (headKey(heap[smallest], parts, positions) >= headKey(heap[i], parts, positions)) return;
+            int tmp = heap[i];
+            heap[i] = heap[smallest];
+            heap[smallest] = tmp;
+            i = smallest;
+        }
+    }
+
+    private static long headKey(int p, List<SortedBlock> parts, int[] positions) {
+        SortedBlock part = parts.get(p);
+        int i = positions[p];
+        return ((long) part.ys[i] << 32) | part.xs[i];
+    }
+
+    int getNumber() {
+        return number;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getX(int i) {
+        return xs[i];
+    }
+
+    int getY(int i) {
+        return ys[i];
+    }
+
+    float getCounts(int i) {
+        return counts[i];
+    }
+}
@@ -34,10 +34,10 @@ public class AlignmentPair {
     private boolean strand2 = false;
     private int frag1 = 0;
     private int frag2 = 1;
-    private final int chr1;
-    private final int pos1;
-    private final int chr2;
-    private final int pos2;
+    private int chr1;
+    private int pos1;
+    private int chr2;
+    private int pos2;
     private int mapq1 = 1000;
     private int mapq2 = 1000;
     private float score = 1.0f;  // The score (or count)
@@ -90,6 +90,40 @@ public class AlignmentPair {
         isContigPair = false;
     }
 
+    /**
+     * Reinitializes a pair that is reused by a byte level parser, with the same defaults as a newly
+     * constructed pair
+     */
+    void reset(int chr1, int pos1, int chr2, int pos2) {
+        this.chr1 = chr1;
+        this.pos1 = pos1;
+        this.chr2 = chr2;
+        this.pos2 = pos2;
+        strand1 = true;
+        strand2 = false;
+        frag1 = 0;
+        frag2 = 1;
+        mapq1 = 1000;
+        mapq2 = 1000;
+        score = 1.0f;
+        isContigPair = false;
+        isValidForStats = true;
+    }
+
+    /**
+     * Reinitializes a reused pair to the same state as {@link #AlignmentPair()}
+     */
+    void resetToContigPair() {
+        reset(-1, -1, -1, -1);
+        strand1 = false;
+        frag1 = -1;
+        frag2 = -1;
+        mapq1 = -1;
+        mapq2 = -1;
+        isContigPair = true;
+        isValidForStats = false;
+    }
+
     public int getChr1() {
         return chr1;
     }
@@ -25,9 +25,11 @@
 package juicebox.tools.utils.original.mnditerator;
 
 
+import htsjdk.samtools.util.BlockCompressedInputStream;
 import juicebox.HiCGlobals;
 import juicebox.data.ChromosomeHandler;
 import juicebox.tools.utils.original.Chunk;
+import juicebox.tools.utils.original.MndIndexBuilder;
 import org.broad.igv.util.ParsingUtils;
 
 import java.io.*;
@@ -45,7 +47,9 @@ public class AsciiPairIterator extends GenericPairIterator implements PairIterat
                              boolean allowNewChroms) throws IOException {
         super(new MNDFileParser(new ComplexLineParser(chromosomeOrdinals, handler, allowNewChroms, true)));
         if (path.endsWith(".gz")) {
-            InputStream gzipStream = new GZIPInputStream(new FileInputStream(path));
+            // inflate on a separate thread so it overlaps with parsing
+            InputStream gzipStream = new PipelinedInputStream(new GZIPInputStream(new FileInputStream(path), 65536),
+                    4194304, 4);
             Reader decoder = new InputStreamReader(gzipStream, StandardCharsets.UTF_8);
             this.reader = new BufferedReader(decoder, 4194304);
         } else {
@@ -59,16 +63,22 @@ public class AsciiPairIterator extends GenericPairIterator implements PairIterat
                              ChromosomeHandler handler) throws IOException {
         super(new MNDFileParser(new ComplexLineParser(chromosomeOrdinals, handler, false, false)));
         if (path.endsWith(".gz")) {
-            System.err.println("Multithreading with indexed mnd currently only works with unzipped mnd");
-            System.exit(70);
+            if (!MndIndexBuilder.isBGZF(path)) {
+                System.err.println("Multithreading with indexed mnd only works with unzipped or BGZF compressed mnd");
+                System.exit(70);
+            }
+            // BGZF chunks are indexed by virtual file offset
+            BlockCompressedInputStream bgzfStream = new BlockCompressedInputStream(new File(path));
+            bgzfStream.seek(chunk.mndIndex);
+            this.reader = new BufferedReader(new InputStreamReader(bgzfStream), HiCGlobals.bufferSize);
         } else {
             FileInputStream fis = new FileInputStream(path);
             fis.getChannel().position(chunk.mndIndex);
             this.reader = new BufferedReader(new InputStreamReader(fis), HiCGlobals.bufferSize);
             //this.mndStart = chunk.mndIndex;
-            this.mndChunkSize = chunk.mndChunk;
-            this.stopAfterChunk = true;
         }
+        this.mndChunkSize = chunk.mndChunk;
+        this.stopAfterChunk = true;
         advance();
     }
 
@@ -0,0 +1,200 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.tools.utils.original.mnditerator;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import juicebox.data.ChromosomeHandler;
+import juicebox.tools.utils.original.Chunk;
+import juicebox.tools.utils.original.MndIndexBuilder;
+import org.broad.igv.util.ParsingUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Pair iterator that reads merged nodups files into a large direct buffer and parses each line in
+ * place with {@link MNDByteLineParser}.
+ * <p>
+ * Pairs are reused: a pair returned by {@link #next()} is only valid until the following call to next().
+ * Files with a DCIC header are parsed line by line with the regular {@link MNDFileParser}.
+ */
+public class ByteBufferPairIterator implements PairIterator {
+
+    private static final int BUFFER_SIZE = 8 * 1024 * 1024;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ReadableByteChannel channel;
+    private final MNDByteLineParser parser;
+    private final Map<String, Integer> chromosomeOrdinals;
+    private final ChromosomeHandler handler;
+    private MNDFileParser fallbackParser = null;
+    private boolean isFormatInitialized = false;
+    private boolean endOfInput = false;
+    private final AlignmentPair[] pairs = new AlignmentPair[]{new AlignmentPair(), new AlignmentPair()};
+    private int currentPairIndex = 0;
+    private AlignmentPair nextPair = null;
+    private long mndChunkSize = Long.MAX_VALUE;
+    private long mndChunkCounter = 0;
+
+    public ByteBufferPairIterator(String path, Map<String, Integer> chromosomeOrdinals,
+                                  ChromosomeHandler handler) throws IOException {
+        this.chromosomeOrdinals = chromosomeOrdinals;
+        this.handler = handler;
+        this.parser = new MNDByteLineParser(chromosomeOrdinals, handler);
+        if (path.endsWith(".gz")) {
+            // inflate on a separate thread so it overlaps with parsing
+            channel = Channels.newChannel(new PipelinedInputStream(
+                    new GZIPInputStream(new FileInputStream(path), 65536), 4194304, 4));
+        } else if (new File(path).exists()) {
+            channel = new FileInputStream(path).getChannel();
+        } else {
+            channel = Channels.newChannel(ParsingUtils.openInputStream(path));
+        }
+        buffer.limit(0);
+        advance();
+    }
+
+    public ByteBufferPairIterator(String path, Map<String, Integer> chromosomeOrdinals, Chunk chunk,
+                                  ChromosomeHandler handler) throws IOException {
+        this.chromosomeOrdinals = chromosomeOrdinals;
+        this.handler = handler;
+        this.parser = new MNDByteLineParser(chromosomeOrdinals, handler);
+        if (path.endsWith(".gz")) {
+            if (!MndIndexBuilder.isBGZF(path)) {
+                throw new IOException("Multithreading with indexed mnd only works with unzipped or BGZF compressed mnd");
+            }
+            BlockCompressedInputStream bgzfStream = new BlockCompressedInputStream(new File(path));
+            bgzfStream.seek(chunk.mndIndex);
+            channel = Channels.newChannel(bgzfStream);
+        } else {
+            FileChannel fileChannel = new FileInputStream(path).getChannel();
+            fileChannel.position(chunk.mndIndex);
+            channel = fileChannel;
+        }
+        this.mndChunkSize = chunk.mndChunk;
+        buffer.limit(0);
+        advance();
+    }
+
+    public boolean hasNext() {
+        return nextPair != null;
+    }
+
+    public AlignmentPair next() {
+        AlignmentPair p = nextPair;
+        advance();
+        return p;
+    }
+
+    private void advance() {
+        nextPair = null;
+        try {
+            int lineStart = buffer.position();
+            int newline = findNewline(lineStart);
+            while (newline < 0 && !endOfInput) {
+                fillBuffer();
+                lineStart = buffer.position();
+                newline = findNewline(lineStart);
+            }
+            int lineEnd = newline < 0 ? buffer.limit() : newline;
+            if (newline < 0 && lineEnd == lineStart) {
+                return;
+            }
+            buffer.position(newline < 0 ? lineEnd : newline + 1);
+            if (lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+
+            // same accounting as AsciiPairIterator.validateLine
+            mndChunkCounter += lineEnd - lineStart + 1;
+            if (mndChunkCounter > mndChunkSize) {
+                return;
+            }
+
+            if (!isFormatInitialized) {
+                isFormatInitialized = true;
+                if (!parser.initializeFormat(buffer, lineStart, lineEnd)) {
+                    fallbackParser = new MNDFileParser(new ComplexLineParser(chromosomeOrdinals, handler, false, false));
+                }
+            }
+
+            if (fallbackParser != null) {
+                nextPair = fallbackParser.parse(MNDByteLineParser.decode(buffer, lineStart, lineEnd));
+            } else {
+                currentPairIndex = 1 - currentPairIndex;
+                parser.parse(buffer, lineStart, lineEnd, pairs[currentPairIndex]);
+                nextPair = pairs[currentPairIndex];
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            nextPair = null;
+        }
+    }
+
+    private int findNewline(int from) {
+        int limit = buffer.limit();
+        for (int i = from; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Moves the unconsumed bytes to the front of the buffer and reads more input behind them
+     */
+    private void fillBuffer() throws IOException {
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            throw new IOException("Line longer than " + BUFFER_SIZE + " bytes");
+        }
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                endOfInput = true;
+                break;
+            }
+        }
+        buffer.flip();
+    }
+
+    public void remove() {
+        // Not implemented
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.tools.utils.original.mnditerator;
+
+import juicebox.data.ChromosomeHandler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Parses merged nodups lines in place from a byte buffer into a reused AlignmentPair.
+ * Fields are located without creating a String per token, numbers are parsed directly from the
+ * bytes, and chromosome names are resolved through a hash table keyed on the raw name bytes, so
+ * a String is only created the first time a chromosome name is seen.
+ * <p>
+ * Supports the short, medium, long and super short formats; the long format sequences are not kept.
+ */
+class MNDByteLineParser {
+
+    private static final int MAX_TOKENS = 64;
+    private final int[] tokenStarts = new int[MAX_TOKENS];
+    private final int[] tokenEnds = new int[MAX_TOKENS];
+    private final ChromosomeNameTable chromosomes;
+    private MNDFileParser.Format format = null;
+    private int minNumTokens;
+
+    MNDByteLineParser(Map<String, Integer> chromosomeOrdinals, ChromosomeHandler handler) {
+        this.chromosomes = new ChromosomeNameTable(chromosomeOrdinals, handler);
+    }
+
+    /**
+     * Determines the file format from its first line
+     *
+     * @return false if the format is not supported at the byte level (DCIC files with a header)
+     */
+    boolean initializeFormat(ByteBuffer buffer, int start, int end) throws IOException {
+        if (end > start && buffer.get(start) == '#') {
+            return false;
+        }
+        int numTokens = tokenize(buffer, start, end);
+        format = MNDFileParser.getFileFormat(numTokens, decode(buffer, start, end));
+        switch (format) {
+            case SUPER_SHORT:
+                minNumTokens = 4;
+                break;
+            case SUPER_SHORT_WITH_SCORE:
+                minNumTokens = 5;
+                break;
+            case SHORT:
+                minNumTokens = 8;
+                break;
+            case SHORT_WITH_SCORE:
+                minNumTokens = 9;
+                break;
+            case MEDIUM:
+                minNumTokens = 11;
+                break;
+            default:
+                minNumTokens = 12;
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Parses the line in buffer[start, end) into the given pair
+     */
+    void parse(ByteBuffer buffer, int start, int end, AlignmentPair pair) throws IOException {
+        int numTokens = tokenize(buffer, start, end);
+        if (numTokens < minNumTokens) {
+            throw new IOException("Unexpected number of columns: " + numTokens + "\n" +
+                    "Check line containing:\n" + decode(buffer, start, end));
+        }
+        switch (format) {
+            case SUPER_SHORT:
+            case SUPER_SHORT_WITH_SCORE:
+                if (setBasicPair(buffer, pair, 0, 2, 1, 3) && format == MNDFileParser.Format.SUPER_SHORT_WITH_SCORE) {
+                    pair.setScore(parseFloat(buffer, 4));
+                }
+                break;
+            case SHORT:
+            case SHORT_WITH_SCORE:
+                if (setBasicPair(buffer, pair, 1, 5, 2, 6)) {
+                    if (format == MNDFileParser.Format.SHORT_WITH_SCORE) {
+                        pair.setScore(parseFloat(buffer, 8));
+                    }
+                    pair.updateFragments(parseInt(buffer, 3), parseInt(buffer, 7));
+                    pair.updateStrands(parseInt(buffer, 0) == 0, parseInt(buffer, 4) == 0);
+                }
+                break;
+            case MEDIUM:
+                setMediumPair(buffer, pair, 2, 6, 3, 7, 4, 8, 9, 10, 1, 5);
+                break;
+            default:
+                setMediumPair(buffer, pair, 1, 5, 2, 6, 3, 7, 8, 11, 0, 4);
+                break;
+        }
+    }
+
+    private void setMediumPair(ByteBuffer buffer, AlignmentPair pair, int chrom1Index, int chrom2Index,
+                               int pos1Index, int pos2Index, int frag1Index, int frag2Index,
+                               int mapq1Index, int mapq2Index, int strand1Index, int strand2Index) {
+        if (setBasicPair(buffer, pair, chrom1Index, chrom2Index, pos1Index, pos2Index)) {
+            pair.updateFragments(parseInt(buffer, frag1Index), parseInt(buffer, frag2Index));
+            pair.updateMAPQs(parseInt(buffer, mapq1Index), parseInt(buffer, mapq2Index));
+            pair.updateStrands(parseInt(buffer, strand1Index) == 0, parseInt(buffer, strand2Index) == 0);
+        }
+    }
+
+    /**
+     * @return false if the pair maps to an unknown chromosome and was marked as a contig pair
+     */
+    private boolean setBasicPair(ByteBuffer buffer, AlignmentPair pair, int chrom1Index, int chrom2Index,
+                                 int pos1Index, int pos2Index) {
+        int chr1 = chromosomes.getOrdinal(buffer, tokenStarts[chrom1Index], tokenEnds[chrom1Index]);
+        int chr2 = chromosomes.getOrdinal(buffer, tokenStarts[chrom2Index], tokenEnds[chrom2Index]);
+        if (chr1 < 0 || chr2 < 0) {
+            pair.resetToContigPair();
+            return false;
+        }
+        pair.reset(chr1, parseInt(buffer, pos1Index), chr2, parseInt(buffer, pos2Index));
+        return true;
+    }
+
+    private int tokenize(ByteBuffer buffer, int start, int end) {
+        int numTokens = 0;
+        int i = start;
+        while (i < end && numTokens < MAX_TOKENS) {
+            while (i < end && isWhitespace(buffer.get(i))) i++;
+            if (i == end) break;
+            tokenStarts[numTokens] = i;
+            while (i < end && !isWhitespace(buffer.get(i))) i++;
+            tokenEnds[numTokens] = i;
+            numTokens++;
+        }
+        return numTokens;
+    }
+
+    /**
+     * Same result as Integer.parseInt on the token
+     */
+    private int parseInt(ByteBuffer buffer, int token) {
+        int start = tokenStarts[token];
+        int end = tokenEnds[token];
+        boolean negative = false;
+        int i = start;
+        byte first = buffer.get(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            i++;
+        }
+        if (i == end) {
+            throw new NumberFormatException("For input string: \"" + decode(buffer, start, end) + "\"");
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \"" + decode(buffer, start, end) + "\"");
+            }
+            value = value * 10 + digit;
+            if (value > 2147483648L) {
+                throw new NumberFormatException("For input string: \"" + decode(buffer, start, end) + "\"");
+            }
+        }
+        if (negative) value = -value;
+        if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+            throw new NumberFormatException("For input string: \"" + decode(buffer, start, end) + "\"");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Integer scores are parsed in place; anything else goes through Float.parseFloat
+     */
+    private float parseFloat(ByteBuffer buffer, int token) {
+        int start = tokenStarts[token];
+        int end = tokenEnds[token];
+        boolean isInteger = end - start <= 9;
+        for (int i = start; i < end && isInteger; i++) {
+            byte b = buffer.get(i);
+            isInteger = (b >= '0' && b <= '9') || (i == start && b == '-' && end - start > 1);
+        }
+        if (isInteger) {
+            return (float) parseInt(buffer, token);
+        }
+        return Float.parseFloat(decode(buffer, start, end));
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '\f' || b == 0x0B;
+    }
+
+    static String decode(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = buffer.get(i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Open addressing hash table from raw chromosome name bytes to the chromosome ordinal,
+     * or -1 for names that are not in the chromosome list
+     */
+    private static class ChromosomeNameTable {
+        private final Map<String, Integer> chromosomeOrdinals;
+        private final ChromosomeHandler handler;
+        private byte[][] keys = new byte[64][];
+        private int[] hashes = new int[64];
+        private int[] values = new int[64];
+        private int size = 0;
+
+        ChromosomeNameTable(Map<String, Integer> chromosomeOrdinals, ChromosomeHandler handler) {
+            this.chromosomeOrdinals = chromosomeOrdinals;
+            this.handler = handler;
+        }
+
+        int getOrdinal(ByteBuffer buffer, int start, int end) {
+            int hash = 1;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + buffer.get(i);
+            }
+            int mask = keys.length - 1;
+            int slot = mix(hash) & mask;
+            while (keys[slot] != null) {
+                if (hashes[slot] == hash && matches(keys[slot], buffer, start, end)) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return insert(buffer, start, end, hash);
+        }
+
+        private int insert(ByteBuffer buffer, int start, int end, int hash) {
+            String name = handler.cleanUpName(decode(buffer, start, end));
+            Integer ordinal = chromosomeOrdinals.get(name);
+            int value = ordinal == null ? -1 : ordinal;
+            byte[] key = new byte[end - start];
+            for (int i = start; i < end; i++) {
+                key[i - start] = buffer.get(i);
+            }
+            if (2 * (size + 1) > keys.length) {
+                rehash();
+            }
+            put(key, hash, value);
+            return value;
+        }
+
+        private void put(byte[] key, int hash, int value) {
+            int mask = keys.length - 1;
+            int slot = mix(hash) & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            hashes[slot] = hash;
+            values[slot] = value;
+            size++;
+        }
+
+        private void rehash() {
+            byte[][] oldKeys = keys;
+            int[] oldHashes = hashes;
+            int[] oldValues = values;
+            keys = new byte[2 * oldKeys.length][];
+            hashes = new int[keys.length];
+            values = new int[keys.length];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    put(oldKeys[i], oldHashes[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static boolean matches(byte[] key, ByteBuffer buffer, int start, int end) {
+            if (key.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != buffer.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int mix(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -59,6 +59,20 @@ public class MNDFileParser {
         }
     }
 
+    /**
+     * @return token indices of the two chromosome columns for a line of the given format;
+     * DCIC files are not supported since their column layout depends on the header
+     */
+    public static int[] getChromosomeTokenIndices(int nTokens, String nextLine) throws IOException {
+        Format format = getFileFormat(nTokens, nextLine);
+        if (format == Format.SUPER_SHORT || format == Format.SUPER_SHORT_WITH_SCORE) {
+            return new int[]{0, 2};
+        } else if (format == Format.MEDIUM) {
+            return new int[]{2, 6};
+        }
+        return new int[]{1, 5};
+    }
+
     /**
      * formats detailed: https://github.com/aidenlab/juicer/wiki/Pre#file-format
      */
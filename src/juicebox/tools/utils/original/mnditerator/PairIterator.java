@@ -25,7 +25,9 @@
 
 package juicebox.tools.utils.original.mnditerator;
 
+import juicebox.HiCGlobals;
 import juicebox.data.ChromosomeHandler;
+import juicebox.tools.utils.original.Chunk;
 
 import java.io.IOException;
 import java.util.Iterator;
@@ -50,8 +52,19 @@ public interface PairIterator extends Iterator<AlignmentPair> {
             return new BinPairIterator(file);
         } else if (file.endsWith(".bn")) {
             return new ShortBinPairIterator(file);
+        } else if (HiCGlobals.USE_BYTE_LEVEL_MND_PARSER) {
+            return new ByteBufferPairIterator(file, chromosomeIndexes, chromosomeHandler);
         } else {
             return new AsciiPairIterator(file, chromosomeIndexes, chromosomeHandler, false);
         }
     }
+
+    static PairIterator getChunkIterator(String file, Map<String, Integer> chromosomeIndexes, Chunk chunk,
+                                         ChromosomeHandler chromosomeHandler) throws IOException {
+        if (HiCGlobals.USE_BYTE_LEVEL_MND_PARSER) {
+            return new ByteBufferPairIterator(file, chromosomeIndexes, chunk, chromosomeHandler);
+        } else {
+            return new AsciiPairIterator(file, chromosomeIndexes, chunk, chromosomeHandler);
+        }
+    }
 }
@@ -0,0 +1,134 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2011-2022 Broad Institute, Aiden Lab, Rice University, Baylor College of Medicine
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package juicebox.tools.utils.original.mnditerator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads the wrapped stream on a background thread into a small queue of buffers, so that
+ * expensive decoding (e.g. gzip inflation) overlaps with parsing of the data already read.
+ */
+class PipelinedInputStream extends InputStream {
+
+    private static final byte[] END_OF_STREAM = new byte[0];
+    private final BlockingQueue<byte[]> queue;
+    private final Thread readerThread;
+    private volatile IOException readError = null;
+    private volatile boolean closed = false;
+    private byte[] current = null;
+    private int currentOffset = 0;
+
+    PipelinedInputStream(final InputStream source, final int bufferSize, int numBuffers) {
+        queue = new ArrayBlockingQueue<>(numBuffers);
+        readerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!closed) {
+                        byte[] buffer = new byte[bufferSize];
+                        int filled = 0;
+                        int n;
+                        while (filled < bufferSize && (n = source.read(buffer, filled, bufferSize - filled)) > 0) {
+                            filled += n;
+                        }
+                        if (filled == 0) {
+                            break;
+                        }
+                        queue.put(filled == bufferSize ? buffer : Arrays.copyOf(buffer, filled));
+                    }
+                } catch (IOException e) {
+                    readError = e;
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    try {
+                        source.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                try {
+                    queue.put(END_OF_STREAM);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }, "mnd-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    private boolean fillCurrent() throws IOException {
+        if (current == END_OF_STREAM) {
+            return false;
+        }
+        if (current == null || currentOffset == current.length) {
+            try {
+                current = queue.take();
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while reading", e);
+            }
+            currentOffset = 0;
+            if (current == END_OF_STREAM) {
+                if (readError != null) {
+                    throw readError;
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillCurrent()) {
+            return -1;
+        }
+        return current[currentOffset++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fillCurrent()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - currentOffset);
+        System.arraycopy(current, currentOffset, b, off, n);
+        currentOffset += n;
+        return n;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        readerThread.interrupt();
+        queue.clear();
+    }
+}